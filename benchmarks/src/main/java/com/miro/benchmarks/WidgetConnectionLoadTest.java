@@ -0,0 +1,125 @@
+package com.miro.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection concurrency of a running widgets server. Every connection holds a request blocked on the server:
+ * a replication long poll waiting waitMs for a change that doesn't come. Meanwhile a probe client reads a page of widgets
+ * and measures the latency. The server keeps up while every connection gets a handler thread: the long polls complete
+ * at connections / waitMs and the probe stays fast. When the connections outnumber the handler threads the long polls
+ * queue and the probe waits behind them.
+ * Start the server as the replication primary, once with the Tomcat thread pool and once with virtual threads:
+ * <pre>
+ * java -jar widgetrestapi.jar --widgets.replication.role=primary
+ * java -jar widgetrestapi.jar --widgets.replication.role=primary --widgets.execution.virtual-threads=true
+ * </pre>
+ * then run java -cp target/benchmarks.jar com.miro.benchmarks.WidgetConnectionLoadTest [url] [connections...]
+ */
+public final class WidgetConnectionLoadTest {
+
+    private static final String DEFAULT_URL = "http://localhost:8080";
+    private static final int[] DEFAULT_CONNECTIONS = {100, 200, 400, 1000, 2000};
+    private static final long WAIT_MS = 1000;
+    private static final long DURATION_MS = 10000;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    public static void main(String[] args) throws Exception {
+        var url = args.length > 0 ? args[0] : DEFAULT_URL;
+        var connections = DEFAULT_CONNECTIONS;
+        if(args.length > 1){
+            connections = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                connections[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        var client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(REQUEST_TIMEOUT)
+                .build();
+        var probe = HttpRequest.newBuilder(URI.create(url + "/api/v1/widgets/limit?limit=10")).timeout(REQUEST_TIMEOUT).build();
+        var version = client.send(probe, HttpResponse.BodyHandlers.discarding()).headers()
+                .firstValue("X-Widgets-Version").orElse("0");
+        var longPoll = HttpRequest.newBuilder(URI.create(url + "/api/v1/replication/mutations?after=" + version + "&waitMs=" + WAIT_MS))
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+
+        System.out.println("connections  long polls/s  expected/s  errors  probe p50 ms  probe p99 ms");
+        for (var count : connections) {
+            run(client, longPoll, probe, count);
+        }
+    }
+
+    private static void run(HttpClient client, HttpRequest longPoll, HttpRequest probe, int connections) throws Exception {
+        var running = new AtomicBoolean(true);
+        var completed = new AtomicLong();
+        var errors = new AtomicLong();
+        var holders = new ArrayList<CompletableFuture<Void>>(connections);
+        for (int i = 0; i < connections; i++) {
+            holders.add(hold(client, longPoll, running, completed, errors));
+        }
+
+        // The first round of the long polls is warm-up
+        Thread.sleep(WAIT_MS * 2);
+        var startCompleted = completed.get();
+        var start = System.nanoTime();
+        var latencies = new ArrayList<Long>();
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(DURATION_MS)) {
+            var requestStart = System.nanoTime();
+            try {
+                client.send(probe, HttpResponse.BodyHandlers.discarding());
+                latencies.add(System.nanoTime() - requestStart);
+            }
+            catch (IOException e){
+                errors.incrementAndGet();
+            }
+        }
+        var elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        var longPolls = (completed.get() - startCompleted) / elapsedSeconds;
+
+        running.set(false);
+        CompletableFuture.allOf(holders.toArray(new CompletableFuture[0])).get(REQUEST_TIMEOUT.toMillis() * 2, TimeUnit.MILLISECONDS);
+
+        Collections.sort(latencies);
+        System.out.println(String.format("%11d  %12.0f  %10.0f  %6d  %12.1f  %12.1f",
+                connections,
+                longPolls,
+                connections * 1000d / WAIT_MS,
+                errors.get(),
+                percentileMs(latencies, 0.5),
+                percentileMs(latencies, 0.99)));
+    }
+
+    /**
+     * Send the long polls one after another on one connection until stopped
+     */
+    private static CompletableFuture<Void> hold(HttpClient client, HttpRequest longPoll, AtomicBoolean running, AtomicLong completed, AtomicLong errors) {
+        return client.sendAsync(longPoll, HttpResponse.BodyHandlers.discarding())
+                .handle((response, e) -> {
+                    if(e != null || response.statusCode() != 200)
+                        errors.incrementAndGet();
+                    else
+                        completed.incrementAndGet();
+                    return running.get();
+                })
+                .thenCompose(next -> next ? hold(client, longPoll, running, completed, errors) : CompletableFuture.completedFuture(null));
+    }
+
+    private static double percentileMs(ArrayList<Long> sortedLatencies, double percentile) {
+        if(sortedLatencies.isEmpty())
+            return Double.NaN;
+        var index = Math.min(sortedLatencies.size() - 1, (int) (sortedLatencies.size() * percentile));
+        return sortedLatencies.get(index) / 1e6;
+    }
+}
@@ -0,0 +1,53 @@
+package com.miro.benchmarks;
+
+import com.miro.core.dto.WidgetDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates grow the store, so every iteration gets a fresh store and measures a fixed batch of creates.
+ * The reported time is per batch of {@link #BATCH_SIZE} creates.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = WidgetCreateBenchmark.BATCH_SIZE)
+@Measurement(iterations = 20, batchSize = WidgetCreateBenchmark.BATCH_SIZE)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class WidgetCreateBenchmark {
+
+    static final int BATCH_SIZE = 100;
+
+    @Param({"1000", "100000", "1000000"})
+    private int widgetCount;
+
+    private WidgetStoreFixture fixture;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        fixture = new WidgetStoreFixture(widgetCount, 42);
+    }
+
+    @Benchmark
+    public WidgetDto createWidgetOnTop() {
+        var random = ThreadLocalRandom.current();
+        return fixture.getService().createWidget(random.nextDouble() * fixture.getBoardSize(),
+                random.nextDouble() * fixture.getBoardSize(),
+                10,
+                10,
+                null);
+    }
+
+    @Benchmark
+    public WidgetDto createWidgetWithZIndexCollision() {
+        // zIndexes stay dense, so any zIndex below the count hits an existing widget and shifts the tail
+        var random = ThreadLocalRandom.current();
+        return fixture.getService().createWidget(random.nextDouble() * fixture.getBoardSize(),
+                random.nextDouble() * fixture.getBoardSize(),
+                10,
+                10,
+                random.nextInt(widgetCount));
+    }
+}
@@ -0,0 +1,85 @@
+package com.miro.benchmarks;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readers and a writer running against one store at the same time, reported per thread role.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Group)
+public class WidgetMixedBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000", "100000", "1000000"})
+    private int widgetCount;
+
+    private WidgetStoreFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new WidgetStoreFixture(widgetCount, 42);
+    }
+
+    @Benchmark
+    @Group("pointReads")
+    @GroupThreads(3)
+    public WidgetDto pointReadsGetWidget() throws WidgetNotFoundException {
+        var guids = fixture.getGuids();
+        return fixture.getService().getWidget(guids[ThreadLocalRandom.current().nextInt(guids.length)]);
+    }
+
+    @Benchmark
+    @Group("pointReads")
+    @GroupThreads(1)
+    public void pointReadsMoveWidget() throws WidgetNotFoundException {
+        moveWidget();
+    }
+
+    @Benchmark
+    @Group("rangeReads")
+    @GroupThreads(2)
+    public WidgetDto[] rangeReadsGetWidgets() {
+        var offset = ThreadLocalRandom.current().nextInt(Math.max(1, widgetCount - PAGE_SIZE));
+        return fixture.getService().getWidgets(PAGE_SIZE, offset);
+    }
+
+    @Benchmark
+    @Group("rangeReads")
+    @GroupThreads(1)
+    public WidgetDto[] rangeReadsFilterAndGetWidgets() {
+        var random = ThreadLocalRandom.current();
+        var areaRange = fixture.getBoardSize() - WidgetStoreFixture.FILTER_AREA_SIZE;
+        return fixture.getService().filterAndGetWidgets(random.nextDouble() * areaRange,
+                random.nextDouble() * areaRange,
+                WidgetStoreFixture.FILTER_AREA_SIZE,
+                WidgetStoreFixture.FILTER_AREA_SIZE);
+    }
+
+    @Benchmark
+    @Group("rangeReads")
+    @GroupThreads(1)
+    public void rangeReadsMoveWidget() throws WidgetNotFoundException {
+        moveWidget();
+    }
+
+    private void moveWidget() throws WidgetNotFoundException {
+        var random = ThreadLocalRandom.current();
+        var widgetLayoutInfo = new WidgetLayoutInfo();
+        widgetLayoutInfo.setX(random.nextDouble() * fixture.getBoardSize());
+        widgetLayoutInfo.setY(random.nextDouble() * fixture.getBoardSize());
+
+        var guids = fixture.getGuids();
+        fixture.getService().updateWidget(guids[random.nextInt(guids.length)], widgetLayoutInfo);
+    }
+}
@@ -0,0 +1,68 @@
+package com.miro.benchmarks;
+
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded reads. With snapshot=true the current version snapshot is built before the measurement,
+ * otherwise pages and filtration go through the live indexes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class WidgetReadBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000", "100000", "1000000"})
+    private int widgetCount;
+
+    @Param({"false", "true"})
+    private boolean snapshot;
+
+    private WidgetStoreFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new WidgetStoreFixture(widgetCount, 42);
+        if(snapshot)
+            fixture.getService().getAllWidgets();
+    }
+
+    @Benchmark
+    public WidgetDto getWidget() throws WidgetNotFoundException {
+        var guids = fixture.getGuids();
+        return fixture.getService().getWidget(guids[ThreadLocalRandom.current().nextInt(guids.length)]);
+    }
+
+    @Benchmark
+    public WidgetDto[] getWidgetsAtDeepOffset() {
+        // One of the last ten pages
+        var offset = Math.max(0, widgetCount - PAGE_SIZE * (1 + ThreadLocalRandom.current().nextInt(10)));
+        return fixture.getService().getWidgets(PAGE_SIZE, offset);
+    }
+
+    @Benchmark
+    public WidgetDto[] getWidgetsAfterDeepCursor() {
+        var afterZIndex = Math.max(0, widgetCount - PAGE_SIZE * (1 + ThreadLocalRandom.current().nextInt(10)));
+        return fixture.getService().getWidgetsAfter(PAGE_SIZE, afterZIndex);
+    }
+
+    @Benchmark
+    public WidgetDto[] filterAndGetWidgets() {
+        var random = ThreadLocalRandom.current();
+        var areaRange = fixture.getBoardSize() - WidgetStoreFixture.FILTER_AREA_SIZE;
+        // (x, y, width, height) order of the service parameters
+        return fixture.getService().filterAndGetWidgets(random.nextDouble() * areaRange,
+                random.nextDouble() * areaRange,
+                WidgetStoreFixture.FILTER_AREA_SIZE,
+                WidgetStoreFixture.FILTER_AREA_SIZE);
+    }
+}
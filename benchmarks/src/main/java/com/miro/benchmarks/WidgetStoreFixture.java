@@ -0,0 +1,44 @@
+package com.miro.benchmarks;
+
+import com.miro.services.widgetManager.WidgetServiceImpl;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Fills a store with widgets of dense zIndexes 0..count-1 spread over a square board.
+ * The board side grows with the count, so the number of widgets in a filtration area doesn't depend on the store size.
+ */
+final class WidgetStoreFixture {
+
+    static final double WIDGET_MAX_SIZE = 100;
+    static final double FILTER_AREA_SIZE = 1000;
+
+    private final WidgetServiceImpl service = new WidgetServiceImpl();
+    WidgetServiceImpl getService() {
+        return service;
+    }
+
+    private final UUID[] guids;
+    UUID[] getGuids() {
+        return guids;
+    }
+
+    private final double boardSize;
+    double getBoardSize() {
+        return boardSize;
+    }
+
+    WidgetStoreFixture(int count, long seed) {
+        var random = new Random(seed);
+        boardSize = Math.max(FILTER_AREA_SIZE, Math.sqrt(count) * WIDGET_MAX_SIZE * 2);
+        guids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            guids[i] = service.createWidget(random.nextDouble() * boardSize,
+                    random.nextDouble() * boardSize,
+                    1 + random.nextDouble() * (WIDGET_MAX_SIZE - 1),
+                    1 + random.nextDouble() * (WIDGET_MAX_SIZE - 1),
+                    i).getGuid();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.miro.benchmarks;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates keep the store size, so one store serves the whole trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class WidgetUpdateBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int widgetCount;
+
+    private WidgetStoreFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new WidgetStoreFixture(widgetCount, 42);
+    }
+
+    @Benchmark
+    public void moveWidget() throws WidgetNotFoundException {
+        var random = ThreadLocalRandom.current();
+        var widgetLayoutInfo = new WidgetLayoutInfo();
+        widgetLayoutInfo.setX(random.nextDouble() * fixture.getBoardSize());
+        widgetLayoutInfo.setY(random.nextDouble() * fixture.getBoardSize());
+
+        var guids = fixture.getGuids();
+        fixture.getService().updateWidget(guids[random.nextInt(guids.length)], widgetLayoutInfo);
+    }
+
+    @Benchmark
+    public void changeWidgetZIndex() throws WidgetNotFoundException {
+        var random = ThreadLocalRandom.current();
+        var widgetLayoutInfo = new WidgetLayoutInfo();
+        widgetLayoutInfo.setzIndex(random.nextInt(widgetCount));
+
+        var guids = fixture.getGuids();
+        fixture.getService().updateWidget(guids[random.nextInt(guids.length)], widgetLayoutInfo);
+    }
+}
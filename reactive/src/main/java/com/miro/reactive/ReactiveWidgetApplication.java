@@ -0,0 +1,26 @@
+package com.miro.reactive;
+
+import com.miro.services.widgetManager.WidgetService;
+import com.miro.services.widgetManager.WidgetServiceImpl;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Widget API on the Netty event loop. Only this package is scanned, the servlet application of the widgets jar isn't started.
+ * The settings are read from reactive.properties, the application.properties of the widgets jar belong to the servlet application
+ */
+@SpringBootApplication
+public class ReactiveWidgetApplication {
+
+    @Bean
+    public WidgetService widgetService() {
+        return new WidgetServiceImpl();
+    }
+
+    public static void main(String[] args) {
+        new SpringApplicationBuilder(ReactiveWidgetApplication.class)
+                .properties("spring.config.name=reactive")
+                .run(args);
+    }
+}
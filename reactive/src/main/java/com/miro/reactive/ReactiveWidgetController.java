@@ -0,0 +1,142 @@
+package com.miro.reactive;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetOperationDto;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import com.miro.core.mapping.WidgetOperationMapper;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.apache.commons.lang3.Validate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * The routes of the default board widgets on the event loop. The widget lists are read lazily as the response is written:
+ * "Accept: application/stream+json" writes them one by one, JSON writes them as an array, an empty list is an empty
+ * array rather than 204
+ */
+@RestController
+@RequestMapping("api/v1/widgets")
+@Api("WidgetDto management")
+public class ReactiveWidgetController {
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 500;
+
+    private final ReactiveWidgetStore widgetStore;
+
+    public ReactiveWidgetController(ReactiveWidgetStore widgetStore) {
+        Validate.notNull(widgetStore, "widgetStore can't be null");
+        this.widgetStore = widgetStore;
+    }
+
+    @PostMapping(value = "/add", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Create widget with specific parameters")
+    public Mono<ResponseEntity<WidgetDto>> CreateWidget(@RequestParam(value = "x") double x,
+                                                        @RequestParam(value = "y") double y,
+                                                        @RequestParam(value = "width") double width,
+                                                        @RequestParam(value = "height") double height,
+                                                        @RequestParam(value = "zIndex", required = false) Integer zIndex,
+                                                        UriComponentsBuilder componentsBuilder) {
+        return widgetStore.createWidget(x, y, width, height, zIndex)
+                .map(widget -> ResponseEntity.created(componentsBuilder.path("api/v1/widgets/{guid}").buildAndExpand(widget.getGuid()).toUri())
+                        .body(widget));
+    }
+
+    @GetMapping(value = "/{guid}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Get widget using GUID key")
+    public Mono<WidgetDto> GetWidget(@PathVariable("guid") UUID guid) {
+        return widgetStore.getWidget(guid);
+    }
+
+    @PutMapping(value = "/{guid}")
+    @ApiOperation(value = "Update widget layout parameters using GUID key")
+    public Mono<ResponseEntity<Void>> UpdateWidget(@PathVariable("guid") UUID guid,
+                                                   @RequestParam(value = "x", required = false) Double x,
+                                                   @RequestParam(value = "y", required = false) Double y,
+                                                   @RequestParam(value = "width", required = false) Double width,
+                                                   @RequestParam(value = "height", required = false) Double height,
+                                                   @RequestParam(value = "zIndex", required = false) Integer zIndex,
+                                                   UriComponentsBuilder componentsBuilder) {
+        var widgetLayoutInfo = new WidgetLayoutInfo();
+        if(x != null)
+            widgetLayoutInfo.setX(x);
+        if(y != null)
+            widgetLayoutInfo.setY(y);
+        if(width != null)
+            widgetLayoutInfo.setWidth(width);
+        if(height != null)
+            widgetLayoutInfo.setHeight(height);
+        if(zIndex != null)
+            widgetLayoutInfo.setzIndex(zIndex);
+
+        var location = componentsBuilder.path("api/v1/widgets/{guid}").buildAndExpand(guid).toUri();
+        return widgetStore.updateWidget(guid, widgetLayoutInfo)
+                .then(Mono.just(ResponseEntity.ok().location(location).<Void>build()));
+    }
+
+    @GetMapping(value = "/", produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE })
+    @ApiOperation(value = "Get all widget guid's sorted by zIndex")
+    public Flux<UUID> GetWidgets() {
+        return widgetStore.getAllWidgets().map(WidgetDto::getGuid);
+    }
+
+    @GetMapping(value = "/limit", produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE })
+    @ApiOperation(value = "Get widgets using pagination(limit and offset or limit and zIndex cursor)")
+    public Flux<WidgetDto> Pagination(@RequestParam(value = "limit", required = false) Integer limit,
+                                      @RequestParam(value = "offset", required = false) Integer offset,
+                                      @RequestParam(value = "after", required = false) Integer after) {
+        var pageLimit = limit != null ? limit : DEFAULT_LIMIT;
+        Validate.isTrue(pageLimit >= 0, "The 'limit' can't be negative");
+        Validate.isTrue(pageLimit <= MAX_LIMIT, "The 'limit' parameter more than %d", MAX_LIMIT);
+        Validate.isTrue(offset == null || offset >= 0, "The 'offset' can't be negative");
+        Validate.isTrue(after == null || offset == null, "The 'after' and 'offset' parameters can't be used together");
+        Validate.isTrue(after == null || after >= 0, "The 'after' can't be negative");
+
+        return after != null
+                ? widgetStore.getWidgetsAfter(pageLimit, after)
+                : widgetStore.getWidgets(pageLimit, offset != null ? offset : 0);
+    }
+
+    @GetMapping(value = "/filter", produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE })
+    @ApiOperation(value = "Get widgets filtered by intersect specific area")
+    public Flux<WidgetDto> Filtration(@RequestParam(value = "x1") double x1,
+                                      @RequestParam(value = "x2") double x2,
+                                      @RequestParam(value = "y1") double y1,
+                                      @RequestParam(value = "y2") double y2) {
+        // Same parameters order as the servlet controller passes to the store
+        return widgetStore.filterAndGetWidgets(x1, y1, x2, y2);
+    }
+
+    @DeleteMapping(value = "/{guid}")
+    @ApiOperation(value = "Delete widget using GUID key")
+    public Mono<ResponseEntity<Void>> DeleteWidget(@PathVariable("guid") UUID guid) {
+        return widgetStore.removeWidget(guid)
+                .onErrorResume(WidgetNotFoundException.class, e -> Mono.empty()) //DELETE is idempotent
+                .then(Mono.just(ResponseEntity.ok().<Void>build()));
+    }
+
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation(value = "Create, update and delete widgets in one atomic batch. Result holds widget per operation, null for deleted widgets")
+    public Mono<WidgetDto[]> Batch(@RequestBody WidgetOperationDto[] operationsDto) {
+        return Mono.fromCallable(() -> WidgetOperationMapper.map(operationsDto))
+                .flatMap(widgetStore::applyWidgetOperations);
+    }
+
+    @ExceptionHandler(WidgetNotFoundException.class)
+    public ResponseEntity<String> handleNotFound(WidgetNotFoundException e) {
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleBadRequest(IllegalArgumentException e) {
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+}
@@ -0,0 +1,119 @@
+package com.miro.reactive;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
+import com.miro.core.dto.WidgetDto;
+import com.miro.services.widgetManager.WidgetService;
+import org.apache.commons.lang3.Validate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Widget store for the event loop. The store calls block: a read falls back to the read lock when a write races it,
+ * and the first full read after a write builds the snapshot of all widgets, so the event loop never calls the store.
+ * Reads run on a bounded pool of reader threads, sized as Reactor's bounded elastic scheduler, and queue up when all of
+ * them are busy. Writes are queued to a single writer thread, so the writers don't contend for the write lock.
+ * Results are cold: the store is read or changed when the result is subscribed
+ */
+@Service
+public class ReactiveWidgetStore {
+    private final WidgetService widgetService;
+    private static final int READER_THREADS = 10 * Runtime.getRuntime().availableProcessors();
+
+    private final Scheduler writer = Schedulers.newSingle("widget-writer");
+    private final Scheduler readers;
+
+    public ReactiveWidgetStore(WidgetService widgetService) {
+        Validate.notNull(widgetService, "widgetService can't be null");
+        this.widgetService = widgetService;
+
+        var readerNumber = new AtomicInteger();
+        this.readers = Schedulers.fromExecutorService(Executors.newFixedThreadPool(READER_THREADS, runnable -> {
+            var thread = new Thread(runnable, "widget-reader-" + readerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public Mono<WidgetDto> createWidget(double x, double y, double width, double height, Integer zIndex) {
+        return Mono.fromCallable(() -> widgetService.createWidget(x, y, width, height, zIndex)).subscribeOn(writer);
+    }
+
+    /**
+     * @return the widget or WidgetNotFoundException error
+     */
+    public Mono<WidgetDto> getWidget(UUID widgetGuid) {
+        return Mono.fromCallable(() -> widgetService.getWidget(widgetGuid)).subscribeOn(readers);
+    }
+
+    /**
+     * @return empty result or WidgetNotFoundException error
+     */
+    public Mono<Void> updateWidget(UUID widgetGuid, WidgetLayoutInfo widgetLayoutInfo) {
+        return Mono.<Void>fromCallable(() -> {
+            widgetService.updateWidget(widgetGuid, widgetLayoutInfo);
+            return null;
+        }).subscribeOn(writer);
+    }
+
+    /**
+     * @return empty result or WidgetNotFoundException error
+     */
+    public Mono<Void> removeWidget(UUID widgetGuid) {
+        return Mono.<Void>fromCallable(() -> {
+            widgetService.removeWidget(widgetGuid);
+            return null;
+        }).subscribeOn(writer);
+    }
+
+    /**
+     * @return widget per operation, null for the deleted widgets
+     */
+    public Mono<WidgetDto[]> applyWidgetOperations(List<WidgetOperation> operations) {
+        return Mono.fromCallable(() -> widgetService.applyWidgetOperations(operations)).subscribeOn(writer);
+    }
+
+    /**
+     * All widgets sorted by zIndex. The widgets are read a page at a time as the subscriber requests them,
+     * the pages are read at different versions as in {@link WidgetService#forEachWidget}
+     */
+    public Flux<WidgetDto> getAllWidgets() {
+        return readPageAfter(Integer.MIN_VALUE)
+                .expand(page -> page.length < WidgetService.WIDGETS_PAGE_SIZE
+                        ? Mono.empty()
+                        : readPageAfter(page[page.length - 1].getzIndex()))
+                .flatMapIterable(Arrays::asList);
+    }
+
+    public Flux<WidgetDto> getWidgets(int limit, int offset) {
+        return Flux.defer(() -> Flux.fromArray(widgetService.getWidgets(limit, offset))).subscribeOn(readers);
+    }
+
+    public Flux<WidgetDto> getWidgetsAfter(int limit, int afterZIndex) {
+        return Flux.defer(() -> Flux.fromArray(widgetService.getWidgetsAfter(limit, afterZIndex))).subscribeOn(readers);
+    }
+
+    public Flux<WidgetDto> filterAndGetWidgets(double x1, double x2, double y1, double y2) {
+        return Flux.defer(() -> Flux.fromArray(widgetService.filterAndGetWidgets(x1, x2, y1, y2))).subscribeOn(readers);
+    }
+
+    private Mono<WidgetDto[]> readPageAfter(int afterZIndex) {
+        return Mono.fromCallable(() -> widgetService.getWidgetsAfter(WidgetService.WIDGETS_PAGE_SIZE, afterZIndex)).subscribeOn(readers);
+    }
+
+    @PreDestroy
+    public void close() {
+        writer.dispose();
+        readers.dispose();
+    }
+}
@@ -0,0 +1,118 @@
+package com.miro.reactive;
+
+import com.miro.core.dto.WidgetDto;
+import com.miro.services.widgetManager.WidgetServiceImpl;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.UUID;
+
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(ReactiveWidgetControllerTest.class)
+@Suite.SuiteClasses({ ReactiveWidgetControllerTest.Filtration.class,
+        ReactiveWidgetControllerTest.GetWidget.class})
+public class ReactiveWidgetControllerTest extends Suite
+{
+    public ReactiveWidgetControllerTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    private static WebTestClient createClient() {
+        var store = new ReactiveWidgetStore(new WidgetServiceImpl());
+        return WebTestClient.bindToController(new ReactiveWidgetController(store)).build();
+    }
+
+    @RunWith(Theories.class)
+    @Category(ReactiveWidgetControllerTest.class)
+    public static class Filtration{
+
+        @Test
+        public void should_stream_widgets_of_area_sorted_by_zIndex_when_widgets_are_created() {
+
+            //Arrange
+            var sut = createClient();
+            for (int i = 0; i < 5; i++) {
+                sut.post().uri("/api/v1/widgets/add?x={x}&y=0&width=10&height=10&zIndex={z}", i * 100, 5 - i)
+                        .exchange()
+                        .expectStatus().isCreated();
+            }
+
+            //Act
+            var widgets = sut.get().uri("/api/v1/widgets/filter?x1=0&x2=250&y1=0&y2=100")
+                    .accept(MediaType.APPLICATION_STREAM_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .returnResult(WidgetDto.class)
+                    .getResponseBody()
+                    .collectList()
+                    .block();
+
+            //Assert
+            assertTrue("Error", widgets.size() == 3);
+            assertTrue("Error", widgets.get(0).getzIndex() == 3 && widgets.get(1).getzIndex() == 4 && widgets.get(2).getzIndex() == 5);
+        }
+
+        @Test
+        public void should_return_400_code_when_limit_is_negative() {
+
+            //Arrange
+            var sut = createClient();
+
+            //Act
+            //Assert
+            sut.get().uri("/api/v1/widgets/limit?limit=-1")
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(ReactiveWidgetControllerTest.class)
+    public static class GetWidget{
+
+        @Test
+        public void should_return_404_code_when_widget_does_not_exist() {
+
+            //Arrange
+            var sut = createClient();
+
+            //Act
+            //Assert
+            sut.get().uri("/api/v1/widgets/{guid}", UUID.randomUUID())
+                    .exchange()
+                    .expectStatus().isNotFound();
+        }
+
+        @Test
+        public void should_return_created_widget_when_widget_is_created() {
+
+            //Arrange
+            var sut = createClient();
+            var created = sut.post().uri("/api/v1/widgets/add?x=1&y=2&width=3&height=4&zIndex=5")
+                    .exchange()
+                    .expectStatus().isCreated()
+                    .expectBody(WidgetDto.class)
+                    .returnResult()
+                    .getResponseBody();
+
+            //Act
+            var result = sut.get().uri("/api/v1/widgets/{guid}", created.getGuid())
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(WidgetDto.class)
+                    .returnResult()
+                    .getResponseBody();
+
+            //Assert
+            assertTrue("Error", result.getGuid().equals(created.getGuid()) && result.getzIndex() == 5 && result.getX() == 1d);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.miro.config;
+
+import com.miro.services.changeFeed.WidgetChange;
+import com.miro.services.replication.WidgetMutationLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ChangeFeedConfig {
+    /**
+     * The change feed pushes the changes of the heap store, a subscriber can resume within the last log-size changes
+     */
+    @Bean
+    @ConditionalOnProperty(name = "widgets.store", havingValue = "heap", matchIfMissing = true)
+    public WidgetMutationLog<WidgetChange> widgetChangeLog(@Value("${widgets.feed.log-size:10000}") int size) {
+        return new WidgetMutationLog<>(size);
+    }
+}
@@ -0,0 +1,31 @@
+package com.miro.config;
+
+import com.miro.services.widgetJournal.WidgetJournal;
+import com.miro.services.widgetJournal.WidgetSnapshotFile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+@Configuration
+@EnableScheduling
+public class JournalConfig {
+    /**
+     * Widgets are persisted only when the journal path is set
+     */
+    @Bean
+    @ConditionalOnProperty(name = "widgets.journal.path")
+    public WidgetJournal widgetJournal(@Value("${widgets.journal.path}") String path) throws IOException {
+        return new WidgetJournal(Paths.get(path));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "widgets.snapshot.path")
+    public WidgetSnapshotFile widgetSnapshotFile(@Value("${widgets.snapshot.path}") String path) {
+        return new WidgetSnapshotFile(Paths.get(path));
+    }
+}
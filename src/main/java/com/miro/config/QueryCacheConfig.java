@@ -0,0 +1,19 @@
+package com.miro.config;
+
+import com.miro.services.queryCache.WidgetQueryCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class QueryCacheConfig {
+    /**
+     * The filter and pagination results of the heap store are cached up to max-widgets widgets, 0 turns the cache off
+     */
+    @Bean
+    @ConditionalOnExpression("'${widgets.store:heap}' == 'heap' && ${widgets.query-cache.max-widgets:100000} > 0")
+    public WidgetQueryCache widgetQueryCache(@Value("${widgets.query-cache.max-widgets:100000}") long maxWidgets) {
+        return new WidgetQueryCache(maxWidgets);
+    }
+}
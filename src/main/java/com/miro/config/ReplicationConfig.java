@@ -0,0 +1,20 @@
+package com.miro.config;
+
+import com.miro.services.replication.WidgetMutationLog;
+import com.miro.services.widgetJournal.WidgetJournalRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ReplicationConfig {
+    /**
+     * The widget changes are kept for the replicas only on the primary
+     */
+    @Bean
+    @ConditionalOnProperty(name = "widgets.replication.role", havingValue = "primary")
+    public WidgetMutationLog<WidgetJournalRecord> widgetMutationLog(@Value("${widgets.replication.log-size:100000}") int size) {
+        return new WidgetMutationLog<>(size);
+    }
+}
@@ -0,0 +1,76 @@
+package com.miro.config;
+
+import com.miro.controllers.VirtualThreadHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcRegistrations;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import javax.annotation.PreDestroy;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the controller handlers and the streamed responses on a virtual thread per request. Tomcat threads only read
+ * the requests and write the results, so the requests blocked in the handlers are bounded by server.tomcat.max-connections
+ * rather than server.tomcat.max-threads. The Tomcat threads stay platform ones: Tomcat runs a request inside a socket
+ * monitor, which pins a virtual thread to its carrier.
+ * The virtual threads are looked up at runtime, the application is still built for Java 12.
+ * On a Java without them the handlers run on the Tomcat threads as usual.
+ */
+@Configuration
+@ConditionalOnProperty(name = "widgets.execution.virtual-threads", havingValue = "true")
+public class VirtualThreadsConfig implements WebMvcConfigurer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+    // Null when the running Java has no virtual threads
+    private final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+    @Bean
+    public WebMvcRegistrations virtualThreadRegistrations() {
+        return new WebMvcRegistrations() {
+            @Override
+            public RequestMappingHandlerAdapter getRequestMappingHandlerAdapter() {
+                return executor != null ? new VirtualThreadHandlerAdapter() : null;
+            }
+        };
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if(executor != null)
+            configurer.setTaskExecutor(new ConcurrentTaskExecutor(executor));
+    }
+
+    @PreDestroy
+    public void close() {
+        if(executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() or null if the running Java has no virtual threads
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            var executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.info("Request handlers run on virtual threads");
+            return executor;
+        }
+        catch (NoSuchMethodException | IllegalAccessException e){
+            LOGGER.warn("Virtual threads need Java 21 or later, request handlers run on the Tomcat threads");
+        }
+        catch (InvocationTargetException e){
+            // Java 19 and 20 have them only with --enable-preview
+            LOGGER.warn("Virtual threads are not available, request handlers run on the Tomcat threads", e.getCause());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,54 @@
+package com.miro.config;
+
+import com.miro.controllers.BoardForwardingInterceptor;
+import com.miro.controllers.WidgetColumnarHttpMessageConverter;
+import com.miro.controllers.WidgetJsonHttpMessageConverter;
+import com.miro.controllers.WidgetVersionInterceptor;
+import com.miro.services.stringSerializer.StringSerializer;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    private final BoardForwardingInterceptor boardForwardingInterceptor;
+    private final WidgetVersionInterceptor widgetVersionInterceptor;
+    private final StringSerializer jsonSerializer;
+
+    public WebConfig(BoardForwardingInterceptor boardForwardingInterceptor,
+                     WidgetVersionInterceptor widgetVersionInterceptor,
+                     StringSerializer jsonSerializer) {
+        this.boardForwardingInterceptor = boardForwardingInterceptor;
+        this.widgetVersionInterceptor = widgetVersionInterceptor;
+        this.jsonSerializer = jsonSerializer;
+    }
+
+    /**
+     * Board requests are served by the owner node of the board.
+     * Default widgets requests get the widgets version and are served by a replica only while it is fresh
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(boardForwardingInterceptor).addPathPatterns("/api/v1/boards/**");
+        registry.addInterceptor(widgetVersionInterceptor).addPathPatterns("/api/v1/widgets", "/api/v1/widgets/**");
+    }
+
+    /**
+     * Widgets JSON is written by the streaming serializer ahead of the generic object mapper.
+     * Widget arrays are also written in the columnar binary format on request.
+     * It goes after the default converters, so JSON stays the default for the clients accepting any type
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        var jacksonIndex = 0;
+        while (jacksonIndex < converters.size() && !(converters.get(jacksonIndex) instanceof MappingJackson2HttpMessageConverter)) {
+            jacksonIndex++;
+        }
+        converters.add(Math.min(jacksonIndex, converters.size()), new WidgetJsonHttpMessageConverter(jsonSerializer));
+        converters.add(new WidgetColumnarHttpMessageConverter());
+    }
+}
@@ -0,0 +1,139 @@
+package com.miro.controllers;
+
+import com.miro.services.cluster.ClusterService;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forwards the requests of the boards owned by other cluster nodes and copies the owner response back.
+ * The bodies are streamed in both directions and never held in memory as a whole. The other routes fail with 502 if the
+ * owner doesn't answer within the cluster request timeout, the streamed routes have no timeout, an idle stream is open
+ * as long as the owner keeps it
+ */
+@Component
+public class BoardForwardingInterceptor implements HandlerInterceptor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoardForwardingInterceptor.class);
+
+    private static final List<String> FORWARDED_REQUEST_HEADERS = List.of(HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.ACCEPT,
+            HttpHeaders.IF_NONE_MATCH,
+            HttpHeaders.IF_MATCH);
+    // Hop-by-hop headers and headers set by the servlet container
+    private static final Set<String> SKIPPED_RESPONSE_HEADERS = Set.of("connection",
+            "keep-alive",
+            "transfer-encoding",
+            "content-length",
+            "date",
+            ":status");
+    // Routes which response is a stream of unlimited length
+    private static final List<String> STREAMED_ROUTES = List.of("/stream", "/changes");
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final ClusterService clusterService;
+
+    public BoardForwardingInterceptor(ClusterService clusterService) {
+        Validate.notNull(clusterService, "clusterService can't be null");
+        this.clusterService = clusterService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if(request.getHeader(ClusterService.FORWARDED_HEADER) != null)
+            return true;
+
+        @SuppressWarnings("unchecked")
+        var pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        var boardId = pathVariables != null ? pathVariables.get("boardId") : null;
+        var owner = boardId != null ? clusterService.getRemoteOwner(boardId) : null;
+        if(owner == null)
+            return true;
+
+        var uri = owner + request.getRequestURI() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        var forwardedRequest = HttpRequest.newBuilder(URI.create(uri))
+                .method(request.getMethod(), bodyOf(request))
+                .header(ClusterService.FORWARDED_HEADER, clusterService.getSelf());
+        if(!isStreamed(request))
+            forwardedRequest.timeout(clusterService.getRequestTimeout());
+        for (var header : FORWARDED_REQUEST_HEADERS) {
+            var value = request.getHeader(header);
+            if(value != null)
+                forwardedRequest.header(header, value);
+        }
+
+        HttpResponse<InputStream> ownerResponse;
+        try {
+            ownerResponse = clusterService.getHttpClient().send(forwardedRequest.build(), HttpResponse.BodyHandlers.ofInputStream());
+        }
+        catch (IOException e){
+            LOGGER.error(String.format("Request - %s. Board %s owner %s is unavailable.", request.getMethod(), boardId, owner), e);
+            response.sendError(HttpStatus.BAD_GATEWAY.value(), String.format("Board owner %s is unavailable", owner));
+            return false;
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return false;
+        }
+
+        response.setStatus(ownerResponse.statusCode());
+        ownerResponse.headers().map().forEach((name, values) -> {
+            if(!SKIPPED_RESPONSE_HEADERS.contains(name.toLowerCase()))
+                values.forEach(value -> response.addHeader(name, value));
+        });
+        // Closing the owner body cancels the forwarded request when the client went away
+        try (var body = ownerResponse.body()) {
+            copy(body, response.getOutputStream());
+        }
+        return false;
+    }
+
+    /**
+     * Stream the request body to the owner, with its length when the client sent it
+     */
+    private static HttpRequest.BodyPublisher bodyOf(HttpServletRequest request) throws IOException {
+        var contentLength = request.getContentLengthLong();
+        if(contentLength == 0 || contentLength < 0 && request.getHeader(HttpHeaders.TRANSFER_ENCODING) == null)
+            return HttpRequest.BodyPublishers.noBody();
+
+        var body = request.getInputStream();
+        var publisher = HttpRequest.BodyPublishers.ofInputStream(() -> body);
+        return contentLength > 0 ? HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength) : publisher;
+    }
+
+    private static boolean isStreamed(HttpServletRequest request) {
+        var pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return pattern != null && STREAMED_ROUTES.stream().anyMatch(pattern::endsWith);
+    }
+
+    /**
+     * Copy the owner response as it comes. The client gets the buffered bytes whenever the owner has no more bytes ready,
+     * so a streamed response isn't held back until the buffer fills up
+     */
+    private static void copy(InputStream body, OutputStream output) throws IOException {
+        var buffer = new byte[COPY_BUFFER_SIZE];
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            if(body.available() == 0)
+                output.flush();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.miro.controllers;
+
+import com.miro.core.dto.WidgetDto;
+import com.miro.services.cluster.ClusterService;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+@RestController
+@RequestMapping("api/v1/cluster")
+@Api("Cluster management")
+public class ClusterController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterController.class);
+    private final ClusterService clusterService;
+
+    public ClusterController(ClusterService clusterService) {
+        Validate.notNull(clusterService, "clusterService can't be null");
+        this.clusterService = clusterService;
+    }
+
+    @RequestMapping(value = "/nodes", method = RequestMethod.GET)
+    @ResponseBody
+    @ApiOperation(value = "Get base urls of the cluster nodes")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Getting cluster nodes", response = String.class, responseContainer = "List"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<?> GetNodes(HttpServletRequest request) {
+        try {
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+            return new ResponseEntity<>(clusterService.getNodes(), responseHeaders, HttpStatus.OK);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            return new ResponseEntity<>("Server handle request error. Details: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value = "/nodes", method = RequestMethod.PUT)
+    @ResponseBody
+    @ApiOperation(value = "Replace the cluster nodes on every node, the boards are rebalanced in the background. Join and leave by adding or removing a node")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful nodes update"),
+            @ApiResponse(code = 400, message = "Invalid input parameters"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<?> SetNodes(@RequestBody String[] nodes,
+                                      @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+                                      HttpServletRequest request) {
+        try {
+            Validate.notNull(nodes, "The nodes must not be null");
+
+            var nodeList = Arrays.asList(nodes);
+            var previousNodes = clusterService.getNodes();
+            clusterService.setNodes(nodeList);
+
+            // The left nodes get the update too, to hand off their boards
+            if(forwardedBy == null){
+                var targets = new LinkedHashSet<>(previousNodes);
+                targets.addAll(nodeList);
+                clusterService.propagateNodes(nodeList, targets);
+            }
+            return new ResponseEntity<>(HttpStatus.OK);
+        }
+        catch (IllegalArgumentException | NullPointerException e){
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            return new ResponseEntity<>("Server handle request error. Details: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value = "/boards/{boardId}/widgets", method = RequestMethod.POST)
+    @ResponseBody
+    @ApiOperation(value = "Add widgets of a board handed off by another node, existing widgets are skipped")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful widgets import"),
+            @ApiResponse(code = 400, message = "Invalid input parameters"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<?> ImportWidgets(@PathVariable("boardId") String boardId,
+                                           @RequestBody WidgetDto[] widgets,
+                                           HttpServletRequest request) {
+        try {
+            clusterService.importWidgets(boardId, widgets);
+            return new ResponseEntity<>(HttpStatus.OK);
+        }
+        catch (IllegalArgumentException | NullPointerException e){
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            return new ResponseEntity<>("Server handle request error. Details: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.miro.controllers;
+
+import com.miro.core.dto.WidgetQueryCacheStatsDto;
+import com.miro.services.queryCache.WidgetQueryCache;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("api/v1/query-cache")
+@Api("Cache of the filter and pagination results")
+public class QueryCacheController {
+
+    private final ObjectProvider<WidgetQueryCache> queryCache;
+
+    public QueryCacheController(ObjectProvider<WidgetQueryCache> queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    @RequestMapping(value = "/stats", method = RequestMethod.GET)
+    @ResponseBody
+    @ApiOperation(value = "Get the hit, miss, invalidation and eviction counters of the default board results cache")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Getting cache counters", response = WidgetQueryCacheStatsDto.class),
+            @ApiResponse(code = 404, message = "The results are not cached")})
+    public ResponseEntity<?> GetStats() {
+        var cache = queryCache.getIfAvailable();
+        if(cache == null)
+            return new ResponseEntity<>("The results are not cached", HttpStatus.NOT_FOUND);
+
+        return new ResponseEntity<>(cache.getStats(), HttpStatus.OK);
+    }
+}
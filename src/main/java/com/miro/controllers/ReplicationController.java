@@ -0,0 +1,119 @@
+package com.miro.controllers;
+
+import com.miro.core.dto.WidgetMutationDto;
+import com.miro.core.mapping.WidgetMapper;
+import com.miro.services.replication.WidgetMutationLog;
+import com.miro.services.replication.WidgetReplica;
+import com.miro.services.widgetJournal.WidgetJournalRecord;
+import com.miro.services.widgetJournal.WidgetSnapshotFile;
+import com.miro.services.widgetManager.WidgetServiceImpl;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.channels.Channels;
+
+@RestController
+@RequestMapping("api/v1/replication")
+@Api("Replication of the widgets to the read replicas")
+public class ReplicationController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationController.class);
+    private static final int MAX_LIMIT = 10000;
+    private static final long MAX_WAIT_MS = 30000;
+
+    private final WidgetMapper widgetMapper = WidgetMapper.INSTANCE;
+    private final ObjectProvider<WidgetServiceImpl> widgetService;
+    private final ObjectProvider<WidgetMutationLog<WidgetJournalRecord>> mutationLog;
+
+    public ReplicationController(ObjectProvider<WidgetServiceImpl> widgetService, ObjectProvider<WidgetMutationLog<WidgetJournalRecord>> mutationLog) {
+        this.widgetService = widgetService;
+        this.mutationLog = mutationLog;
+    }
+
+    @RequestMapping(value = "/mutations", method = RequestMethod.GET)
+    @ResponseBody
+    @ApiOperation(value = "Get the committed widget changes after the version in order, waiting for the next change if there is none yet")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Getting widget changes", response = WidgetMutationDto.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid input parameters"),
+            @ApiResponse(code = 404, message = "The node is not a replication primary"),
+            @ApiResponse(code = 410, message = "The changes after the version are dropped, the replica must start from the snapshot"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<?> GetMutations(@ApiParam(value = "Version of the replica widgets") @RequestParam(value = "after") long after,
+                                          @ApiParam(value = "Max number of the changes") @RequestParam(value = "limit", defaultValue = "1000") int limit,
+                                          @ApiParam(value = "Time to wait for the next change") @RequestParam(value = "waitMs", defaultValue = "0") long waitMs,
+                                          HttpServletRequest request) {
+        try {
+            var service = widgetService.getIfAvailable();
+            var log = mutationLog.getIfAvailable();
+            if(service == null || log == null)
+                return new ResponseEntity<>("The node is not a replication primary", HttpStatus.NOT_FOUND);
+            if(limit <= 0 || limit > MAX_LIMIT)
+                return new ResponseEntity<>(String.format("The limit must be in (0, %d]", MAX_LIMIT), HttpStatus.BAD_REQUEST);
+            if(waitMs < 0 || waitMs > MAX_WAIT_MS)
+                return new ResponseEntity<>(String.format("The waitMs must be in [0, %d]", MAX_WAIT_MS), HttpStatus.BAD_REQUEST);
+
+            var records = log.read(after, limit, waitMs);
+            if(records == null)
+                return new ResponseEntity<>(String.format("The changes after %d are not available", after), HttpStatus.GONE);
+
+            // A replica never gets a change the primary can lose on restart
+            service.awaitDurableVersion(after + records.size());
+            var mutations = new WidgetMutationDto[records.size()];
+            for (int i = 0; i < mutations.length; i++) {
+                mutations[i] = widgetMapper.map(after + i + 1, records.get(i));
+            }
+
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+            responseHeaders.set(WidgetReplica.VERSION_HEADER, String.valueOf(log.getLastSequence()));
+            return new ResponseEntity<>(mutations, responseHeaders, HttpStatus.OK);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            return new ResponseEntity<>("Server handle request error. Details: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value = "/snapshot", method = RequestMethod.GET)
+    @ApiOperation(value = "Get all widgets at the current version in the snapshot file format")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Getting widgets snapshot"),
+            @ApiResponse(code = 404, message = "The node is not a replication primary"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<StreamingResponseBody> GetSnapshot(HttpServletRequest request) {
+        try {
+            var service = widgetService.getIfAvailable();
+            if(service == null || mutationLog.getIfAvailable() == null)
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+            var snapshot = service.getSnapshot();
+            service.awaitDurableVersion(snapshot.getVersion());
+
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            responseHeaders.set(WidgetReplica.VERSION_HEADER, String.valueOf(snapshot.getVersion()));
+            return new ResponseEntity<>(outputStream -> WidgetSnapshotFile.write(snapshot, Channels.newChannel(outputStream)), responseHeaders, HttpStatus.OK);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+}
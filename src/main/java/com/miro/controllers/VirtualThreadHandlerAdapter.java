@@ -0,0 +1,69 @@
+package com.miro.controllers;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpEntity;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ServletInvocableHandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.DispatcherType;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Runs the controller handlers as async tasks of the MVC task executor. The Tomcat thread only reads the request
+ * and starts the async processing, the handler runs and blocks on the executor thread, the result is written by a
+ * Tomcat thread again. With a virtual thread executor a blocked handler doesn't hold a Tomcat thread, and the handler
+ * doesn't run inside the Tomcat socket monitor, which would pin the virtual thread to its carrier.
+ * Handlers returning an async result already write it on the executor and are invoked as usual
+ */
+public class VirtualThreadHandlerAdapter extends RequestMappingHandlerAdapter {
+    private static final List<Class<?>> ASYNC_RESULT_TYPES = List.of(Callable.class,
+            WebAsyncTask.class,
+            DeferredResult.class,
+            ListenableFuture.class,
+            CompletionStage.class,
+            ResponseBodyEmitter.class,
+            StreamingResponseBody.class);
+
+    @Override
+    protected ServletInvocableHandlerMethod createInvocableHandlerMethod(HandlerMethod handlerMethod) {
+        return new AsyncTaskHandlerMethod(handlerMethod);
+    }
+
+    private static boolean isAsyncResult(HandlerMethod handlerMethod) {
+        var returnType = ResolvableType.forMethodParameter(handlerMethod.getReturnType());
+        if(HttpEntity.class.isAssignableFrom(returnType.toClass()))
+            returnType = returnType.getGeneric(0);
+        var returnClass = returnType.toClass();
+        return returnClass == void.class || ASYNC_RESULT_TYPES.stream().anyMatch(type -> type.isAssignableFrom(returnClass));
+    }
+
+    private static final class AsyncTaskHandlerMethod extends ServletInvocableHandlerMethod {
+        private final boolean asyncResult;
+
+        private AsyncTaskHandlerMethod(HandlerMethod handlerMethod) {
+            super(handlerMethod);
+            this.asyncResult = isAsyncResult(handlerMethod);
+        }
+
+        @Override
+        protected Object doInvoke(Object... args) throws Exception {
+            var attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
+            var request = attributes != null ? attributes.getRequest() : null;
+            if(asyncResult || request == null || request.getDispatcherType() != DispatcherType.REQUEST || !request.isAsyncSupported())
+                return super.doInvoke(args);
+
+            Callable<Object> handler = () -> super.doInvoke(args);
+            return handler;
+        }
+    }
+}
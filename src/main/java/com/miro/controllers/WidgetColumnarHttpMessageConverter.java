@@ -0,0 +1,220 @@
+package com.miro.controllers;
+
+import com.miro.core.dto.WidgetDto;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Compact binary representation of the widget arrays, chosen by the "Accept: application/x-widgets-columnar" header.
+ * The widgets are packed by columns, big-endian:
+ * <pre>
+ * byte     format version, 1
+ * varint   widgets count N
+ * double   x[N], y[N], width[N], height[N]
+ * varint   zIndex[N]        zigzag delta from the previous zIndex
+ * varint   updatedAtUtc[N]  zigzag delta from the previous epoch nanos
+ * long     guid[N][2]       most and least significant bits
+ * </pre>
+ * The arrays are ordered by zIndex and the widgets of a batch share the timestamp, so the deltas take one or two bytes.
+ * Missing coordinates, sizes, timestamps and guids are written as NaN, Long.MIN_VALUE nanos and the nil guid and are read
+ * back as nulls, a missing zIndex repeats the previous one
+ */
+public class WidgetColumnarHttpMessageConverter extends AbstractHttpMessageConverter<WidgetDto[]> {
+    public static final String MEDIA_TYPE_VALUE = "application/x-widgets-columnar";
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int MAX_VARINT_SIZE = 10;
+    private static final long MISSING_NANOS = Long.MIN_VALUE;
+
+    public WidgetColumnarHttpMessageConverter() {
+        super(MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return WidgetDto[].class == clazz;
+    }
+
+    @Override
+    protected void writeInternal(WidgetDto[] widgets, HttpOutputMessage outputMessage) throws IOException {
+        var output = new ColumnOutput(outputMessage.getBody());
+        output.put(FORMAT_VERSION);
+        output.putVarint(widgets.length);
+        for (var widget : widgets) {
+            output.putDouble(widget.getX() != null ? widget.getX() : Double.NaN);
+        }
+        for (var widget : widgets) {
+            output.putDouble(widget.getY() != null ? widget.getY() : Double.NaN);
+        }
+        for (var widget : widgets) {
+            output.putDouble(widget.getWidth() != null ? widget.getWidth() : Double.NaN);
+        }
+        for (var widget : widgets) {
+            output.putDouble(widget.getHeight() != null ? widget.getHeight() : Double.NaN);
+        }
+        long previous = 0;
+        for (var widget : widgets) {
+            long zIndex = widget.getzIndex() != null ? widget.getzIndex() : previous;
+            output.putVarint(zigzag(zIndex - previous));
+            previous = zIndex;
+        }
+        previous = 0;
+        for (var widget : widgets) {
+            var updatedAtUtc = widget.getUpdatedAtUtc();
+            long nanos = updatedAtUtc != null ? toEpochNanos(updatedAtUtc) : MISSING_NANOS;
+            output.putVarint(zigzag(nanos - previous));
+            previous = nanos;
+        }
+        for (var widget : widgets) {
+            var guid = widget.getGuid();
+            output.putLong(guid != null ? guid.getMostSignificantBits() : 0);
+            output.putLong(guid != null ? guid.getLeastSignificantBits() : 0);
+        }
+        output.flush();
+    }
+
+    @Override
+    protected WidgetDto[] readInternal(Class<? extends WidgetDto[]> clazz, HttpInputMessage inputMessage) throws IOException {
+        var buffer = ByteBuffer.wrap(inputMessage.getBody().readAllBytes());
+        try {
+            if(buffer.get() != FORMAT_VERSION)
+                throw new HttpMessageNotReadableException("Unknown widgets format version", inputMessage);
+
+            var count = readVarint(buffer);
+            if(count < 0 || count > buffer.remaining())
+                throw new HttpMessageNotReadableException("Invalid widgets count " + count, inputMessage);
+
+            var widgets = new WidgetDto[(int) count];
+            for (int i = 0; i < widgets.length; i++) {
+                widgets[i] = new WidgetDto();
+                var x = buffer.getDouble();
+                if(!Double.isNaN(x))
+                    widgets[i].setX(x);
+            }
+            for (var widget : widgets) {
+                var y = buffer.getDouble();
+                if(!Double.isNaN(y))
+                    widget.setY(y);
+            }
+            for (var widget : widgets) {
+                var width = buffer.getDouble();
+                if(!Double.isNaN(width))
+                    widget.setWidth(width);
+            }
+            for (var widget : widgets) {
+                var height = buffer.getDouble();
+                if(!Double.isNaN(height))
+                    widget.setHeight(height);
+            }
+            long previous = 0;
+            for (var widget : widgets) {
+                previous += unzigzag(readVarint(buffer));
+                widget.setzIndex((int) previous);
+            }
+            previous = 0;
+            for (var widget : widgets) {
+                previous += unzigzag(readVarint(buffer));
+                if(previous != MISSING_NANOS)
+                    widget.setUpdatedAtUtc(fromEpochNanos(previous));
+            }
+            for (var widget : widgets) {
+                var mostSignificantBits = buffer.getLong();
+                var leastSignificantBits = buffer.getLong();
+                if(mostSignificantBits != 0 || leastSignificantBits != 0)
+                    widget.setGuid(new UUID(mostSignificantBits, leastSignificantBits));
+            }
+            return widgets;
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e){
+            throw new HttpMessageNotReadableException("Widgets are malformed", e, inputMessage);
+        }
+    }
+
+    private static long toEpochNanos(LocalDateTime dateTime) {
+        var instant = dateTime.toInstant(ZoneOffset.UTC);
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static LocalDateTime fromEpochNanos(long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            var b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /**
+     * Writes the columns to the stream through a fixed buffer, so the response isn't held in memory at once
+     */
+    private static final class ColumnOutput {
+        private static final int BUFFER_SIZE = 8 * 1024;
+
+        private final OutputStream stream;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private ColumnOutput(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        private void put(byte value) throws IOException {
+            ensureRemaining(Byte.BYTES);
+            buffer.put(value);
+        }
+
+        private void putDouble(double value) throws IOException {
+            ensureRemaining(Double.BYTES);
+            buffer.putDouble(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensureRemaining(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        private void putVarint(long value) throws IOException {
+            ensureRemaining(MAX_VARINT_SIZE);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void ensureRemaining(int size) throws IOException {
+            if(buffer.remaining() < size)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            stream.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
\ No newline at end of file
@@ -1,12 +1,19 @@
 package com.miro.controllers;
 
+import com.miro.core.dto.WidgetChangeDto;
 import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetOperationDto;
+import com.miro.core.dto.WidgetSyncDto;
 import com.miro.core.data.internal.ImmutableVertex;
 import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
 import com.miro.core.exceptions.WidgetNotFoundException;
+import com.miro.core.mapping.WidgetOperationMapper;
 import com.miro.core.utils.CustomStringBuilder;
-import com.miro.services.stringSerializer.JsonSerializerImpl;
-import com.miro.services.widgetManager.WidgetServiceImpl;
+import com.miro.services.boardManager.BoardRegistry;
+import com.miro.services.changeFeed.WidgetChangeFeed;
+import com.miro.services.stringSerializer.StringSerializer;
+import com.miro.services.widgetManager.WidgetService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
@@ -17,31 +24,46 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 @RestController
-@RequestMapping("api/v1/widgets")
+@RequestMapping({"api/v1/widgets", "api/v1/boards/{boardId}/widgets"})
 @Api("WidgetDto management")
 public class WidgetController {
     private static final Logger LOGGER = LoggerFactory.getLogger(WidgetController.class);
-    private final WidgetServiceImpl widgetService;
-    private final JsonSerializerImpl jsonSerializer;
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private final BoardRegistry boardRegistry;
+    private final StringSerializer jsonSerializer;
+    private final WidgetChangeFeed changeFeed;
     private final WidgetControllerInputParametersValidator validator = new WidgetControllerInputParametersValidator();
 
-    public WidgetController(WidgetServiceImpl widgetService, JsonSerializerImpl jsonSerializer) {
-        Validate.notNull(widgetService, "widgetService can't be null");
+    public WidgetController(BoardRegistry boardRegistry, StringSerializer jsonSerializer, WidgetChangeFeed changeFeed) {
+        Validate.notNull(boardRegistry, "boardRegistry can't be null");
         Validate.notNull(jsonSerializer, "jsonSerializer can't be null");
+        Validate.notNull(changeFeed, "changeFeed can't be null");
 
         this.jsonSerializer = jsonSerializer;
-        this.widgetService = widgetService;
+        this.boardRegistry = boardRegistry;
+        this.changeFeed = changeFeed;
     }
 
     @RequestMapping(value = "/add", method = RequestMethod.POST)
@@ -51,7 +73,8 @@ public class WidgetController {
             @ApiResponse(code = 201, message = "Successful widget create", response = WidgetDto.class),
             @ApiResponse(code = 400, message = "Invalid input parameters"),
             @ApiResponse(code = 500, message = "Internal server error")})
-    public ResponseEntity<?> CreateWidget(@RequestParam(value = "x") String xText,
+    public ResponseEntity<?> CreateWidget(@PathVariable(value = "boardId", required = false) String boardId,
+                                          @RequestParam(value = "x") String xText,
                                           @RequestParam(value = "y") String yText,
                                           @RequestParam(value = "width") String widthText,
                                           @RequestParam(value = "height") String heightText,
@@ -65,14 +88,14 @@ public class WidgetController {
                     heightText,
                     zIndexText);
 
-            var widget =  widgetService.createWidget(widgetLayoutInfo.getX(),
+            var widget = boardRegistry.withBoard(boardId, widgetService -> widgetService.createWidget(widgetLayoutInfo.getX(),
                     widgetLayoutInfo.getY(),
                     widgetLayoutInfo.getWidth(),
                     widgetLayoutInfo.getHeight(),
-                    widgetLayoutInfo.getzIndex());
+                    widgetLayoutInfo.getzIndex()));
 
             HttpHeaders responseHeaders = new HttpHeaders();
-            var uriComponents = componentsBuilder.path("api/v1/widgets/{guid}").buildAndExpand(widget.getGuid());
+            var uriComponents = getWidgetUriComponents(componentsBuilder, boardId, widget.getGuid());
             responseHeaders.setLocation(uriComponents.toUri());
             responseHeaders.setContentType(MediaType.APPLICATION_JSON);
             responseHeaders.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
@@ -95,14 +118,20 @@ public class WidgetController {
     @ApiOperation(value = "Get widget using GUID key")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful retrieval of widget", response = WidgetDto.class),
+            @ApiResponse(code = 304, message = "Widget is not changed since the 'If-None-Match' ETag"),
             @ApiResponse(code = 404, message = "Widget with given GUID does not found"),
             @ApiResponse(code = 400, message = "Invalid input parameters"),
             @ApiResponse(code = 500, message = "Internal server error")})
-    public ResponseEntity<?> GetWidget(@PathVariable("guid") String guidText,
-                                       HttpServletRequest request) {
+    public ResponseEntity<?> GetWidget(@PathVariable(value = "boardId", required = false) String boardId,
+                                       @PathVariable("guid") String guidText,
+                                       HttpServletRequest request,
+                                       WebRequest webRequest) {
         try {
             var guid = validator.ValidateAndGetGuidInputParameter(guidText);
-            var widget = widgetService.getWidget(guid);
+            var widgetWithETag = boardRegistry.withBoard(boardId, widgetService -> getWidgetWithETag(widgetService, guid));
+            if(webRequest.checkNotModified(widgetWithETag.getValue()))
+                return null;
+            var widget = widgetWithETag.getKey();
 
             HttpHeaders responseHeaders = new HttpHeaders();
             responseHeaders.setContentType(MediaType.APPLICATION_JSON);
@@ -128,7 +157,8 @@ public class WidgetController {
             @ApiResponse(code = 400, message = "Invalid input parameters"),
             @ApiResponse(code = 404, message = "Widget with given GUID does not found"),
             @ApiResponse(code = 500, message = "Internal server error")})
-    public ResponseEntity<?> UpdateWidget(@PathVariable("guid") String guidText,
+    public ResponseEntity<?> UpdateWidget(@PathVariable(value = "boardId", required = false) String boardId,
+                                          @PathVariable("guid") String guidText,
                                           @RequestParam(value = "x", required = false) String xText,
                                           @RequestParam(value = "y", required = false) String yText,
                                           @RequestParam(value = "width", required = false) String widthText,
@@ -143,10 +173,13 @@ public class WidgetController {
                     heightText,
                     zIndexText);
             var guid = validator.ValidateAndGetGuidInputParameter(guidText);
-            widgetService.updateWidget(guid, widgetLayoutInfo);
+            boardRegistry.withBoard(boardId, widgetService -> {
+                widgetService.updateWidget(guid, widgetLayoutInfo);
+                return null;
+            });
 
             HttpHeaders responseHeaders = new HttpHeaders();
-            var uriComponents = componentsBuilder.path("api/v1/widgets/{guid}").buildAndExpand(guid);
+            var uriComponents = getWidgetUriComponents(componentsBuilder, boardId, guid);
             responseHeaders.setLocation(uriComponents.toUri());
 
             return new ResponseEntity(responseHeaders, HttpStatus.OK);
@@ -168,10 +201,17 @@ public class WidgetController {
     @ApiOperation(value = "Get all widget guid's sorted by zIndex")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Getting all available widget identifiers sorted by index", response = UUID.class, responseContainer = "List" ),
+            @ApiResponse(code = 304, message = "Widgets are not changed since the 'If-None-Match' ETag"),
             @ApiResponse(code = 500, message = "Internal server error")})
-    public ResponseEntity<?> GetWidgets(HttpServletRequest request){
+    public ResponseEntity<?> GetWidgets(@PathVariable(value = "boardId", required = false) String boardId,
+                                        HttpServletRequest request,
+                                        WebRequest webRequest){
         try {
-            var allWidgets = widgetService.getAllWidgets();
+            var allWidgets = boardRegistry.withBoard(boardId, widgetService -> isNotModified(webRequest, widgetService, MediaType.APPLICATION_JSON)
+                    ? null
+                    : widgetService.getAllWidgets());
+            if(allWidgets == null)
+                return null;
             if(allWidgets.length > 0){
                 var widgetsGuid = Arrays.stream(allWidgets).map(w -> w.getGuid()).toArray();
                 HttpHeaders responseHeaders = new HttpHeaders();
@@ -182,26 +222,91 @@ public class WidgetController {
 
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
+        catch (IllegalArgumentException e){
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
         catch (Exception ex){
             LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
             return new ResponseEntity<>("Server handle request error. Details: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    @RequestMapping(value = "/stream", method = RequestMethod.GET, produces = NDJSON_VALUE)
+    @ApiOperation(value = "Get all widgets sorted by zIndex as newline delimited JSON. The widgets are written one by one while the store is walked, " +
+            "so the memory used doesn't depend on the number of widgets")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Widget per line sorted by index", response = WidgetDto.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid input parameters"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<StreamingResponseBody> StreamWidgets(@PathVariable(value = "boardId", required = false) String boardId,
+                                                               HttpServletRequest request){
+        try {
+            // A wrong board id is reported before the response is committed
+            boardRegistry.withBoard(boardId, WidgetService::getVersion);
+        }
+        catch (IllegalArgumentException e){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Server handle request error. Details: " + ex.getMessage(), ex);
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try {
+                boardRegistry.withBoard(boardId, widgetService -> {
+                    widgetService.forEachWidget(widget -> {
+                        try {
+                            jsonSerializer.serialize(widget, outputStream);
+                            outputStream.write('\n');
+                        }
+                        catch (IOException e){
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    return null;
+                });
+            }
+            catch (UncheckedIOException e){
+                throw e.getCause();
+            }
+            catch (WidgetNotFoundException e){
+                throw new IllegalStateException("Widgets walk has no lookups", e);
+            }
+        };
+
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setContentType(MediaType.parseMediaType(NDJSON_VALUE));
+        return new ResponseEntity<>(body, responseHeaders, HttpStatus.OK);
+    }
+
     @RequestMapping(value = "/limit", method = RequestMethod.GET)
     @ResponseBody
-    @ApiOperation(value = "Get widgets using pagination(limit and offset)")
+    @ApiOperation(value = "Get widgets using pagination(limit and offset or limit and zIndex cursor)")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Getting range widgets sorted by index", response = WidgetDto.class,  responseContainer = "List"),
+            @ApiResponse(code = 304, message = "Widgets are not changed since the 'If-None-Match' ETag"),
             @ApiResponse(code = 400, message = "Invalid input parameters"),
             @ApiResponse(code = 500, message = "Internal server error")})
-    public ResponseEntity<?> Pagination(@RequestParam(value = "limit", required = false) String limitText,
+    public ResponseEntity<?> Pagination(@PathVariable(value = "boardId", required = false) String boardId,
+                                        @RequestParam(value = "limit", required = false) String limitText,
                                         @RequestParam(value = "offset", required = false) String offsetText,
-                                        HttpServletRequest request){
+                                        @RequestParam(value = "after", required = false) String afterText,
+                                        HttpServletRequest request,
+                                        HttpServletResponse response,
+                                        WebRequest webRequest){
         try {
             var parametersPair = validator.ValidateAndGetPaginationInputParameter(limitText, offsetText);
-            var widgets = widgetService.getWidgets(parametersPair.getKey(), parametersPair.getValue());
-            return getResponseEntityForWidgetArray(widgets);
+            var afterZIndex = validator.ValidateAndGetCursorInputParameter(afterText, offsetText);
+            var mediaType = getWidgetArrayMediaType(request, response);
+            var widgets = boardRegistry.withBoard(boardId, widgetService -> {
+                if(isNotModified(webRequest, widgetService, mediaType))
+                    return null;
+                return afterZIndex != null
+                        ? widgetService.getWidgetsAfter(parametersPair.getKey(), afterZIndex)
+                        : widgetService.getWidgets(parametersPair.getKey(), parametersPair.getValue());
+            });
+            return widgets != null ? getResponseEntityForWidgetArray(widgets) : null;
         }
         catch (IllegalArgumentException e){
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -216,13 +321,17 @@ public class WidgetController {
     @ApiOperation(value = "Get widgets filtered by intersect specific area")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Getting filtered widgets sorted by index", response = WidgetDto.class,  responseContainer = "List"),
+            @ApiResponse(code = 304, message = "Widgets are not changed since the 'If-None-Match' ETag"),
             @ApiResponse(code = 400, message = "Invalid input parameters"),
             @ApiResponse(code = 500, message = "Internal server error")})
-    public ResponseEntity<?> Filtration(@RequestParam(value = "x1") String x1Text,
+    public ResponseEntity<?> Filtration(@PathVariable(value = "boardId", required = false) String boardId,
+                                        @RequestParam(value = "x1") String x1Text,
                                         @RequestParam(value = "x2") String x2Text,
                                         @RequestParam(value = "y1") String y1Text,
                                         @RequestParam(value = "y2") String y2Text,
-                                        HttpServletRequest request){
+                                        HttpServletRequest request,
+                                        HttpServletResponse response,
+                                        WebRequest webRequest){
         try {
             var vertexParametersPair = validator.ValidateAndGetFilterInputParameter(x1Text, y1Text, x2Text, y2Text);
             var x1 = vertexParametersPair.getKey().getX();
@@ -230,8 +339,11 @@ public class WidgetController {
             var x2 = vertexParametersPair.getValue().getX();
             var y2 = vertexParametersPair.getValue().getY();
 
-            var widgets = widgetService.filterAndGetWidgets(x1, x2, y1, y2);
-            return getResponseEntityForWidgetArray(widgets);
+            var mediaType = getWidgetArrayMediaType(request, response);
+            var widgets = boardRegistry.withBoard(boardId, widgetService -> isNotModified(webRequest, widgetService, mediaType)
+                    ? null
+                    : widgetService.filterAndGetWidgets(x1, x2, y1, y2));
+            return widgets != null ? getResponseEntityForWidgetArray(widgets) : null;
         }
         catch (IllegalArgumentException e){
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -250,11 +362,15 @@ public class WidgetController {
             @ApiResponse(code = 400, message = "Invalid input parameters"),
             @ApiResponse(code = 404, message = "Widget with given GUID does not found"),
             @ApiResponse(code = 500, message = "Internal server error")})
-    public ResponseEntity<?> DeleteWidget(@PathVariable("guid") String guidText,
-                                               HttpServletRequest request){
+    public ResponseEntity<?> DeleteWidget(@PathVariable(value = "boardId", required = false) String boardId,
+                                          @PathVariable("guid") String guidText,
+                                          HttpServletRequest request){
         try {
             var guid = validator.ValidateAndGetGuidInputParameter(guidText);
-            widgetService.removeWidget(guid);
+            boardRegistry.withBoard(boardId, widgetService -> {
+                widgetService.removeWidget(guid);
+                return null;
+            });
             return new ResponseEntity(HttpStatus.OK);
         }
         catch (WidgetNotFoundException e) {
@@ -269,11 +385,184 @@ public class WidgetController {
         }
     }
 
-    private ResponseEntity<?> getResponseEntityForWidgetArray(WidgetDto[] widgets) {
-        if(widgets.length > 0){
+    @RequestMapping(value = "/batch", method = RequestMethod.POST)
+    @ResponseBody
+    @ApiOperation(value = "Create, update and delete widgets in one atomic batch. Result holds widget per operation, null for deleted widgets")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful batch apply", response = WidgetDto.class,  responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid input parameters"),
+            @ApiResponse(code = 404, message = "Widget with given GUID does not found"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<?> Batch(@PathVariable(value = "boardId", required = false) String boardId,
+                                   @RequestBody WidgetOperationDto[] operationsDto,
+                                   HttpServletRequest request){
+        try {
+            var operations = validator.ValidateAndGetWidgetOperations(operationsDto);
+            var widgets = boardRegistry.withBoard(boardId, widgetService -> widgetService.applyWidgetOperations(operations));
+
             HttpHeaders responseHeaders = new HttpHeaders();
             responseHeaders.setContentType(MediaType.APPLICATION_JSON);
             responseHeaders.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
+            return new ResponseEntity<>(widgets, responseHeaders, HttpStatus.OK);
+        }
+        catch (WidgetNotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+        catch (IllegalArgumentException e){
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            return new ResponseEntity<>("Server handle request error. Details: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value = "/changed", method = RequestMethod.GET)
+    @ResponseBody
+    @ApiOperation(value = "Get widgets changed after the version and guids of the removed widgets. Sync again after the returned version")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Getting changed widgets", response = WidgetSyncDto.class),
+            @ApiResponse(code = 400, message = "Invalid input parameters"),
+            @ApiResponse(code = 404, message = "The widgets don't keep the changes"),
+            @ApiResponse(code = 410, message = "The changes after the version are not kept, all widgets must be reloaded"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<?> GetChangedWidgets(@PathVariable(value = "boardId", required = false) String boardId,
+                                               @RequestParam(value = "after", required = false) String afterText,
+                                               HttpServletRequest request){
+        try {
+            var after = validator.ValidateAndGetVersionInputParameter(afterText);
+            var changes = boardRegistry.withBoard(boardId, widgetService -> widgetService.getChangesSince(after));
+            if(changes == null)
+                return new ResponseEntity<>(String.format("The changes after %d are not kept", after), HttpStatus.GONE);
+
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+            return new ResponseEntity<>(changes, responseHeaders, HttpStatus.OK);
+        }
+        catch (UnsupportedOperationException e){
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+        catch (IllegalArgumentException e){
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            return new ResponseEntity<>("Server handle request error. Details: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value = "/changes", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation(value = "Subscribe to the widget changes as server-sent events. The 'version' event tells the version the feed starts after, " +
+            "every 'change' event has the widgets version as its id. The 'reset' event means the changes after the version are dropped and the widgets must be reloaded. " +
+            "The area parameters have the same meaning as in the filter and limit the changes to the widgets intersecting the area")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Change events stream", response = WidgetChangeDto.class),
+            @ApiResponse(code = 400, message = "Invalid input parameters"),
+            @ApiResponse(code = 404, message = "The widgets have no change feed"),
+            @ApiResponse(code = 500, message = "Internal server error")})
+    public ResponseEntity<SseEmitter> Changes(@PathVariable(value = "boardId", required = false) String boardId,
+                                              @RequestParam(value = "after", required = false) Long after,
+                                              @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                              @RequestParam(value = "x1", required = false) String x1Text,
+                                              @RequestParam(value = "x2", required = false) String x2Text,
+                                              @RequestParam(value = "y1", required = false) String y1Text,
+                                              @RequestParam(value = "y2", required = false) String y2Text,
+                                              HttpServletRequest request){
+        if(boardId != null || !changeFeed.isAvailable())
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The widgets have no change feed");
+        try {
+            double[] viewport = null;
+            if(x1Text != null || x2Text != null || y1Text != null || y2Text != null){
+                var vertexParametersPair = validator.ValidateAndGetFilterInputParameter(x1Text, y1Text, x2Text, y2Text);
+                var x1 = vertexParametersPair.getKey().getX();
+                var y1 = vertexParametersPair.getKey().getY();
+                var x2 = vertexParametersPair.getValue().getX();
+                var y2 = vertexParametersPair.getValue().getY();
+                viewport = new double[] { x1, x2, x1 + y1, x2 + y2 };
+            }
+
+            // A reconnecting EventSource sends the id of the last event it got
+            var emitter = changeFeed.subscribe(lastEventId != null ? lastEventId : after, viewport);
+            return new ResponseEntity<>(emitter, HttpStatus.OK);
+        }
+        catch (IllegalArgumentException e){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        catch (Exception ex){
+            LOGGER.error("Request - " + request.getMethod() + ". Server unhandled error.", ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Server handle request error. Details: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static UriComponents getWidgetUriComponents(UriComponentsBuilder componentsBuilder, String boardId, UUID guid) {
+        return boardId == null
+                ? componentsBuilder.path("api/v1/widgets/{guid}").buildAndExpand(guid)
+                : componentsBuilder.path("api/v1/boards/{boardId}/widgets/{guid}").buildAndExpand(boardId, guid);
+    }
+
+    /**
+     * Answer 304 if the client copy of a widgets list is current. The lists change only with the board version,
+     * which is read before the list, so a list is never tagged with a version newer than its widgets.
+     * The version is qualified by the board instance, the versions start over when the board is restarted or reopened,
+     * and by the media type, the representations of a list differ.
+     * Sets the ETag of the response otherwise
+     * @param mediaType media type the list is written in, null if none is acceptable and the list is not tagged
+     * @return true if the response is 304 and the handler returns no body
+     */
+    private static boolean isNotModified(WebRequest webRequest, WidgetService widgetService, MediaType mediaType) {
+        if(mediaType == null)
+            return false;
+        var instanceId = widgetService.getInstanceId();
+        return webRequest.checkNotModified("\"" + instanceId + "-" + widgetService.getVersion() + "-" + mediaType.getSubtype() + "\"");
+    }
+
+    /**
+     * Negotiate the media type of a widget array the way the message converters do: JSON or the columnar format,
+     * JSON for the clients accepting both. The response varies by the Accept header
+     * @return null if neither is acceptable
+     */
+    private static MediaType getWidgetArrayMediaType(HttpServletRequest request, HttpServletResponse response) {
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        var accept = request.getHeader(HttpHeaders.ACCEPT);
+        if(accept == null || accept.isEmpty())
+            return MediaType.APPLICATION_JSON;
+
+        List<MediaType> acceptedMediaTypes;
+        try {
+            acceptedMediaTypes = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException e){
+            return null;
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedMediaTypes);
+        for (var acceptedMediaType : acceptedMediaTypes) {
+            if(acceptedMediaType.getQualityValue() == 0)
+                continue;
+            if(acceptedMediaType.includes(MediaType.APPLICATION_JSON))
+                return MediaType.APPLICATION_JSON;
+            if(acceptedMediaType.includes(WidgetColumnarHttpMessageConverter.MEDIA_TYPE))
+                return WidgetColumnarHttpMessageConverter.MEDIA_TYPE;
+        }
+        return null;
+    }
+
+    /**
+     * Read the widget with its ETag, the widget version qualified by the board instance. A store without the widget
+     * versions tags the widget with the board version read before the widget, so the tag is never newer than the widget
+     */
+    private static Pair<WidgetDto, String> getWidgetWithETag(WidgetService widgetService, UUID guid) throws WidgetNotFoundException {
+        var instanceId = widgetService.getInstanceId();
+        var boardVersion = widgetService.getVersion();
+        var widget = widgetService.getWidget(guid);
+        var version = widget.getVersion() != null ? widget.getVersion() : boardVersion;
+        return Pair.of(widget, "\"" + instanceId + "-" + version + "\"");
+    }
+
+    private ResponseEntity<?> getResponseEntityForWidgetArray(WidgetDto[] widgets) {
+        if(widgets.length > 0){
+            // Content type is negotiated, JSON by default or the columnar binary format
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.setAccept(Arrays.asList(MediaType.APPLICATION_JSON, WidgetColumnarHttpMessageConverter.MEDIA_TYPE));
             return  new ResponseEntity<>(widgets,responseHeaders, HttpStatus.OK);
         }
 
@@ -439,6 +728,45 @@ public class WidgetController {
             }
         }
 
+        public Integer ValidateAndGetCursorInputParameter(String afterText, String offsetText) {
+            if (afterText == null || afterText.isEmpty()) {
+                return null;
+            }
+            if (offsetText != null && !offsetText.isEmpty()) {
+                throw new IllegalArgumentException("The 'after' and 'offset' parameters can't be used together");
+            }
+            try {
+                var afterZIndex = Integer.parseInt(afterText);
+                if(afterZIndex < 0){
+                    throw new IllegalArgumentException("The 'after' can't be negative");
+                }
+                return afterZIndex;
+            }
+            catch (NumberFormatException ex){
+                throw new IllegalArgumentException("The 'after' parameter has wrong format");
+            }
+        }
+
+        public long ValidateAndGetVersionInputParameter(String afterText) {
+            if (afterText == null || afterText.isEmpty()) {
+                throw new IllegalArgumentException("The 'after' parameter must not be null or empty");
+            }
+            try {
+                var afterVersion = Long.parseLong(afterText);
+                if(afterVersion < 0){
+                    throw new IllegalArgumentException("The 'after' can't be negative");
+                }
+                return afterVersion;
+            }
+            catch (NumberFormatException ex){
+                throw new IllegalArgumentException("The 'after' parameter has wrong format");
+            }
+        }
+
+        public List<WidgetOperation> ValidateAndGetWidgetOperations(WidgetOperationDto[] operationsDto) {
+            return WidgetOperationMapper.map(operationsDto);
+        }
+
         public Pair<ImmutableVertex, ImmutableVertex> ValidateAndGetFilterInputParameter(String x1Text, String x2Text, String y1Text, String y2Text) {
             double x1 =0.0d;
             double y1 =0.0d;
@@ -0,0 +1,46 @@
+package com.miro.controllers;
+
+import com.miro.core.dto.WidgetDto;
+import com.miro.services.stringSerializer.StringSerializer;
+import org.apache.commons.lang3.Validate;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON of the widgets and widget arrays written and read by the string serializer straight from the message body
+ */
+public class WidgetJsonHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+    private final StringSerializer serializer;
+
+    public WidgetJsonHttpMessageConverter(StringSerializer serializer) {
+        super(StandardCharsets.UTF_8, MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+        Validate.notNull(serializer, "serializer can't be null");
+        this.serializer = serializer;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return WidgetDto.class == clazz || WidgetDto[].class == clazz;
+    }
+
+    @Override
+    protected void writeInternal(Object object, HttpOutputMessage outputMessage) throws IOException {
+        serializer.serialize(object, outputMessage.getBody());
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        try {
+            return serializer.deserialize(inputMessage.getBody(), clazz);
+        }
+        catch (IOException e){
+            throw new HttpMessageNotReadableException("Widgets JSON is invalid: " + e.getMessage(), e, inputMessage);
+        }
+    }
+}
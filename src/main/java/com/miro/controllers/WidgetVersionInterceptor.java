@@ -0,0 +1,48 @@
+package com.miro.controllers;
+
+import com.miro.services.replication.WidgetReplica;
+import com.miro.services.widgetManager.WidgetService;
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reports the widgets version a response is based on. The widgets are read at this version or a later one.
+ * On a read replica the widgets are read-only and are not served while they are stale
+ */
+@Component
+public class WidgetVersionInterceptor implements HandlerInterceptor {
+    private final WidgetService widgetService;
+    private final ObjectProvider<WidgetReplica> replica;
+
+    public WidgetVersionInterceptor(WidgetService widgetService, ObjectProvider<WidgetReplica> replica) {
+        Validate.notNull(widgetService, "widgetService can't be null");
+        this.widgetService = widgetService;
+        this.replica = replica;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        var currentReplica = replica.getIfAvailable();
+        if(currentReplica != null){
+            if(!HttpMethod.GET.matches(request.getMethod())){
+                response.sendError(HttpStatus.METHOD_NOT_ALLOWED.value(), "Replica is read-only, send the changes to the primary");
+                return false;
+            }
+            if(currentReplica.isStale()){
+                response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Replica widgets are stale");
+                return false;
+            }
+        }
+
+        response.setHeader(WidgetReplica.VERSION_HEADER, String.valueOf(widgetService.getVersion()));
+        return true;
+    }
+}
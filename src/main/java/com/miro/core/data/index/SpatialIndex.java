@@ -0,0 +1,388 @@
+package com.miro.core.data.index;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * R-tree (Guttman, quadratic split) over axis-aligned rectangles.
+ * The index is not thread safe, callers guard it with their own lock. {@link #search} doesn't modify the index,
+ * so it can run under an optimistic stamp: instead of looping on a tree observed in the middle of a write
+ * it throws {@link IllegalStateException}.
+ * @param <T> indexed value type, values are matched by identity
+ */
+public final class SpatialIndex<T> {
+
+    private static final int MAX_ENTRIES = 16;
+    private static final int MIN_ENTRIES = 6;
+
+    private Node<T> root = new Node<>(0);
+
+    private int size;
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Insert value with specific bounds
+     * @throws IllegalArgumentException if the bounds are wrong
+     */
+    public void insert(T value, double minX, double minY, double maxX, double maxY) {
+        Validate.notNull(value, "value can't be null");
+        Validate.isTrue(minX <= maxX && minY <= maxY, "Invalid bounds");
+
+        insertEntry(new Entry<>(minX, minY, maxX, maxY, value, null), 0);
+        size++;
+    }
+
+    /**
+     * Fill an empty index packing the values into full nodes (Sort-Tile-Recursive), much faster than inserting them one by one
+     * @param bounds minX, minY, maxX, maxY of every value in a row
+     * @throws IllegalStateException if the index is not empty
+     * @throws IllegalArgumentException if the bounds are wrong
+     */
+    public void load(List<T> values, double[] bounds) {
+        Validate.notNull(values, "values can't be null");
+        Validate.notNull(bounds, "bounds can't be null");
+        Validate.isTrue(bounds.length == values.size() * 4L, "Invalid bounds count");
+        Validate.validState(size == 0, "Index is not empty");
+
+        var entries = new ArrayList<Entry<T>>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            double minX = bounds[4 * i], minY = bounds[4 * i + 1], maxX = bounds[4 * i + 2], maxY = bounds[4 * i + 3];
+            Validate.notNull(values.get(i), "value can't be null");
+            Validate.isTrue(minX <= maxX && minY <= maxY, "Invalid bounds");
+            entries.add(new Entry<>(minX, minY, maxX, maxY, values.get(i), null));
+        }
+        if(entries.isEmpty())
+            return;
+
+        var level = 0;
+        var nodes = pack(entries, level);
+        while (nodes.size() > 1) {
+            entries = new ArrayList<>(nodes.size());
+            for (Node<T> node : nodes) {
+                entries.add(Entry.of(node));
+            }
+            nodes = pack(entries, ++level);
+        }
+        root = nodes.get(0);
+        size = values.size();
+    }
+
+    /**
+     * Remove value inserted with the same bounds
+     * @return true if the value was found and removed
+     */
+    public boolean remove(T value, double minX, double minY, double maxX, double maxY) {
+        Validate.notNull(value, "value can't be null");
+
+        var orphans = new ArrayList<Node<T>>();
+        if(!remove(root, value, minX, minY, maxX, maxY, orphans))
+            return false;
+
+        size--;
+        for (Node<T> orphan : orphans) {
+            for (Entry<T> entry : orphan.entries) {
+                insertEntry(entry, orphan.level);
+            }
+        }
+        while (root.level > 0 && root.entries.size() == 1) {
+            root = root.entries.get(0).child;
+        }
+        return true;
+    }
+
+    /**
+     * Find values which bounds intersect the area. Touching edges are not treated as intersection.
+     * @return values in no particular order
+     */
+    public List<T> search(double minX, double minY, double maxX, double maxY) {
+        var result = new ArrayList<T>();
+        if(size == 0)
+            return result;
+
+        // Every node but the root holds at least MIN_ENTRIES entries
+        var budget = 2 * size / MIN_ENTRIES + 2;
+        var stack = new ArrayDeque<Node<T>>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            if(--budget < 0)
+                throw new IllegalStateException("Index was modified during the search");
+            var node = stack.pop();
+            for (Entry<T> entry : node.entries) {
+                if(!entry.intersects(minX, minY, maxX, maxY))
+                    continue;
+                if(node.level == 0)
+                    result.add(entry.value);
+                else
+                    stack.push(entry.child);
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        root = new Node<>(0);
+        size = 0;
+    }
+
+    private void insertEntry(Entry<T> entry, int level) {
+        var sibling = insert(root, entry, level);
+        if(sibling != null){
+            var newRoot = new Node<T>(root.level + 1);
+            newRoot.entries.add(Entry.of(root));
+            newRoot.entries.add(Entry.of(sibling));
+            root = newRoot;
+        }
+    }
+
+    private Node<T> insert(Node<T> node, Entry<T> entry, int level) {
+        if(node.level == level){
+            node.entries.add(entry);
+        }
+        else{
+            var target = chooseSubtree(node, entry);
+            var sibling = insert(target.child, entry, level);
+            target.fit(target.child);
+            if(sibling != null)
+                node.entries.add(Entry.of(sibling));
+        }
+        return node.entries.size() > MAX_ENTRIES ? split(node) : null;
+    }
+
+    /**
+     * Group entries into nodes: vertical slices by x, then runs by y inside a slice.
+     * Slices and runs are cut evenly, so every node of several gets at least MAX_ENTRIES / 2 entries.
+     */
+    private static <T> List<Node<T>> pack(List<Entry<T>> entries, int level) {
+        var nodeCount = (entries.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        var sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        var nodes = new ArrayList<Node<T>>(nodeCount);
+
+        sortByCenter(entries, true);
+        for (int slice = 0; slice < sliceCount; slice++) {
+            var sliceEntries = entries.subList((int) ((long) entries.size() * slice / sliceCount),
+                    (int) ((long) entries.size() * (slice + 1) / sliceCount));
+            sortByCenter(sliceEntries, false);
+
+            var groupCount = (sliceEntries.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+            for (int group = 0; group < groupCount; group++) {
+                var node = new Node<T>(level);
+                node.entries.addAll(sliceEntries.subList(sliceEntries.size() * group / groupCount,
+                        sliceEntries.size() * (group + 1) / groupCount));
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Sort entries by the center along one axis. A key is the float center packed with the entry position into a long,
+     * so the sort runs over primitives. Float precision only affects how entries are grouped.
+     */
+    private static <T> void sortByCenter(List<Entry<T>> entries, boolean alongX) {
+        var keys = new long[entries.size()];
+        for (int i = 0; i < keys.length; i++) {
+            var entry = entries.get(i);
+            var bits = Float.floatToIntBits((float) (alongX ? entry.minX + entry.maxX : entry.minY + entry.maxY));
+            // Negative floats sort in reverse as ints
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            keys[i] = ((long) bits << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        var unsorted = new ArrayList<>(entries);
+        for (int i = 0; i < keys.length; i++) {
+            entries.set(i, unsorted.get((int) keys[i]));
+        }
+    }
+
+    private Entry<T> chooseSubtree(Node<T> node, Entry<T> entry) {
+        Entry<T> best = null;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (Entry<T> candidate : node.entries) {
+            var area = candidate.area();
+            var enlargement = candidate.unionArea(entry) - area;
+            if(enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)){
+                best = candidate;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    private Node<T> split(Node<T> node) {
+        var entries = new ArrayList<>(node.entries);
+
+        int seed1 = 0, seed2 = 1;
+        double worstWaste = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < entries.size(); i++) {
+            for (int j = i + 1; j < entries.size(); j++) {
+                var a = entries.get(i);
+                var b = entries.get(j);
+                var waste = a.unionArea(b) - a.area() - b.area();
+                if(waste > worstWaste){
+                    worstWaste = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+
+        var group1 = new Node<T>(node.level);
+        var group2 = new Node<T>(node.level);
+        var bounds1 = entries.get(seed1).copyBounds();
+        var bounds2 = entries.get(seed2).copyBounds();
+        group1.entries.add(entries.get(seed1));
+        group2.entries.add(entries.get(seed2));
+        entries.remove(seed2);
+        entries.remove(seed1);
+
+        while (!entries.isEmpty()) {
+            if(group1.entries.size() + entries.size() == MIN_ENTRIES){
+                group1.entries.addAll(entries);
+                break;
+            }
+            if(group2.entries.size() + entries.size() == MIN_ENTRIES){
+                group2.entries.addAll(entries);
+                break;
+            }
+
+            int next = 0;
+            double maxPreference = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < entries.size(); i++) {
+                var entry = entries.get(i);
+                var preference = Math.abs((bounds1.unionArea(entry) - bounds1.area()) - (bounds2.unionArea(entry) - bounds2.area()));
+                if(preference > maxPreference){
+                    maxPreference = preference;
+                    next = i;
+                }
+            }
+
+            var entry = entries.remove(next);
+            var enlargement1 = bounds1.unionArea(entry) - bounds1.area();
+            var enlargement2 = bounds2.unionArea(entry) - bounds2.area();
+            var toFirst = enlargement1 < enlargement2
+                    || (enlargement1 == enlargement2 && group1.entries.size() <= group2.entries.size());
+            if(toFirst){
+                group1.entries.add(entry);
+                bounds1.include(entry);
+            }
+            else{
+                group2.entries.add(entry);
+                bounds2.include(entry);
+            }
+        }
+
+        node.entries.clear();
+        node.entries.addAll(group1.entries);
+        return group2;
+    }
+
+    private boolean remove(Node<T> node, T value, double minX, double minY, double maxX, double maxY, List<Node<T>> orphans) {
+        if(node.level == 0){
+            for (int i = 0; i < node.entries.size(); i++) {
+                if(node.entries.get(i).value == value){
+                    node.entries.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        for (int i = 0; i < node.entries.size(); i++) {
+            var entry = node.entries.get(i);
+            if(!entry.contains(minX, minY, maxX, maxY))
+                continue;
+            if(!remove(entry.child, value, minX, minY, maxX, maxY, orphans))
+                continue;
+
+            if(entry.child.entries.size() < MIN_ENTRIES){
+                node.entries.remove(i);
+                orphans.add(entry.child);
+            }
+            else{
+                entry.fit(entry.child);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static final class Node<T> {
+        private final int level;
+        private final List<Entry<T>> entries = new ArrayList<>(MAX_ENTRIES + 1);
+
+        Node(int level) {
+            this.level = level;
+        }
+    }
+
+    private static final class Entry<T> {
+        private double minX;
+        private double minY;
+        private double maxX;
+        private double maxY;
+        private final T value;
+        private final Node<T> child;
+
+        Entry(double minX, double minY, double maxX, double maxY, T value, Node<T> child) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.value = value;
+            this.child = child;
+        }
+
+        static <T> Entry<T> of(Node<T> child) {
+            var entry = new Entry<T>(0, 0, 0, 0, null, child);
+            entry.fit(child);
+            return entry;
+        }
+
+        Entry<T> copyBounds() {
+            return new Entry<>(minX, minY, maxX, maxY, null, null);
+        }
+
+        void fit(Node<T> node) {
+            minX = Double.POSITIVE_INFINITY;
+            minY = Double.POSITIVE_INFINITY;
+            maxX = Double.NEGATIVE_INFINITY;
+            maxY = Double.NEGATIVE_INFINITY;
+            for (Entry<T> entry : node.entries) {
+                include(entry);
+            }
+        }
+
+        void include(Entry<T> other) {
+            minX = Math.min(minX, other.minX);
+            minY = Math.min(minY, other.minY);
+            maxX = Math.max(maxX, other.maxX);
+            maxY = Math.max(maxY, other.maxY);
+        }
+
+        double area() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        double unionArea(Entry<T> other) {
+            return (Math.max(maxX, other.maxX) - Math.min(minX, other.minX))
+                    * (Math.max(maxY, other.maxY) - Math.min(minY, other.minY));
+        }
+
+        boolean intersects(double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+            return minX < otherMaxX && otherMinX < maxX && minY < otherMaxY && otherMinY < maxY;
+        }
+
+        boolean contains(double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+            return minX <= otherMinX && minY <= otherMinY && otherMaxX <= maxX && otherMaxY <= maxY;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.miro.core.data.index;
+
+import com.miro.core.data.internal.ImmutableLayout;
+import com.miro.core.data.internal.WidgetInternal;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * Widgets ordered by zIndex (treap) with a guid lookup.
+ * Inserting at an occupied zIndex shifts the tail with a lazy tag, so the cascade costs O(log n)
+ * instead of re-inserting every widget above the inserted one.
+ * Layout of a stored widget lacks the shifts pending on its ancestors, read it with {@link #layoutOf(WidgetInternal)}.
+ * The index is not thread safe, callers guard it with their own lock. Read methods don't modify the index, so they
+ * can run under an optimistic stamp: instead of looping on a tree observed in the middle of a write they throw
+ * {@link IllegalStateException}.
+ */
+public final class ZOrderIndex {
+
+    private Map<UUID, Node> nodes = new ConcurrentHashMap<>();
+    private Node root;
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    public WidgetInternal get(UUID guid) {
+        var node = nodes.get(guid);
+        return node != null ? node.widget : null;
+    }
+
+    /**
+     * Get widget layout with all pending zIndex shifts applied
+     * @throws IllegalArgumentException if the widget is not in the index
+     */
+    public ImmutableLayout layoutOf(WidgetInternal widget) {
+        var node = nodeOf(widget);
+        var budget = new TraversalBudget(size());
+        int zIndexShift = 0;
+        ImmutableLayout shiftedBy = null;
+        for (var ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            budget.step();
+            zIndexShift += ancestor.zIndexShift;
+            shiftedBy = latest(shiftedBy, ancestor.shiftedBy);
+        }
+        var layout = widget.getLayout();
+        return shiftedBy != null ? layout.shiftZIndex(zIndexShift, shiftedBy) : layout;
+    }
+
+    /**
+     * Get the widget with max zIndex
+     * @return widget or null if the index is empty
+     */
+    public WidgetInternal last() {
+        var node = root;
+        if(node == null)
+            return null;
+        var budget = new TraversalBudget(size());
+        while (node.right != null) {
+            budget.step();
+            node = node.right;
+        }
+        return node.widget;
+    }
+
+    /**
+     * Insert widget using zIndex of its layout. If the zIndex is occupied, the occupying widget and all widgets above it are shifted by one
+     * and get the updatedAtUtc and the version of the inserted widget.
+     * @return true if the widgets above were shifted
+     * @throws IllegalArgumentException if a widget with the same guid is already in the index
+     */
+    public boolean insert(WidgetInternal widget) {
+        Validate.notNull(widget, "widget can't be null");
+        Validate.isTrue(!nodes.containsKey(widget.getGuid()), "Widget is already in the index");
+
+        var zIndex = widget.getLayout().getzIndex();
+        var parts = split(root, zIndex);
+        var tail = parts[1];
+        var shifted = tail != null && zIndexOf(first(tail)) == zIndex;
+        if(shifted){
+            applyShift(tail, 1, widget.getLayout());
+        }
+
+        var node = new Node(widget);
+        nodes.put(widget.getGuid(), node);
+        root = merge(merge(parts[0], node), tail);
+        root.parent = null;
+        return shifted;
+    }
+
+    /**
+     * Fill an empty index in O(n), much faster than inserting the widgets one by one
+     * @param widgets widgets sorted by strictly increasing zIndex
+     * @throws IllegalStateException if the index is not empty
+     * @throws IllegalArgumentException if the widgets are not sorted or have equal guids
+     */
+    public void load(List<WidgetInternal> widgets) {
+        Validate.notNull(widgets, "widgets can't be null");
+        Validate.validState(isEmpty(), "Index is not empty");
+
+        nodes = new ConcurrentHashMap<>(widgets.size());
+        // The rightmost path of the tree built so far, from the root down
+        var spine = new ArrayDeque<Node>();
+        Node previous = null;
+        try {
+            for (WidgetInternal widget : widgets) {
+                Validate.notNull(widget, "widget can't be null");
+                Validate.isTrue(previous == null || zIndexOf(previous) < widget.getLayout().getzIndex(), "Widgets must be sorted by zIndex");
+                Validate.isTrue(!nodes.containsKey(widget.getGuid()), "Widget is already in the index");
+
+                var node = new Node(widget);
+                Node lastPopped = null;
+                while (!spine.isEmpty() && spine.peekLast().priority < node.priority) {
+                    lastPopped = spine.pollLast();
+                }
+                if(lastPopped != null)
+                    setLeft(node, lastPopped);
+                if(!spine.isEmpty())
+                    setRight(spine.peekLast(), node);
+                spine.addLast(node);
+                nodes.put(widget.getGuid(), node);
+                previous = node;
+            }
+        }
+        catch (IllegalArgumentException e){
+            nodes.clear();
+            throw e;
+        }
+
+        root = spine.peekFirst();
+        if(root != null)
+            updateSizes(root);
+    }
+
+    /**
+     * Remove widget, zIndex of other widgets is not changed
+     * @return true if the widget was in the index
+     */
+    public boolean remove(WidgetInternal widget) {
+        Validate.notNull(widget, "widget can't be null");
+        var node = nodes.get(widget.getGuid());
+        if(node == null || node.widget != widget)
+            return false;
+
+        resolve(node);
+        push(node);
+        var parent = node.parent;
+        var replacement = merge(node.left, node.right);
+        if(replacement != null)
+            replacement.parent = parent;
+        if(parent == null)
+            root = replacement;
+        else if(parent.left == node)
+            parent.left = replacement;
+        else
+            parent.right = replacement;
+        for (var ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            update(ancestor);
+        }
+
+        nodes.remove(widget.getGuid());
+        node.left = node.right = node.parent = null;
+        return true;
+    }
+
+    /**
+     * Apply pending zIndex shifts to the stored widget layout. Call it before modifying the widget layout.
+     * @throws IllegalArgumentException if the widget is not in the index
+     */
+    public void resolve(WidgetInternal widget) {
+        resolve(nodeOf(widget));
+    }
+
+    /**
+     * Visit widgets sorted by zIndex with pending zIndex shifts applied
+     */
+    public void forEach(BiConsumer<WidgetInternal, ImmutableLayout> consumer) {
+        forEach(0, size(), consumer);
+    }
+
+    /**
+     * Visit widgets sorted by zIndex starting from position offset, the start is found by subtree sizes in O(log n)
+     * @param offset number of the lowest widgets to skip
+     * @param limit max number of visited widgets
+     */
+    public void forEach(int offset, int limit, BiConsumer<WidgetInternal, ImmutableLayout> consumer) {
+        Validate.isTrue(offset >= 0, "offset can't be negative");
+        Validate.isTrue(limit >= 0, "limit can't be negative");
+        Validate.notNull(consumer, "consumer can't be null");
+
+        var path = new ArrayDeque<Frame>();
+        var budget = new TraversalBudget(size());
+        var node = root;
+        int zIndexShift = 0;
+        ImmutableLayout shiftedBy = null;
+        int position = offset;
+        while (node != null) {
+            budget.step();
+            var leftSize = sizeOf(node.left);
+            var frame = new Frame(node, zIndexShift, shiftedBy);
+            zIndexShift = frame.childShift();
+            shiftedBy = frame.childShiftedBy();
+            if(position < leftSize){
+                path.push(frame);
+                node = node.left;
+            }
+            else if(position == leftSize){
+                path.push(frame);
+                break;
+            }
+            else{
+                position -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        visitInOrder(path, budget, limit, consumer);
+    }
+
+    /**
+     * Visit widgets with zIndex greater than the value sorted by zIndex
+     * @param afterZIndex exclusive lower bound of zIndex
+     * @param limit max number of visited widgets
+     */
+    public void forEachAfter(int afterZIndex, int limit, BiConsumer<WidgetInternal, ImmutableLayout> consumer) {
+        Validate.isTrue(limit >= 0, "limit can't be negative");
+        Validate.notNull(consumer, "consumer can't be null");
+
+        var path = new ArrayDeque<Frame>();
+        var budget = new TraversalBudget(size());
+        var node = root;
+        int zIndexShift = 0;
+        ImmutableLayout shiftedBy = null;
+        while (node != null) {
+            budget.step();
+            var frame = new Frame(node, zIndexShift, shiftedBy);
+            zIndexShift = frame.childShift();
+            shiftedBy = frame.childShiftedBy();
+            if(zIndexOf(node) + frame.zIndexShift > afterZIndex){
+                path.push(frame);
+                node = node.left;
+            }
+            else{
+                node = node.right;
+            }
+        }
+        visitInOrder(path, budget, limit, consumer);
+    }
+
+    public void clear() {
+        nodes.clear();
+        root = null;
+    }
+
+    /**
+     * Visit nodes in order starting from the top of the path. The path holds nodes which are not visited yet
+     * and which right subtrees are not visited yet, the closest one on top.
+     */
+    private void visitInOrder(Deque<Frame> path, TraversalBudget budget, int limit, BiConsumer<WidgetInternal, ImmutableLayout> consumer) {
+        int visited = 0;
+        while (visited < limit && !path.isEmpty()) {
+            var frame = path.pop();
+            consumer.accept(frame.node.widget, frame.layout());
+            visited++;
+
+            var node = frame.node.right;
+            int zIndexShift = frame.childShift();
+            var shiftedBy = frame.childShiftedBy();
+            while (node != null) {
+                budget.step();
+                var child = new Frame(node, zIndexShift, shiftedBy);
+                path.push(child);
+                zIndexShift = child.childShift();
+                shiftedBy = child.childShiftedBy();
+                node = node.left;
+            }
+        }
+    }
+
+    private Node nodeOf(WidgetInternal widget) {
+        Validate.notNull(widget, "widget can't be null");
+        var node = nodes.get(widget.getGuid());
+        Validate.isTrue(node != null && node.widget == widget, "Widget is not in the index");
+        return node;
+    }
+
+    private void resolve(Node node) {
+        if(node.parent != null) {
+            resolve(node.parent);
+            push(node.parent);
+        }
+    }
+
+    /**
+     * Split the tree into widgets with zIndex less than the value and the rest
+     */
+    private Node[] split(Node node, int zIndex) {
+        if(node == null)
+            return new Node[2];
+
+        push(node);
+        if(zIndexOf(node) < zIndex){
+            var parts = split(node.right, zIndex);
+            setRight(node, parts[0]);
+            update(node);
+            parts[0] = node;
+            node.parent = null;
+            return parts;
+        }
+        var parts = split(node.left, zIndex);
+        setLeft(node, parts[1]);
+        update(node);
+        parts[1] = node;
+        node.parent = null;
+        return parts;
+    }
+
+    /**
+     * Merge trees, all widgets in the left tree are below the widgets in the right one
+     */
+    private Node merge(Node left, Node right) {
+        if(left == null)
+            return right;
+        if(right == null)
+            return left;
+
+        if(left.priority > right.priority){
+            push(left);
+            setRight(left, merge(left.right, right));
+            update(left);
+            return left;
+        }
+        push(right);
+        setLeft(right, merge(left, right.left));
+        update(right);
+        return right;
+    }
+
+    private Node first(Node node) {
+        push(node);
+        while (node.left != null) {
+            node = node.left;
+            push(node);
+        }
+        return node;
+    }
+
+    private void push(Node node) {
+        if(node.shiftedBy == null)
+            return;
+        if(node.left != null)
+            applyShift(node.left, node.zIndexShift, node.shiftedBy);
+        if(node.right != null)
+            applyShift(node.right, node.zIndexShift, node.shiftedBy);
+        node.zIndexShift = 0;
+        node.shiftedBy = null;
+    }
+
+    private static void applyShift(Node node, int zIndexShift, ImmutableLayout shiftedBy) {
+        node.widget.shiftZIndex(zIndexShift, shiftedBy);
+        node.zIndexShift += zIndexShift;
+        node.shiftedBy = latest(node.shiftedBy, shiftedBy);
+    }
+
+    private static int updateSizes(Node node) {
+        node.size = 1 + (node.left != null ? updateSizes(node.left) : 0) + (node.right != null ? updateSizes(node.right) : 0);
+        return node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + sizeOf(node.left) + sizeOf(node.right);
+    }
+
+    private static void setLeft(Node node, Node child) {
+        node.left = child;
+        if(child != null)
+            child.parent = node;
+    }
+
+    private static void setRight(Node node, Node child) {
+        node.right = child;
+        if(child != null)
+            child.parent = node;
+    }
+
+    private static int sizeOf(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static int zIndexOf(Node node) {
+        return node.widget.getLayout().getzIndex();
+    }
+
+    /**
+     * @return layout of the latest inserted widget, its version is the greatest
+     */
+    private static ImmutableLayout latest(ImmutableLayout first, ImmutableLayout second) {
+        if(first == null)
+            return second;
+        if(second == null)
+            return first;
+        return second.getVersion() > first.getVersion() ? second : first;
+    }
+
+    /**
+     * Bounds a read traversal by the number of nodes, a consistent tree is never walked further
+     */
+    private static final class TraversalBudget {
+        private int steps;
+
+        TraversalBudget(int size) {
+            this.steps = size + 1;
+        }
+
+        void step() {
+            if(--steps < 0)
+                throw new IllegalStateException("Index was modified during the traversal");
+        }
+    }
+
+    /**
+     * Node with the shift pending on its ancestors
+     */
+    private static final class Frame {
+        private final Node node;
+        private final int zIndexShift;
+        private final ImmutableLayout shiftedBy;
+
+        Frame(Node node, int zIndexShift, ImmutableLayout shiftedBy) {
+            this.node = node;
+            this.zIndexShift = zIndexShift;
+            this.shiftedBy = shiftedBy;
+        }
+
+        ImmutableLayout layout() {
+            var layout = node.widget.getLayout();
+            return shiftedBy != null ? layout.shiftZIndex(zIndexShift, shiftedBy) : layout;
+        }
+
+        int childShift() {
+            return zIndexShift + node.zIndexShift;
+        }
+
+        ImmutableLayout childShiftedBy() {
+            return latest(shiftedBy, node.shiftedBy);
+        }
+    }
+
+    private static final class Node {
+        private final WidgetInternal widget;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node left;
+        private Node right;
+        private Node parent;
+        private int size = 1;
+
+        // Shift pending for the children, the node widget has it applied already
+        private int zIndexShift;
+        private ImmutableLayout shiftedBy;
+
+        Node(WidgetInternal widget) {
+            this.widget = widget;
+        }
+    }
+}
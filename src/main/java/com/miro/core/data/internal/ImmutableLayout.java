@@ -5,9 +5,12 @@ import org.apache.commons.lang3.Validate;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class ImmutableLayout{
 
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
     private final ImmutableSize size;
     public ImmutableSize getSize() {
         return size;
@@ -28,7 +31,25 @@ public final class ImmutableLayout{
         return updatedAtUtc;
     }
 
+    private final long version;
+    /**
+     * @return version of the widget owning the layout. Every created or updated layout gets a new version, greater than
+     * the versions of the layouts created before it in the process. A shifted layout gets the version of the inserted
+     * widget which shifted it, so the version changes with every change of the widget
+     */
+    public long getVersion() {
+        return version;
+    }
+
     ImmutableLayout(ImmutableSize size, ImmutableVertex vertex, int zIndex) {
+        this(size, vertex, zIndex, LocalDateTime.now( ZoneOffset.UTC ));
+    }
+
+    ImmutableLayout(ImmutableSize size, ImmutableVertex vertex, int zIndex, LocalDateTime updatedAtUtc) {
+        this(size, vertex, zIndex, updatedAtUtc, VERSIONS.incrementAndGet());
+    }
+
+    private ImmutableLayout(ImmutableSize size, ImmutableVertex vertex, int zIndex, LocalDateTime updatedAtUtc, long version) {
         Validate.notNull(size, "ImmutableLayout size can't be null");
         Validate.notNull(vertex, "ImmutableLayout vertex can't be null");
         if (zIndex < 0)
@@ -37,7 +58,22 @@ public final class ImmutableLayout{
         this.size = size;
         this.vertex = vertex;
         this.zIndex = zIndex;
-        updatedAtUtc = LocalDateTime.now( ZoneOffset.UTC );
+        this.updatedAtUtc = updatedAtUtc;
+        this.version = version;
+    }
+
+    /**
+     * Get layout moved along z axis
+     * @param zIndexShift value added to zIndex
+     * @param shiftedBy layout of the inserted widget which caused the shift, the result keeps the latest of its
+     *                  timestamp and the current one and the greatest of the versions
+     * @return new [ImmutableLayout] object
+     */
+    public ImmutableLayout shiftZIndex(int zIndexShift, ImmutableLayout shiftedBy) {
+        Validate.notNull(shiftedBy, "shiftedBy can't be null");
+        var shiftedAtUtc = shiftedBy.getUpdatedAtUtc();
+        var shiftedUpdatedAtUtc = shiftedAtUtc.isAfter(updatedAtUtc) ? shiftedAtUtc : updatedAtUtc;
+        return new ImmutableLayout(size, vertex, zIndex + zIndexShift, shiftedUpdatedAtUtc, Math.max(version, shiftedBy.getVersion()));
     }
 
     @Override
@@ -4,9 +4,9 @@ import org.apache.commons.lang3.Validate;
 
 import java.time.Clock;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.Comparator;
 import java.util.UUID;
-import java.util.concurrent.locks.StampedLock;
 import static java.util.Collections.reverseOrder;
 import static java.util.Comparator.comparing;
 
@@ -33,7 +33,12 @@ public final class WidgetInternal implements Comparable<WidgetInternal>{
     }
 
     public void createWidgetLayout(WidgetLayoutInfo widgetLayoutInfo) {
+        createWidgetLayout(widgetLayoutInfo, LocalDateTime.now(ZoneOffset.UTC));
+    }
+
+    public void createWidgetLayout(WidgetLayoutInfo widgetLayoutInfo, LocalDateTime updatedAtUtc) {
         Validate.notNull(widgetLayoutInfo, "widgetLayoutInfo can't be null");
+        Validate.notNull(updatedAtUtc, "updatedAtUtc can't be null");
         Validate.notNull(widgetLayoutInfo.getHeight(), "widgetLayoutInfo height can't be null");
         Validate.notNull(widgetLayoutInfo.getWidth(), "widgetLayoutInfo width  can't be null");
         Validate.notNull(widgetLayoutInfo.getX(), "widgetLayoutInfo x  can't be null");
@@ -50,12 +55,17 @@ public final class WidgetInternal implements Comparable<WidgetInternal>{
 
         var widgetLayoutZIndex = widgetLayoutInfo.getzIndex();
 
-        var newWidgetLayout = new ImmutableLayout(widgetLayoutSize,widgetLayoutVertex,widgetLayoutZIndex);
+        var newWidgetLayout = new ImmutableLayout(widgetLayoutSize,widgetLayoutVertex,widgetLayoutZIndex,updatedAtUtc);
         layout = newWidgetLayout;
     }
 
     public void updateWidgetLayout(WidgetLayoutInfo widgetLayoutInfo) {
+        updateWidgetLayout(widgetLayoutInfo, LocalDateTime.now(ZoneOffset.UTC));
+    }
+
+    public void updateWidgetLayout(WidgetLayoutInfo widgetLayoutInfo, LocalDateTime updatedAtUtc) {
         Validate.notNull(widgetLayoutInfo, "widgetLayoutInfo can't be null");
+        Validate.notNull(updatedAtUtc, "updatedAtUtc can't be null");
         if(layout == null)
             throw new IllegalStateException("layout == null");
 
@@ -83,19 +93,15 @@ public final class WidgetInternal implements Comparable<WidgetInternal>{
         }
 
         var widgetLayoutZIndex = widgetLayoutInfo.getzIndex() != null ? widgetLayoutInfo.getzIndex() : layout.getzIndex();
-        var newWidgetLayout = new ImmutableLayout(widgetLayoutSize,widgetLayoutVertex,widgetLayoutZIndex);
+        var newWidgetLayout = new ImmutableLayout(widgetLayoutSize,widgetLayoutVertex,widgetLayoutZIndex,updatedAtUtc);
         layout = newWidgetLayout;
     }
 
-    public void IncrementZIndex() {
+    public void shiftZIndex(int zIndexShift, ImmutableLayout shiftedBy) {
         if(layout == null)
             throw new IllegalStateException("layout == null");
 
-        ImmutableSize layoutSize = layout.getSize();
-        ImmutableVertex layoutVertex = layout.getVertex();
-
-        var updatedLayout = new ImmutableLayout((ImmutableSize)layoutSize.clone(), (ImmutableVertex)layoutVertex.clone(),layout.getzIndex() + 1);
-        layout = updatedLayout;
+        layout = layout.shiftZIndex(zIndexShift, shiftedBy);
     }
 
 
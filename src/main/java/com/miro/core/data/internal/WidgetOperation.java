@@ -0,0 +1,79 @@
+package com.miro.core.data.internal;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.UUID;
+
+/**
+ * Single create, update or remove request of a widgets batch
+ */
+public final class WidgetOperation {
+
+    public enum Type {
+        CREATE,
+        UPDATE,
+        REMOVE
+    }
+
+    private final Type type;
+    public Type getType() {
+        return type;
+    }
+
+    private final UUID widgetGuid;
+    public UUID getWidgetGuid() {
+        return widgetGuid;
+    }
+
+    private final WidgetLayoutInfo widgetLayoutInfo;
+    public WidgetLayoutInfo getWidgetLayoutInfo() {
+        return widgetLayoutInfo;
+    }
+
+    private WidgetOperation(Type type, UUID widgetGuid, WidgetLayoutInfo widgetLayoutInfo) {
+        this.type = type;
+        this.widgetGuid = widgetGuid;
+        this.widgetLayoutInfo = widgetLayoutInfo;
+    }
+
+    /**
+     * @param widgetLayoutInfo widget layout information. zIndex can be null
+     * @throws NullPointerException if the widgetLayoutInfo is null
+     */
+    public static WidgetOperation create(WidgetLayoutInfo widgetLayoutInfo) {
+        Validate.notNull(widgetLayoutInfo, "widgetLayoutInfo can't be null");
+        return new WidgetOperation(Type.CREATE, null, widgetLayoutInfo);
+    }
+
+    /**
+     * Create operation with the guid of the created widget, replaying it creates the same widget
+     * @throws NullPointerException if the widgetGuid or widgetLayoutInfo is null
+     */
+    public static WidgetOperation create(UUID widgetGuid, WidgetLayoutInfo widgetLayoutInfo) {
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
+        Validate.notNull(widgetLayoutInfo, "widgetLayoutInfo can't be null");
+        return new WidgetOperation(Type.CREATE, widgetGuid, widgetLayoutInfo);
+    }
+
+    /**
+     * @throws NullPointerException if the widgetGuid or widgetLayoutInfo is null
+     */
+    public static WidgetOperation update(UUID widgetGuid, WidgetLayoutInfo widgetLayoutInfo) {
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
+        Validate.notNull(widgetLayoutInfo, "widgetLayoutInfo can't be null");
+        return new WidgetOperation(Type.UPDATE, widgetGuid, widgetLayoutInfo);
+    }
+
+    /**
+     * @throws NullPointerException if the widgetGuid is null
+     */
+    public static WidgetOperation remove(UUID widgetGuid) {
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
+        return new WidgetOperation(Type.REMOVE, widgetGuid, null);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WidgetOperation {type=%s, guid=%s}", type, widgetGuid);
+    }
+}
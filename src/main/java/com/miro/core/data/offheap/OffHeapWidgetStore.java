@@ -0,0 +1,701 @@
+package com.miro.core.data.offheap;
+
+import org.apache.commons.lang3.Validate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.miro.core.data.offheap.WidgetRecords.*;
+
+/**
+ * Widgets kept as fixed-size records in direct buffers, so a million-widget board is a few large buffers
+ * instead of millions of small heap objects.
+ * Records are ordered by zIndex with a treap linked through the records. Inserting at an occupied zIndex shifts the tail
+ * with a lazy tag, the same way as {@link com.miro.core.data.index.ZOrderIndex} does. Filtration uses hashed grids
+ * linked through the records, one grid per power of two of the cell size, a widget is kept in the grid of the smallest cells
+ * it fits in.
+ * Guid lookup is an open addressing table of slots. None of the structures allocates per widget.
+ * The store is not thread safe, callers guard it with their own lock.
+ */
+public final class OffHeapWidgetStore {
+
+    public static final int NONE = NIL;
+
+    private static final long NO_SHIFT = Long.MIN_VALUE;
+    private static final int MIN_GRID_BUCKETS = 1024;
+    private static final int GRID_LEVELS = 32;
+
+    /**
+     * Receives a widget record with all pending zIndex shifts applied
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(int slot, int zIndex, long updatedAtEpochNanos);
+    }
+
+    private final WidgetRecords records = new WidgetRecords();
+    private final double[] cellSizes = new double[GRID_LEVELS];
+
+    private int root = NIL;
+
+    // Slot + 1 per entry, 0 is an empty entry
+    private int[] guidTable = new int[16];
+
+    // All grid levels share the buckets
+    private int[] gridBuckets = newGridBuckets(MIN_GRID_BUCKETS);
+    private final int[] levelSizes = new int[GRID_LEVELS];
+    // Widgets larger than the cells of the last level
+    private int oversizedHead = NIL;
+
+    // Results of split
+    private int splitLeft;
+    private int splitRight;
+
+    private int size;
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param cellSize side of the smallest grid cell, choose it about the size of a typical widget
+     * @throws IllegalArgumentException if the cellSize is not positive
+     */
+    public OffHeapWidgetStore(double cellSize) {
+        Validate.isTrue(Double.isFinite(cellSize) && cellSize > 0, "cellSize must be positive");
+        for (int level = 0; level < GRID_LEVELS; level++) {
+            cellSizes[level] = cellSize * (1L << level);
+        }
+    }
+
+    public static long toEpochNanos(LocalDateTime dateTimeUtc) {
+        return Math.addExact(Math.multiplyExact(dateTimeUtc.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L), dateTimeUtc.getNano());
+    }
+
+    public static LocalDateTime fromEpochNanos(long epochNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), (int) Math.floorMod(epochNanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+    /**
+     * @return bytes reserved for records
+     */
+    public long capacityBytes() {
+        return records.capacityBytes();
+    }
+
+    /**
+     * @return slot of the widget or {@link #NONE}
+     */
+    public int find(UUID guid) {
+        Validate.notNull(guid, "guid can't be null");
+        var mostSigBits = guid.getMostSignificantBits();
+        var leastSigBits = guid.getLeastSignificantBits();
+        var mask = guidTable.length - 1;
+        for (int i = hash(mostSigBits, leastSigBits) & mask; guidTable[i] != 0; i = (i + 1) & mask) {
+            var slot = guidTable[i] - 1;
+            if(records.getLong(slot, GUID_MOST_SIG_BITS) == mostSigBits && records.getLong(slot, GUID_LEAST_SIG_BITS) == leastSigBits)
+                return slot;
+        }
+        return NONE;
+    }
+
+    public UUID getGuid(int slot) {
+        return new UUID(records.getLong(slot, GUID_MOST_SIG_BITS), records.getLong(slot, GUID_LEAST_SIG_BITS));
+    }
+
+    public double getX(int slot) {
+        return records.getDouble(slot, X);
+    }
+
+    public double getY(int slot) {
+        return records.getDouble(slot, Y);
+    }
+
+    public double getWidth(int slot) {
+        return records.getDouble(slot, WIDTH);
+    }
+
+    public double getHeight(int slot) {
+        return records.getDouble(slot, HEIGHT);
+    }
+
+    /**
+     * @return zIndex with all pending shifts applied
+     */
+    public int zIndexOf(int slot) {
+        var zIndex = records.getInt(slot, Z_INDEX);
+        for (int ancestor = parent(slot); ancestor != NIL; ancestor = parent(ancestor)) {
+            zIndex += records.getInt(ancestor, Z_INDEX_SHIFT);
+        }
+        return zIndex;
+    }
+
+    /**
+     * @return update timestamp with all pending shifts applied
+     */
+    public long updatedAtOf(int slot) {
+        var updatedAt = records.getLong(slot, UPDATED_AT);
+        for (int ancestor = parent(slot); ancestor != NIL; ancestor = parent(ancestor)) {
+            updatedAt = Math.max(updatedAt, records.getLong(ancestor, SHIFTED_AT));
+        }
+        return updatedAt;
+    }
+
+    /**
+     * @return slot of the widget with max zIndex or {@link #NONE} if the store is empty
+     */
+    public int last() {
+        var slot = root;
+        if(slot == NIL)
+            return NONE;
+        while (right(slot) != NIL) {
+            slot = right(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Insert widget. If the zIndex is occupied, the occupying widget and all widgets above it are shifted by one.
+     * @param updatedAtEpochNanos update timestamp of the widget and of the shifted widgets
+     * @return slot of the widget
+     * @throws IllegalArgumentException if a widget with the same guid is already in the store
+     */
+    public int insert(UUID guid, double x, double y, double width, double height, int zIndex, long updatedAtEpochNanos) {
+        Validate.isTrue(find(guid) == NONE, "Widget is already in the store");
+
+        split(root, zIndex);
+        var head = splitLeft;
+        var tail = splitRight;
+        if(tail != NIL && records.getInt(first(tail), Z_INDEX) == zIndex){
+            applyShift(tail, 1, updatedAtEpochNanos);
+        }
+
+        var slot = records.allocate();
+        records.putLong(slot, GUID_MOST_SIG_BITS, guid.getMostSignificantBits());
+        records.putLong(slot, GUID_LEAST_SIG_BITS, guid.getLeastSignificantBits());
+        records.putDouble(slot, X, x);
+        records.putDouble(slot, Y, y);
+        records.putDouble(slot, WIDTH, width);
+        records.putDouble(slot, HEIGHT, height);
+        records.putLong(slot, UPDATED_AT, updatedAtEpochNanos);
+        records.putInt(slot, Z_INDEX, zIndex);
+        records.putInt(slot, Z_INDEX_SHIFT, 0);
+        records.putLong(slot, SHIFTED_AT, NO_SHIFT);
+        records.putInt(slot, LEFT, NIL);
+        records.putInt(slot, RIGHT, NIL);
+        records.putInt(slot, PARENT, NIL);
+        records.putInt(slot, SIZE, 1);
+        records.putInt(slot, PRIORITY, ThreadLocalRandom.current().nextInt());
+
+        root = merge(merge(head, slot), tail);
+        records.putInt(root, PARENT, NIL);
+
+        putGuid(slot);
+        size++;
+        if(size > gridBuckets.length)
+            rebuildGrid(gridBuckets.length * 2);
+        else
+            link(slot);
+        return slot;
+    }
+
+    /**
+     * Change widget bounds, zIndex is kept
+     */
+    public void move(int slot, double x, double y, double width, double height, long updatedAtEpochNanos) {
+        resolve(slot);
+        unlink(slot);
+        records.putDouble(slot, X, x);
+        records.putDouble(slot, Y, y);
+        records.putDouble(slot, WIDTH, width);
+        records.putDouble(slot, HEIGHT, height);
+        records.putLong(slot, UPDATED_AT, updatedAtEpochNanos);
+        link(slot);
+    }
+
+    /**
+     * Remove widget, zIndex of other widgets is not changed. The slot may be reused by the next insert.
+     */
+    public void remove(int slot) {
+        resolve(slot);
+        push(slot);
+        var parent = parent(slot);
+        var replacement = merge(left(slot), right(slot));
+        if(replacement != NIL)
+            records.putInt(replacement, PARENT, parent);
+        if(parent == NIL)
+            root = replacement;
+        else if(left(parent) == slot)
+            records.putInt(parent, LEFT, replacement);
+        else
+            records.putInt(parent, RIGHT, replacement);
+        for (int ancestor = parent; ancestor != NIL; ancestor = parent(ancestor)) {
+            update(ancestor);
+        }
+
+        unlink(slot);
+        removeGuid(slot);
+        records.release(slot);
+        size--;
+    }
+
+    /**
+     * Visit widgets sorted by zIndex starting from position offset
+     * @param offset number of the lowest widgets to skip
+     * @param limit max number of visited widgets
+     */
+    public void forEach(int offset, int limit, RecordConsumer consumer) {
+        Validate.isTrue(offset >= 0, "offset can't be negative");
+        Validate.isTrue(limit >= 0, "limit can't be negative");
+        Validate.notNull(consumer, "consumer can't be null");
+
+        var path = new Path();
+        var slot = root;
+        int zIndexShift = 0;
+        long shiftedAt = NO_SHIFT;
+        int position = offset;
+        while (slot != NIL) {
+            var leftSize = sizeOf(left(slot));
+            if(position <= leftSize)
+                path.push(slot, zIndexShift, shiftedAt);
+            if(position == leftSize)
+                break;
+
+            var childShift = zIndexShift + records.getInt(slot, Z_INDEX_SHIFT);
+            shiftedAt = Math.max(shiftedAt, records.getLong(slot, SHIFTED_AT));
+            zIndexShift = childShift;
+            if(position < leftSize){
+                slot = left(slot);
+            }
+            else{
+                position -= leftSize + 1;
+                slot = right(slot);
+            }
+        }
+        visitInOrder(path, limit, consumer);
+    }
+
+    /**
+     * Visit widgets with zIndex greater than the value sorted by zIndex
+     * @param afterZIndex exclusive lower bound of zIndex
+     * @param limit max number of visited widgets
+     */
+    public void forEachAfter(int afterZIndex, int limit, RecordConsumer consumer) {
+        Validate.isTrue(limit >= 0, "limit can't be negative");
+        Validate.notNull(consumer, "consumer can't be null");
+
+        var path = new Path();
+        var slot = root;
+        int zIndexShift = 0;
+        long shiftedAt = NO_SHIFT;
+        while (slot != NIL) {
+            var isAfter = records.getInt(slot, Z_INDEX) + zIndexShift > afterZIndex;
+            if(isAfter)
+                path.push(slot, zIndexShift, shiftedAt);
+
+            zIndexShift += records.getInt(slot, Z_INDEX_SHIFT);
+            shiftedAt = Math.max(shiftedAt, records.getLong(slot, SHIFTED_AT));
+            slot = isAfter ? left(slot) : right(slot);
+        }
+        visitInOrder(path, limit, consumer);
+    }
+
+    /**
+     * Find widgets which bounds intersect the area. Touching edges are not treated as intersection.
+     * @return slots sorted by zIndex
+     */
+    public int[] search(double minX, double minY, double maxX, double maxY) {
+        var hits = new Hits();
+        collect(oversizedHead, minX, minY, maxX, maxY, hits);
+
+        // A widget of a level is not larger than its cell, so it starts at most one cell before the area
+        var cellCount = 0d;
+        for (int level = 0; level < GRID_LEVELS; level++) {
+            if(levelSizes[level] == 0)
+                continue;
+            var levelCellSize = cellSizes[level];
+            cellCount += (Math.floor(maxX / levelCellSize) - Math.floor(minX / levelCellSize) + 2)
+                    * (Math.floor(maxY / levelCellSize) - Math.floor(minY / levelCellSize) + 2);
+        }
+
+        if(cellCount >= gridBuckets.length){
+            for (int bucket = 0; bucket < gridBuckets.length; bucket++) {
+                collect(gridBuckets[bucket], minX, minY, maxX, maxY, hits);
+            }
+        }
+        else{
+            // Different cells may share a bucket, visit every bucket once
+            var buckets = new int[(int) cellCount];
+            var bucketCount = 0;
+            for (int level = 0; level < GRID_LEVELS; level++) {
+                if(levelSizes[level] == 0)
+                    continue;
+                var levelCellSize = cellSizes[level];
+                var lastCellX = (long) Math.floor(maxX / levelCellSize);
+                var lastCellY = (long) Math.floor(maxY / levelCellSize);
+                for (var cellX = (long) Math.floor(minX / levelCellSize) - 1; cellX <= lastCellX; cellX++) {
+                    for (var cellY = (long) Math.floor(minY / levelCellSize) - 1; cellY <= lastCellY; cellY++) {
+                        buckets[bucketCount++] = bucketOf(level, cellX, cellY);
+                    }
+                }
+            }
+            Arrays.sort(buckets, 0, bucketCount);
+            for (int i = 0; i < bucketCount; i++) {
+                if(i == 0 || buckets[i] != buckets[i - 1])
+                    collect(gridBuckets[buckets[i]], minX, minY, maxX, maxY, hits);
+            }
+        }
+
+        var keys = new long[hits.size];
+        for (int i = 0; i < hits.size; i++) {
+            keys[i] = ((long) zIndexOf(hits.slots[i]) << 32) | hits.slots[i];
+        }
+        Arrays.sort(keys);
+        var result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = (int) keys[i];
+        }
+        return result;
+    }
+
+    public void clear() {
+        records.clear();
+        root = NIL;
+        guidTable = new int[16];
+        gridBuckets = newGridBuckets(MIN_GRID_BUCKETS);
+        Arrays.fill(levelSizes, 0);
+        oversizedHead = NIL;
+        size = 0;
+    }
+
+    private void visitInOrder(Path path, int limit, RecordConsumer consumer) {
+        int visited = 0;
+        while (visited < limit && path.size > 0) {
+            path.pop();
+            var slot = path.slot;
+            consumer.accept(slot,
+                    records.getInt(slot, Z_INDEX) + path.zIndexShift,
+                    Math.max(records.getLong(slot, UPDATED_AT), path.shiftedAt));
+            visited++;
+
+            var zIndexShift = path.zIndexShift + records.getInt(slot, Z_INDEX_SHIFT);
+            var shiftedAt = Math.max(path.shiftedAt, records.getLong(slot, SHIFTED_AT));
+            for (var child = right(slot); child != NIL; child = left(child)) {
+                path.push(child, zIndexShift, shiftedAt);
+                zIndexShift += records.getInt(child, Z_INDEX_SHIFT);
+                shiftedAt = Math.max(shiftedAt, records.getLong(child, SHIFTED_AT));
+            }
+        }
+    }
+
+    private void collect(int head, double minX, double minY, double maxX, double maxY, Hits hits) {
+        for (int slot = head; slot != NIL; slot = records.getInt(slot, CELL_NEXT)) {
+            var x = records.getDouble(slot, X);
+            var y = records.getDouble(slot, Y);
+            if(x < maxX && minX < x + records.getDouble(slot, WIDTH) && y < maxY && minY < y + records.getDouble(slot, HEIGHT))
+                hits.add(slot);
+        }
+    }
+
+    // zIndex tree
+
+    /**
+     * Apply pending zIndex shifts of the ancestors to the record
+     */
+    private void resolve(int slot) {
+        var path = new Path();
+        for (int ancestor = parent(slot); ancestor != NIL; ancestor = parent(ancestor)) {
+            path.push(ancestor, 0, NO_SHIFT);
+        }
+        while (path.size > 0) {
+            path.pop();
+            push(path.slot);
+        }
+    }
+
+    /**
+     * Split the tree into widgets with zIndex less than the value (splitLeft) and the rest (splitRight)
+     */
+    private void split(int slot, int zIndex) {
+        if(slot == NIL){
+            splitLeft = splitRight = NIL;
+            return;
+        }
+
+        push(slot);
+        if(records.getInt(slot, Z_INDEX) < zIndex){
+            split(right(slot), zIndex);
+            setRight(slot, splitLeft);
+            update(slot);
+            records.putInt(slot, PARENT, NIL);
+            splitLeft = slot;
+            return;
+        }
+        split(left(slot), zIndex);
+        setLeft(slot, splitRight);
+        update(slot);
+        records.putInt(slot, PARENT, NIL);
+        splitRight = slot;
+    }
+
+    /**
+     * Merge trees, all widgets in the left tree are below the widgets in the right one
+     */
+    private int merge(int left, int right) {
+        if(left == NIL)
+            return right;
+        if(right == NIL)
+            return left;
+
+        if(records.getInt(left, PRIORITY) > records.getInt(right, PRIORITY)){
+            push(left);
+            setRight(left, merge(right(left), right));
+            update(left);
+            return left;
+        }
+        push(right);
+        setLeft(right, merge(left, left(right)));
+        update(right);
+        return right;
+    }
+
+    private int first(int slot) {
+        push(slot);
+        while (left(slot) != NIL) {
+            slot = left(slot);
+            push(slot);
+        }
+        return slot;
+    }
+
+    private void push(int slot) {
+        var shiftedAt = records.getLong(slot, SHIFTED_AT);
+        if(shiftedAt == NO_SHIFT)
+            return;
+        var zIndexShift = records.getInt(slot, Z_INDEX_SHIFT);
+        if(left(slot) != NIL)
+            applyShift(left(slot), zIndexShift, shiftedAt);
+        if(right(slot) != NIL)
+            applyShift(right(slot), zIndexShift, shiftedAt);
+        records.putInt(slot, Z_INDEX_SHIFT, 0);
+        records.putLong(slot, SHIFTED_AT, NO_SHIFT);
+    }
+
+    private void applyShift(int slot, int zIndexShift, long shiftedAt) {
+        records.putInt(slot, Z_INDEX, records.getInt(slot, Z_INDEX) + zIndexShift);
+        records.putLong(slot, UPDATED_AT, Math.max(records.getLong(slot, UPDATED_AT), shiftedAt));
+        records.putInt(slot, Z_INDEX_SHIFT, records.getInt(slot, Z_INDEX_SHIFT) + zIndexShift);
+        records.putLong(slot, SHIFTED_AT, Math.max(records.getLong(slot, SHIFTED_AT), shiftedAt));
+    }
+
+    private void update(int slot) {
+        records.putInt(slot, SIZE, 1 + sizeOf(left(slot)) + sizeOf(right(slot)));
+    }
+
+    private void setLeft(int slot, int child) {
+        records.putInt(slot, LEFT, child);
+        if(child != NIL)
+            records.putInt(child, PARENT, slot);
+    }
+
+    private void setRight(int slot, int child) {
+        records.putInt(slot, RIGHT, child);
+        if(child != NIL)
+            records.putInt(child, PARENT, slot);
+    }
+
+    private int left(int slot) {
+        return records.getInt(slot, LEFT);
+    }
+
+    private int right(int slot) {
+        return records.getInt(slot, RIGHT);
+    }
+
+    private int parent(int slot) {
+        return records.getInt(slot, PARENT);
+    }
+
+    private int sizeOf(int slot) {
+        return slot != NIL ? records.getInt(slot, SIZE) : 0;
+    }
+
+    // Guid table
+
+    private void putGuid(int slot) {
+        if((size + 1) * 2 > guidTable.length)
+            rehashGuids(guidTable.length * 2);
+
+        var mask = guidTable.length - 1;
+        var i = hash(records.getLong(slot, GUID_MOST_SIG_BITS), records.getLong(slot, GUID_LEAST_SIG_BITS)) & mask;
+        while (guidTable[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        guidTable[i] = slot + 1;
+    }
+
+    private void removeGuid(int slot) {
+        var mask = guidTable.length - 1;
+        var i = hash(records.getLong(slot, GUID_MOST_SIG_BITS), records.getLong(slot, GUID_LEAST_SIG_BITS)) & mask;
+        while (guidTable[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        guidTable[i] = 0;
+
+        // Move back the following entries of the probe run, so lookups don't stop at the hole
+        for (int j = (i + 1) & mask; guidTable[j] != 0; j = (j + 1) & mask) {
+            var entry = guidTable[j] - 1;
+            var home = hash(records.getLong(entry, GUID_MOST_SIG_BITS), records.getLong(entry, GUID_LEAST_SIG_BITS)) & mask;
+            var isHomeBetween = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if(!isHomeBetween){
+                guidTable[i] = guidTable[j];
+                guidTable[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private void rehashGuids(int capacity) {
+        var previous = guidTable;
+        guidTable = new int[capacity];
+        var mask = capacity - 1;
+        for (int entry : previous) {
+            if(entry == 0)
+                continue;
+            var slot = entry - 1;
+            var i = hash(records.getLong(slot, GUID_MOST_SIG_BITS), records.getLong(slot, GUID_LEAST_SIG_BITS)) & mask;
+            while (guidTable[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            guidTable[i] = entry;
+        }
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits) {
+        var hash = (mostSigBits ^ leastSigBits) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // Spatial grid
+
+    /**
+     * @return grid level of the widget or GRID_LEVELS if it is larger than the cells of all levels
+     */
+    private int levelOf(int slot) {
+        var extent = Math.max(records.getDouble(slot, WIDTH), records.getDouble(slot, HEIGHT));
+        var level = 0;
+        while (level < GRID_LEVELS && extent > cellSizes[level]) {
+            level++;
+        }
+        return level;
+    }
+
+    private int bucketOf(int level, int slot) {
+        var levelCellSize = cellSizes[level];
+        return bucketOf(level, (long) Math.floor(records.getDouble(slot, X) / levelCellSize), (long) Math.floor(records.getDouble(slot, Y) / levelCellSize));
+    }
+
+    private int bucketOf(int level, long cellX, long cellY) {
+        var hash = cellX * 0x9E3779B97F4A7C15L + cellY * 0xC2B2AE3D27D4EB4FL + level * 0x165667B19E3779F9L;
+        return (int) (hash ^ (hash >>> 29)) & (gridBuckets.length - 1);
+    }
+
+    private void link(int slot) {
+        var level = levelOf(slot);
+        var isOversized = level == GRID_LEVELS;
+        var bucket = isOversized ? NIL : bucketOf(level, slot);
+        var head = isOversized ? oversizedHead : gridBuckets[bucket];
+
+        records.putInt(slot, CELL_PREVIOUS, NIL);
+        records.putInt(slot, CELL_NEXT, head);
+        if(head != NIL)
+            records.putInt(head, CELL_PREVIOUS, slot);
+        if(isOversized){
+            oversizedHead = slot;
+        }
+        else{
+            gridBuckets[bucket] = slot;
+            levelSizes[level]++;
+        }
+    }
+
+    private void unlink(int slot) {
+        var level = levelOf(slot);
+        var isOversized = level == GRID_LEVELS;
+        if(!isOversized)
+            levelSizes[level]--;
+
+        var previous = records.getInt(slot, CELL_PREVIOUS);
+        var next = records.getInt(slot, CELL_NEXT);
+        if(next != NIL)
+            records.putInt(next, CELL_PREVIOUS, previous);
+        if(previous != NIL)
+            records.putInt(previous, CELL_NEXT, next);
+        else if(isOversized)
+            oversizedHead = next;
+        else
+            gridBuckets[bucketOf(level, slot)] = next;
+    }
+
+    private void rebuildGrid(int bucketCount) {
+        gridBuckets = newGridBuckets(bucketCount);
+        Arrays.fill(levelSizes, 0);
+        oversizedHead = NIL;
+        for (int entry : guidTable) {
+            if(entry != 0)
+                link(entry - 1);
+        }
+    }
+
+    private static int[] newGridBuckets(int count) {
+        var buckets = new int[count];
+        Arrays.fill(buckets, NIL);
+        return buckets;
+    }
+
+    /**
+     * Stack of tree records with the shift pending on their ancestors, the last popped entry is kept in the fields
+     */
+    private static final class Path {
+        private int[] slots = new int[64];
+        private int[] zIndexShifts = new int[64];
+        private long[] shiftedAts = new long[64];
+        private int size;
+
+        private int slot;
+        private int zIndexShift;
+        private long shiftedAt;
+
+        void push(int slot, int zIndexShift, long shiftedAt) {
+            if(size == slots.length){
+                slots = Arrays.copyOf(slots, size * 2);
+                zIndexShifts = Arrays.copyOf(zIndexShifts, size * 2);
+                shiftedAts = Arrays.copyOf(shiftedAts, size * 2);
+            }
+            slots[size] = slot;
+            zIndexShifts[size] = zIndexShift;
+            shiftedAts[size] = shiftedAt;
+            size++;
+        }
+
+        void pop() {
+            size--;
+            slot = slots[size];
+            zIndexShift = zIndexShifts[size];
+            shiftedAt = shiftedAts[size];
+        }
+    }
+
+    private static final class Hits {
+        private int[] slots = new int[16];
+        private int size;
+
+        void add(int slot) {
+            if(size == slots.length)
+                slots = Arrays.copyOf(slots, size * 2);
+            slots[size++] = slot;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.miro.core.data.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Fixed-size widget records in direct buffers, addressed by slot id.
+ * Records are allocated in chunks, a released slot is reused by the next allocation.
+ * Not thread safe, concurrent reads are safe while nothing is written.
+ */
+final class WidgetRecords {
+
+    static final int NIL = -1;
+
+    static final int GUID_MOST_SIG_BITS = 0;
+    static final int GUID_LEAST_SIG_BITS = 8;
+    static final int X = 16;
+    static final int Y = 24;
+    static final int WIDTH = 32;
+    static final int HEIGHT = 40;
+    // Epoch nanoseconds in UTC
+    static final int UPDATED_AT = 48;
+    // Shift pending for the children in the zIndex tree, the record itself has it applied already
+    static final int SHIFTED_AT = 56;
+    static final int Z_INDEX = 64;
+    static final int Z_INDEX_SHIFT = 68;
+    // zIndex tree links, LEFT also links free records
+    static final int LEFT = 72;
+    static final int RIGHT = 76;
+    static final int PARENT = 80;
+    static final int SIZE = 84;
+    static final int PRIORITY = 88;
+    // Spatial grid cell list links
+    static final int CELL_NEXT = 92;
+    static final int CELL_PREVIOUS = 96;
+    static final int RECORD_SIZE = 104;
+
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private int allocated;
+    private int freeHead = NIL;
+
+    /**
+     * @return slot of a record with undefined content
+     */
+    int allocate() {
+        if(freeHead != NIL){
+            var slot = freeHead;
+            freeHead = getInt(slot, LEFT);
+            return slot;
+        }
+        if(allocated == chunks.length * CHUNK_RECORDS){
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        }
+        return allocated++;
+    }
+
+    void release(int slot) {
+        putInt(slot, LEFT, freeHead);
+        freeHead = slot;
+    }
+
+    /**
+     * @return number of slots ever allocated, live and released ones
+     */
+    int allocated() {
+        return allocated;
+    }
+
+    long capacityBytes() {
+        return (long) chunks.length * CHUNK_RECORDS * RECORD_SIZE;
+    }
+
+    void clear() {
+        chunks = new ByteBuffer[0];
+        allocated = 0;
+        freeHead = NIL;
+    }
+
+    int getInt(int slot, int field) {
+        return chunks[slot >>> CHUNK_SHIFT].getInt(offset(slot, field));
+    }
+
+    void putInt(int slot, int field, int value) {
+        chunks[slot >>> CHUNK_SHIFT].putInt(offset(slot, field), value);
+    }
+
+    long getLong(int slot, int field) {
+        return chunks[slot >>> CHUNK_SHIFT].getLong(offset(slot, field));
+    }
+
+    void putLong(int slot, int field, long value) {
+        chunks[slot >>> CHUNK_SHIFT].putLong(offset(slot, field), value);
+    }
+
+    double getDouble(int slot, int field) {
+        return chunks[slot >>> CHUNK_SHIFT].getDouble(offset(slot, field));
+    }
+
+    void putDouble(int slot, int field, double value) {
+        chunks[slot >>> CHUNK_SHIFT].putDouble(offset(slot, field), value);
+    }
+
+    private static int offset(int slot, int field) {
+        return (slot & CHUNK_MASK) * RECORD_SIZE + field;
+    }
+}
@@ -0,0 +1,207 @@
+package com.miro.core.data.snapshot;
+
+import java.util.Arrays;
+
+/**
+ * Read-only R-tree packed with Sort-Tile-Recursive leaves over the items of a snapshot.
+ * Nodes are stored in flat arrays per level, node i of a level covers items [i * NODE_CAPACITY, (i + 1) * NODE_CAPACITY) of the level below.
+ */
+final class PackedSpatialIndex {
+
+    private static final int NODE_CAPACITY = 16;
+
+    private final int[] items;
+    private final double[] itemMinX;
+    private final double[] itemMinY;
+    private final double[] itemMaxX;
+    private final double[] itemMaxY;
+
+    // levels[0] is the leaf level, the last level holds the root
+    private final double[][] nodeMinX;
+    private final double[][] nodeMinY;
+    private final double[][] nodeMaxX;
+    private final double[][] nodeMaxY;
+
+    /**
+     * @param minX item bounds indexed by item position, the same for other bounds arrays
+     */
+    PackedSpatialIndex(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        var count = minX.length;
+        items = sortTileRecursive(minX, minY, maxX, maxY);
+
+        itemMinX = new double[count];
+        itemMinY = new double[count];
+        itemMaxX = new double[count];
+        itemMaxY = new double[count];
+        for (int i = 0; i < count; i++) {
+            var item = items[i];
+            itemMinX[i] = minX[item];
+            itemMinY[i] = minY[item];
+            itemMaxX[i] = maxX[item];
+            itemMaxY[i] = maxY[item];
+        }
+
+        var levels = 0;
+        for (var levelCount = count; levelCount > 1 || levels == 0; levelCount = nodeCount(levelCount)) {
+            levels++;
+        }
+        nodeMinX = new double[levels][];
+        nodeMinY = new double[levels][];
+        nodeMaxX = new double[levels][];
+        nodeMaxY = new double[levels][];
+
+        double[] childMinX = itemMinX, childMinY = itemMinY, childMaxX = itemMaxX, childMaxY = itemMaxY;
+        for (int level = 0; level < levels; level++) {
+            var childCount = childMinX.length;
+            var levelNodeCount = nodeCount(childCount);
+            nodeMinX[level] = new double[levelNodeCount];
+            nodeMinY[level] = new double[levelNodeCount];
+            nodeMaxX[level] = new double[levelNodeCount];
+            nodeMaxY[level] = new double[levelNodeCount];
+            for (int node = 0; node < levelNodeCount; node++) {
+                double boundsMinX = Double.POSITIVE_INFINITY, boundsMinY = Double.POSITIVE_INFINITY;
+                double boundsMaxX = Double.NEGATIVE_INFINITY, boundsMaxY = Double.NEGATIVE_INFINITY;
+                var end = Math.min(childCount, (node + 1) * NODE_CAPACITY);
+                for (int child = node * NODE_CAPACITY; child < end; child++) {
+                    boundsMinX = Math.min(boundsMinX, childMinX[child]);
+                    boundsMinY = Math.min(boundsMinY, childMinY[child]);
+                    boundsMaxX = Math.max(boundsMaxX, childMaxX[child]);
+                    boundsMaxY = Math.max(boundsMaxY, childMaxY[child]);
+                }
+                nodeMinX[level][node] = boundsMinX;
+                nodeMinY[level][node] = boundsMinY;
+                nodeMaxX[level][node] = boundsMaxX;
+                nodeMaxY[level][node] = boundsMaxY;
+            }
+            childMinX = nodeMinX[level];
+            childMinY = nodeMinY[level];
+            childMaxX = nodeMaxX[level];
+            childMaxY = nodeMaxY[level];
+        }
+    }
+
+    /**
+     * Find items which bounds intersect the area. Touching edges are not treated as intersection.
+     * @return item positions sorted ascending
+     */
+    int[] search(double minX, double minY, double maxX, double maxY) {
+        if(items.length == 0)
+            return new int[0];
+
+        var result = new int[16];
+        var resultSize = 0;
+
+        var top = nodeMinX.length - 1;
+        var stackLevel = new int[64];
+        var stackNode = new int[64];
+        var stackSize = 0;
+        stackLevel[stackSize] = top;
+        stackNode[stackSize++] = 0;
+        while (stackSize > 0) {
+            var level = stackLevel[--stackSize];
+            var node = stackNode[stackSize];
+            if(!intersects(nodeMinX[level][node], nodeMinY[level][node], nodeMaxX[level][node], nodeMaxY[level][node], minX, minY, maxX, maxY))
+                continue;
+
+            var childCount = level == 0 ? items.length : nodeMinX[level - 1].length;
+            var end = Math.min(childCount, (node + 1) * NODE_CAPACITY);
+            for (int child = node * NODE_CAPACITY; child < end; child++) {
+                if(level == 0){
+                    if(intersects(itemMinX[child], itemMinY[child], itemMaxX[child], itemMaxY[child], minX, minY, maxX, maxY)){
+                        if(resultSize == result.length)
+                            result = Arrays.copyOf(result, resultSize * 2);
+                        result[resultSize++] = items[child];
+                    }
+                }
+                else{
+                    if(stackSize == stackLevel.length){
+                        stackLevel = Arrays.copyOf(stackLevel, stackSize * 2);
+                        stackNode = Arrays.copyOf(stackNode, stackSize * 2);
+                    }
+                    stackLevel[stackSize] = level - 1;
+                    stackNode[stackSize++] = child;
+                }
+            }
+        }
+
+        result = Arrays.copyOf(result, resultSize);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int nodeCount(int childCount) {
+        return Math.max(1, (childCount + NODE_CAPACITY - 1) / NODE_CAPACITY);
+    }
+
+    private static boolean intersects(double minX, double minY, double maxX, double maxY,
+                                      double areaMinX, double areaMinY, double areaMaxX, double areaMaxY) {
+        return minX < areaMaxX && areaMinX < maxX && minY < areaMaxY && areaMinY < maxY;
+    }
+
+    private static int[] sortTileRecursive(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        var count = minX.length;
+        var leafCount = nodeCount(count);
+        var slabCount = (int) Math.ceil(Math.sqrt(leafCount));
+        var slabSize = slabCount * NODE_CAPACITY;
+
+        var items = new int[count];
+        var keys = new double[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = i;
+            keys[i] = minX[i] + maxX[i];
+        }
+        sort(items, keys, 0, count - 1);
+
+        for (int slabStart = 0; slabStart < count; slabStart += slabSize) {
+            var slabEnd = Math.min(count, slabStart + slabSize);
+            for (int i = slabStart; i < slabEnd; i++) {
+                keys[i] = minY[items[i]] + maxY[items[i]];
+            }
+            sort(items, keys, slabStart, slabEnd - 1);
+        }
+        return items;
+    }
+
+    /**
+     * Sort items and their keys together by the keys, low and high bounds are inclusive
+     */
+    private static void sort(int[] items, double[] keys, int low, int high) {
+        while (high - low > 16) {
+            var middle = (low + high) >>> 1;
+            if(keys[middle] < keys[low]) swap(items, keys, middle, low);
+            if(keys[high] < keys[low]) swap(items, keys, high, low);
+            if(keys[high] < keys[middle]) swap(items, keys, high, middle);
+            var pivot = keys[middle];
+
+            int i = low, j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if(i <= j) swap(items, keys, i++, j--);
+            }
+            // Recurse into the smaller part, so the stack depth stays logarithmic
+            if(j - low < high - i){
+                sort(items, keys, low, j);
+                low = i;
+            }
+            else{
+                sort(items, keys, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && keys[j] < keys[j - 1]; j--) {
+                swap(items, keys, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(int[] items, double[] keys, int i, int j) {
+        var item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        var key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+    }
+}
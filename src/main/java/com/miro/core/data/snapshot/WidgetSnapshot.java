@@ -0,0 +1,256 @@
+package com.miro.core.data.snapshot;
+
+import com.miro.core.data.internal.ImmutableLayout;
+import org.apache.commons.lang3.Validate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Immutable view of all widgets at a specific store version, ordered by zIndex.
+ * A snapshot is never modified after {@link Builder#build()}, so readers use it without any locking.
+ * Widgets are stored as columns of primitives indexed by the zIndex order position: scans and filtration
+ * run over flat arrays and don't touch a widget object.
+ */
+public final class WidgetSnapshot {
+
+    public static final WidgetSnapshot EMPTY = new Builder(0, 0).build();
+
+    private final int size;
+    private final long[] guidMostSigBits;
+    private final long[] guidLeastSigBits;
+    private final double[] x;
+    private final double[] y;
+    private final double[] width;
+    private final double[] height;
+    private final int[] zIndex;
+    private final long[] updatedAtEpochSecond;
+    private final int[] updatedAtNano;
+    // Versions of the widgets added by their layouts, 0 for widgets added by fields
+    private final long[] widgetVersion;
+
+    // Built on the first filtration against the snapshot, racing builders produce equal indexes
+    private volatile PackedSpatialIndex spatialIndex;
+
+    private final long version;
+    public long getVersion() {
+        return version;
+    }
+
+    private WidgetSnapshot(long version, Builder builder) {
+        this.version = version;
+        this.size = builder.size;
+        this.guidMostSigBits = trimmed(builder.guidMostSigBits, size);
+        this.guidLeastSigBits = trimmed(builder.guidLeastSigBits, size);
+        this.x = trimmed(builder.x, size);
+        this.y = trimmed(builder.y, size);
+        this.width = trimmed(builder.width, size);
+        this.height = trimmed(builder.height, size);
+        this.zIndex = trimmed(builder.zIndex, size);
+        this.updatedAtEpochSecond = trimmed(builder.updatedAtEpochSecond, size);
+        this.updatedAtNano = trimmed(builder.updatedAtNano, size);
+        this.widgetVersion = trimmed(builder.widgetVersion, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long[] trimmed(long[] column, int size) {
+        return column.length == size ? column : Arrays.copyOf(column, size);
+    }
+
+    private static double[] trimmed(double[] column, int size) {
+        return column.length == size ? column : Arrays.copyOf(column, size);
+    }
+
+    private static int[] trimmed(int[] column, int size) {
+        return column.length == size ? column : Arrays.copyOf(column, size);
+    }
+
+    /**
+     * @param position widget position in zIndex order, the same for other column getters
+     */
+    public UUID getGuid(int position) {
+        return new UUID(guidMostSigBits[position], guidLeastSigBits[position]);
+    }
+
+    public double getX(int position) {
+        return x[position];
+    }
+
+    public double getY(int position) {
+        return y[position];
+    }
+
+    public double getWidth(int position) {
+        return width[position];
+    }
+
+    public double getHeight(int position) {
+        return height[position];
+    }
+
+    public int getzIndex(int position) {
+        return zIndex[position];
+    }
+
+    public long getGuidMostSigBits(int position) {
+        return guidMostSigBits[position];
+    }
+
+    public long getGuidLeastSigBits(int position) {
+        return guidLeastSigBits[position];
+    }
+
+    public long getUpdatedAtEpochSecond(int position) {
+        return updatedAtEpochSecond[position];
+    }
+
+    public int getUpdatedAtNano(int position) {
+        return updatedAtNano[position];
+    }
+
+    /**
+     * @return version of the widget layout, 0 if the widget was added by its fields
+     */
+    public long getWidgetVersion(int position) {
+        return widgetVersion[position];
+    }
+
+    public LocalDateTime getUpdatedAtUtc(int position) {
+        return LocalDateTime.ofEpochSecond(updatedAtEpochSecond[position], updatedAtNano[position], ZoneOffset.UTC);
+    }
+
+    /**
+     * @return position of the first widget which zIndex is greater than afterZIndex, or {@link #size()} if there is no such widget
+     */
+    public int positionAfter(int afterZIndex) {
+        int low = 0, high = size;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if(zIndex[middle] <= afterZIndex)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Find widgets which bounds intersect the area. Touching edges are not treated as intersection.
+     * @return widget positions in zIndex order
+     */
+    public int[] search(double minX, double minY, double maxX, double maxY) {
+        var index = spatialIndex;
+        if(index == null){
+            double[] maxXs = new double[size], maxYs = new double[size];
+            for (int i = 0; i < size; i++) {
+                maxXs[i] = x[i] + width[i];
+                maxYs[i] = y[i] + height[i];
+            }
+            index = new PackedSpatialIndex(x, y, maxXs, maxYs);
+            spatialIndex = index;
+        }
+        return index.search(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Collects widgets in zIndex order
+     */
+    public static final class Builder {
+        private final long version;
+        private int size;
+        private long[] guidMostSigBits;
+        private long[] guidLeastSigBits;
+        private double[] x;
+        private double[] y;
+        private double[] width;
+        private double[] height;
+        private int[] zIndex;
+        private long[] updatedAtEpochSecond;
+        private int[] updatedAtNano;
+        private long[] widgetVersion;
+
+        public Builder(long version, int expectedSize) {
+            Validate.isTrue(expectedSize >= 0, "expectedSize can't be negative");
+
+            this.version = version;
+            guidMostSigBits = new long[expectedSize];
+            guidLeastSigBits = new long[expectedSize];
+            x = new double[expectedSize];
+            y = new double[expectedSize];
+            width = new double[expectedSize];
+            height = new double[expectedSize];
+            zIndex = new int[expectedSize];
+            updatedAtEpochSecond = new long[expectedSize];
+            updatedAtNano = new int[expectedSize];
+            widgetVersion = new long[expectedSize];
+        }
+
+        /**
+         * @throws IllegalArgumentException if the widget breaks zIndex order
+         */
+        public Builder add(UUID guid, ImmutableLayout layout) {
+            Validate.notNull(guid, "guid can't be null");
+            Validate.notNull(layout, "layout can't be null");
+
+            var updatedAtUtc = layout.getUpdatedAtUtc();
+            add(guid.getMostSignificantBits(),
+                    guid.getLeastSignificantBits(),
+                    layout.getVertex().getX(),
+                    layout.getVertex().getY(),
+                    layout.getSize().getWidth(),
+                    layout.getSize().getHeight(),
+                    layout.getzIndex(),
+                    updatedAtUtc.toEpochSecond(ZoneOffset.UTC),
+                    updatedAtUtc.getNano());
+            widgetVersion[size - 1] = layout.getVersion();
+            return this;
+        }
+
+        /**
+         * Add widget from its primitive fields, without creating a guid or a layout. The widget has no version
+         * @throws IllegalArgumentException if the widget breaks zIndex order
+         */
+        public Builder add(long guidMostSigBits, long guidLeastSigBits, double x, double y, double width, double height,
+                           int zIndex, long updatedAtEpochSecond, int updatedAtNano) {
+            Validate.isTrue(size == 0 || this.zIndex[size - 1] < zIndex, "Widgets must be added in zIndex order");
+
+            if(size == this.zIndex.length)
+                grow(Math.max(16, size * 2));
+
+            this.guidMostSigBits[size] = guidMostSigBits;
+            this.guidLeastSigBits[size] = guidLeastSigBits;
+            this.x[size] = x;
+            this.y[size] = y;
+            this.width[size] = width;
+            this.height[size] = height;
+            this.zIndex[size] = zIndex;
+            this.updatedAtEpochSecond[size] = updatedAtEpochSecond;
+            this.updatedAtNano[size] = updatedAtNano;
+            this.widgetVersion[size] = 0;
+            size++;
+            return this;
+        }
+
+        public WidgetSnapshot build() {
+            return new WidgetSnapshot(version, this);
+        }
+
+        private void grow(int capacity) {
+            guidMostSigBits = Arrays.copyOf(guidMostSigBits, capacity);
+            guidLeastSigBits = Arrays.copyOf(guidLeastSigBits, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            zIndex = Arrays.copyOf(zIndex, capacity);
+            updatedAtEpochSecond = Arrays.copyOf(updatedAtEpochSecond, capacity);
+            updatedAtNano = Arrays.copyOf(updatedAtNano, capacity);
+            widgetVersion = Arrays.copyOf(widgetVersion, capacity);
+        }
+    }
+}
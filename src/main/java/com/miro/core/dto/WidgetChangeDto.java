@@ -0,0 +1,37 @@
+package com.miro.core.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.time.LocalDateTime;
+
+@ApiModel(value="WidgetChangeDto", description="One committed change of the widgets, pushed to the change feed subscribers")
+public final class WidgetChangeDto {
+
+    private long version;
+    public long getVersion() {
+        return version;
+    }
+    @ApiModelProperty(value = "Widgets version after the change, the feed resumes after it", allowableValues = "positive long")
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    private LocalDateTime updatedAtUtc;
+    public LocalDateTime getUpdatedAtUtc() {
+        return updatedAtUtc;
+    }
+    @ApiModelProperty(value = "Time the change was applied at in utc", allowableValues = "LocalDateTime")
+    public void setUpdatedAtUtc(LocalDateTime updatedAtUtc) {
+        this.updatedAtUtc = updatedAtUtc;
+    }
+
+    private WidgetDeltaDto[] deltas;
+    public WidgetDeltaDto[] getDeltas() {
+        return deltas;
+    }
+    @ApiModelProperty(value = "Widget changes in the order they were applied")
+    public void setDeltas(WidgetDeltaDto[] deltas) {
+        this.deltas = deltas;
+    }
+}
@@ -0,0 +1,46 @@
+package com.miro.core.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.UUID;
+
+@ApiModel(value="WidgetDeltaDto", description="Single widget change of the change feed")
+public final class WidgetDeltaDto {
+
+    private String type;
+    public String getType() {
+        return type;
+    }
+    @ApiModelProperty(value = "Change type. Shift moves every widget with zIndex greater or equal to the zIndex up by one", allowableValues = "create, update, delete, shift")
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    private UUID guid;
+    public UUID getGuid() {
+        return guid;
+    }
+    @ApiModelProperty(value = "Guid of the changed widget, null for shift", allowableValues = "UUID")
+    public void setGuid(UUID guid) {
+        this.guid = guid;
+    }
+
+    private WidgetDto widget;
+    public WidgetDto getWidget() {
+        return widget;
+    }
+    @ApiModelProperty(value = "Widget after create or update, null for delete and shift")
+    public void setWidget(WidgetDto widget) {
+        this.widget = widget;
+    }
+
+    private Integer zIndex;
+    public Integer getzIndex() {
+        return zIndex;
+    }
+    @ApiModelProperty(value = "Lowest shifted zIndex, null for other changes", allowableValues = "integer")
+    public void setzIndex(Integer zIndex) {
+        this.zIndex = zIndex;
+    }
+}
@@ -1,5 +1,6 @@
 package com.miro.core.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 
@@ -16,6 +17,7 @@ public final class WidgetDto {
     @ApiModelProperty(value = "Widget width", allowableValues = "non-negative double")
     public void setWidth(double width) {
         this.width = width;
+        version = null;
     }
 
     private Double height;
@@ -25,6 +27,7 @@ public final class WidgetDto {
     @ApiModelProperty(value = "Widget height", allowableValues = "non-negative double")
     public void setHeight(double height) {
         this.height = height;
+        version = null;
     }
 
     private Double x;
@@ -34,6 +37,7 @@ public final class WidgetDto {
     @ApiModelProperty(value = "Widget x coordinate", allowableValues = "non-negative double")
     public void setX(double x) {
         this.x = x;
+        version = null;
     }
 
     private Double y;
@@ -43,6 +47,7 @@ public final class WidgetDto {
     @ApiModelProperty(value = "Widget y coordinate", allowableValues = "non-negative double")
     public void setY(double y) {
         this.y = y;
+        version = null;
     }
 
     private Integer zIndex;
@@ -52,6 +57,7 @@ public final class WidgetDto {
     @ApiModelProperty(value = "Widget z-Index", allowableValues = "non-negative integer")
     public void setzIndex(int zIndex) {
         this.zIndex = zIndex;
+        version = null;
     }
 
     private LocalDateTime updatedAtUtc;
@@ -61,6 +67,7 @@ public final class WidgetDto {
     @ApiModelProperty(value = "Widget updated timestamp in utc", allowableValues = "LocalDateTime")
     public void setUpdatedAtUtc(LocalDateTime updatedAtUtc) {
         this.updatedAtUtc = updatedAtUtc;
+        version = null;
     }
 
     private UUID guid;
@@ -70,5 +77,19 @@ public final class WidgetDto {
     @ApiModelProperty(value = "Widget guid", allowableValues = "UUID")
     public void setGuid(UUID guid) {
         this.guid = guid;
+        version = null;
+    }
+
+    private Long version;
+    /**
+     * @return version of the widget, changed by every change of the widget. Null if the store doesn't keep the widget versions
+     * or a field was set after the version, so the fields are not the ones of the version anymore
+     */
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+    public void setVersion(Long version) {
+        this.version = version;
     }
 }
@@ -0,0 +1,37 @@
+package com.miro.core.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.time.LocalDateTime;
+
+@ApiModel(value="WidgetMutationDto", description="One committed change of the widgets, streamed from the primary to the replicas")
+public final class WidgetMutationDto {
+
+    private long version;
+    public long getVersion() {
+        return version;
+    }
+    @ApiModelProperty(value = "Widgets version after the change", allowableValues = "positive long")
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    private LocalDateTime updatedAtUtc;
+    public LocalDateTime getUpdatedAtUtc() {
+        return updatedAtUtc;
+    }
+    @ApiModelProperty(value = "Time the change was applied at in utc", allowableValues = "LocalDateTime")
+    public void setUpdatedAtUtc(LocalDateTime updatedAtUtc) {
+        this.updatedAtUtc = updatedAtUtc;
+    }
+
+    private WidgetOperationDto[] operations;
+    public WidgetOperationDto[] getOperations() {
+        return operations;
+    }
+    @ApiModelProperty(value = "Operations of the change in order. Create operations carry the guid and the zIndex the widget got")
+    public void setOperations(WidgetOperationDto[] operations) {
+        this.operations = operations;
+    }
+}
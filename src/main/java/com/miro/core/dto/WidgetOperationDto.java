@@ -0,0 +1,71 @@
+package com.miro.core.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value="WidgetOperationDto", description="Single operation of a widgets batch")
+public final class WidgetOperationDto {
+
+    private String type;
+    public String getType() {
+        return type;
+    }
+    @ApiModelProperty(value = "Operation type", allowableValues = "create, update, delete", required = true)
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    private String guid;
+    public String getGuid() {
+        return guid;
+    }
+    @ApiModelProperty(value = "Guid of the updated or deleted widget", allowableValues = "UUID")
+    public void setGuid(String guid) {
+        this.guid = guid;
+    }
+
+    private Double width;
+    public Double getWidth() {
+        return width;
+    }
+    @ApiModelProperty(value = "Widget width, required to create widget", allowableValues = "non-negative double")
+    public void setWidth(Double width) {
+        this.width = width;
+    }
+
+    private Double height;
+    public Double getHeight() {
+        return height;
+    }
+    @ApiModelProperty(value = "Widget height, required to create widget", allowableValues = "non-negative double")
+    public void setHeight(Double height) {
+        this.height = height;
+    }
+
+    private Double x;
+    public Double getX() {
+        return x;
+    }
+    @ApiModelProperty(value = "Widget x coordinate, required to create widget", allowableValues = "non-negative double")
+    public void setX(Double x) {
+        this.x = x;
+    }
+
+    private Double y;
+    public Double getY() {
+        return y;
+    }
+    @ApiModelProperty(value = "Widget y coordinate, required to create widget", allowableValues = "non-negative double")
+    public void setY(Double y) {
+        this.y = y;
+    }
+
+    private Integer zIndex;
+    public Integer getzIndex() {
+        return zIndex;
+    }
+    @ApiModelProperty(value = "Widget z-Index", allowableValues = "non-negative integer")
+    public void setzIndex(Integer zIndex) {
+        this.zIndex = zIndex;
+    }
+}
@@ -0,0 +1,62 @@
+package com.miro.core.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value="WidgetQueryCacheStatsDto", description="Counters of the filter and pagination results cache")
+public final class WidgetQueryCacheStatsDto {
+
+    private long hits;
+    public long getHits() {
+        return hits;
+    }
+    @ApiModelProperty(value = "Queries answered from the cache", allowableValues = "non-negative long")
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    private long misses;
+    public long getMisses() {
+        return misses;
+    }
+    @ApiModelProperty(value = "Queries read from the widgets", allowableValues = "non-negative long")
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    private long invalidations;
+    public long getInvalidations() {
+        return invalidations;
+    }
+    @ApiModelProperty(value = "Results dropped because a change touched them", allowableValues = "non-negative long")
+    public void setInvalidations(long invalidations) {
+        this.invalidations = invalidations;
+    }
+
+    private long evictions;
+    public long getEvictions() {
+        return evictions;
+    }
+    @ApiModelProperty(value = "Least recently used results dropped to keep the cache size", allowableValues = "non-negative long")
+    public void setEvictions(long evictions) {
+        this.evictions = evictions;
+    }
+
+    private int entries;
+    public int getEntries() {
+        return entries;
+    }
+    @ApiModelProperty(value = "Cached results", allowableValues = "non-negative int")
+    public void setEntries(int entries) {
+        this.entries = entries;
+    }
+
+    private long widgets;
+    public long getWidgets() {
+        return widgets;
+    }
+    @ApiModelProperty(value = "Widgets of the cached results", allowableValues = "non-negative long")
+    public void setWidgets(long widgets) {
+        this.widgets = widgets;
+    }
+}
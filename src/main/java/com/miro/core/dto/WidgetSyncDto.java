@@ -0,0 +1,37 @@
+package com.miro.core.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.UUID;
+
+@ApiModel(value="WidgetSyncDto", description="Widgets changed after a version, to bring a client copy up to date")
+public final class WidgetSyncDto {
+
+    private long version;
+    public long getVersion() {
+        return version;
+    }
+    @ApiModelProperty(value = "Widgets version the changes are up to, the next sync starts after it", allowableValues = "non-negative long")
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    private WidgetDto[] widgets;
+    public WidgetDto[] getWidgets() {
+        return widgets;
+    }
+    @ApiModelProperty(value = "Created, updated and shifted widgets sorted by zIndex")
+    public void setWidgets(WidgetDto[] widgets) {
+        this.widgets = widgets;
+    }
+
+    private UUID[] removedGuids;
+    public UUID[] getRemovedGuids() {
+        return removedGuids;
+    }
+    @ApiModelProperty(value = "Guids of the removed widgets")
+    public void setRemovedGuids(UUID[] removedGuids) {
+        this.removedGuids = removedGuids;
+    }
+}
@@ -1,10 +1,21 @@
 package com.miro.core.mapping;
 
+import com.miro.core.data.internal.ImmutableLayout;
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
+import com.miro.core.data.offheap.OffHeapWidgetStore;
+import com.miro.core.data.snapshot.WidgetSnapshot;
 import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetMutationDto;
+import com.miro.core.dto.WidgetOperationDto;
 import com.miro.core.data.internal.WidgetInternal;
+import com.miro.services.widgetJournal.WidgetJournalRecord;
 import org.mapstruct.Mapper;
 import org.mapstruct.factory.Mappers;
 
+import java.util.ArrayList;
+import java.util.UUID;
+
 @Mapper(componentModel="spring")
 public interface WidgetMapper {
 
@@ -13,16 +24,112 @@ public interface WidgetMapper {
     WidgetDto[] mapArray(WidgetInternal[] widgetsInternal);
 
     default WidgetDto map(WidgetInternal widgetInternal) {
+        return map(widgetInternal.getGuid(), widgetInternal.getLayout());
+    }
+
+    default WidgetDto map(UUID guid, ImmutableLayout layout) {
+        var widget = new WidgetDto();
+        widget.setX(layout.getVertex().getX());
+        widget.setY(layout.getVertex().getY());
+        widget.setWidth(layout.getSize().getWidth());
+        widget.setHeight(layout.getSize().getHeight());
+        widget.setzIndex(layout.getzIndex());
+        widget.setUpdatedAtUtc(layout.getUpdatedAtUtc());
+        widget.setGuid(guid);
+        widget.setVersion(layout.getVersion());
+
+        return widget;
+    }
+
+    default WidgetDto map(WidgetSnapshot snapshot, int position) {
+        var widget = new WidgetDto();
+        widget.setX(snapshot.getX(position));
+        widget.setY(snapshot.getY(position));
+        widget.setWidth(snapshot.getWidth(position));
+        widget.setHeight(snapshot.getHeight(position));
+        widget.setzIndex(snapshot.getzIndex(position));
+        widget.setUpdatedAtUtc(snapshot.getUpdatedAtUtc(position));
+        widget.setGuid(snapshot.getGuid(position));
+        var widgetVersion = snapshot.getWidgetVersion(position);
+        if(widgetVersion != 0)
+            widget.setVersion(widgetVersion);
+
+        return widget;
+    }
+
+    default WidgetDto map(OffHeapWidgetStore store, int slot, int zIndex, long updatedAtEpochNanos) {
         var widget = new WidgetDto();
-        widget.setX(widgetInternal.getLayout().getVertex().getX());
-        widget.setY(widgetInternal.getLayout().getVertex().getY());
-        widget.setWidth(widgetInternal.getLayout().getSize().getWidth());
-        widget.setHeight(widgetInternal.getLayout().getSize().getHeight());
-        widget.setzIndex(widgetInternal.getLayout().getzIndex());
-        widget.setUpdatedAtUtc(widgetInternal.getLayout().getUpdatedAtUtc());
-        widget.setGuid(widgetInternal.getGuid());
+        widget.setX(store.getX(slot));
+        widget.setY(store.getY(slot));
+        widget.setWidth(store.getWidth(slot));
+        widget.setHeight(store.getHeight(slot));
+        widget.setzIndex(zIndex);
+        widget.setUpdatedAtUtc(OffHeapWidgetStore.fromEpochNanos(updatedAtEpochNanos));
+        widget.setGuid(store.getGuid(slot));
 
         return widget;
     }
 
+    default WidgetMutationDto map(long version, WidgetJournalRecord record) {
+        var operations = record.getOperations();
+        var operationsDto = new WidgetOperationDto[operations.size()];
+        for (int i = 0; i < operationsDto.length; i++) {
+            var operation = operations.get(i);
+            var operationDto = new WidgetOperationDto();
+            operationDto.setType(operation.getType() == WidgetOperation.Type.REMOVE ? "delete" : operation.getType().name().toLowerCase());
+            operationDto.setGuid(operation.getWidgetGuid().toString());
+            var widgetLayoutInfo = operation.getWidgetLayoutInfo();
+            if(widgetLayoutInfo != null){
+                operationDto.setX(widgetLayoutInfo.getX());
+                operationDto.setY(widgetLayoutInfo.getY());
+                operationDto.setWidth(widgetLayoutInfo.getWidth());
+                operationDto.setHeight(widgetLayoutInfo.getHeight());
+                operationDto.setzIndex(widgetLayoutInfo.getzIndex());
+            }
+            operationsDto[i] = operationDto;
+        }
+
+        var mutation = new WidgetMutationDto();
+        mutation.setVersion(version);
+        mutation.setUpdatedAtUtc(record.getUpdatedAtUtc());
+        mutation.setOperations(operationsDto);
+        return mutation;
+    }
+
+    /**
+     * @throws IllegalArgumentException if an operation type or guid is wrong
+     * @throws NullPointerException if the operations or the time are null
+     */
+    default WidgetJournalRecord map(WidgetMutationDto mutation) {
+        var operations = new ArrayList<WidgetOperation>(mutation.getOperations().length);
+        for (var operationDto : mutation.getOperations()) {
+            var widgetGuid = UUID.fromString(operationDto.getGuid());
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            if(operationDto.getX() != null)
+                widgetLayoutInfo.setX(operationDto.getX());
+            if(operationDto.getY() != null)
+                widgetLayoutInfo.setY(operationDto.getY());
+            if(operationDto.getWidth() != null)
+                widgetLayoutInfo.setWidth(operationDto.getWidth());
+            if(operationDto.getHeight() != null)
+                widgetLayoutInfo.setHeight(operationDto.getHeight());
+            if(operationDto.getzIndex() != null)
+                widgetLayoutInfo.setzIndex(operationDto.getzIndex());
+
+            switch (operationDto.getType()) {
+                case "create":
+                    operations.add(WidgetOperation.create(widgetGuid, widgetLayoutInfo));
+                    break;
+                case "update":
+                    operations.add(WidgetOperation.update(widgetGuid, widgetLayoutInfo));
+                    break;
+                case "delete":
+                    operations.add(WidgetOperation.remove(widgetGuid));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Operation type %s is wrong", operationDto.getType()));
+            }
+        }
+        return new WidgetJournalRecord(mutation.getUpdatedAtUtc(), operations);
+    }
 }
@@ -0,0 +1,81 @@
+package com.miro.core.mapping;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
+import com.miro.core.dto.WidgetOperationDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Validates the operations of a widgets batch request and maps them to the store operations
+ */
+public final class WidgetOperationMapper {
+    public static final int MAX_OPERATIONS = 500;
+
+    private WidgetOperationMapper() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the batch is empty, too big or an operation is wrong
+     */
+    public static List<WidgetOperation> map(WidgetOperationDto[] operationsDto) {
+        if (operationsDto == null || operationsDto.length == 0) {
+            throw new IllegalArgumentException("The batch must contain at least one operation");
+        }
+        if (operationsDto.length > MAX_OPERATIONS) {
+            throw new IllegalArgumentException(String.format("The batch contains more than %d operations", MAX_OPERATIONS));
+        }
+
+        var operations = new ArrayList<WidgetOperation>(operationsDto.length);
+        for (int i = 0; i < operationsDto.length; i++) {
+            var operationDto = operationsDto[i];
+            if (operationDto == null || operationDto.getType() == null || operationDto.getType().isEmpty()) {
+                throw new IllegalArgumentException(String.format("The 'type' of operation %d must not be null or empty", i));
+            }
+
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            if (operationDto.getX() != null)
+                widgetLayoutInfo.setX(operationDto.getX());
+            if (operationDto.getY() != null)
+                widgetLayoutInfo.setY(operationDto.getY());
+            if (operationDto.getWidth() != null)
+                widgetLayoutInfo.setWidth(operationDto.getWidth());
+            if (operationDto.getHeight() != null)
+                widgetLayoutInfo.setHeight(operationDto.getHeight());
+            if (operationDto.getzIndex() != null)
+                widgetLayoutInfo.setzIndex(operationDto.getzIndex());
+
+            switch (operationDto.getType().toLowerCase()) {
+                case "create":
+                    if (operationDto.getX() == null || operationDto.getY() == null || operationDto.getWidth() == null || operationDto.getHeight() == null) {
+                        throw new IllegalArgumentException(String.format("The 'x', 'y', 'width' and 'height' of operation %d must not be null", i));
+                    }
+                    operations.add(WidgetOperation.create(widgetLayoutInfo));
+                    break;
+                case "update":
+                    operations.add(WidgetOperation.update(mapGuid(operationDto.getGuid()), widgetLayoutInfo));
+                    break;
+                case "delete":
+                    operations.add(WidgetOperation.remove(mapGuid(operationDto.getGuid())));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("The 'type' of operation %d has wrong value", i));
+            }
+        }
+        return operations;
+    }
+
+    private static UUID mapGuid(String guidText) {
+        if (guidText == null || guidText.isEmpty()) {
+            throw new IllegalArgumentException("The 'guid' parameter must not be null or empty");
+        }
+        try {
+            return UUID.fromString(guidText);
+        }
+        catch(IllegalArgumentException ex){
+            throw new IllegalArgumentException("The 'guid' parameter has wrong format");
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.miro.services.boardManager;
+
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import com.miro.services.widgetJournal.WidgetJournal;
+import com.miro.services.widgetJournal.WidgetSnapshotFile;
+import com.miro.services.widgetManager.OffHeapWidgetServiceImpl;
+import com.miro.services.widgetManager.WidgetService;
+import com.miro.services.widgetManager.WidgetServiceImpl;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Independent widget stores of the boards. Every board has its own lock and zIndex order, so a hot board doesn't stall the others.
+ * A board is opened by its first request and evicted after it was idle for the idle timeout.
+ * Boards are persisted in the boards directory: a journal and a snapshot per board. The snapshot of an open board is saved
+ * periodically when the board has changed, and on eviction, so the journal of a board which is never idle is compacted too.
+ * Without the directory only empty boards are evicted.
+ * Requests without a board id go to the default board, the application widget service, which is never evicted.
+ * Boards are opened and closed under striped locks rather than inside the map updates, so the file work doesn't hold a monitor
+ * and doesn't pin the carrier of a virtual thread.
+ */
+@Service
+public class BoardRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoardRegistry.class);
+    private static final Pattern BOARD_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+    private static final int LOCKERS = 64;
+
+    /**
+     * Action on the widget service of a board
+     */
+    @FunctionalInterface
+    public interface BoardAction<R> {
+        R apply(WidgetService widgetService) throws WidgetNotFoundException;
+    }
+
+    private final ConcurrentHashMap<String, Board> boards = new ConcurrentHashMap<>();
+    // Board is opened and closed under the locker of its id
+    private final ReentrantLock[] lockers = new ReentrantLock[LOCKERS];
+    private final WidgetService defaultBoard;
+    private final boolean offHeap;
+    private final double cellSize;
+    private final long idleTimeoutNanos;
+
+    // Null when the boards are kept only in memory
+    private final Path directory;
+
+    /**
+     * @param defaultBoard widget service of the requests without a board id
+     * @param store heap or off-heap, the store of the boards
+     * @param cellSize filtration grid cell size of the off-heap store
+     * @param directory directory of the board journals and snapshots. Can be empty
+     * @param idleTimeoutMs time after the last request when the board is evicted
+     * @throws UncheckedIOException if the directory can't be created
+     */
+    @Autowired
+    public BoardRegistry(WidgetService defaultBoard,
+                         @Value("${widgets.store:heap}") String store,
+                         @Value("${widgets.off-heap.cell-size:100}") double cellSize,
+                         @Value("${widgets.boards.path:}") String directory,
+                         @Value("${widgets.boards.idle-timeout-ms:600000}") long idleTimeoutMs) {
+        Validate.notNull(defaultBoard, "defaultBoard can't be null");
+        Validate.isTrue(idleTimeoutMs >= 0, "idleTimeoutMs can't be negative");
+
+        this.defaultBoard = defaultBoard;
+        this.offHeap = "off-heap".equals(store);
+        this.cellSize = cellSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        this.directory = directory == null || directory.isEmpty() ? null : Paths.get(directory);
+        Validate.isTrue(this.directory == null || !offHeap, "Off-heap boards can't be persisted");
+        for (int i = 0; i < LOCKERS; i++) {
+            lockers[i] = new ReentrantLock();
+        }
+
+        if(this.directory != null){
+            try {
+                Files.createDirectories(this.directory);
+            }
+            catch (IOException e){
+                throw new UncheckedIOException("Boards directory can't be created", e);
+            }
+        }
+    }
+
+    /**
+     * Run the action on the widget service of the board. The board is opened if needed and is not evicted until the action ends
+     * @param boardId board id, letters, digits, '-' and '_'. Null for the default board
+     * @throws IllegalArgumentException if the board id is wrong
+     * @throws UncheckedIOException if the board can't be restored
+     */
+    public <R> R withBoard(String boardId, BoardAction<R> action) throws WidgetNotFoundException {
+        Validate.notNull(action, "action can't be null");
+        if(boardId == null)
+            return action.apply(defaultBoard);
+
+        Validate.isTrue(BOARD_ID_PATTERN.matcher(boardId).matches(), "The 'boardId' parameter has wrong format");
+
+        var board = acquire(boardId);
+        try {
+            return action.apply(board.widgetService);
+        }
+        finally {
+            board.lastAccessNanos = System.nanoTime();
+            board.users.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of open boards, without the default one
+     */
+    public int size() {
+        return boards.size();
+    }
+
+    /**
+     * @return ids of the open and the persisted boards, without the default one
+     * @throws UncheckedIOException if the boards directory can't be read
+     */
+    public Set<String> getBoardIds() {
+        var boardIds = new HashSet<>(boards.keySet());
+        if(directory != null){
+            try (var files = Files.list(directory)) {
+                files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.endsWith(JOURNAL_EXTENSION))
+                        .forEach(name -> boardIds.add(name.substring(0, name.length() - JOURNAL_EXTENSION.length())));
+            }
+            catch (IOException e){
+                throw new UncheckedIOException("Boards directory can't be read", e);
+            }
+        }
+        return boardIds;
+    }
+
+    /**
+     * Close the board and take its widgets. The files of the board are kept until {@link #delete(String)}
+     * @return widgets of the board sorted by zIndex or null if the board is in use
+     * @throws IllegalArgumentException if the board id is wrong
+     * @throws UncheckedIOException if the board can't be restored
+     */
+    public WidgetDto[] detach(String boardId) {
+        Validate.notNull(boardId, "boardId can't be null");
+        Validate.isTrue(BOARD_ID_PATTERN.matcher(boardId).matches(), "The 'boardId' parameter has wrong format");
+
+        var locker = lockerOf(boardId);
+        locker.lock();
+        try {
+            var board = openIfAbsent(boardId);
+            if(!board.users.compareAndSet(0, -1))
+                return null;
+            var widgets = board.widgetService.getAllWidgets();
+            close(boardId, board);
+            boards.remove(boardId);
+            return widgets;
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * Delete the files of a closed board. An open board is kept
+     * @throws IllegalArgumentException if the board id is wrong
+     * @throws UncheckedIOException if the files can't be deleted
+     */
+    public void delete(String boardId) {
+        Validate.notNull(boardId, "boardId can't be null");
+        Validate.isTrue(BOARD_ID_PATTERN.matcher(boardId).matches(), "The 'boardId' parameter has wrong format");
+        if(directory == null)
+            return;
+
+        var locker = lockerOf(boardId);
+        locker.lock();
+        try {
+            if(!boards.containsKey(boardId)){
+                Files.deleteIfExists(directory.resolve(boardId + SNAPSHOT_EXTENSION));
+                Files.deleteIfExists(directory.resolve(boardId + JOURNAL_EXTENSION));
+            }
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(String.format("Board %s can't be deleted", boardId), e);
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * Evict the boards idle for the idle timeout. Persisted boards save the snapshot, in-memory boards are evicted only when empty
+     */
+    @Scheduled(initialDelayString = "${widgets.boards.idle-check-ms:60000}", fixedDelayString = "${widgets.boards.idle-check-ms:60000}")
+    public void evictIdleBoards() {
+        var now = System.nanoTime();
+        for (var entry : boards.entrySet()) {
+            var board = entry.getValue();
+            if(now - board.lastAccessNanos >= idleTimeoutNanos)
+                evict(entry.getKey(), board);
+        }
+    }
+
+    /**
+     * Save the snapshots of the open persisted boards changed since their last snapshot, compacting their journals.
+     * A board is not evicted while its snapshot is saved
+     */
+    @Scheduled(initialDelayString = "${widgets.boards.snapshot-interval-ms:300000}", fixedDelayString = "${widgets.boards.snapshot-interval-ms:300000}")
+    public void writeSnapshots() {
+        for (var entry : boards.entrySet()) {
+            var board = entry.getValue();
+            if(board.journal == null || !tryAcquire(board))
+                continue;
+            try {
+                var widgetService = (WidgetServiceImpl) board.widgetService;
+                var version = widgetService.getVersion();
+                if(version != board.savedVersion){
+                    widgetService.writeSnapshot();
+                    board.savedVersion = version;
+                }
+            }
+            catch (IOException | RuntimeException e){
+                LOGGER.error(String.format("Snapshot of board %s can't be saved, the journal keeps the widgets", entry.getKey()), e);
+            }
+            finally {
+                board.users.decrementAndGet();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (var entry : boards.entrySet()) {
+            evict(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void evict(String boardId, Board board) {
+        // The board is closed under its locker, so it isn't opened again until its files are released.
+        // A closed board isn't acquired anymore, the next request opens it again
+        var locker = lockerOf(boardId);
+        locker.lock();
+        try {
+            if(boards.get(boardId) != board || !board.users.compareAndSet(0, -1))
+                return;
+            if(board.journal == null && board.widgetService.size() > 0){
+                board.users.set(0);
+                return;
+            }
+            close(boardId, board);
+            boards.remove(boardId);
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    private Board acquire(String boardId) {
+        while (true) {
+            var board = boards.get(boardId);
+            if(board == null)
+                board = openIfAbsent(boardId);
+            var users = board.users.get();
+            if(users >= 0 && board.users.compareAndSet(users, users + 1))
+                return board;
+            if(users < 0){
+                // The board is being closed, wait until it is closed and removed
+                var locker = lockerOf(boardId);
+                locker.lock();
+                locker.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return false if the board is closed
+     */
+    private static boolean tryAcquire(Board board) {
+        var users = board.users.get();
+        while (users >= 0) {
+            if(board.users.compareAndSet(users, users + 1))
+                return true;
+            users = board.users.get();
+        }
+        return false;
+    }
+
+    private Board openIfAbsent(String boardId) {
+        var locker = lockerOf(boardId);
+        locker.lock();
+        try {
+            var board = boards.get(boardId);
+            if(board == null){
+                board = open(boardId);
+                boards.put(boardId, board);
+            }
+            return board;
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    private ReentrantLock lockerOf(String boardId) {
+        return lockers[Math.floorMod(boardId.hashCode(), LOCKERS)];
+    }
+
+    private Board open(String boardId) {
+        if(directory == null)
+            return new Board(offHeap ? new OffHeapWidgetServiceImpl(cellSize) : new WidgetServiceImpl(), null);
+
+        WidgetJournal journal = null;
+        try {
+            journal = new WidgetJournal(directory.resolve(boardId + JOURNAL_EXTENSION));
+            var snapshotFile = new WidgetSnapshotFile(directory.resolve(boardId + SNAPSHOT_EXTENSION));
+            return new Board(new WidgetServiceImpl(journal, snapshotFile), journal);
+        }
+        catch (IOException | RuntimeException e){
+            if(journal != null){
+                try {
+                    journal.close();
+                }
+                catch (IOException ce){
+                    e.addSuppressed(ce);
+                }
+            }
+            if(e instanceof IOException)
+                throw new UncheckedIOException(String.format("Board %s can't be opened", boardId), (IOException) e);
+            throw (RuntimeException) e;
+        }
+    }
+
+    private static void close(String boardId, Board board) {
+        if(board.journal == null)
+            return;
+
+        try {
+            ((WidgetServiceImpl) board.widgetService).writeSnapshot();
+        }
+        catch (IOException | RuntimeException e){
+            LOGGER.error(String.format("Snapshot of board %s can't be saved, the journal keeps the widgets", boardId), e);
+        }
+        try {
+            board.journal.close();
+        }
+        catch (IOException e){
+            LOGGER.error(String.format("Journal of board %s can't be closed", boardId), e);
+        }
+    }
+
+    private static final class Board {
+        private final WidgetService widgetService;
+        private final WidgetJournal journal;
+
+        // Number of running actions, -1 when the board is closed
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile long lastAccessNanos = System.nanoTime();
+        // Version of the last snapshot saved by the scheduler, -1 until the first one
+        private long savedVersion = -1;
+
+        private Board(WidgetService widgetService, WidgetJournal journal) {
+            this.widgetService = widgetService;
+            this.journal = journal;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.miro.services.changeFeed;
+
+import com.miro.core.dto.WidgetChangeDto;
+import com.miro.core.dto.WidgetDeltaDto;
+import com.miro.core.dto.WidgetDto;
+import org.apache.commons.lang3.Validate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One committed change of the widgets as the deltas a client applies to its copy, with the area every delta touches.
+ * A shift touches every widget above its zIndex, so it is sent to every viewport.
+ */
+public final class WidgetChange {
+
+    private final WidgetChangeDto dto;
+    /**
+     * @return all deltas of the change
+     */
+    public WidgetChangeDto getDto() {
+        return dto;
+    }
+
+    // Bounds around the widget before and after every delta: minX, minY, maxX, maxY
+    private final double[] bounds;
+
+    private WidgetChange(WidgetChangeDto dto, double[] bounds) {
+        this.dto = dto;
+        this.bounds = bounds;
+    }
+
+    public long getVersion() {
+        return dto.getVersion();
+    }
+
+    /**
+     * @return deltas touching the area, null if there are none
+     */
+    public WidgetChangeDto select(double minX, double minY, double maxX, double maxY) {
+        var deltas = dto.getDeltas();
+        var selected = new ArrayList<WidgetDeltaDto>(deltas.length);
+        for (int i = 0; i < deltas.length; i++) {
+            if(bounds[4 * i] <= maxX && bounds[4 * i + 2] >= minX && bounds[4 * i + 1] <= maxY && bounds[4 * i + 3] >= minY)
+                selected.add(deltas[i]);
+        }
+        if(selected.isEmpty())
+            return null;
+        if(selected.size() == deltas.length)
+            return dto;
+
+        var result = new WidgetChangeDto();
+        result.setVersion(dto.getVersion());
+        result.setUpdatedAtUtc(dto.getUpdatedAtUtc());
+        result.setDeltas(selected.toArray(new WidgetDeltaDto[0]));
+        return result;
+    }
+
+    /**
+     * Collects the deltas of a change while it is applied. Not thread safe
+     */
+    public static final class Builder {
+        private final List<WidgetDeltaDto> deltas = new ArrayList<>();
+        private double[] bounds = new double[16];
+
+        public void addCreate(WidgetDto widget) {
+            add("create", widget.getGuid(), widget, null,
+                    widget.getX(), widget.getY(), widget.getX() + widget.getWidth(), widget.getY() + widget.getHeight());
+        }
+
+        /**
+         * @param previousBounds minX, minY, maxX, maxY of the widget before the update
+         */
+        public void addUpdate(WidgetDto widget, double[] previousBounds) {
+            add("update", widget.getGuid(), widget, null,
+                    Math.min(previousBounds[0], widget.getX()),
+                    Math.min(previousBounds[1], widget.getY()),
+                    Math.max(previousBounds[2], widget.getX() + widget.getWidth()),
+                    Math.max(previousBounds[3], widget.getY() + widget.getHeight()));
+        }
+
+        /**
+         * @param previousBounds minX, minY, maxX, maxY of the removed widget
+         */
+        public void addRemove(UUID guid, double[] previousBounds) {
+            add("delete", guid, null, null, previousBounds[0], previousBounds[1], previousBounds[2], previousBounds[3]);
+        }
+
+        /**
+         * @param zIndex lowest zIndex moved up by one
+         */
+        public void addShift(int zIndex) {
+            add("shift", null, null, zIndex,
+                    Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+
+        public void clear() {
+            deltas.clear();
+        }
+
+        /**
+         * Build the change of the collected deltas and clear the builder
+         */
+        public WidgetChange build(long version, LocalDateTime updatedAtUtc) {
+            Validate.notNull(updatedAtUtc, "updatedAtUtc can't be null");
+
+            var dto = new WidgetChangeDto();
+            dto.setVersion(version);
+            dto.setUpdatedAtUtc(updatedAtUtc);
+            dto.setDeltas(deltas.toArray(new WidgetDeltaDto[0]));
+            var change = new WidgetChange(dto, Arrays.copyOf(bounds, 4 * deltas.size()));
+            deltas.clear();
+            return change;
+        }
+
+        private void add(String type, UUID guid, WidgetDto widget, Integer zIndex, double minX, double minY, double maxX, double maxY) {
+            var delta = new WidgetDeltaDto();
+            delta.setType(type);
+            delta.setGuid(guid);
+            delta.setWidget(widget);
+            delta.setzIndex(zIndex);
+
+            var position = 4 * deltas.size();
+            if(position + 4 > bounds.length)
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            bounds[position] = minX;
+            bounds[position + 1] = minY;
+            bounds[position + 2] = maxX;
+            bounds[position + 3] = maxY;
+            deltas.add(delta);
+        }
+    }
+}
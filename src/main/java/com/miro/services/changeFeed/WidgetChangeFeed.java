@@ -0,0 +1,312 @@
+package com.miro.services.changeFeed;
+
+import com.miro.services.replication.WidgetMutationLog;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes the widget changes to the subscribers as server-sent events, so clients don't poll the whole widgets.
+ * Every change is a "change" event with the widgets version as its id, a client resumes after the last id it got.
+ * A subscriber behind the kept changes gets a "reset" event with the current version and must reload the widgets.
+ * One dispatcher thread waits for the changes, the sends run on a small pool of sender threads. A send is a blocking servlet
+ * write, so a stalled client holds a sender thread until its socket times out. A send blocked longer than the send timeout
+ * drops its subscriber, and the pool gets a thread in place of the blocked one until the write returns, so the stalled
+ * clients don't delay the events of the others. A client that falls behind the kept changes gets the "reset" event.
+ */
+@Service
+public class WidgetChangeFeed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetChangeFeed.class);
+
+    private static final int BATCH_SIZE = 1000;
+    private static final long HEARTBEAT_MS = 15000;
+
+    // Null when the widgets have no change log
+    private final WidgetMutationLog<WidgetChange> changeLog;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final int senderThreads;
+    private final long sendTimeoutNanos;
+    private final ThreadPoolExecutor senders;
+    private final Thread dispatcher;
+    // Guarded by the senders. Sends blocked longer than the timeout, each has a thread added to the pool
+    private int blockedSends;
+
+    /**
+     * @param senderThreads number of threads sending the events
+     * @param sendTimeoutMs time a send may block before its subscriber is dropped
+     */
+    public WidgetChangeFeed(ObjectProvider<WidgetMutationLog<WidgetChange>> changeLog,
+                            @Value("${widgets.feed.sender-threads:4}") int senderThreads,
+                            @Value("${widgets.feed.send-timeout-ms:5000}") long sendTimeoutMs) {
+        Validate.isTrue(senderThreads > 0, "senderThreads must be positive");
+        Validate.isTrue(sendTimeoutMs > 0, "sendTimeoutMs must be positive");
+
+        this.changeLog = changeLog.getIfAvailable();
+        this.senderThreads = senderThreads;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        // The pool grows only by the threads of the blocked sends, the queue is unbounded
+        this.senders = new ThreadPoolExecutor(senderThreads, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "widget-feed-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, "widget-feed");
+        this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * @return true if the widgets have a change feed
+     */
+    public boolean isAvailable() {
+        return changeLog != null;
+    }
+
+    /**
+     * @return number of the connected subscribers
+     */
+    public int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Subscribe to the changes after the version. The first event is "version" with the version the feed starts after
+     * @param afterVersion version the client has. Null to start from the current version
+     * @param viewport minX, minY, maxX, maxY of the area the client shows. Null for all widgets
+     * @throws IllegalStateException if the widgets have no change feed
+     * @throws IllegalArgumentException if the version is negative or the viewport is wrong
+     */
+    public SseEmitter subscribe(Long afterVersion, double[] viewport) {
+        Validate.validState(changeLog != null, "The widgets have no change feed");
+        Validate.isTrue(afterVersion == null || afterVersion >= 0, "The version can't be negative");
+        Validate.isTrue(viewport == null || viewport.length == 4 && viewport[0] <= viewport[2] && viewport[1] <= viewport[3], "The viewport is wrong");
+
+        var lastVersion = afterVersion != null ? afterVersion : changeLog.getLastSequence();
+        var subscription = new Subscription(new SseEmitter(0L), viewport, lastVersion);
+        subscription.emitter.onCompletion(() -> subscriptions.remove(subscription));
+        subscription.emitter.onTimeout(() -> subscriptions.remove(subscription));
+        subscription.emitter.onError(e -> subscriptions.remove(subscription));
+        try {
+            subscription.emitter.send(SseEmitter.event()
+                    .id(String.valueOf(lastVersion))
+                    .name("version")
+                    .data(lastVersion));
+        }
+        catch (IOException e){
+            subscription.emitter.completeWithError(e);
+            return subscription.emitter;
+        }
+
+        subscriptions.add(subscription);
+        schedule(subscription);
+        return subscription.emitter;
+    }
+
+    @PostConstruct
+    public void start() {
+        if(changeLog != null)
+            dispatcher.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        dispatcher.interrupt();
+        senders.shutdownNow();
+        for (var subscription : subscriptions) {
+            subscription.emitter.complete();
+        }
+        subscriptions.clear();
+    }
+
+    private void dispatch() {
+        var seen = changeLog.getLastSequence();
+        var waitMs = Math.max(1, Math.min(HEARTBEAT_MS, TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos) / 2));
+        var lastActivity = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                changeLog.read(seen, 1, waitMs);
+            }
+            catch (InterruptedException e){
+                return;
+            }
+
+            dropBlockedSends();
+            var last = changeLog.getLastSequence();
+            var now = System.nanoTime();
+            // An idle connection gets a comment, so a closed one is noticed and removed
+            var idle = last == seen && now - lastActivity >= TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MS);
+            if(last == seen && !idle)
+                continue;
+            seen = last;
+            lastActivity = now;
+            for (var subscription : subscriptions) {
+                if(idle)
+                    subscription.heartbeat = true;
+                schedule(subscription);
+            }
+        }
+    }
+
+    /**
+     * Drop the subscribers which send is blocked longer than the timeout and add a sender thread per blocked send.
+     * The blocked sender completes the emitter when the write returns, the emitter can't be completed while it sends
+     */
+    private void dropBlockedSends() {
+        var now = System.nanoTime();
+        for (var subscription : subscriptions) {
+            var sendStartedAt = subscription.sendStartedAt;
+            if(sendStartedAt == 0 || now - sendStartedAt <= sendTimeoutNanos)
+                continue;
+
+            subscriptions.remove(subscription);
+            LOGGER.warn("Change feed subscriber doesn't take the events, it is dropped");
+            synchronized (senders) {
+                subscription.blocked = true;
+                blockedSends++;
+                senders.setCorePoolSize(senderThreads + blockedSends);
+            }
+            // The send may have returned before it was marked
+            if(subscription.sendStartedAt == 0)
+                releaseBlockedSend(subscription);
+        }
+    }
+
+    /**
+     * Send the event, recording when the send started so a blocked one is noticed
+     */
+    private void send(Subscription subscription, SseEmitter.SseEventBuilder event) throws IOException {
+        subscription.sendStartedAt = System.nanoTime();
+        try {
+            subscription.emitter.send(event);
+        }
+        finally {
+            subscription.sendStartedAt = 0;
+            if(subscription.blocked)
+                releaseBlockedSend(subscription);
+        }
+    }
+
+    private void schedule(Subscription subscription) {
+        if(subscription.scheduled.compareAndSet(false, true))
+            senders.execute(() -> flush(subscription));
+    }
+
+    /**
+     * Send the changes the subscriber doesn't have yet. Runs for one subscription at a time
+     */
+    private void flush(Subscription subscription) {
+        try {
+            while (true) {
+                var changes = changeLog.read(subscription.lastVersion, BATCH_SIZE, 0);
+                if(changes == null){
+                    subscriptions.remove(subscription);
+                    send(subscription, SseEmitter.event()
+                            .name("reset")
+                            .data(changeLog.getLastSequence()));
+                    subscription.emitter.complete();
+                    return;
+                }
+                if(changes.isEmpty())
+                    break;
+
+                for (var change : changes) {
+                    var viewport = subscription.viewport;
+                    var dto = viewport == null ? change.getDto() : change.select(viewport[0], viewport[1], viewport[2], viewport[3]);
+                    if(dto != null){
+                        send(subscription, SseEmitter.event()
+                                .id(String.valueOf(change.getVersion()))
+                                .name("change")
+                                .data(dto, MediaType.APPLICATION_JSON));
+                        subscription.heartbeat = false;
+                        if(subscription.blocked){
+                            subscription.emitter.complete();
+                            return;
+                        }
+                    }
+                    subscription.lastVersion = change.getVersion();
+                }
+            }
+
+            if(subscription.heartbeat){
+                subscription.heartbeat = false;
+                send(subscription, SseEmitter.event().comment(""));
+                if(subscription.blocked){
+                    subscription.emitter.complete();
+                    return;
+                }
+            }
+        }
+        catch (IOException | IllegalStateException e){
+            // The client has gone
+            subscriptions.remove(subscription);
+            LOGGER.debug("Change feed subscriber is disconnected", e);
+            return;
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return;
+        }
+        catch (RuntimeException e){
+            subscriptions.remove(subscription);
+            LOGGER.error("Changes can't be sent to the subscriber", e);
+            subscription.emitter.completeWithError(e);
+            return;
+        }
+        finally {
+            subscription.scheduled.set(false);
+        }
+
+        // A change appended while the flag was set
+        if(changeLog.getLastSequence() > subscription.lastVersion && subscriptions.contains(subscription))
+            schedule(subscription);
+    }
+
+    /**
+     * The blocked send returned, the thread added for it is not needed anymore. Called by the sender and by the dispatcher,
+     * the first call releases the thread
+     */
+    private void releaseBlockedSend(Subscription subscription) {
+        synchronized (senders) {
+            if(subscription.released)
+                return;
+            subscription.released = true;
+            blockedSends--;
+            senders.setCorePoolSize(senderThreads + blockedSends);
+        }
+    }
+
+    private static final class Subscription {
+        private final SseEmitter emitter;
+        private final double[] viewport;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Set once by the dispatcher when a send blocks longer than the timeout
+        private volatile boolean blocked;
+        // Guarded by the senders. The thread added for the blocked send was released
+        private boolean released;
+        // System.nanoTime() when the current send started, 0 if none is in progress
+        private volatile long sendStartedAt;
+        // Changed only by the flush holding the scheduled flag
+        private volatile long lastVersion;
+        private volatile boolean heartbeat;
+
+        private Subscription(SseEmitter emitter, double[] viewport, long lastVersion) {
+            this.emitter = emitter;
+            this.viewport = viewport;
+            this.lastVersion = lastVersion;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.miro.services.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import com.miro.services.boardManager.BoardRegistry;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Partitioning of the boards across the service nodes. Every board belongs to one node of the {@link ConsistentHashRing},
+ * requests for the boards of other nodes are forwarded to the owner.
+ * When the nodes change, the boards owned by another node are handed off to it: the board is closed, its widgets are sent
+ * to the owner and the local copy is deleted. A failed handoff is retried by the next rebalance.
+ * Without the cluster nodes every board is local.
+ */
+@Service
+public class ClusterService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterService.class);
+
+    /**
+     * Header of the requests sent by another node. Such request is served locally, so the nodes never forward in a loop
+     */
+    public static final String FORWARDED_HEADER = "X-Widgets-Forwarded";
+    private static final int TRANSFER_BATCH_SIZE = 500;
+
+    private final BoardRegistry boardRegistry;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService rebalancer = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "board-rebalancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HttpClient httpClient;
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    private final Duration requestTimeout;
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    // Base url of this node, empty without the cluster
+    private final String self;
+    public String getSelf() {
+        return self;
+    }
+
+    // Null without the cluster
+    private volatile ConsistentHashRing ring;
+
+    /**
+     * @param self base url of this node, like http://localhost:8080. Can be empty
+     * @param nodes comma separated base urls of the cluster nodes, including this one. Can be empty
+     * @param requestTimeoutMs timeout of the requests to other nodes
+     * @throws IllegalArgumentException if the nodes are set without this node url
+     */
+    @Autowired
+    public ClusterService(BoardRegistry boardRegistry,
+                          ObjectMapper objectMapper,
+                          @Value("${widgets.cluster.self:}") String self,
+                          @Value("${widgets.cluster.nodes:}") String nodes,
+                          @Value("${widgets.cluster.request-timeout-ms:10000}") long requestTimeoutMs) {
+        Validate.notNull(boardRegistry, "boardRegistry can't be null");
+        Validate.notNull(objectMapper, "objectMapper can't be null");
+        Validate.isTrue(requestTimeoutMs > 0, "requestTimeoutMs must be positive");
+
+        this.boardRegistry = boardRegistry;
+        this.objectMapper = objectMapper;
+        this.self = self == null ? "" : self;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(requestTimeout)
+                .build();
+
+        var nodeList = new ArrayList<String>();
+        if(nodes != null){
+            for (var node : nodes.split(",")) {
+                if(!node.isBlank())
+                    nodeList.add(node.trim());
+            }
+        }
+        setNodes(nodeList);
+    }
+
+    /**
+     * @return base urls of the cluster nodes, empty without the cluster
+     */
+    public List<String> getNodes() {
+        var current = ring;
+        return current == null ? List.of() : current.getNodes();
+    }
+
+    /**
+     * Replace the cluster nodes and hand off the boards owned by other nodes in the background
+     * @param nodes base urls of the nodes. Empty to serve every board locally
+     * @throws IllegalArgumentException if a node url is wrong or this node url is not set
+     */
+    public void setNodes(List<String> nodes) {
+        Validate.notNull(nodes, "nodes can't be null");
+        for (var node : nodes) {
+            Validate.isTrue(node != null && isNodeUrl(node), "The node '%s' has wrong format", node);
+        }
+        Validate.isTrue(nodes.isEmpty() || isNodeUrl(self), "The 'widgets.cluster.self' must be set to join the cluster");
+
+        ring = nodes.isEmpty() ? null : new ConsistentHashRing(nodes, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        LOGGER.info("Cluster nodes {}", getNodes());
+        rebalanceBoards();
+    }
+
+    /**
+     * @return owner node of the board or null if the board is served locally
+     */
+    public String getRemoteOwner(String boardId) {
+        Validate.notNull(boardId, "boardId can't be null");
+
+        var current = ring;
+        if(current == null)
+            return null;
+        var owner = current.ownerOf(boardId);
+        return owner.equals(self) ? null : owner;
+    }
+
+    /**
+     * Send the nodes to the other nodes, so the whole cluster uses the same ring. A failed node is logged and skipped
+     * @param targets nodes which get the update, this node is skipped
+     */
+    public void propagateNodes(List<String> nodes, Collection<String> targets) {
+        Validate.notNull(nodes, "nodes can't be null");
+        Validate.notNull(targets, "targets can't be null");
+
+        for (var target : new LinkedHashSet<>(targets)) {
+            if(target.equals(self))
+                continue;
+            try {
+                var response = send(HttpRequest.newBuilder(URI.create(target + "/api/v1/cluster/nodes"))
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(nodes))));
+                if(response.statusCode() != HttpStatus.OK.value())
+                    LOGGER.error("Cluster nodes are not accepted by {}, status {}", target, response.statusCode());
+            }
+            catch (IOException e){
+                LOGGER.error(String.format("Cluster nodes can't be sent to %s", target), e);
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add the widgets handed off by another node to the board, the widgets which already exist are skipped
+     * @param widgets widgets sorted by zIndex
+     * @throws IllegalArgumentException if the board id or the widgets are wrong
+     */
+    public void importWidgets(String boardId, WidgetDto[] widgets) {
+        Validate.notNull(boardId, "boardId can't be null");
+        Validate.notNull(widgets, "widgets can't be null");
+        Validate.noNullElements(widgets, "widget can't be null");
+
+        try {
+            boardRegistry.withBoard(boardId, widgetService -> {
+                var operations = new ArrayList<WidgetOperation>(widgets.length);
+                for (var widget : widgets) {
+                    Validate.notNull(widget.getGuid(), "The widget guid can't be null");
+                    try {
+                        widgetService.getWidget(widget.getGuid());
+                        continue;
+                    }
+                    catch (WidgetNotFoundException e){
+                        // Not transferred yet
+                    }
+
+                    var widgetLayoutInfo = new WidgetLayoutInfo();
+                    widgetLayoutInfo.setX(widget.getX());
+                    widgetLayoutInfo.setY(widget.getY());
+                    widgetLayoutInfo.setWidth(widget.getWidth());
+                    widgetLayoutInfo.setHeight(widget.getHeight());
+                    widgetLayoutInfo.setzIndex(widget.getzIndex());
+                    operations.add(WidgetOperation.create(widget.getGuid(), widgetLayoutInfo));
+                }
+                return operations.isEmpty() ? null : widgetService.applyWidgetOperations(operations);
+            });
+        }
+        catch (WidgetNotFoundException e){
+            throw new IllegalStateException("Import has only create operations", e);
+        }
+    }
+
+    /**
+     * Hand off the boards owned by other nodes, in the background.
+     * Runs after the nodes change and periodically, to retry the failed handoffs
+     */
+    @Scheduled(initialDelayString = "${widgets.cluster.rebalance-interval-ms:60000}", fixedDelayString = "${widgets.cluster.rebalance-interval-ms:60000}")
+    public void rebalanceBoards() {
+        if(ring != null)
+            rebalancer.execute(this::rebalance);
+    }
+
+    @PreDestroy
+    public void close() {
+        rebalancer.shutdownNow();
+    }
+
+    private void rebalance() {
+        try {
+            for (var boardId : boardRegistry.getBoardIds()) {
+                var owner = getRemoteOwner(boardId);
+                if(owner != null)
+                    handOff(boardId, owner);
+            }
+        }
+        catch (RuntimeException e){
+            LOGGER.error("Boards can't be rebalanced", e);
+        }
+    }
+
+    private void handOff(String boardId, String owner) {
+        var widgets = boardRegistry.detach(boardId);
+        if(widgets == null)
+            return;
+
+        try {
+            for (int from = 0; from < widgets.length; from += TRANSFER_BATCH_SIZE) {
+                var batch = Arrays.copyOfRange(widgets, from, Math.min(widgets.length, from + TRANSFER_BATCH_SIZE));
+                var response = send(HttpRequest.newBuilder(URI.create(owner + "/api/v1/cluster/boards/" + boardId + "/widgets"))
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(batch))));
+                if(response.statusCode() != HttpStatus.OK.value())
+                    throw new IOException(String.format("Owner responded with status %d", response.statusCode()));
+            }
+            boardRegistry.delete(boardId);
+            LOGGER.info("Board {} with {} widgets is handed off to {}", boardId, widgets.length, owner);
+        }
+        catch (IOException | InterruptedException | RuntimeException e){
+            if(e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            LOGGER.error(String.format("Board %s can't be handed off to %s, it stays on this node", boardId, owner), e);
+            // Persisted board is restored from its files, the widgets of an in-memory board are put back
+            importWidgets(boardId, widgets);
+        }
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return httpClient.send(request.timeout(requestTimeout)
+                        .header("Content-Type", "application/json")
+                        .header(FORWARDED_HEADER, self)
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static boolean isNodeUrl(String node) {
+        try {
+            var uri = URI.create(node);
+            return ("http".equals(uri.getScheme()) || "https".equals(uri.getScheme())) && uri.getHost() != null && !node.endsWith("/");
+        }
+        catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.miro.services.cluster;
+
+import org.apache.commons.lang3.Validate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Consistent-hash ring of the service nodes. Every node is placed on the ring many times, a key belongs to the first node
+ * clockwise from the key hash. A joined or left node moves only about 1/n of the keys.
+ * The ring is immutable and depends only on the node names, so every node computes the same owner.
+ */
+public final class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    // Sorted points of the ring and the node index of every point
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param nodes node names, base urls of the nodes. Duplicates are ignored
+     * @param virtualNodes number of the ring points per node
+     * @throws IllegalArgumentException if the nodes are empty or virtualNodes is not positive
+     */
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        Validate.notNull(nodes, "nodes can't be null");
+        Validate.noNullElements(nodes, "node can't be null");
+        Validate.isTrue(virtualNodes > 0, "virtualNodes must be positive");
+
+        this.nodes = List.copyOf(new TreeSet<>(nodes));
+        Validate.isTrue(!this.nodes.isEmpty(), "nodes can't be empty");
+
+        // Point and node index in one sortable pair, collisions are resolved by the node order
+        var entries = new long[this.nodes.size() * virtualNodes][];
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                entries[node * virtualNodes + i] = new long[] { hash(this.nodes.get(node) + "#" + i), node };
+            }
+        }
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        points = new long[entries.length];
+        owners = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * @return node owning the key
+     */
+    public String ownerOf(String key) {
+        Validate.notNull(key, "key can't be null");
+
+        var index = Arrays.binarySearch(points, hash(key));
+        if(index < 0)
+            index = -index - 1;
+        else
+            // The first of the equal points
+            while (index > 0 && points[index - 1] == points[index])
+                index--;
+        return nodes.get(owners[index == points.length ? 0 : index]);
+    }
+
+    /**
+     * 64-bit FNV-1a of the utf-8 bytes with the murmur3 finalizer, the same on every node
+     */
+    static long hash(String value) {
+        var hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
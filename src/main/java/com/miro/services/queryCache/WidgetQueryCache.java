@@ -0,0 +1,473 @@
+package com.miro.services.queryCache;
+
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetQueryCacheStatsDto;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Results of the filter and pagination queries of one widget store, kept until a change touches them.
+ * A filter result depends only on the widgets intersecting its area and a page only on the widgets in its zIndex range,
+ * so a change drops the results it can alter and the others outlive the version. The least recently used results
+ * are evicted when the cached widgets exceed the limit. The cached arrays are shared by the readers and must not be modified.
+ * <p>
+ * The store reports the widgets a change touches while it applies the change under its write lock, and commits them
+ * after the change version is published. A reader offers its result with the version it started reading at,
+ * a result read before the last commit is not cached, so a result never outlives the change that alters it.
+ * <p>
+ * The lookups don't lock, they only mark the entry as referenced. Caching, committing and eviction are serialized by the lock.
+ * Eviction is a clock sweep over the entries in insertion order: a referenced entry gets a second chance, so a put
+ * evicts in amortized constant time. A commit visits only the entries a change can alter: the results are indexed by the
+ * zIndex their shift starts at, the pages by their highest zIndex and the filters by the grid cells of their area.
+ */
+public final class WidgetQueryCache {
+    private static final long NO_SHIFT = Long.MAX_VALUE;
+    // Filter areas are indexed by the grid cells they cover, an area covering more cells is checked on every commit
+    private static final double CELL_SIZE = 256;
+    private static final int MAX_CELLS = 64;
+
+    private final long maxWidgets;
+    private final ConcurrentHashMap<Query, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by the lock. Widgets of the cached results plus one per result, so empty results are bounded too
+    private long weight;
+    private long committedVersion;
+    // Guarded by the lock. Entries in insertion order, the removed ones are skipped by the sweep
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+    private final TreeMap<Long, Set<Entry>> byShiftZIndex = new TreeMap<>();
+    private final TreeMap<Long, Set<Entry>> pagesByHighZIndex = new TreeMap<>();
+    private final Map<Long, Set<Entry>> filtersByCell = new HashMap<>();
+    private final Set<Entry> wideFilters = newEntrySet();
+    private int filterCount;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long invalidations;
+    private long evictions;
+
+    // Written by the store writer only: minX, minY, maxX, maxY, zIndex of every touched widget state
+    private double[] touched = new double[5 * 16];
+    private int touchedCount;
+    private long lowestShift = NO_SHIFT;
+
+    /**
+     * @param maxWidgets max number of the cached widgets
+     */
+    public WidgetQueryCache(long maxWidgets) {
+        Validate.isTrue(maxWidgets > 0, "maxWidgets must be positive");
+        this.maxWidgets = maxWidgets;
+    }
+
+    /**
+     * @return cached result of the query, null if there is none
+     */
+    public WidgetDto[] get(Query query) {
+        var entry = entries.get(query);
+        if(entry == null){
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.referenced = true;
+        return entry.widgets;
+    }
+
+    /**
+     * Cache the result unless a change was committed after the reader started
+     * @param version store version read before the result was read
+     */
+    public void put(Query query, long version, WidgetDto[] widgets) {
+        Validate.notNull(query, "query can't be null");
+        Validate.notNull(widgets, "widgets can't be null");
+
+        var entryWeight = widgets.length + 1L;
+        if(entryWeight > maxWidgets)
+            return;
+
+        lock.lock();
+        try {
+            if(version != committedVersion)
+                return;
+
+            var entry = new Entry(query, widgets);
+            var previous = entries.put(query, entry);
+            if(previous != null)
+                unlink(previous);
+            link(entry);
+
+            if(weight > maxWidgets)
+                evictNotRecentlyUsed();
+            // The sweep drops the removed entries it passes, drop them here if the changes removed most of the entries
+            if(clock.size() > 2 * entries.size() + 64)
+                clock.removeIf(candidate -> candidate.removed);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clock sweep: a referenced entry loses its mark and goes to the tail, the first unreferenced one is evicted.
+     * After a full pass the entries are evicted regardless of the marks, so racing lookups can't keep the sweep going
+     */
+    private void evictNotRecentlyUsed() {
+        var secondChances = clock.size();
+        while (weight > maxWidgets) {
+            var entry = clock.pollFirst();
+            if(entry.removed)
+                continue;
+            if(entry.referenced && secondChances-- > 0){
+                entry.referenced = false;
+                clock.addLast(entry);
+                continue;
+            }
+            entries.remove(entry.query, entry);
+            unlink(entry);
+            evictions++;
+        }
+    }
+
+    private void link(Entry entry) {
+        weight += entry.widgets.length + 1L;
+        clock.addLast(entry);
+        byShiftZIndex.computeIfAbsent(entry.shiftZIndex, key -> newEntrySet()).add(entry);
+        if(!entry.isFilter){
+            pagesByHighZIndex.computeIfAbsent(entry.highZIndex, key -> newEntrySet()).add(entry);
+            return;
+        }
+        filterCount++;
+        if(entry.cells == null){
+            wideFilters.add(entry);
+            return;
+        }
+        for (long cell : entry.cells) {
+            filtersByCell.computeIfAbsent(cell, key -> newEntrySet()).add(entry);
+        }
+    }
+
+    /**
+     * Drop the entry from the weight and the indexes, the caller removes it from the entries
+     */
+    private void unlink(Entry entry) {
+        weight -= entry.widgets.length + 1L;
+        entry.removed = true;
+        removeFrom(byShiftZIndex, entry.shiftZIndex, entry);
+        if(!entry.isFilter){
+            removeFrom(pagesByHighZIndex, entry.highZIndex, entry);
+            return;
+        }
+        filterCount--;
+        if(entry.cells == null){
+            wideFilters.remove(entry);
+            return;
+        }
+        for (long cell : entry.cells) {
+            removeFrom(filtersByCell, cell, entry);
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Entry>> index, K key, Entry entry) {
+        var indexed = index.get(key);
+        if(indexed != null && indexed.remove(entry) && indexed.isEmpty())
+            index.remove(key);
+    }
+
+    private static Set<Entry> newEntrySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * A widget occupying the bounds at the zIndex appears or disappears. Report both states of an updated widget.
+     * Must be called under the store write lock
+     */
+    public void touch(double minX, double minY, double maxX, double maxY, int zIndex) {
+        var position = 5 * touchedCount;
+        if(position + 5 > touched.length)
+            touched = Arrays.copyOf(touched, touched.length * 2);
+        touched[position] = minX;
+        touched[position + 1] = minY;
+        touched[position + 2] = maxX;
+        touched[position + 3] = maxY;
+        touched[position + 4] = zIndex;
+        touchedCount++;
+    }
+
+    /**
+     * The widgets from the zIndex up are moved up by one. Must be called under the store write lock
+     */
+    public void shift(int zIndex) {
+        lowestShift = Math.min(lowestShift, zIndex);
+    }
+
+    /**
+     * Drop the results the touched widgets and shifts alter. Must be called under the store write lock,
+     * after the version of the change is published
+     */
+    public void commit(long version) {
+        lock.lock();
+        try {
+            if(touchedCount > 0 || lowestShift != NO_SHIFT){
+                for (Entry entry : alteredEntries()) {
+                    entries.remove(entry.query, entry);
+                    unlink(entry);
+                    invalidations++;
+                }
+            }
+            touchedCount = 0;
+            lowestShift = NO_SHIFT;
+            committedVersion = version;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Entries the touched widgets and shifts alter: the ones shifted from their shift zIndex or below, the pages which
+     * highest zIndex is the touched one or above and the filters in the grid cells of the touched widgets
+     */
+    private Set<Entry> alteredEntries() {
+        var altered = newEntrySet();
+        for (var shifted : byShiftZIndex.tailMap(lowestShift, true).values()) {
+            altered.addAll(shifted);
+        }
+        for (int i = 0; i < touchedCount; i++) {
+            var position = 5 * i;
+            var zIndex = (long) touched[position + 4];
+            for (var pages : pagesByHighZIndex.tailMap(zIndex, true).values()) {
+                for (Entry page : pages) {
+                    if(page.lowZIndex < zIndex)
+                        altered.add(page);
+                }
+            }
+            if(filterCount == 0)
+                continue;
+
+            var cells = cellsOf(touched[position], touched[position + 1], touched[position + 2], touched[position + 3]);
+            if(cells == null){
+                // A widget covering many cells is checked against every filter
+                for (Entry entry : entries.values()) {
+                    if(entry.isFilter && entry.isTouchedBy(touched, position))
+                        altered.add(entry);
+                }
+                continue;
+            }
+            for (Entry filter : wideFilters) {
+                if(filter.isTouchedBy(touched, position))
+                    altered.add(filter);
+            }
+            for (long cell : cells) {
+                var filters = filtersByCell.get(cell);
+                if(filters == null)
+                    continue;
+                for (Entry filter : filters) {
+                    if(filter.isTouchedBy(touched, position))
+                        altered.add(filter);
+                }
+            }
+        }
+        return altered;
+    }
+
+    /**
+     * @return keys of the grid cells the bounds touch, null if there are more than MAX_CELLS of them
+     */
+    private static long[] cellsOf(double minX, double minY, double maxX, double maxY) {
+        var minCellX = cellOf(minX);
+        var minCellY = cellOf(minY);
+        var maxCellX = cellOf(maxX);
+        var maxCellY = cellOf(maxY);
+        if(maxCellX - minCellX >= MAX_CELLS || maxCellY - minCellY >= MAX_CELLS
+                || (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > MAX_CELLS)
+            return null;
+
+        var cells = new long[(int) ((maxCellX - minCellX + 1) * (maxCellY - minCellY + 1))];
+        var i = 0;
+        for (long x = minCellX; x <= maxCellX; x++) {
+            for (long y = minCellY; y <= maxCellY; y++) {
+                cells[i++] = x << 32 | (y & 0xFFFFFFFFL);
+            }
+        }
+        return cells;
+    }
+
+    private static long cellOf(double coordinate) {
+        return (long) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.floor(coordinate / CELL_SIZE)));
+    }
+
+    /**
+     * Drop all results, when the widgets were replaced. Must be called under the store write lock
+     */
+    public void reset(long version) {
+        lock.lock();
+        try {
+            invalidations += entries.size();
+            entries.clear();
+            weight = 0;
+            clock.clear();
+            byShiftZIndex.clear();
+            pagesByHighZIndex.clear();
+            filtersByCell.clear();
+            wideFilters.clear();
+            filterCount = 0;
+            touchedCount = 0;
+            lowestShift = NO_SHIFT;
+            committedVersion = version;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public WidgetQueryCacheStatsDto getStats() {
+        var stats = new WidgetQueryCacheStatsDto();
+        stats.setHits(hits.sum());
+        stats.setMisses(misses.sum());
+        lock.lock();
+        try {
+            stats.setInvalidations(invalidations);
+            stats.setEvictions(evictions);
+            stats.setEntries(entries.size());
+            stats.setWidgets(weight - entries.size());
+        }
+        finally {
+            lock.unlock();
+        }
+        return stats;
+    }
+
+    /**
+     * Query parameters, the cache key
+     */
+    public static final class Query {
+        private final boolean isFilter;
+        // Filter area or limit, offset or cursor and zero
+        private final double a;
+        private final double b;
+        private final double c;
+        private final double d;
+
+        private Query(boolean isFilter, double a, double b, double c, double d) {
+            this.isFilter = isFilter;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        /**
+         * Widgets intersecting the area sorted by zIndex
+         */
+        public static Query filter(double minX, double minY, double maxX, double maxY) {
+            return new Query(true, minX, minY, maxX, maxY);
+        }
+
+        /**
+         * Widgets sorted by zIndex from the position offset
+         */
+        public static Query page(int limit, int offset) {
+            return new Query(false, limit, offset, 0, 0);
+        }
+
+        /**
+         * Widgets sorted by zIndex which zIndex is greater than the cursor
+         */
+        public static Query pageAfter(int limit, int afterZIndex) {
+            // Offset pages have d = 0
+            return new Query(false, limit, afterZIndex, 0, 1);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(this == other)
+                return true;
+            if(!(other instanceof Query))
+                return false;
+            var query = (Query) other;
+            return isFilter == query.isFilter
+                    && Double.compare(a, query.a) == 0
+                    && Double.compare(b, query.b) == 0
+                    && Double.compare(c, query.c) == 0
+                    && Double.compare(d, query.d) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            var hash = Boolean.hashCode(isFilter);
+            hash = 31 * hash + Double.hashCode(a);
+            hash = 31 * hash + Double.hashCode(b);
+            hash = 31 * hash + Double.hashCode(c);
+            return 31 * hash + Double.hashCode(d);
+        }
+    }
+
+    /**
+     * Cached result with the widgets it depends on: the widgets in the area with zIndex in (lowZIndex, highZIndex]
+     */
+    private static final class Entry {
+        private final Query query;
+        private final boolean isFilter;
+        private final WidgetDto[] widgets;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+        private final long lowZIndex;
+        private final long highZIndex;
+        // A shift from this zIndex or below alters the result
+        private final long shiftZIndex;
+        // Grid cells of the filter area, null for the pages and the wide areas
+        private final long[] cells;
+        private volatile boolean referenced;
+        // Guarded by the cache lock
+        private boolean removed;
+
+        private Entry(Query query, WidgetDto[] widgets) {
+            this.query = query;
+            this.isFilter = query.isFilter;
+            this.widgets = widgets;
+            var top = widgets.length > 0 ? (long) widgets[widgets.length - 1].getzIndex() : Long.MIN_VALUE;
+            if(query.isFilter){
+                minX = query.a;
+                minY = query.b;
+                maxX = query.c;
+                maxY = query.d;
+                lowZIndex = Long.MIN_VALUE;
+                highZIndex = Long.MAX_VALUE;
+                // Moving the widgets in the area changes their zIndex, moving the others doesn't change the result
+                shiftZIndex = top;
+                cells = cellsOf(minX, minY, maxX, maxY);
+                return;
+            }
+
+            minX = minY = Double.NEGATIVE_INFINITY;
+            maxX = maxY = Double.POSITIVE_INFINITY;
+            lowZIndex = query.d == 0 ? Long.MIN_VALUE : (long) query.b;
+            // A full page doesn't depend on the widgets above its last one, a short page depends on all of them
+            highZIndex = widgets.length == (int) query.a ? top : Long.MAX_VALUE;
+            shiftZIndex = highZIndex;
+            cells = null;
+        }
+
+        /**
+         * @param position position of the touched widget state in the touched array
+         */
+        private boolean isTouchedBy(double[] touched, int position) {
+            var zIndex = touched[position + 4];
+            return zIndex > lowZIndex && zIndex <= highZIndex
+                    && touched[position] <= maxX && touched[position + 2] >= minX
+                    && touched[position + 1] <= maxY && touched[position + 3] >= minY;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.miro.services.replication;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Latest changes of the widgets in the order they were applied, read by the replicas and the change feed subscribers.
+ * The change with sequence N turns the widgets version N - 1 into the version N. The oldest changes are dropped
+ * when the log is full, a reader behind them starts again from the whole widgets.
+ * @param <T> change representation
+ */
+public final class WidgetMutationLog<T> {
+
+    private final ReentrantLock locker = new ReentrantLock();
+    private final Condition appended = locker.newCondition();
+    private final Object[] records;
+
+    // Records are the sequences (lastSequence - size, lastSequence]
+    private long lastSequence;
+    private int size;
+
+    /**
+     * @param capacity number of the kept changes
+     */
+    public WidgetMutationLog(int capacity) {
+        Validate.isTrue(capacity > 0, "capacity must be positive");
+        records = new Object[capacity];
+    }
+
+    /**
+     * @return sequence of the last change
+     */
+    public long getLastSequence() {
+        locker.lock();
+        try {
+            return lastSequence;
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * Drop the changes and continue after the sequence, when the widgets were replaced
+     */
+    public void reset(long sequence) {
+        Validate.isTrue(sequence >= 0, "sequence can't be negative");
+
+        locker.lock();
+        try {
+            lastSequence = sequence;
+            size = 0;
+            appended.signalAll();
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * @param sequence sequence of the change, next after the last one
+     * @throws IllegalArgumentException if the sequence is not the next one
+     */
+    public void append(long sequence, T record) {
+        Validate.notNull(record, "record can't be null");
+
+        locker.lock();
+        try {
+            Validate.isTrue(sequence == lastSequence + 1, "Sequence %s doesn't follow %s", sequence, lastSequence);
+            records[(int) (sequence % records.length)] = record;
+            lastSequence = sequence;
+            size = Math.min(size + 1, records.length);
+            appended.signalAll();
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * Read the changes after the sequence, waiting for the next change if there is none yet
+     * @param afterSequence sequence of the last change the reader has
+     * @param limit max number of the changes
+     * @param timeoutMs time to wait for the next change
+     * @return changes with sequences afterSequence + 1, afterSequence + 2 and so on. Empty if no change came in time.
+     * Null if the changes after the sequence were dropped or the sequence is ahead of the log
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> read(long afterSequence, int limit, long timeoutMs) throws InterruptedException {
+        Validate.isTrue(limit > 0, "limit must be positive");
+        Validate.isTrue(timeoutMs >= 0, "timeoutMs can't be negative");
+
+        var remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        locker.lock();
+        try {
+            while (afterSequence == lastSequence && remainingNanos > 0) {
+                remainingNanos = appended.awaitNanos(remainingNanos);
+            }
+            if(afterSequence < lastSequence - size || afterSequence > lastSequence)
+                return null;
+
+            var count = (int) Math.min(limit, lastSequence - afterSequence);
+            var result = new ArrayList<T>(count);
+            for (long sequence = afterSequence + 1; sequence <= afterSequence + count; sequence++) {
+                result.add((T) records[(int) (sequence % records.length)]);
+            }
+            return result;
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+}
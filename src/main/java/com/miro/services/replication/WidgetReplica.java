@@ -0,0 +1,179 @@
+package com.miro.services.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.core.dto.WidgetMutationDto;
+import com.miro.core.mapping.WidgetMapper;
+import com.miro.services.widgetJournal.WidgetSnapshotFile;
+import com.miro.services.widgetManager.WidgetServiceImpl;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read replica of the primary widgets. Long-polls the primary for the changes after the local version and applies
+ * them in order, so the local widgets are always some committed version of the primary widgets.
+ * A replica behind the primary change log or out of sync with it starts again from the primary snapshot.
+ * The replica widgets are kept only in memory.
+ */
+@Component
+@ConditionalOnProperty(name = "widgets.replication.role", havingValue = "replica")
+public class WidgetReplica {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetReplica.class);
+
+    /**
+     * Header with the widgets version a response is based on
+     */
+    public static final String VERSION_HEADER = "X-Widgets-Version";
+    private static final int BATCH_SIZE = 1000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long MAX_POLL_WAIT_MS = 10000;
+
+    private final WidgetServiceImpl widgetService;
+    private final ObjectMapper objectMapper;
+    private final WidgetMapper widgetMapper = WidgetMapper.INSTANCE;
+    private final String primaryUrl;
+    private final long maxStalenessNanos;
+    private final long pollWaitMs;
+    private final HttpClient httpClient;
+    private final Thread poller;
+
+    // Time the local widgets were known to match the primary
+    private volatile long syncedAtNanos;
+    private volatile boolean synced;
+
+    /**
+     * @param primaryUrl base url of the primary, like http://localhost:8080
+     * @param maxStalenessMs time after the last sync the replica widgets are considered stale
+     * @throws IllegalArgumentException if the primary url is wrong
+     */
+    public WidgetReplica(WidgetServiceImpl widgetService,
+                         ObjectMapper objectMapper,
+                         @Value("${widgets.replication.primary-url:}") String primaryUrl,
+                         @Value("${widgets.replication.max-staleness-ms:5000}") long maxStalenessMs) {
+        Validate.notNull(widgetService, "widgetService can't be null");
+        Validate.notNull(objectMapper, "objectMapper can't be null");
+        Validate.isTrue(primaryUrl != null && primaryUrl.matches("https?://[^/]+"), "The 'widgets.replication.primary-url' must be set for a replica");
+        Validate.isTrue(maxStalenessMs > 0, "maxStalenessMs must be positive");
+
+        this.widgetService = widgetService;
+        this.objectMapper = objectMapper;
+        this.primaryUrl = primaryUrl;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMs);
+        // An idle poll must end in time to refresh the sync time
+        this.pollWaitMs = Math.max(1, Math.min(MAX_POLL_WAIT_MS, maxStalenessMs / 2));
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(MAX_POLL_WAIT_MS))
+                .build();
+        this.poller = new Thread(this::poll, "widget-replica");
+        this.poller.setDaemon(true);
+    }
+
+    /**
+     * @return true if the replica hasn't matched the primary for longer than the max staleness
+     */
+    public boolean isStale() {
+        return !synced || System.nanoTime() - syncedAtNanos > maxStalenessNanos;
+    }
+
+    @PostConstruct
+    public void start() {
+        poller.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        poller.interrupt();
+    }
+
+    private void poll() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                pollOnce();
+            }
+            catch (IOException | RuntimeException e){
+                LOGGER.error(String.format("Widget changes can't be read from the primary %s", primaryUrl), e);
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                }
+                catch (InterruptedException interrupted){
+                    return;
+                }
+            }
+            catch (InterruptedException e){
+                return;
+            }
+        }
+    }
+
+    private void pollOnce() throws IOException, InterruptedException {
+        var requestedAtNanos = System.nanoTime();
+        var response = send(String.format("/api/v1/replication/mutations?after=%d&limit=%d&waitMs=%d", widgetService.getVersion(), BATCH_SIZE, pollWaitMs));
+        try (var body = response.body()) {
+            if(response.statusCode() == HttpStatus.GONE.value()){
+                restore();
+                return;
+            }
+            if(response.statusCode() != HttpStatus.OK.value())
+                throw new IOException(String.format("Primary responded with status %d", response.statusCode()));
+
+            var mutations = objectMapper.readValue(body, WidgetMutationDto[].class);
+            try {
+                for (var mutation : mutations) {
+                    widgetService.applyReplicatedRecord(mutation.getVersion(), widgetMapper.map(mutation));
+                }
+            }
+            catch (IllegalStateException e){
+                LOGGER.warn("Replica is out of sync with the primary", e);
+                restore();
+                return;
+            }
+        }
+
+        var primaryVersion = response.headers().firstValueAsLong(VERSION_HEADER);
+        if(primaryVersion.isPresent() && widgetService.getVersion() >= primaryVersion.getAsLong())
+            markSynced(requestedAtNanos);
+    }
+
+    private void restore() throws IOException, InterruptedException {
+        var requestedAtNanos = System.nanoTime();
+        var response = send("/api/v1/replication/snapshot");
+        try (var body = response.body()) {
+            if(response.statusCode() != HttpStatus.OK.value())
+                throw new IOException(String.format("Primary responded with status %d", response.statusCode()));
+
+            var snapshot = WidgetSnapshotFile.read(Channels.newChannel(body));
+            widgetService.restoreSnapshot(snapshot);
+            LOGGER.info("Replica restored {} widgets of the primary version {}", snapshot.size(), snapshot.getVersion());
+        }
+        markSynced(requestedAtNanos);
+    }
+
+    private void markSynced(long nanos) {
+        syncedAtNanos = nanos;
+        synced = true;
+    }
+
+    private HttpResponse<InputStream> send(String path) throws IOException, InterruptedException {
+        return httpClient.send(HttpRequest.newBuilder(URI.create(primaryUrl + path))
+                        .timeout(Duration.ofMillis(pollWaitMs + MAX_POLL_WAIT_MS))
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+    }
+}
@@ -0,0 +1,70 @@
+package com.miro.services.stringSerializer;
+
+import com.miro.core.dto.WidgetDto;
+import org.apache.commons.lang3.Validate;
+
+import java.util.UUID;
+
+/**
+ * JSON of the recently written widgets, so an unchanged widget is encoded once.
+ * A guid has two slots, a widget replaces the JSON of the same guid or of the other guid that shares the slots.
+ * An entry is the JSON of a widget version: every change of a widget gives it a new version, so a changed widget
+ * misses the cache and is encoded again. Widgets without a version are not cached.
+ * The entries are immutable, racing writers replace each other without locks.
+ */
+final class EncodedWidgetCache {
+    private final Entry[] entries;
+
+    /**
+     * @param capacity max number of the cached widgets, rounded up to a power of two
+     */
+    EncodedWidgetCache(int capacity) {
+        Validate.isTrue(capacity > 1 && capacity <= 1 << 30, "capacity must be in (1, 2^30]");
+        entries = new Entry[Integer.highestOneBit(capacity - 1) << 1];
+    }
+
+    /**
+     * @return JSON of the widget, null if it isn't cached. The bytes must not be modified
+     */
+    byte[] get(WidgetDto widget) {
+        var guid = widget.getGuid();
+        var version = widget.getVersion();
+        if(guid == null || version == null)
+            return null;
+        var slot = slotOf(guid);
+        var entry = entries[slot];
+        if(entry == null || !entry.guid.equals(guid))
+            entry = entries[slot ^ 1];
+        return entry != null && entry.version == version && entry.guid.equals(guid) ? entry.json : null;
+    }
+
+    void put(WidgetDto widget, byte[] json) {
+        var guid = widget.getGuid();
+        var version = widget.getVersion();
+        if(guid == null || version == null)
+            return;
+        var slot = slotOf(guid);
+        var entry = entries[slot];
+        // Take the first slot if the guid or nobody is in it, else the other one
+        if(entry != null && !entry.guid.equals(guid))
+            slot ^= 1;
+        entries[slot] = new Entry(guid, version, json);
+    }
+
+    private int slotOf(UUID guid) {
+        var hash = guid.hashCode();
+        return (hash ^ (hash >>> 16)) & (entries.length - 1);
+    }
+
+    private static final class Entry {
+        private final UUID guid;
+        private final long version;
+        private final byte[] json;
+
+        private Entry(UUID guid, long version, byte[] json) {
+            this.guid = guid;
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
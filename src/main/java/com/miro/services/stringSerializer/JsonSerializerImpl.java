@@ -1,26 +1,266 @@
 package com.miro.services.stringSerializer;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.miro.core.dto.WidgetDto;
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Compact JSON of the objects. Widgets and widget arrays are written and read field by field by the streaming
+ * generator and parser, without reflection and intermediate trees or strings. Other types go through the object mapper.
+ * Widgets look the same as written by the object mapper: all fields including nulls, ISO local date time.
+ * An unchanged widget is encoded once: the JSON of the written widgets is kept by guid and widget version and copied
+ * as is by the next writes, a widget array is the concatenation of its widgets
+ */
 @Service
 public class JsonSerializerImpl implements StringSerializer {
 
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private static final SerializedString WIDTH = new SerializedString("width");
+    private static final SerializedString HEIGHT = new SerializedString("height");
+    private static final SerializedString X = new SerializedString("x");
+    private static final SerializedString Y = new SerializedString("y");
+    private static final SerializedString Z_INDEX = new SerializedString("zIndex");
+    private static final SerializedString UPDATED_AT_UTC = new SerializedString("updatedAtUtc");
+    private static final SerializedString GUID = new SerializedString("guid");
+
+    private static final int ENCODED_WIDGETS = 1 << 18;
+
+    private final ObjectMapper objectMapper;
+    private final JsonFactory jsonFactory;
+    private final EncodedWidgetCache encodedWidgets;
+
+    public JsonSerializerImpl(ObjectMapper objectMapper) {
+        this(objectMapper, ENCODED_WIDGETS);
+    }
+
+    /**
+     * @param encodedWidgets max number of the widgets which JSON is kept for the next writes
+     */
+    @Autowired
+    public JsonSerializerImpl(ObjectMapper objectMapper,
+                              @Value("${widgets.json.encoded-widgets:" + ENCODED_WIDGETS + "}") int encodedWidgets) {
+        Validate.notNull(objectMapper, "objectMapper can't be null");
 
-    public JsonSerializerImpl() {
+        this.objectMapper = objectMapper;
+        this.encodedWidgets = new EncodedWidgetCache(encodedWidgets);
+        this.jsonFactory = new JsonFactory()
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
     }
 
     @Override
     public <T> String serialize(T object) {
-        return gson.toJson(object);
+        var stream = new ByteArrayOutputStream();
+        try {
+            serialize(object, stream);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8);
     }
 
     @Override
-    public <T> T deserialize(String objectString) {
-        WidgetDto widgetDto = gson.fromJson(objectString, WidgetDto.class);
-        return (T) widgetDto;
+    public <T> void serialize(T object, OutputStream stream) throws IOException {
+        if(object instanceof WidgetDto){
+            writeWidgets(new WidgetDto[]{ (WidgetDto) object }, stream);
+        }
+        else if(object instanceof WidgetDto[]){
+            stream.write('[');
+            writeWidgets((WidgetDto[]) object, stream);
+            stream.write(']');
+        }
+        else {
+            try (var generator = jsonFactory.createGenerator(stream)) {
+                objectMapper.writeValue(generator, object);
+            }
+        }
+    }
+
+    @Override
+    public <T> T deserialize(String objectString, Class<T> type) {
+        Validate.notNull(objectString, "objectString can't be null");
+        try {
+            return deserialize(jsonFactory.createParser(objectString), type);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream stream, Class<T> type) throws IOException {
+        Validate.notNull(stream, "stream can't be null");
+        return deserialize(jsonFactory.createParser(stream), type);
+    }
+
+    private <T> T deserialize(JsonParser parser, Class<T> type) throws IOException {
+        Validate.notNull(type, "type can't be null");
+
+        try (parser) {
+            if(type == WidgetDto.class){
+                parser.nextToken();
+                return type.cast(readWidget(parser));
+            }
+            if(type == WidgetDto[].class){
+                if(parser.nextToken() == JsonToken.VALUE_NULL)
+                    return null;
+                if(!parser.isExpectedStartArrayToken())
+                    throw new JsonParseException(parser, "Widgets array is expected");
+
+                var widgets = new ArrayList<WidgetDto>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    widgets.add(readWidget(parser));
+                }
+                return type.cast(widgets.toArray(new WidgetDto[0]));
+            }
+            return objectMapper.readValue(parser, type);
+        }
+    }
+
+    /**
+     * Write the widgets separated by commas. The encoded widgets are copied, the others are encoded to a buffer first
+     * and the encoding is kept
+     */
+    private void writeWidgets(WidgetDto[] widgets, OutputStream stream) throws IOException {
+        ByteArrayOutputStream buffer = null;
+        JsonGenerator generator = null;
+        try {
+            for (int i = 0; i < widgets.length; i++) {
+                if(i > 0)
+                    stream.write(',');
+
+                var widget = widgets[i];
+                var encoded = widget != null ? encodedWidgets.get(widget) : null;
+                if(encoded != null){
+                    stream.write(encoded);
+                    continue;
+                }
+
+                if(generator == null){
+                    buffer = new ByteArrayOutputStream(256);
+                    generator = jsonFactory.createGenerator(buffer);
+                    generator.setRootValueSeparator(null);
+                }
+                writeWidget(generator, widget);
+                generator.flush();
+                if(widget != null)
+                    encodedWidgets.put(widget, buffer.toByteArray());
+                buffer.writeTo(stream);
+                buffer.reset();
+            }
+        }
+        finally {
+            if(generator != null)
+                generator.close();
+        }
+    }
+
+    private static void writeWidget(JsonGenerator generator, WidgetDto widget) throws IOException {
+        if(widget == null){
+            generator.writeNull();
+            return;
+        }
+
+        generator.writeStartObject();
+        generator.writeFieldName(WIDTH);
+        writeNumber(generator, widget.getWidth());
+        generator.writeFieldName(HEIGHT);
+        writeNumber(generator, widget.getHeight());
+        generator.writeFieldName(X);
+        writeNumber(generator, widget.getX());
+        generator.writeFieldName(Y);
+        writeNumber(generator, widget.getY());
+        generator.writeFieldName(Z_INDEX);
+        if(widget.getzIndex() != null)
+            generator.writeNumber(widget.getzIndex());
+        else
+            generator.writeNull();
+        generator.writeFieldName(UPDATED_AT_UTC);
+        if(widget.getUpdatedAtUtc() != null)
+            generator.writeString(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(widget.getUpdatedAtUtc()));
+        else
+            generator.writeNull();
+        generator.writeFieldName(GUID);
+        if(widget.getGuid() != null)
+            generator.writeString(widget.getGuid().toString());
+        else
+            generator.writeNull();
+        generator.writeEndObject();
+    }
+
+    private static void writeNumber(JsonGenerator generator, Double value) throws IOException {
+        if(value != null)
+            generator.writeNumber(value);
+        else
+            generator.writeNull();
+    }
+
+    private static WidgetDto readWidget(JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_NULL)
+            return null;
+        if(parser.currentToken() != JsonToken.START_OBJECT)
+            throw new JsonParseException(parser, "Widget object is expected");
+
+        var widget = new WidgetDto();
+        String fieldName;
+        while ((fieldName = parser.nextFieldName()) != null) {
+            if(parser.nextToken() == JsonToken.VALUE_NULL)
+                continue;
+
+            try {
+                switch (fieldName) {
+                    case "width":
+                        widget.setWidth(parser.getValueAsDouble());
+                        break;
+                    case "height":
+                        widget.setHeight(parser.getValueAsDouble());
+                        break;
+                    case "x":
+                        widget.setX(parser.getValueAsDouble());
+                        break;
+                    case "y":
+                        widget.setY(parser.getValueAsDouble());
+                        break;
+                    case "zIndex":
+                        widget.setzIndex(parser.getValueAsInt());
+                        break;
+                    case "updatedAtUtc":
+                        widget.setUpdatedAtUtc(LocalDateTime.parse(parser.getText(), DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+                        break;
+                    case "guid":
+                        widget.setGuid(UUID.fromString(parser.getText()));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            catch (IllegalArgumentException | DateTimeParseException e){
+                throw new JsonParseException(parser, String.format("Invalid '%s' value", fieldName), e);
+            }
+        }
+        if(parser.currentToken() != JsonToken.END_OBJECT)
+            throw new JsonParseException(parser, "Widget object is not closed");
+        return widget;
     }
 }
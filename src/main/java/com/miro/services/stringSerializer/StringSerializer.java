@@ -1,6 +1,21 @@
 package com.miro.services.stringSerializer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 public interface StringSerializer {
     <T> String serialize(T object);
-    <T> T deserialize(String objectString);
+
+    /**
+     * Write the object straight to the stream, the stream is left open
+     */
+    <T> void serialize(T object, OutputStream stream) throws IOException;
+
+    <T> T deserialize(String objectString, Class<T> type);
+
+    /**
+     * Read the object straight from the stream, the stream is left open
+     */
+    <T> T deserialize(InputStream stream, Class<T> type) throws IOException;
 }
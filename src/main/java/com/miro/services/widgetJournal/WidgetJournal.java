@@ -0,0 +1,614 @@
+package com.miro.services.widgetJournal;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of widget changes.
+ * {@link #append} only encodes the record into memory, a flusher thread writes everything appended since its previous
+ * write and forces it to the disk with one fsync. Writers appended while an fsync is running share the next one,
+ * so the fsync count follows the disk speed rather than the request rate.
+ * Record format: payload length, CRC32 of the payload, payload. Replay stops at the first torn or corrupted record
+ * and cuts the log there, it is the tail a crash left in the middle of a write.
+ * Records are numbered from 1 in the append order. {@link #compact} drops the records covered by a snapshot,
+ * the file header keeps the sequence of the last dropped record.
+ */
+public final class WidgetJournal implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetJournal.class);
+
+    private static final int MAGIC = 0x574A4E4C;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private static final byte X_PRESENT = 1;
+    private static final byte Y_PRESENT = 2;
+    private static final byte WIDTH_PRESENT = 4;
+    private static final byte HEIGHT_PRESENT = 8;
+    private static final byte Z_INDEX_PRESENT = 16;
+
+    private final Path path;
+    private final Thread flusher;
+
+    private final ReentrantLock locker = new ReentrantLock();
+    private final ReentrantLock compactionLocker = new ReentrantLock();
+    private final Condition hasPending = locker.newCondition();
+    private final Condition durable = locker.newCondition();
+
+    // Guarded by the locker. The flusher uses the channel and the writing buffer without the locker while it is flushing
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private boolean flushing;
+    private boolean replayed;
+    private long baseSequence;
+    private long appendedSequence;
+    private long durableSequence;
+    private long durableEnd;
+    private IOException failure;
+    private boolean closed;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Open the log, a missing file is created
+     * @throws IOException if the file can't be opened or is not a widget journal
+     */
+    public WidgetJournal(Path path) throws IOException {
+        Validate.notNull(path, "path can't be null");
+
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if(channel.size() == 0){
+                writeHeader(channel, 0);
+                channel.force(true);
+            }
+            else{
+                var header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                }
+                header.flip();
+                if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION)
+                    throw new IOException(String.format("%s is not a widget journal", path));
+                baseSequence = header.getLong();
+            }
+        }
+        catch (IOException e){
+            channel.close();
+            throw e;
+        }
+
+        flusher = new Thread(this::flushLoop, "widget-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Read records which sequence is greater than afterSequence in the order they were appended. A torn tail is cut off.
+     * Must be called once, before the first {@link #append}.
+     * @param afterSequence sequence of the last change the caller already has, 0 if it has none
+     * @return sequence of the last record, the next appended record gets the following one
+     * @throws IllegalStateException if the journal was already replayed or records after afterSequence were dropped
+     * @throws UncheckedIOException if the file can't be read
+     */
+    public long replay(long afterSequence, Consumer<WidgetJournalRecord> consumer) {
+        Validate.isTrue(afterSequence >= 0, "afterSequence can't be negative");
+        Validate.notNull(consumer, "consumer can't be null");
+
+        locker.lock();
+        try {
+            Validate.validState(!replayed, "Journal is already replayed");
+            Validate.validState(baseSequence <= afterSequence,
+                    "Journal starts after sequence %s, the changes after %s are lost", baseSequence, afterSequence);
+
+            var reader = new RecordReader(channel, HEADER_SIZE, channel.size());
+            var sequence = baseSequence;
+            while (reader.next()) {
+                sequence++;
+                if(sequence > afterSequence)
+                    consumer.accept(reader.record());
+            }
+
+            if(reader.end < channel.size()){
+                LOGGER.warn("Widget journal has {} bytes of torn tail after sequence {}, the tail is cut off", channel.size() - reader.end, sequence);
+                channel.truncate(reader.end);
+                channel.force(true);
+            }
+            channel.position(reader.end);
+
+            if(sequence < afterSequence){
+                // The caller has changes which never became durable here, the next record must follow them
+                LOGGER.warn("Widget journal ends at sequence {} before {}, it is restarted", sequence, afterSequence);
+                rewrite(afterSequence);
+                sequence = afterSequence;
+            }
+
+            replayed = true;
+            appendedSequence = sequence;
+            durableSequence = sequence;
+            durableEnd = channel.position();
+            return sequence;
+        }
+        catch (IOException e){
+            throw new UncheckedIOException("Widget journal can't be replayed", e);
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * Drop records up to the sequence, they are not needed after a snapshot of that sequence is saved.
+     * Appends are blocked only while the records appended during the compaction are copied.
+     * @throws UncheckedIOException if the file can't be rewritten
+     */
+    public void compact(long throughSequence) {
+        locker.lock();
+        try {
+            Validate.validState(replayed, "Journal must be replayed before compaction");
+            Validate.isTrue(throughSequence <= appendedSequence, "Sequence %s is not appended yet", throughSequence);
+        }
+        finally {
+            locker.unlock();
+        }
+        awaitDurable(throughSequence);
+
+        compactionLocker.lock();
+        try {
+            compactDurable(throughSequence);
+        }
+        finally {
+            compactionLocker.unlock();
+        }
+    }
+
+    private void compactDurable(long throughSequence) {
+        long start;
+        long end;
+        long keptSequence;
+        FileChannel current;
+        locker.lock();
+        try {
+            if(throughSequence <= baseSequence)
+                return;
+            current = channel;
+            end = durableEnd;
+            keptSequence = baseSequence;
+        }
+        finally {
+            locker.unlock();
+        }
+
+        try {
+            // Durable records don't change, so they are scanned without the locker
+            var reader = new RecordReader(current, HEADER_SIZE, end);
+            while (keptSequence < throughSequence && reader.next()) {
+                keptSequence++;
+            }
+            start = reader.end;
+
+            var compactedPath = compactedPath();
+            try (var compacted = FileChannel.open(compactedPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeHeader(compacted, keptSequence);
+                transfer(current, start, end, compacted);
+            }
+
+            locker.lock();
+            try {
+                while (flushing) {
+                    durable.awaitUninterruptibly();
+                }
+                if(failure != null)
+                    throw failure;
+
+                var compacted = FileChannel.open(compactedPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    compacted.position(compacted.size());
+                    transfer(channel, end, durableEnd, compacted);
+                    compacted.force(true);
+                    Files.move(compactedPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (IOException e){
+                    compacted.close();
+                    throw e;
+                }
+
+                channel.close();
+                channel = compacted;
+                baseSequence = keptSequence;
+                durableEnd = compacted.position();
+            }
+            finally {
+                locker.unlock();
+            }
+        }
+        catch (IOException e){
+            throw new UncheckedIOException("Widget journal can't be compacted", e);
+        }
+    }
+
+    /**
+     * Check that a record can be appended, so a change is rejected before it is applied
+     * @throws UncheckedIOException if a previous write failed
+     * @throws IllegalStateException if the journal is closed or not replayed
+     */
+    public void checkAppendable() {
+        locker.lock();
+        try {
+            validateAppendable();
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * Append record to the log. The record is durable when {@link #awaitDurable} with the returned sequence returns.
+     * @return sequence of the record
+     * @throws UncheckedIOException if a previous write failed
+     * @throws IllegalStateException if the journal is closed or not replayed
+     */
+    public long append(WidgetJournalRecord record) {
+        Validate.notNull(record, "record can't be null");
+
+        locker.lock();
+        try {
+            validateAppendable();
+
+            encode(record);
+            hasPending.signal();
+            return ++appendedSequence;
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    private void validateAppendable() {
+        Validate.validState(!closed, "Widget journal is closed");
+        Validate.validState(replayed, "Journal must be replayed before append");
+        if(failure != null)
+            throw new UncheckedIOException("Widget journal write failed", failure);
+    }
+
+    /**
+     * Wait until the record with the sequence and all records before it are forced to the disk
+     * @throws UncheckedIOException if the write failed
+     */
+    public void awaitDurable(long sequence) {
+        locker.lock();
+        try {
+            while (durableSequence < sequence && failure == null) {
+                durable.awaitUninterruptibly();
+            }
+            if(durableSequence < sequence)
+                throw new UncheckedIOException("Widget journal write failed", failure);
+        }
+        finally {
+            locker.unlock();
+        }
+    }
+
+    /**
+     * Flush appended records and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        locker.lock();
+        try {
+            if(closed)
+                return;
+            closed = true;
+            hasPending.signal();
+        }
+        finally {
+            locker.unlock();
+        }
+
+        try {
+            flusher.join();
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long sequence;
+            FileChannel target;
+            locker.lock();
+            try {
+                while (pending.position() == 0 && !closed && failure == null) {
+                    hasPending.awaitUninterruptibly();
+                }
+                if(pending.position() == 0 || failure != null)
+                    return;
+
+                var buffer = pending;
+                pending = writing;
+                writing = buffer;
+                sequence = appendedSequence;
+                target = channel;
+                flushing = true;
+            }
+            finally {
+                locker.unlock();
+            }
+
+            IOException writeFailure = null;
+            long end = 0;
+            try {
+                writing.flip();
+                writeFully(target, writing);
+                target.force(false);
+                end = target.position();
+            }
+            catch (IOException e){
+                writeFailure = e;
+                LOGGER.error("Widget journal write failed", e);
+            }
+            writing.clear();
+
+            locker.lock();
+            try {
+                if(writeFailure != null){
+                    failure = writeFailure;
+                }
+                else{
+                    durableSequence = sequence;
+                    durableEnd = end;
+                }
+                flushing = false;
+                durable.signalAll();
+            }
+            finally {
+                locker.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replace the file with an empty log which continues after the sequence. Must be called under the locker
+     */
+    private void rewrite(long sequence) throws IOException {
+        var compactedPath = compactedPath();
+        var compacted = FileChannel.open(compactedPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeHeader(compacted, sequence);
+            compacted.force(true);
+            Files.move(compactedPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e){
+            compacted.close();
+            throw e;
+        }
+        channel.close();
+        channel = compacted;
+        baseSequence = sequence;
+    }
+
+    private Path compactedPath() {
+        return path.resolveSibling(path.getFileName() + ".compacted");
+    }
+
+    private static void writeHeader(FileChannel channel, long baseSequence) throws IOException {
+        writeFully(channel, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).putLong(baseSequence).flip());
+    }
+
+    private static void transfer(FileChannel source, long start, long end, FileChannel target) throws IOException {
+        var position = start;
+        while (position < end) {
+            position += source.transferTo(position, end - position, target);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Must be called under the locker
+     */
+    private void encode(WidgetJournalRecord record) {
+        var operations = record.getOperations();
+        // Widest operation is type, guid, 4 coordinates and zIndex
+        ensureCapacity(RECORD_HEADER_SIZE + 16 + operations.size() * 54);
+
+        var start = pending.position();
+        pending.position(start + RECORD_HEADER_SIZE);
+        var updatedAtUtc = record.getUpdatedAtUtc();
+        pending.putLong(updatedAtUtc.toEpochSecond(ZoneOffset.UTC));
+        pending.putInt(updatedAtUtc.getNano());
+        pending.putInt(operations.size());
+        for (WidgetOperation operation : operations) {
+            pending.put((byte) operation.getType().ordinal());
+            putGuid(operation.getWidgetGuid());
+            if(operation.getType() != WidgetOperation.Type.REMOVE)
+                putLayout(operation.getWidgetLayoutInfo());
+        }
+
+        var end = pending.position();
+        var payload = pending.duplicate().position(start + RECORD_HEADER_SIZE).limit(end);
+        crc.reset();
+        crc.update(payload);
+        pending.putInt(start, end - start - RECORD_HEADER_SIZE);
+        pending.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void putGuid(UUID guid) {
+        pending.putLong(guid.getMostSignificantBits());
+        pending.putLong(guid.getLeastSignificantBits());
+    }
+
+    private void putLayout(WidgetLayoutInfo widgetLayoutInfo) {
+        byte presence = 0;
+        presence |= widgetLayoutInfo.getX() != null ? X_PRESENT : 0;
+        presence |= widgetLayoutInfo.getY() != null ? Y_PRESENT : 0;
+        presence |= widgetLayoutInfo.getWidth() != null ? WIDTH_PRESENT : 0;
+        presence |= widgetLayoutInfo.getHeight() != null ? HEIGHT_PRESENT : 0;
+        presence |= widgetLayoutInfo.getzIndex() != null ? Z_INDEX_PRESENT : 0;
+
+        pending.put(presence);
+        if(widgetLayoutInfo.getX() != null)
+            pending.putDouble(widgetLayoutInfo.getX());
+        if(widgetLayoutInfo.getY() != null)
+            pending.putDouble(widgetLayoutInfo.getY());
+        if(widgetLayoutInfo.getWidth() != null)
+            pending.putDouble(widgetLayoutInfo.getWidth());
+        if(widgetLayoutInfo.getHeight() != null)
+            pending.putDouble(widgetLayoutInfo.getHeight());
+        if(widgetLayoutInfo.getzIndex() != null)
+            pending.putInt(widgetLayoutInfo.getzIndex());
+    }
+
+    private void ensureCapacity(int recordSize) {
+        if(pending.remaining() >= recordSize)
+            return;
+
+        var grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordSize));
+        grown.put(pending.flip());
+        pending = grown;
+    }
+
+    private static WidgetJournalRecord decode(ByteBuffer payload) {
+        var updatedAtUtc = LocalDateTime.ofEpochSecond(payload.getLong(), payload.getInt(), ZoneOffset.UTC);
+        var count = payload.getInt();
+        var operations = new ArrayList<WidgetOperation>(count);
+        for (int i = 0; i < count; i++) {
+            var type = WidgetOperation.Type.values()[payload.get()];
+            var guid = new UUID(payload.getLong(), payload.getLong());
+            switch (type) {
+                case CREATE:
+                    operations.add(WidgetOperation.create(guid, getLayout(payload)));
+                    break;
+                case UPDATE:
+                    operations.add(WidgetOperation.update(guid, getLayout(payload)));
+                    break;
+                case REMOVE:
+                    operations.add(WidgetOperation.remove(guid));
+                    break;
+            }
+        }
+        return new WidgetJournalRecord(updatedAtUtc, operations);
+    }
+
+    private static WidgetLayoutInfo getLayout(ByteBuffer payload) {
+        var presence = payload.get();
+        var widgetLayoutInfo = new WidgetLayoutInfo();
+        if((presence & X_PRESENT) != 0)
+            widgetLayoutInfo.setX(payload.getDouble());
+        if((presence & Y_PRESENT) != 0)
+            widgetLayoutInfo.setY(payload.getDouble());
+        if((presence & WIDTH_PRESENT) != 0)
+            widgetLayoutInfo.setWidth(payload.getDouble());
+        if((presence & HEIGHT_PRESENT) != 0)
+            widgetLayoutInfo.setHeight(payload.getDouble());
+        if((presence & Z_INDEX_PRESENT) != 0)
+            widgetLayoutInfo.setzIndex(payload.getInt());
+        return widgetLayoutInfo;
+    }
+
+    /**
+     * Reads records between two file offsets with positional reads, so it doesn't move the channel position
+     */
+    private static final class RecordReader {
+        private final FileChannel channel;
+        private final long limit;
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private long bufferStart;
+        private int payloadStart;
+        private int payloadLength;
+
+        // Offset after the last valid record
+        private long end;
+
+        RecordReader(FileChannel channel, long start, long limit) {
+            this.channel = channel;
+            this.limit = limit;
+            this.end = start;
+            buffer.limit(0);
+        }
+
+        /**
+         * @return false at the end of the log or at a torn or corrupted record
+         */
+        boolean next() throws IOException {
+            if(!fill(end, RECORD_HEADER_SIZE))
+                return false;
+            var headerStart = (int) (end - bufferStart);
+            var length = buffer.getInt(headerStart);
+            var checksum = buffer.getInt(headerStart + 4);
+            if(length < 0 || length > MAX_PAYLOAD_SIZE || !fill(end + RECORD_HEADER_SIZE, length))
+                return false;
+
+            payloadStart = (int) (end + RECORD_HEADER_SIZE - bufferStart);
+            payloadLength = length;
+            crc.reset();
+            crc.update(payload());
+            if((int) crc.getValue() != checksum)
+                return false;
+
+            end += RECORD_HEADER_SIZE + length;
+            return true;
+        }
+
+        WidgetJournalRecord record() {
+            return decode(payload());
+        }
+
+        private ByteBuffer payload() {
+            return buffer.duplicate().limit(payloadStart + payloadLength).position(payloadStart);
+        }
+
+        /**
+         * Make the bytes from the offset available in the buffer
+         * @return false if the file ends before count bytes
+         */
+        private boolean fill(long offset, int count) throws IOException {
+            if(offset + count > limit)
+                return false;
+            if(offset >= bufferStart && offset + count <= bufferStart + buffer.limit())
+                return true;
+
+            if(buffer.capacity() < count)
+                buffer = ByteBuffer.allocate(count);
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), limit - offset));
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+            }
+            buffer.flip();
+            bufferStart = offset;
+            return buffer.limit() >= count;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.miro.services.widgetJournal;
+
+import com.miro.core.data.internal.WidgetOperation;
+import org.apache.commons.lang3.Validate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * One committed change of the widgets: the operations applied under one write lock and the time they were applied at.
+ * Create operations carry the guid and the zIndex the widget got, so replaying the record reproduces the change exactly.
+ */
+public final class WidgetJournalRecord {
+
+    private final LocalDateTime updatedAtUtc;
+    public LocalDateTime getUpdatedAtUtc() {
+        return updatedAtUtc;
+    }
+
+    private final List<WidgetOperation> operations;
+    public List<WidgetOperation> getOperations() {
+        return operations;
+    }
+
+    public WidgetJournalRecord(LocalDateTime updatedAtUtc, List<WidgetOperation> operations) {
+        Validate.notNull(updatedAtUtc, "updatedAtUtc can't be null");
+        Validate.notNull(operations, "operations can't be null");
+        Validate.noNullElements(operations, "operations can't contain null");
+
+        this.updatedAtUtc = updatedAtUtc;
+        this.operations = List.copyOf(operations);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WidgetJournalRecord {updatedAtUtc=%s, operations=%s}", updatedAtUtc, operations.size());
+    }
+}
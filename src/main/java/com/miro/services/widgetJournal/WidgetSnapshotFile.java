@@ -0,0 +1,207 @@
+package com.miro.services.widgetJournal;
+
+import com.miro.core.data.snapshot.WidgetSnapshot;
+import org.apache.commons.lang3.Validate;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file with all widgets of one version. A widget is a fixed-size record of the guid and the {@link com.miro.core.data.internal.ImmutableLayout}
+ * fields, records follow in zIndex order. Loading maps the file and copies the records straight into the snapshot columns,
+ * so it runs at the disk speed and creates no object per widget.
+ * The file is written next to the target and renamed over it, a reader sees either the previous or the new snapshot.
+ */
+public final class WidgetSnapshotFile {
+
+    private static final int MAGIC = 0x57534E50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 64;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    public Path getPath() {
+        return path;
+    }
+
+    public WidgetSnapshotFile(Path path) {
+        Validate.notNull(path, "path can't be null");
+        this.path = path;
+    }
+
+    /**
+     * @return snapshot or null if the file doesn't exist
+     * @throws IOException if the file can't be read or is corrupted
+     */
+    public WidgetSnapshot load() throws IOException {
+        if(!Files.exists(path))
+            return null;
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var fileSize = channel.size();
+            if(fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE)
+                throw new IOException(String.format("%s is not a widget snapshot", path));
+
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            var header = readHeader(buffer.limit(HEADER_SIZE).slice());
+            if(fileSize != HEADER_SIZE + (long) header.count * RECORD_SIZE)
+                throw new IOException(String.format("%s is not a widget snapshot", path));
+
+            var records = buffer.limit((int) fileSize).position(HEADER_SIZE).slice();
+            var crc = new CRC32();
+            crc.update(records.duplicate());
+            if((int) crc.getValue() != header.checksum)
+                throw new IOException(String.format("%s is corrupted", path));
+
+            var builder = new WidgetSnapshot.Builder(header.version, header.count);
+            addRecords(records, header.count, builder);
+            return builder.build();
+        }
+    }
+
+    /**
+     * Read a snapshot written by {@link #write(WidgetSnapshot, WritableByteChannel)}
+     * @throws IOException if the channel can't be read or the snapshot is corrupted
+     */
+    public static WidgetSnapshot read(ReadableByteChannel channel) throws IOException {
+        Validate.notNull(channel, "channel can't be null");
+
+        var headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, headerBuffer);
+        var header = readHeader(headerBuffer.flip());
+
+        var crc = new CRC32();
+        var builder = new WidgetSnapshot.Builder(header.version, header.count);
+        var buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE - WRITE_BUFFER_SIZE % RECORD_SIZE);
+        for (int read = 0; read < header.count; ) {
+            var count = Math.min(header.count - read, buffer.capacity() / RECORD_SIZE);
+            buffer.clear().limit(count * RECORD_SIZE);
+            readFully(channel, buffer);
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            addRecords(buffer, count, builder);
+            read += count;
+        }
+        if((int) crc.getValue() != header.checksum)
+            throw new IOException("Widget snapshot is corrupted");
+        return builder.build();
+    }
+
+    /**
+     * Write the snapshot and replace the previous one
+     * @throws IOException if the file can't be written
+     */
+    public void write(WidgetSnapshot snapshot) throws IOException {
+        Validate.notNull(snapshot, "snapshot can't be null");
+
+        var writtenPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(writtenPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(snapshot, channel);
+            channel.force(true);
+        }
+        Files.move(writtenPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Write the snapshot in the file format. The records are encoded twice, the first pass computes the header checksum
+     * @throws IOException if the channel can't be written
+     */
+    public static void write(WidgetSnapshot snapshot, WritableByteChannel channel) throws IOException {
+        Validate.notNull(snapshot, "snapshot can't be null");
+        Validate.notNull(channel, "channel can't be null");
+
+        var crc = new CRC32();
+        var buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        for (int from = 0; from < snapshot.size(); ) {
+            from = putRecords(snapshot, from, buffer.clear());
+            crc.update(buffer.flip());
+        }
+
+        buffer.clear().putInt(MAGIC).putInt(FORMAT_VERSION).putLong(snapshot.getVersion()).putInt(snapshot.size()).putInt((int) crc.getValue());
+        for (int from = 0; from < snapshot.size(); ) {
+            from = putRecords(snapshot, from, buffer);
+            writeFully(channel, buffer.flip());
+            buffer.clear();
+        }
+        if(buffer.position() > 0)
+            writeFully(channel, buffer.flip());
+    }
+
+    /**
+     * Put the records from the position while they fit the buffer
+     * @return position of the first record not put
+     */
+    private static int putRecords(WidgetSnapshot snapshot, int from, ByteBuffer buffer) {
+        var i = from;
+        for (; i < snapshot.size() && buffer.remaining() >= RECORD_SIZE; i++) {
+            buffer.putLong(snapshot.getGuidMostSigBits(i));
+            buffer.putLong(snapshot.getGuidLeastSigBits(i));
+            buffer.putDouble(snapshot.getX(i));
+            buffer.putDouble(snapshot.getY(i));
+            buffer.putDouble(snapshot.getWidth(i));
+            buffer.putDouble(snapshot.getHeight(i));
+            buffer.putInt(snapshot.getzIndex(i));
+            buffer.putLong(snapshot.getUpdatedAtEpochSecond(i));
+            buffer.putInt(snapshot.getUpdatedAtNano(i));
+        }
+        return i;
+    }
+
+    private static void addRecords(ByteBuffer buffer, int count, WidgetSnapshot.Builder builder) {
+        for (int i = 0; i < count; i++) {
+            builder.add(buffer.getLong(),
+                    buffer.getLong(),
+                    buffer.getDouble(),
+                    buffer.getDouble(),
+                    buffer.getDouble(),
+                    buffer.getDouble(),
+                    buffer.getInt(),
+                    buffer.getLong(),
+                    buffer.getInt());
+        }
+    }
+
+    private static Header readHeader(ByteBuffer buffer) throws IOException {
+        var magic = buffer.getInt();
+        var formatVersion = buffer.getInt();
+        var header = new Header(buffer.getLong(), buffer.getInt(), buffer.getInt());
+        if(magic != MAGIC || formatVersion != FORMAT_VERSION || header.count < 0)
+            throw new IOException("Not a widget snapshot");
+        return header;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if(channel.read(buffer) < 0)
+                throw new EOFException("Widget snapshot is truncated");
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static final class Header {
+        private final long version;
+        private final int count;
+        private final int checksum;
+
+        private Header(long version, int count, int checksum) {
+            this.version = version;
+            this.count = count;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.miro.services.widgetManager;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
+import com.miro.core.data.offheap.OffHeapWidgetStore;
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import com.miro.core.mapping.WidgetMapper;
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Widget service keeping widgets in off-heap records, enabled with widgets.store=off-heap.
+ * Reads take the read lock: a torn off-heap record can't be told from a valid one, so there are no optimistic reads.
+ */
+@Service
+@ConditionalOnProperty(name = "widgets.store", havingValue = "off-heap")
+public class OffHeapWidgetServiceImpl implements WidgetService {
+
+    private final StampedLock locker = new StampedLock();
+    private final OffHeapWidgetStore widgets;
+    private final WidgetMapper widgetMapper = WidgetMapper.INSTANCE;
+
+    // Changed only under the write lock
+    private volatile long version;
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    private final String instanceId = UUID.randomUUID().toString();
+    @Override
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @param cellSize side of a filtration grid cell, about the size of a typical widget
+     */
+    public OffHeapWidgetServiceImpl(@Value("${widgets.off-heap.cell-size:100}") double cellSize) {
+        widgets = new OffHeapWidgetStore(cellSize);
+    }
+
+    /**
+     * Create widget
+     * @param x widget x coordinate
+     * @param y widget y coordinate
+     * @param width widget width
+     * @param height widget height
+     * @param zIndex widget zIndex. zIndex can be null
+     * @return [WidgetDto] object
+     * @throws IllegalArgumentException if the input parameters are wrong
+     */
+    @Override
+    public WidgetDto createWidget(double x, double y, double width, double height, Integer zIndex) {
+        WidgetParametersValidator.validateLayoutParameters(x, y, width, height, zIndex);
+
+        var stamp = locker.writeLock();
+        try {
+            var slot = insertWidget(UUID.randomUUID(), x, y, width, height, zIndex);
+            version++;
+            return map(slot);
+        }
+        finally {
+            locker.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Get widget with a specific guid
+     * @param widgetGuid widget guid
+     * @return [WidgetDto] object
+     * @throws NullPointerException if the widgetGuid is null
+     * @throws WidgetNotFoundException if widget not found
+     */
+    @Override
+    public WidgetDto getWidget(UUID widgetGuid) throws WidgetNotFoundException {
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
+
+        var stamp = locker.readLock();
+        try {
+            var slot = widgets.find(widgetGuid);
+            if(slot == OffHeapWidgetStore.NONE)
+                throw new WidgetNotFoundException();
+            return map(slot);
+        }
+        finally {
+            locker.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Update widget with a specific guid
+     * @param widgetGuid widget guid
+     * @param widgetLayoutInfo widget layout information
+     * @throws NullPointerException if the widgetGuid or widgetLayoutInfo is null
+     * @throws WidgetNotFoundException if widget not found
+     */
+    @Override
+    public void updateWidget(UUID widgetGuid, WidgetLayoutInfo widgetLayoutInfo) throws WidgetNotFoundException {
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
+        Validate.notNull(widgetLayoutInfo, "widgetLayoutInfo can't be null");
+
+        var stamp = locker.writeLock();
+        try {
+            var slot = widgets.find(widgetGuid);
+            if(slot == OffHeapWidgetStore.NONE)
+                throw new WidgetNotFoundException();
+
+            applyUpdate(slot, widgetLayoutInfo);
+            version++;
+        }
+        finally {
+            locker.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Apply create, update and remove operations in order as one change
+     * @see WidgetServiceImpl#applyWidgetOperations(List)
+     */
+    @Override
+    public WidgetDto[] applyWidgetOperations(List<WidgetOperation> operations) throws WidgetNotFoundException {
+        WidgetParametersValidator.validateOperations(operations);
+
+        var result = new WidgetDto[operations.size()];
+        var stamp = locker.writeLock();
+        try {
+            var removedGuids = new HashSet<UUID>();
+            var createdGuids = new HashSet<UUID>();
+            for (WidgetOperation operation : operations) {
+                var widgetGuid = operation.getWidgetGuid();
+                if(operation.getType() == WidgetOperation.Type.CREATE){
+                    if(widgetGuid != null && (widgets.find(widgetGuid) != OffHeapWidgetStore.NONE || !createdGuids.add(widgetGuid)))
+                        throw new IllegalArgumentException(String.format("Widget %s already exists", widgetGuid));
+                    continue;
+                }
+                if(widgets.find(widgetGuid) == OffHeapWidgetStore.NONE || removedGuids.contains(widgetGuid))
+                    throw new WidgetNotFoundException(String.format("Widget %s not found", widgetGuid));
+                if(operation.getType() == WidgetOperation.Type.REMOVE)
+                    removedGuids.add(widgetGuid);
+            }
+
+            var guids = new UUID[operations.size()];
+            for (int i = 0; i < guids.length; i++) {
+                var operation = operations.get(i);
+                switch (operation.getType()) {
+                    case CREATE:
+                        var widgetLayoutInfo = operation.getWidgetLayoutInfo();
+                        guids[i] = operation.getWidgetGuid() != null ? operation.getWidgetGuid() : UUID.randomUUID();
+                        insertWidget(guids[i],
+                                widgetLayoutInfo.getX(),
+                                widgetLayoutInfo.getY(),
+                                widgetLayoutInfo.getWidth(),
+                                widgetLayoutInfo.getHeight(),
+                                widgetLayoutInfo.getzIndex());
+                        break;
+                    case UPDATE:
+                        applyUpdate(widgets.find(operation.getWidgetGuid()), operation.getWidgetLayoutInfo());
+                        guids[i] = operation.getWidgetGuid();
+                        break;
+                    case REMOVE:
+                        widgets.remove(widgets.find(operation.getWidgetGuid()));
+                        break;
+                }
+            }
+            if(!operations.isEmpty())
+                version++;
+
+            for (int i = 0; i < guids.length; i++) {
+                var slot = guids[i] != null ? widgets.find(guids[i]) : OffHeapWidgetStore.NONE;
+                if(slot != OffHeapWidgetStore.NONE)
+                    result[i] = map(slot);
+            }
+        }
+        finally {
+            locker.unlockWrite(stamp);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of widgets
+     */
+    @Override
+    public int size() {
+        var stamp = locker.readLock();
+        try {
+            return widgets.size();
+        }
+        finally {
+            locker.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get all widgets sorted by zIndex
+     * @return [WidgetDto]'s array
+     */
+    @Override
+    public WidgetDto[] getAllWidgets() {
+        var stamp = locker.readLock();
+        try {
+            var result = new ArrayList<WidgetDto>(widgets.size());
+            widgets.forEach(0, widgets.size(), (slot, zIndex, updatedAt) -> result.add(widgetMapper.map(widgets, slot, zIndex, updatedAt)));
+            return result.toArray(new WidgetDto[result.size()]);
+        }
+        finally {
+            locker.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get widgets sorted by zIndex with limit and offset
+     * @param limit limit
+     * @param offset offset
+     * @return [WidgetDto]'s array
+     */
+    @Override
+    public WidgetDto[] getWidgets(int limit, int offset) {
+        Validate.isTrue(limit >= 0, "limit can't be negative");
+        Validate.isTrue(offset >= 0, "offset can't be negative");
+
+        var stamp = locker.readLock();
+        try {
+            var result = new ArrayList<WidgetDto>();
+            widgets.forEach(offset, limit, (slot, zIndex, updatedAt) -> result.add(widgetMapper.map(widgets, slot, zIndex, updatedAt)));
+            return result.toArray(new WidgetDto[result.size()]);
+        }
+        finally {
+            locker.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get widgets sorted by zIndex which zIndex is greater than the cursor
+     * @param limit limit
+     * @param afterZIndex zIndex of the last widget of the previous page
+     * @return [WidgetDto]'s array
+     */
+    @Override
+    public WidgetDto[] getWidgetsAfter(int limit, int afterZIndex) {
+        Validate.isTrue(limit >= 0, "limit can't be negative");
+
+        var stamp = locker.readLock();
+        try {
+            var result = new ArrayList<WidgetDto>();
+            widgets.forEachAfter(afterZIndex, limit, (slot, zIndex, updatedAt) -> result.add(widgetMapper.map(widgets, slot, zIndex, updatedAt)));
+            return result.toArray(new WidgetDto[result.size()]);
+        }
+        finally {
+            locker.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public WidgetDto[] filterAndGetWidgets(double x1, double x2, double y1, double y2) {
+        WidgetParametersValidator.validateAreaParameters(x1, x2, y1, y2);
+
+        // The area keeps the (x, y, width, height) meaning the parameters had with Rectangle2D
+        var areaMinX = x1;
+        var areaMinY = x2;
+        var areaMaxX = x1 + y1;
+        var areaMaxY = x2 + y2;
+        if(areaMaxX <= areaMinX || areaMaxY <= areaMinY){
+            return new WidgetDto[0];
+        }
+
+        var stamp = locker.readLock();
+        try {
+            var slots = widgets.search(areaMinX, areaMinY, areaMaxX, areaMaxY);
+            var result = new WidgetDto[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                result[i] = map(slots[i]);
+            }
+            return result;
+        }
+        finally {
+            locker.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Remove widget with a specific guid
+     * @param widgetGuid widget guid
+     * @throws NullPointerException if the widgetGuid is null
+     * @throws WidgetNotFoundException if widget not found
+     */
+    @Override
+    public void removeWidget(UUID widgetGuid) throws WidgetNotFoundException {
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
+
+        var stamp = locker.writeLock();
+        try {
+            var slot = widgets.find(widgetGuid);
+            if(slot == OffHeapWidgetStore.NONE)
+                throw new WidgetNotFoundException();
+
+            widgets.remove(slot);
+            version++;
+        }
+        finally {
+            locker.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Must be called under the write lock
+     * @param zIndex widget zIndex. Null puts the widget on top
+     */
+    private int insertWidget(UUID guid, double x, double y, double width, double height, Integer zIndex) {
+        if(zIndex == null){
+            var topSlot = widgets.last();
+            zIndex = topSlot != OffHeapWidgetStore.NONE ? widgets.zIndexOf(topSlot) + 1 : 0;
+        }
+        return widgets.insert(guid, x, y, width, height, zIndex, now());
+    }
+
+    /**
+     * Must be called under the write lock
+     */
+    private void applyUpdate(int slot, WidgetLayoutInfo widgetLayoutInfo) {
+        var x = widgetLayoutInfo.getX() != null ? widgetLayoutInfo.getX() : widgets.getX(slot);
+        var y = widgetLayoutInfo.getY() != null ? widgetLayoutInfo.getY() : widgets.getY(slot);
+        var width = widgetLayoutInfo.getWidth() != null ? widgetLayoutInfo.getWidth() : widgets.getWidth(slot);
+        var height = widgetLayoutInfo.getHeight() != null ? widgetLayoutInfo.getHeight() : widgets.getHeight(slot);
+        var zIndex = widgetLayoutInfo.getzIndex();
+
+        if(zIndex != null && zIndex != widgets.zIndexOf(slot)){
+            var guid = widgets.getGuid(slot);
+            widgets.remove(slot);
+            widgets.insert(guid, x, y, width, height, zIndex, now());
+            return;
+        }
+        widgets.move(slot, x, y, width, height, now());
+    }
+
+    /**
+     * Must be called under the lock
+     */
+    private WidgetDto map(int slot) {
+        return widgetMapper.map(widgets, slot, widgets.zIndexOf(slot), widgets.updatedAtOf(slot));
+    }
+
+    private static long now() {
+        return OffHeapWidgetStore.toEpochNanos(LocalDateTime.now(ZoneOffset.UTC));
+    }
+}
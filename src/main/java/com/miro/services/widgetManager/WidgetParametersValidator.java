@@ -0,0 +1,92 @@
+package com.miro.services.widgetManager;
+
+import com.miro.core.data.internal.WidgetOperation;
+import org.apache.commons.lang3.Validate;
+
+import java.util.List;
+
+/**
+ * Input checks shared by the widget service implementations
+ */
+final class WidgetParametersValidator {
+
+    private WidgetParametersValidator() {
+    }
+
+    /**
+     * Check layout parameters, null parameters are skipped
+     * @throws IllegalArgumentException if the input parameters are wrong
+     */
+    static void validateLayoutParameters(Double x, Double y, Double width, Double height, Integer zIndex) {
+        if(x != null){
+            Validate.finite(x, "X can't be infinite");
+            Validate.notNaN(x, "X can't be NaN");
+            Validate.isTrue(x >= 0, "x can't be less than zero");
+        }
+        if(y != null){
+            Validate.finite(y, "Y can't be infinite");
+            Validate.notNaN(y, "Y can't be NaN");
+            Validate.isTrue(y >= 0, "y can't be less than zero");
+        }
+        if(width != null){
+            Validate.finite(width, "Width can't be infinite");
+            Validate.notNaN(width, "Width can't be NaN");
+            Validate.isTrue(width > 0, "Width can't be less than zero");
+        }
+        if(height != null){
+            Validate.finite(height, "Height can't be infinite");
+            Validate.notNaN(height, "Height can't be NaN");
+            Validate.isTrue(height > 0, "Height can't be less than zero");
+        }
+        if(zIndex != null)
+            Validate.isTrue(zIndex >= 0, "Invalid value for zIndex");
+    }
+
+    /**
+     * Check layout parameters of every operation of a batch
+     * @throws NullPointerException if the operations or any operation is null
+     * @throws IllegalArgumentException if the layout parameters of any operation are wrong
+     */
+    static void validateOperations(List<WidgetOperation> operations) {
+        Validate.notNull(operations, "operations can't be null");
+        Validate.noNullElements(operations, "operations can't contain null");
+
+        for (WidgetOperation operation : operations) {
+            var widgetLayoutInfo = operation.getWidgetLayoutInfo();
+            if(operation.getType() == WidgetOperation.Type.CREATE){
+                Validate.notNull(widgetLayoutInfo.getX(), "X can't be null");
+                Validate.notNull(widgetLayoutInfo.getY(), "Y can't be null");
+                Validate.notNull(widgetLayoutInfo.getWidth(), "Width can't be null");
+                Validate.notNull(widgetLayoutInfo.getHeight(), "Height can't be null");
+            }
+            if(widgetLayoutInfo != null){
+                validateLayoutParameters(widgetLayoutInfo.getX(),
+                        widgetLayoutInfo.getY(),
+                        widgetLayoutInfo.getWidth(),
+                        widgetLayoutInfo.getHeight(),
+                        widgetLayoutInfo.getzIndex());
+            }
+        }
+    }
+
+    /**
+     * Check filtration area parameters
+     * @throws IllegalArgumentException if the input parameters are wrong
+     */
+    static void validateAreaParameters(double x1, double x2, double y1, double y2) {
+        Validate.finite(x1, "x1 can't be infinite");
+        Validate.finite(x2, "x2 can't be infinite");
+        Validate.finite(y1, "y1 can't be infinite");
+        Validate.finite(y2, "y2 can't be infinite");
+
+        Validate.notNaN(x1, "x1 can't be NaN");
+        Validate.notNaN(x2, "x2 can't be NaN");
+        Validate.notNaN(y1, "y1 can't be NaN");
+        Validate.notNaN(y2, "y2 can't be NaN");
+
+        Validate.isTrue(x1 >= 0, "x1 can't be negative");
+        Validate.isTrue(y1 >= 0, "y1 can't be negative");
+        Validate.isTrue(x2 >= 0, "x2 can't be negative");
+        Validate.isTrue(y2 >= 0, "y2 can't be negative");
+    }
+}
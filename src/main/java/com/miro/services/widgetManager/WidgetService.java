@@ -1,19 +1,61 @@
 package com.miro.services.widgetManager;
 
 import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetSyncDto;
 import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
 import com.miro.core.exceptions.WidgetNotFoundException;
 
+import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
+
+public interface WidgetService {
+    int WIDGETS_PAGE_SIZE = 1000;
 
-interface WidgetService {
     WidgetDto createWidget(double x, double y, double width, double height, Integer zIndex);
     WidgetDto getWidget(UUID widgetGuid) throws WidgetNotFoundException;
     void updateWidget(UUID widgetGuid, WidgetLayoutInfo widgetInfo) throws WidgetNotFoundException;
     WidgetDto[] getAllWidgets();
+    int size();
     void removeWidget(UUID widgetGuid) throws WidgetNotFoundException;
     WidgetDto[] getWidgets(int limit, int offset);
+    WidgetDto[] getWidgetsAfter(int limit, int afterZIndex);
     WidgetDto[] filterAndGetWidgets(double x1, double x2, double y1, double y2);
+    WidgetDto[] applyWidgetOperations(List<WidgetOperation> operations) throws WidgetNotFoundException;
+    long getVersion();
+
+    /**
+     * @return id of the widgets the versions are counted in. A restarted service, a reopened board or widgets
+     * replaced by a snapshot get a new id, their versions may repeat the versions of the previous widgets
+     */
+    String getInstanceId();
+
+    /**
+     * Walk all widgets sorted by zIndex, a page at a time, so neither the whole list is materialized
+     * nor a lock is held while the consumer runs. Pages are read at different versions:
+     * a widget changed during the walk is seen in either state, a widget shifted above the walked pages is seen twice.
+     */
+    default void forEachWidget(Consumer<WidgetDto> consumer) {
+        var afterZIndex = Integer.MIN_VALUE;
+        while (true) {
+            var page = getWidgetsAfter(WIDGETS_PAGE_SIZE, afterZIndex);
+            for (var widget : page) {
+                consumer.accept(widget);
+            }
+            if(page.length < WIDGETS_PAGE_SIZE)
+                return;
+            afterZIndex = page[page.length - 1].getzIndex();
+        }
+    }
+
+    /**
+     * @return widgets changed after the version, null if the changes after the version are not kept
+     * @throws UnsupportedOperationException if the service doesn't keep the changes
+     */
+    default WidgetSyncDto getChangesSince(long afterVersion) {
+        throw new UnsupportedOperationException("The widgets don't keep the changes");
+    }
 }
 
 
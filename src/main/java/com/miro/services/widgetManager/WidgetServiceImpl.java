@@ -1,104 +1,293 @@
 package com.miro.services.widgetManager;
 
+import com.miro.core.data.index.SpatialIndex;
+import com.miro.core.data.index.ZOrderIndex;
+import com.miro.core.data.snapshot.WidgetSnapshot;
 import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetSyncDto;
+import com.miro.core.data.internal.ImmutableLayout;
 import com.miro.core.data.internal.WidgetInternal;
 import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
 import com.miro.core.exceptions.WidgetNotFoundException;
 import com.miro.core.mapping.WidgetMapper;
+import com.miro.services.changeFeed.WidgetChange;
+import com.miro.services.queryCache.WidgetQueryCache;
+import com.miro.services.replication.WidgetMutationLog;
+import com.miro.services.widgetJournal.WidgetJournal;
+import com.miro.services.widgetJournal.WidgetJournalRecord;
+import com.miro.services.widgetJournal.WidgetSnapshotFile;
 import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
-import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 
 @Service
+@ConditionalOnProperty(name = "widgets.store", havingValue = "heap", matchIfMissing = true)
 public class WidgetServiceImpl implements WidgetService {
 
-    private final ReadWriteLock locker = new ReentrantReadWriteLock();
-    private final ConcurrentSkipListSet<WidgetInternal> widgets = new ConcurrentSkipListSet<>(WidgetInternal.SORT_COMPARATOR);
+    private final StampedLock locker = new StampedLock();
+    private final ZOrderIndex widgets = new ZOrderIndex();
+    private final SpatialIndex<WidgetInternal> spatialIndex = new SpatialIndex<>();
     private final WidgetMapper widgetMapper = WidgetMapper.INSTANCE;
 
-    public WidgetServiceImpl() {
+    // Snapshot of some committed version, rebuilt by the first full read after the version changed
+    private final ReentrantLock snapshotLocker = new ReentrantLock();
+    private volatile WidgetSnapshot snapshot = WidgetSnapshot.EMPTY;
+
+    // Changed only under the write lock
+    private volatile long version;
+    @Override
+    public long getVersion() {
+        return version;
     }
-    /**
-     * Create widget
-     * @param x widget x coordinate
-     * @param y widget y coordinate
-     * @param width widget width
-     * @param height widget height
-     * @param zIndex widget zIndex. zIndex can be null
-     * @return [WidgetDto] object
-     * @throws IllegalArgumentException if the input parameters are wrong
-     */
+
+    // Replaced with the version when a snapshot replaces the widgets
+    private volatile String instanceId = UUID.randomUUID().toString();
     @Override
-    public WidgetDto createWidget(double x, double y, double width, double height, Integer zIndex) {
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    // Null when the widgets are not persisted
+    private final WidgetJournal journal;
+    private final WidgetSnapshotFile snapshotFile;
 
-        Validate.finite(x, "X can't be infinite");
-        Validate.finite(y, "Y can't be infinite");
-        Validate.finite(width, "Width can't be infinite");
-        Validate.finite(height, "Height can't be infinite");
+    // Null when the service is not a replication primary
+    private final WidgetMutationLog<WidgetJournalRecord> mutationLog;
 
-        Validate.notNaN(x, "X can't be NaN");
-        Validate.notNaN(y, "Y can't be NaN");
-        Validate.notNaN(width, "Width can't be NaN");
-        Validate.notNaN(height, "Height can't be NaN");
+    // Null when there is no change feed. The pending change collects the deltas under the write lock
+    private final WidgetMutationLog<WidgetChange> changeLog;
+    private final WidgetChange.Builder pendingChange = new WidgetChange.Builder();
 
-        Validate.isTrue(width > 0, "Width can't be less than zero");
-        Validate.isTrue(height > 0, "Height can't be less than zero");
-        Validate.isTrue(x >= 0, "x can't be less than zero");
-        Validate.isTrue(y >= 0, "y can't be less than zero");
+    // Null when the query results are not cached
+    private final WidgetQueryCache queryCache;
 
-        if(zIndex != null)
-            Validate.isTrue(zIndex >= 0, "Invalid value for zIndex");
+    public WidgetServiceImpl() {
+        this(null, null, null);
+    }
 
-        var widgetInternal = new WidgetInternal(UUID.randomUUID());
+    public WidgetServiceImpl(WidgetJournal journal) {
+        this(journal, null, null);
+    }
 
-        var widgetLayoutInfo = new WidgetLayoutInfo();
-        widgetLayoutInfo.setX(x);
-        widgetLayoutInfo.setY(y);
-        widgetLayoutInfo.setWidth(width);
-        widgetLayoutInfo.setHeight(height);
+    public WidgetServiceImpl(WidgetJournal journal, WidgetSnapshotFile snapshotFile) {
+        this(journal, snapshotFile, null);
+    }
 
-        if(zIndex == null){
-            locker.readLock().lock();
+    public WidgetServiceImpl(WidgetJournal journal, WidgetSnapshotFile snapshotFile, WidgetMutationLog<WidgetJournalRecord> mutationLog) {
+        this(journal, snapshotFile, mutationLog, null);
+    }
+
+    public WidgetServiceImpl(WidgetJournal journal,
+                             WidgetSnapshotFile snapshotFile,
+                             WidgetMutationLog<WidgetJournalRecord> mutationLog,
+                             WidgetMutationLog<WidgetChange> changeLog) {
+        this(journal, snapshotFile, mutationLog, changeLog, null);
+    }
+
+    /**
+     * Restore the widgets from the snapshot file and the journal records after it
+     * @param journal write-ahead log of the widgets. Can be null
+     * @param snapshotFile snapshot of the widgets, saved by {@link #writeSnapshot()}. Can be null
+     * @param mutationLog log of the changes read by the replicas. Can be null
+     * @param changeLog log of the changes pushed to the change feed subscribers. Can be null
+     * @param queryCache cache of the filter and pagination results, not shared with other services. Can be null
+     * @throws UncheckedIOException if the snapshot file or the journal can't be read
+     */
+    @Autowired
+    public WidgetServiceImpl(@Nullable WidgetJournal journal,
+                             @Nullable WidgetSnapshotFile snapshotFile,
+                             @Nullable WidgetMutationLog<WidgetJournalRecord> mutationLog,
+                             @Nullable WidgetMutationLog<WidgetChange> changeLog,
+                             @Nullable WidgetQueryCache queryCache) {
+        this.journal = journal;
+        this.snapshotFile = snapshotFile;
+        this.mutationLog = mutationLog;
+        this.changeLog = changeLog;
+        this.queryCache = queryCache;
+        if(queryCache != null)
+            queryCache.reset(version);
+
+        if(snapshotFile != null){
             try {
-                if (widgets.isEmpty()) {
-                    zIndex = 0;
-                } else {
-                    var topWidget = widgets.last();
-                    zIndex = topWidget.getLayout().getzIndex() + 1;
-                }
+                var loaded = snapshotFile.load();
+                if(loaded != null)
+                    loadSnapshot(loaded);
             }
-            finally {
-                locker.readLock().unlock();
+            catch (IOException e){
+                throw new UncheckedIOException("Widget snapshot can't be loaded", e);
             }
         }
+        if(journal != null)
+            journal.replay(version, this::applyJournalRecord);
+        if(mutationLog != null)
+            mutationLog.reset(version);
+    }
 
-        widgetLayoutInfo.setzIndex(zIndex);
-        widgetInternal.createWidgetLayout(widgetLayoutInfo);
+    /**
+     * Save the current widgets to the snapshot file and drop the journal records it covers.
+     * The snapshot is taken from an immutable view, so writers are not blocked while it is saved.
+     * @throws IllegalStateException if the service has no snapshot file
+     * @throws IOException if the snapshot can't be written
+     */
+    public void writeSnapshot() throws IOException {
+        Validate.validState(snapshotFile != null, "Service has no snapshot file");
 
-        locker.writeLock().lock();
-        try {
-            Optional<WidgetInternal> widgetWithSameIndex = widgets.stream()
-                .filter(w -> w.getLayout().getzIndex() == widgetInternal.getLayout().getzIndex())
-                .findFirst();
+        var current = currentSnapshot();
+        snapshotFile.write(current);
+        if(journal != null)
+            journal.compact(current.getVersion());
+    }
+
+    /**
+     * @return immutable view of the widgets at the current version
+     */
+    public WidgetSnapshot getSnapshot() {
+        return currentSnapshot();
+    }
+
+    /**
+     * Replace all widgets by the snapshot of the primary
+     * @throws NullPointerException if the snapshot is null
+     */
+    public void restoreSnapshot(WidgetSnapshot snapshot) {
+        Validate.notNull(snapshot, "snapshot can't be null");
+
+        loadSnapshot(snapshot);
+        if(mutationLog != null)
+            mutationLog.reset(snapshot.getVersion());
+    }
+
+    /**
+     * Apply a change streamed from the primary. The replica widgets are kept only in memory
+     * @param sequence primary version after the change
+     * @throws IllegalStateException if the change doesn't follow the current version or doesn't match the widgets
+     */
+    public void applyReplicatedRecord(long sequence, WidgetJournalRecord record) {
+        Validate.notNull(record, "record can't be null");
+        Validate.validState(sequence == version + 1, "Change %s doesn't follow version %s", sequence, version);
+
+        applyJournalRecord(record);
+        if(mutationLog != null)
+            mutationLog.append(sequence, record);
+    }
 
-            if(widgetWithSameIndex.isPresent()){
-                shiftTailWidgets(widgetWithSameIndex.get());
+    /**
+     * Wait until the changes up to the version are on the disk, so a replica never gets a change the primary can lose
+     */
+    public void awaitDurableVersion(long version) {
+        awaitDurable(journal != null ? version : 0);
+    }
+
+    /**
+     * Get the widgets changed after the version: created, updated or shifted by an insert at their zIndex, and the guids of the removed ones.
+     * The changes are taken from the change log, so a version older than the log can't be synced
+     * @return changes up to the current version, null if the changes after the version are not kept
+     * @throws UnsupportedOperationException if there is no change log
+     * @throws IllegalArgumentException if the version is negative
+     */
+    @Override
+    public WidgetSyncDto getChangesSince(long afterVersion) {
+        if(changeLog == null)
+            throw new UnsupportedOperationException("The widgets don't keep the changes");
+        Validate.isTrue(afterVersion >= 0, "The version can't be negative");
+
+        // The change log is appended under the write lock, so it matches the widgets read under the same stamp
+        return read(() -> {
+            var currentVersion = version;
+            List<WidgetChange> changes;
+            try {
+                changes = changeLog.read(afterVersion, (int) Math.min(Integer.MAX_VALUE, Math.max(1, currentVersion - afterVersion)), 0);
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Changes read is interrupted", e);
+            }
+            if(changes == null)
+                return null;
+
+            var changedGuids = new HashSet<UUID>();
+            var removedGuids = new HashSet<UUID>();
+            var minShiftedZIndex = Integer.MAX_VALUE;
+            for (var change : changes) {
+                for (var delta : change.getDto().getDeltas()) {
+                    if("shift".equals(delta.getType()))
+                        minShiftedZIndex = Math.min(minShiftedZIndex, delta.getzIndex());
+                    else if("delete".equals(delta.getType()))
+                        removedGuids.add(delta.getGuid());
+                    else
+                        changedGuids.add(delta.getGuid());
+                }
+            }
+
+            // A shift moved every widget which was at the zIndex or above it
+            var changedWidgets = new TreeMap<Integer, WidgetDto>();
+            if(minShiftedZIndex != Integer.MAX_VALUE){
+                widgets.forEachAfter(minShiftedZIndex, Integer.MAX_VALUE, (widget, layout) ->
+                        changedWidgets.put(layout.getzIndex(), widgetMapper.map(widget.getGuid(), layout)));
+            }
+            for (var guid : changedGuids) {
+                var widget = widgets.get(guid);
+                if(widget != null){
+                    var layout = widgets.layoutOf(widget);
+                    changedWidgets.putIfAbsent(layout.getzIndex(), widgetMapper.map(guid, layout));
+                }
             }
+            removedGuids.removeIf(guid -> widgets.get(guid) != null);
+
+            var result = new WidgetSyncDto();
+            result.setVersion(currentVersion);
+            result.setWidgets(changedWidgets.values().toArray(new WidgetDto[0]));
+            result.setRemovedGuids(removedGuids.toArray(new UUID[0]));
+            return result;
+        });
+    }
 
-            widgets.add(widgetInternal);
+    /**
+     * Create widget
+     * @param x widget x coordinate
+     * @param y widget y coordinate
+     * @param width widget width
+     * @param height widget height
+     * @param zIndex widget zIndex. zIndex can be null
+     * @return [WidgetDto] object
+     * @throws IllegalArgumentException if the input parameters are wrong
+     */
+    @Override
+    public WidgetDto createWidget(double x, double y, double width, double height, Integer zIndex) {
+
+        WidgetParametersValidator.validateLayoutParameters(x, y, width, height, zIndex);
+
+        WidgetInternal widgetInternal;
+        ImmutableLayout layout;
+        long journalSequence;
+        var stamp = locker.writeLock();
+        try {
+            checkJournal();
+            var updatedAtUtc = LocalDateTime.now(ZoneOffset.UTC);
+            widgetInternal = insertWidget(UUID.randomUUID(), x, y, width, height, zIndex, updatedAtUtc);
+            layout = widgetInternal.getLayout();
+            journalSequence = commit(updatedAtUtc, List.of(createOperationOf(widgetInternal)));
         }
         finally {
-            locker.writeLock().unlock();
+            locker.unlockWrite(stamp);
         }
+        awaitDurable(journalSequence);
 
-        var widget = widgetMapper.map(widgetInternal);
+        var widget = widgetMapper.map(widgetInternal.getGuid(), layout);
         return widget;
     }
 
@@ -112,19 +301,15 @@ public class WidgetServiceImpl implements WidgetService {
     @Override
     public WidgetDto getWidget(UUID widgetGuid) throws WidgetNotFoundException {
 
-        Optional<WidgetInternal> widgetAvailability;
-        locker.readLock().lock();
-        try {
-                widgetAvailability = widgets.stream()
-                .filter(w -> w.getGuid().compareTo(widgetGuid) == 0)
-                .findFirst();
-        }
-        finally {
-            locker.readLock().unlock();
-        }
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
 
-        if(widgetAvailability.isPresent()){
-            return widgetMapper.map(widgetAvailability.get());
+        var layout = read(() -> {
+            var widget = widgets.get(widgetGuid);
+            return widget != null ? widgets.layoutOf(widget) : null;
+        });
+
+        if(layout != null){
+            return widgetMapper.map(widgetGuid, layout);
         }
         throw new WidgetNotFoundException();
     }
@@ -141,56 +326,353 @@ public class WidgetServiceImpl implements WidgetService {
         Validate.notNull(widgetGuid, "widgetGuid can't be null");
         Validate.notNull(widgetLayoutInfo, "widgetLayoutInfo can't be null");
 
-        Optional<WidgetInternal> widgetAvailability;
-        locker.readLock().lock();
+        long journalSequence;
+        var stamp = locker.writeLock();
         try {
-            widgetAvailability = widgets.stream()
-                    .filter(w -> w.getGuid().compareTo(widgetGuid) == 0)
-                    .findFirst();
+            var widget = widgets.get(widgetGuid);
+            if(widget == null)
+                throw new WidgetNotFoundException();
+
+            checkJournal();
+            var updatedAtUtc = LocalDateTime.now(ZoneOffset.UTC);
+            applyUpdate(widget, widgetLayoutInfo, updatedAtUtc);
+            journalSequence = commit(updatedAtUtc, List.of(WidgetOperation.update(widgetGuid, widgetLayoutInfo)));
         }
         finally {
-            locker.readLock().unlock();
+            locker.unlockWrite(stamp);
         }
+        awaitDurable(journalSequence);
+    }
 
-        if(widgetAvailability.isPresent()){
-            WidgetInternal widget;
-            try {
-                widget = widgetAvailability.get();
+    /**
+     * Apply create, update and remove operations in order as one change: under one write lock acquisition
+     * and with one version published, so readers observe either none or all of the operations.
+     * Every operation is checked before the first one is applied, an invalid batch leaves the widgets untouched.
+     * @param operations operations applied in the given order. A create operation with a guid creates the widget with this guid
+     * @return widget per operation in the state after the whole batch; null for removed widgets
+     * @throws NullPointerException if the operations or any operation is null
+     * @throws IllegalArgumentException if the layout parameters of any operation are wrong or a created guid already exists
+     * @throws WidgetNotFoundException if an updated or removed widget not found or removed earlier in the batch
+     */
+    @Override
+    public WidgetDto[] applyWidgetOperations(List<WidgetOperation> operations) throws WidgetNotFoundException {
+        WidgetParametersValidator.validateOperations(operations);
+
+        var result = new WidgetDto[operations.size()];
+        long journalSequence;
+        var stamp = locker.writeLock();
+        try {
+            var removedGuids = new HashSet<UUID>();
+            var createdGuids = new HashSet<UUID>();
+            for (WidgetOperation operation : operations) {
+                var widgetGuid = operation.getWidgetGuid();
+                if(operation.getType() == WidgetOperation.Type.CREATE){
+                    if(widgetGuid != null && (widgets.get(widgetGuid) != null || !createdGuids.add(widgetGuid)))
+                        throw new IllegalArgumentException(String.format("Widget %s already exists", widgetGuid));
+                    continue;
+                }
+                if(widgets.get(widgetGuid) == null || removedGuids.contains(widgetGuid))
+                    throw new WidgetNotFoundException(String.format("Widget %s not found", widgetGuid));
+                if(operation.getType() == WidgetOperation.Type.REMOVE)
+                    removedGuids.add(widgetGuid);
             }
-            catch (NoSuchElementException e){
-                throw new WidgetNotFoundException();
+            if(!operations.isEmpty())
+                checkJournal();
+
+            var updatedAtUtc = LocalDateTime.now(ZoneOffset.UTC);
+            var journalOperations = new ArrayList<WidgetOperation>(operations.size());
+            var guids = new UUID[operations.size()];
+            for (int i = 0; i < guids.length; i++) {
+                var operation = operations.get(i);
+                switch (operation.getType()) {
+                    case CREATE:
+                        var widgetLayoutInfo = operation.getWidgetLayoutInfo();
+                        var widgetInternal = insertWidget(operation.getWidgetGuid() != null ? operation.getWidgetGuid() : UUID.randomUUID(),
+                                widgetLayoutInfo.getX(),
+                                widgetLayoutInfo.getY(),
+                                widgetLayoutInfo.getWidth(),
+                                widgetLayoutInfo.getHeight(),
+                                widgetLayoutInfo.getzIndex(),
+                                updatedAtUtc);
+                        guids[i] = widgetInternal.getGuid();
+                        journalOperations.add(createOperationOf(widgetInternal));
+                        break;
+                    case UPDATE:
+                        applyUpdate(widgets.get(operation.getWidgetGuid()), operation.getWidgetLayoutInfo(), updatedAtUtc);
+                        guids[i] = operation.getWidgetGuid();
+                        journalOperations.add(operation);
+                        break;
+                    case REMOVE:
+                        applyRemove(widgets.get(operation.getWidgetGuid()));
+                        journalOperations.add(operation);
+                        break;
+                }
             }
-            var zIndex = widgetLayoutInfo.getzIndex();
-            var isZIndexWillChange = zIndex != null && widget.getLayout().getzIndex() != zIndex;
+            journalSequence = operations.isEmpty() ? 0 : commit(updatedAtUtc, journalOperations);
 
-            locker.writeLock().lock();
-            try {
-                if(isZIndexWillChange){
-                    var removeResult = widgets.remove(widget);
-                    if(!removeResult) {
-                        throw new WidgetNotFoundException();
-                    };
-
-                    var updatedWidget = new WidgetInternal(widgetGuid);
-                    var widgetLayout = ConstructWidgetLayoutByExistingValues(widgetLayoutInfo, widget);
-                    updatedWidget.createWidgetLayout(widgetLayout);
-
-                    var widgetWithSameIndex = widgets.stream()
-                            .filter(w -> w.getLayout().getzIndex() == updatedWidget.getLayout().getzIndex())
-                            .findFirst();
-                    if(widgetWithSameIndex.isPresent())
-                        shiftTailWidgets(widgetWithSameIndex.get());
-                    widgets.add(updatedWidget);
-                    return;
+            for (int i = 0; i < guids.length; i++) {
+                var widget = guids[i] != null ? widgets.get(guids[i]) : null;
+                if(widget != null)
+                    result[i] = widgetMapper.map(guids[i], widgets.layoutOf(widget));
+            }
+        }
+        finally {
+            locker.unlockWrite(stamp);
+        }
+        awaitDurable(journalSequence);
+        return result;
+    }
+
+    /**
+     * Apply a change read from the journal
+     * @throws IllegalStateException if the change doesn't match the widgets
+     */
+    private void applyJournalRecord(WidgetJournalRecord record) {
+        var updatedAtUtc = record.getUpdatedAtUtc();
+        var stamp = locker.writeLock();
+        try {
+            pendingChange.clear();
+            for (WidgetOperation operation : record.getOperations()) {
+                var widgetGuid = operation.getWidgetGuid();
+                var widgetLayoutInfo = operation.getWidgetLayoutInfo();
+                if(operation.getType() == WidgetOperation.Type.CREATE){
+                    insertWidget(widgetGuid,
+                            widgetLayoutInfo.getX(),
+                            widgetLayoutInfo.getY(),
+                            widgetLayoutInfo.getWidth(),
+                            widgetLayoutInfo.getHeight(),
+                            widgetLayoutInfo.getzIndex(),
+                            updatedAtUtc);
+                    continue;
                 }
-                widget.updateWidgetLayout(widgetLayoutInfo);
+
+                var widget = widgets.get(widgetGuid);
+                if(widget == null)
+                    throw new IllegalStateException(String.format("Journal refers to missing widget %s", widgetGuid));
+                if(operation.getType() == WidgetOperation.Type.UPDATE)
+                    applyUpdate(widget, widgetLayoutInfo, updatedAtUtc);
+                else
+                    applyRemove(widget);
             }
-            finally {
-                locker.writeLock().unlock();
+            publishChange(updatedAtUtc);
+            publishVersion();
+        }
+        catch (WidgetNotFoundException e){
+            throw new IllegalStateException("Journal doesn't match the widgets", e);
+        }
+        finally {
+            locker.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replace the widgets by the snapshot widgets and continue from its version
+     */
+    private void loadSnapshot(WidgetSnapshot loaded) {
+        var loadedWidgets = new ArrayList<WidgetInternal>(loaded.size());
+        var bounds = new double[loaded.size() * 4];
+        // The loaded snapshot has no widget versions, the one of the created layouts is kept in its place
+        var versioned = new WidgetSnapshot.Builder(loaded.getVersion(), loaded.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(loaded.getX(i));
+            widgetLayoutInfo.setY(loaded.getY(i));
+            widgetLayoutInfo.setWidth(loaded.getWidth(i));
+            widgetLayoutInfo.setHeight(loaded.getHeight(i));
+            widgetLayoutInfo.setzIndex(loaded.getzIndex(i));
+
+            var widgetInternal = new WidgetInternal(loaded.getGuid(i));
+            widgetInternal.createWidgetLayout(widgetLayoutInfo, loaded.getUpdatedAtUtc(i));
+            loadedWidgets.add(widgetInternal);
+            versioned.add(widgetInternal.getGuid(), widgetInternal.getLayout());
+
+            bounds[4 * i] = loaded.getX(i);
+            bounds[4 * i + 1] = loaded.getY(i);
+            bounds[4 * i + 2] = loaded.getX(i) + loaded.getWidth(i);
+            bounds[4 * i + 3] = loaded.getY(i) + loaded.getHeight(i);
+        }
+
+        var stamp = locker.writeLock();
+        try {
+            widgets.clear();
+            spatialIndex.clear();
+            widgets.load(loadedWidgets);
+            spatialIndex.load(loadedWidgets, bounds);
+            version = loaded.getVersion();
+            instanceId = UUID.randomUUID().toString();
+            snapshot = versioned.build();
+            pendingChange.clear();
+            if(changeLog != null)
+                changeLog.reset(version);
+            if(queryCache != null)
+                queryCache.reset(version);
+        }
+        finally {
+            locker.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Reject a change before it is applied if the journal can't take it. Must be called under the write lock
+     * @throws UncheckedIOException if a previous journal write failed
+     * @throws IllegalStateException if the journal is closed
+     */
+    private void checkJournal() {
+        if(journal != null)
+            journal.checkAppendable();
+    }
+
+    /**
+     * Append the applied change to the journal, the replication log and the change feed and publish its version.
+     * Must be called under the write lock, so they keep the order changes were applied in.
+     * The change is published even if the journal append fails, so the widgets, the version, the logs and the cached results stay consistent;
+     * the failure is rethrown afterwards, as the change isn't durable
+     * @return sequence to wait for after the write lock is released, 0 if there is no journal
+     * @throws UncheckedIOException if a journal write failed after {@link #checkJournal}
+     */
+    private long commit(LocalDateTime updatedAtUtc, List<WidgetOperation> operations) {
+        var record = new WidgetJournalRecord(updatedAtUtc, operations);
+        try {
+            return journal != null ? journal.append(record) : 0;
+        }
+        finally {
+            if(mutationLog != null)
+                mutationLog.append(version + 1, record);
+            publishChange(updatedAtUtc);
+            publishVersion();
+        }
+    }
+
+    /**
+     * Append the pending deltas to the change feed as the next version. Must be called under the write lock
+     */
+    private void publishChange(LocalDateTime updatedAtUtc) {
+        if(changeLog != null)
+            changeLog.append(version + 1, pendingChange.build(version + 1, updatedAtUtc));
+    }
+
+    /**
+     * Make the applied change the current version and drop the cached results it alters. Must be called under the write lock
+     */
+    private void publishVersion() {
+        version++;
+        if(queryCache != null)
+            queryCache.commit(version);
+    }
+
+    /**
+     * Wait until the change is on the disk. Writers wait outside of the write lock, so their changes share one fsync
+     */
+    private void awaitDurable(long journalSequence) {
+        if(journal != null)
+            journal.awaitDurable(journalSequence);
+    }
+
+    private static WidgetOperation createOperationOf(WidgetInternal widget) {
+        var layout = widget.getLayout();
+        var widgetLayoutInfo = new WidgetLayoutInfo();
+        widgetLayoutInfo.setX(layout.getVertex().getX());
+        widgetLayoutInfo.setY(layout.getVertex().getY());
+        widgetLayoutInfo.setWidth(layout.getSize().getWidth());
+        widgetLayoutInfo.setHeight(layout.getSize().getHeight());
+        widgetLayoutInfo.setzIndex(layout.getzIndex());
+        return WidgetOperation.create(widget.getGuid(), widgetLayoutInfo);
+    }
+
+    /**
+     * Must be called under the write lock
+     * @param zIndex widget zIndex. Null puts the widget on top
+     */
+    private WidgetInternal insertWidget(UUID guid, double x, double y, double width, double height, Integer zIndex, LocalDateTime updatedAtUtc) {
+        if(zIndex == null){
+            var topWidget = widgets.last();
+            zIndex = topWidget != null ? widgets.layoutOf(topWidget).getzIndex() + 1 : 0;
+        }
+
+        var widgetLayoutInfo = new WidgetLayoutInfo();
+        widgetLayoutInfo.setX(x);
+        widgetLayoutInfo.setY(y);
+        widgetLayoutInfo.setWidth(width);
+        widgetLayoutInfo.setHeight(height);
+        widgetLayoutInfo.setzIndex(zIndex);
+
+        var widgetInternal = new WidgetInternal(guid);
+        widgetInternal.createWidgetLayout(widgetLayoutInfo, updatedAtUtc);
+
+        var shifted = widgets.insert(widgetInternal);
+        indexLayout(widgetInternal, widgetInternal.getLayout());
+        if(queryCache != null){
+            if(shifted)
+                queryCache.shift(zIndex);
+            touch(widgetInternal.getLayout());
+        }
+        if(changeLog != null){
+            if(shifted)
+                pendingChange.addShift(zIndex);
+            pendingChange.addCreate(widgetMapper.map(guid, widgetInternal.getLayout()));
+        }
+        return widgetInternal;
+    }
+
+    /**
+     * Must be called under the write lock
+     */
+    private void applyUpdate(WidgetInternal widget, WidgetLayoutInfo widgetLayoutInfo, LocalDateTime updatedAtUtc) throws WidgetNotFoundException {
+        widgets.resolve(widget);
+        var previousLayout = widget.getLayout();
+        var zIndex = widgetLayoutInfo.getzIndex();
+        var isZIndexWillChange = zIndex != null && previousLayout.getzIndex() != zIndex;
+
+        if(isZIndexWillChange){
+            var removeResult = widgets.remove(widget);
+            if(!removeResult) {
+                throw new WidgetNotFoundException();
+            }
+
+            var updatedWidget = new WidgetInternal(widget.getGuid());
+            var widgetLayout = ConstructWidgetLayoutByExistingValues(widgetLayoutInfo, widget);
+            updatedWidget.createWidgetLayout(widgetLayout, updatedAtUtc);
+
+            var shifted = widgets.insert(updatedWidget);
+            unindexLayout(widget, previousLayout);
+            indexLayout(updatedWidget, updatedWidget.getLayout());
+            if(queryCache != null){
+                if(shifted)
+                    queryCache.shift(zIndex);
+                touch(previousLayout);
+                touch(updatedWidget.getLayout());
+            }
+            if(changeLog != null){
+                if(shifted)
+                    pendingChange.addShift(zIndex);
+                pendingChange.addUpdate(widgetMapper.map(updatedWidget.getGuid(), updatedWidget.getLayout()), boundsOf(previousLayout));
             }
             return;
         }
-        throw new WidgetNotFoundException();
+        widget.updateWidgetLayout(widgetLayoutInfo, updatedAtUtc);
+        unindexLayout(widget, previousLayout);
+        indexLayout(widget, widget.getLayout());
+        if(queryCache != null){
+            touch(previousLayout);
+            touch(widget.getLayout());
+        }
+        if(changeLog != null)
+            pendingChange.addUpdate(widgetMapper.map(widget.getGuid(), widgets.layoutOf(widget)), boundsOf(previousLayout));
+    }
+
+    /**
+     * Must be called under the write lock
+     */
+    private boolean applyRemove(WidgetInternal widget) {
+        if(widget == null || !widgets.remove(widget))
+            return false;
+
+        unindexLayout(widget, widget.getLayout());
+        if(queryCache != null)
+            touch(widget.getLayout());
+        if(changeLog != null)
+            pendingChange.addRemove(widget.getGuid(), boundsOf(widget.getLayout()));
+        return true;
     }
 
     private WidgetLayoutInfo ConstructWidgetLayoutByExistingValues(WidgetLayoutInfo widgetLayoutInfoFromUser, WidgetInternal updatedWidget) {
@@ -208,18 +690,123 @@ public class WidgetServiceImpl implements WidgetService {
         return widgetLayout;
     }
 
-    private void shiftTailWidgets(WidgetInternal widget) {
+    /**
+     * Run reader under an optimistic read stamp, so readers don't block each other or writers.
+     * If a writer intervened, the result is dropped and the reader is run again under the read lock.
+     * Package-private for the tests of the retry
+     */
+    <T> T read(Supplier<T> reader) {
+        var stamp = locker.tryOptimisticRead();
+        if(stamp != 0L){
+            try {
+                var result = reader.get();
+                if(locker.validate(stamp))
+                    return result;
+            }
+            catch (RuntimeException e){
+                // The reader observed indexes in the middle of a write, the stamp is invalid
+            }
+        }
+
+        stamp = locker.readLock();
+        try {
+            return reader.get();
+        }
+        finally {
+            locker.unlockRead(stamp);
+        }
+    }
 
-        var subSet = widgets.tailSet(widget);
-        var elementsNeedShift = subSet.toArray(new WidgetInternal[subSet.size()]);
+    /**
+     * Get the snapshot of the current version. Only one reader builds a missing snapshot, the others wait for it and share it.
+     */
+    private WidgetSnapshot currentSnapshot() {
+        var current = snapshot;
+        if(current.getVersion() == version)
+            return current;
 
-        for (WidgetInternal item : elementsNeedShift) {
-            widgets.remove(item);
-            item.IncrementZIndex();
-            widgets.add(item);
+        snapshotLocker.lock();
+        try {
+            current = snapshot;
+            if(current.getVersion() != version){
+                current = read(() -> {
+                    var builder = new WidgetSnapshot.Builder(version, widgets.size());
+                    widgets.forEach((widget, layout) -> builder.add(widget.getGuid(), layout));
+                    return builder.build();
+                });
+                snapshot = current;
+            }
+            return current;
+        }
+        finally {
+            snapshotLocker.unlock();
         }
     }
 
+    /**
+     * @return the snapshot if it is still the current version, otherwise null
+     */
+    private WidgetSnapshot currentSnapshotIfBuilt() {
+        var current = snapshot;
+        return current.getVersion() == version ? current : null;
+    }
+
+    /**
+     * Take the query result from the cache, or read it and offer it to the cache with the version read before it
+     */
+    private WidgetDto[] cached(WidgetQueryCache.Query query, Supplier<WidgetDto[]> reader) {
+        if(queryCache == null)
+            return reader.get();
+
+        var readVersion = version;
+        var result = queryCache.get(query);
+        if(result == null){
+            result = reader.get();
+            queryCache.put(query, readVersion, result);
+        }
+        return result;
+    }
+
+    private WidgetDto[] map(WidgetSnapshot snapshot, int from, int to) {
+        var result = new WidgetDto[Math.max(0, to - from)];
+        for (int i = from; i < to; i++) {
+            result[i - from] = widgetMapper.map(snapshot, i);
+        }
+        return result;
+    }
+
+    private void indexLayout(WidgetInternal widget, ImmutableLayout layout) {
+        var vertex = layout.getVertex();
+        var size = layout.getSize();
+        spatialIndex.insert(widget, vertex.getX(), vertex.getY(), vertex.getX() + size.getWidth(), vertex.getY() + size.getHeight());
+    }
+
+    private void unindexLayout(WidgetInternal widget, ImmutableLayout layout) {
+        var vertex = layout.getVertex();
+        var size = layout.getSize();
+        spatialIndex.remove(widget, vertex.getX(), vertex.getY(), vertex.getX() + size.getWidth(), vertex.getY() + size.getHeight());
+    }
+
+    private void touch(ImmutableLayout layout) {
+        var vertex = layout.getVertex();
+        var size = layout.getSize();
+        queryCache.touch(vertex.getX(), vertex.getY(), vertex.getX() + size.getWidth(), vertex.getY() + size.getHeight(), layout.getzIndex());
+    }
+
+    private static double[] boundsOf(ImmutableLayout layout) {
+        var vertex = layout.getVertex();
+        var size = layout.getSize();
+        return new double[] { vertex.getX(), vertex.getY(), vertex.getX() + size.getWidth(), vertex.getY() + size.getHeight() };
+    }
+
+    /**
+     * @return number of widgets, without mapping or copying them
+     */
+    @Override
+    public int size() {
+        return read(widgets::size);
+    }
+
     /**
      * Get all widgets sorted by zIndex
      * @return [WidgetDto]'s array
@@ -227,19 +814,22 @@ public class WidgetServiceImpl implements WidgetService {
     @Override
     public WidgetDto[] getAllWidgets() {
 
-        WidgetInternal[] widgetsRaw;
-        locker.readLock().lock();
-        try {
-            widgetsRaw = widgets.toArray(new WidgetInternal[widgets.size()]);
-        }
-        finally {
-            locker.readLock().unlock();
-        }
+        var allWidgets = currentSnapshot();
+        return map(allWidgets, 0, allWidgets.size());
+    }
+
+    /**
+     * Walk all widgets of the current version sorted by zIndex. The shared immutable snapshot is walked,
+     * so a widget is mapped only when the consumer takes it and no lock is held while the consumer runs
+     */
+    @Override
+    public void forEachWidget(Consumer<WidgetDto> consumer) {
+        Validate.notNull(consumer, "consumer can't be null");
 
-        if(widgetsRaw.length > 0){
-            return widgetMapper.mapArray(widgetsRaw);
+        var allWidgets = currentSnapshot();
+        for (int i = 0; i < allWidgets.size(); i++) {
+            consumer.accept(widgetMapper.map(allWidgets, i));
         }
-        return new WidgetDto[0];
     }
 
     /**
@@ -253,69 +843,86 @@ public class WidgetServiceImpl implements WidgetService {
         Validate.isTrue(limit >= 0, "limit can't be negative");
         Validate.isTrue(offset >= 0, "offset can't be negative");
 
-        List<WidgetInternal> setOfWidgets;
-        locker.readLock().lock();
-        try {
-            setOfWidgets = widgets.stream()
-                .skip(offset)
-                .limit(limit)
-                .collect(Collectors.toList());
-        }
-        finally {
-            locker.readLock().unlock();
-        }
+        return cached(WidgetQueryCache.Query.page(limit, offset), () -> {
+            // A page of the current snapshot is free, but a page isn't worth building a snapshot
+            var current = currentSnapshotIfBuilt();
+            if(current != null){
+                var from = Math.min(offset, current.size());
+                return map(current, from, (int) Math.min((long) from + limit, current.size()));
+            }
 
-        var setOfWidgetsRaw = setOfWidgets.toArray(new WidgetInternal[setOfWidgets.size()]);
+            var setOfWidgets = read(() -> {
+                var result = new ArrayList<WidgetDto>();
+                widgets.forEach(offset, limit, (widget, layout) -> result.add(widgetMapper.map(widget.getGuid(), layout)));
+                return result;
+            });
 
-        if(setOfWidgetsRaw.length > 0){
-            return widgetMapper.mapArray(setOfWidgetsRaw);
-        }
-        return new WidgetDto[0];
+            return setOfWidgets.toArray(new WidgetDto[setOfWidgets.size()]);
+        });
+    }
+
+    /**
+     * Get widgets sorted by zIndex which zIndex is greater than the cursor
+     * @param limit limit
+     * @param afterZIndex zIndex of the last widget of the previous page
+     * @return [WidgetDto]'s array
+     */
+    @Override
+    public WidgetDto[] getWidgetsAfter(int limit, int afterZIndex) {
+        Validate.isTrue(limit >= 0, "limit can't be negative");
+
+        return cached(WidgetQueryCache.Query.pageAfter(limit, afterZIndex), () -> {
+            var current = currentSnapshotIfBuilt();
+            if(current != null){
+                var from = current.positionAfter(afterZIndex);
+                return map(current, from, (int) Math.min((long) from + limit, current.size()));
+            }
+
+            var setOfWidgets = read(() -> {
+                var result = new ArrayList<WidgetDto>();
+                widgets.forEachAfter(afterZIndex, limit, (widget, layout) -> result.add(widgetMapper.map(widget.getGuid(), layout)));
+                return result;
+            });
+
+            return setOfWidgets.toArray(new WidgetDto[setOfWidgets.size()]);
+        });
     }
 
     @Override
     public WidgetDto[] filterAndGetWidgets(double x1, double x2, double y1, double y2) {
-        Validate.finite(x1, "x1 can't be infinite");
-        Validate.finite(x2, "x2 can't be infinite");
-        Validate.finite(y1, "y1 can't be infinite");
-        Validate.finite(y2, "y2 can't be infinite");
-
-        Validate.notNaN(x1, "x1 can't be NaN");
-        Validate.notNaN(x2, "x2 can't be NaN");
-        Validate.notNaN(y1, "y1 can't be NaN");
-        Validate.notNaN(y2, "y2 can't be NaN");
-
-        Validate.isTrue(x1 >= 0, "x1 can't be negative");
-        Validate.isTrue(y1 >= 0, "y1 can't be negative");
-        Validate.isTrue(x2 >= 0, "x2 can't be negative");
-        Validate.isTrue(y2 >= 0, "y2 can't be negative");
-
-        List<WidgetInternal> setOfWidgets;
-        locker.readLock().lock();
-        try {
-            setOfWidgets = widgets.stream()
-            .filter(w -> isOverlappingPredicate(new Rectangle2D.Double(
-                    w.getLayout().getVertex().getX(),
-                    w.getLayout().getVertex().getY(),
-                    w.getLayout().getVertex().getX() + w.getLayout().getSize().getWidth(),
-                    w.getLayout().getVertex().getY() + w.getLayout().getSize().getHeight()),
-                    new Rectangle2D.Double(x1,x2,y1,y2)))
-            .collect(Collectors.toList());
-        }
-        finally {
-            locker.readLock().unlock();
+        WidgetParametersValidator.validateAreaParameters(x1, x2, y1, y2);
+
+        // The area keeps the (x, y, width, height) meaning the parameters had with Rectangle2D
+        var areaMinX = x1;
+        var areaMinY = x2;
+        var areaMaxX = x1 + y1;
+        var areaMaxY = x2 + y2;
+        if(areaMaxX <= areaMinX || areaMaxY <= areaMinY){
+            return new WidgetDto[0];
         }
 
-        var setOfWidgetsRaw = setOfWidgets.toArray(new WidgetInternal[setOfWidgets.size()]);
+        return cached(WidgetQueryCache.Query.filter(areaMinX, areaMinY, areaMaxX, areaMaxY), () -> {
+            var current = currentSnapshotIfBuilt();
+            if(current != null){
+                var positions = current.search(areaMinX, areaMinY, areaMaxX, areaMaxY);
+                var result = new WidgetDto[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    result[i] = widgetMapper.map(current, positions[i]);
+                }
+                return result;
+            }
 
-        if(setOfWidgetsRaw.length > 0){
-            return widgetMapper.mapArray(setOfWidgetsRaw);
-        }
-        return new WidgetDto[0];
-    }
+            var setOfWidgets = read(() -> {
+                var result = new ArrayList<WidgetDto>();
+                for (WidgetInternal widget : spatialIndex.search(areaMinX, areaMinY, areaMaxX, areaMaxY)) {
+                    result.add(widgetMapper.map(widget.getGuid(), widgets.layoutOf(widget)));
+                }
+                return result;
+            });
 
-    private boolean isOverlappingPredicate(Rectangle2D widgetRectangle, Rectangle2D area) {
-        return widgetRectangle.intersects(area);
+            setOfWidgets.sort(Comparator.comparing(WidgetDto::getzIndex));
+            return setOfWidgets.toArray(new WidgetDto[setOfWidgets.size()]);
+        });
     }
 
     /**
@@ -326,26 +933,24 @@ public class WidgetServiceImpl implements WidgetService {
      */
     @Override
     public void removeWidget(UUID widgetGuid) throws WidgetNotFoundException {
+        Validate.notNull(widgetGuid, "widgetGuid can't be null");
 
-        locker.readLock().lock();
+        long journalSequence;
+        var stamp = locker.writeLock();
         try {
-            Optional<WidgetInternal> widgetAvailability = widgets.stream()
-                    .filter(w -> w.getGuid().compareTo(widgetGuid) == 0)
-                    .findFirst();
-
-            if(widgetAvailability.isPresent()){
-                var removedWidget = widgetAvailability.get();
-                var result = widgets.remove(removedWidget);
-                if(result)
-                    return;
-            }
+            var widget = widgets.get(widgetGuid);
+            if(widget == null)
+                throw new WidgetNotFoundException();
 
-            throw new WidgetNotFoundException();
+            checkJournal();
+            if(!applyRemove(widget))
+                throw new WidgetNotFoundException();
+
+            journalSequence = commit(LocalDateTime.now(ZoneOffset.UTC), List.of(WidgetOperation.remove(widgetGuid)));
         }
         finally {
-            locker.readLock().unlock();
+            locker.unlockWrite(stamp);
         }
+        awaitDurable(journalSequence);
     }
 }
-
-
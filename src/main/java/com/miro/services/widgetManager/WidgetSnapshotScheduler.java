@@ -0,0 +1,44 @@
+package com.miro.services.widgetManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Saves the heap store snapshot periodically, on the scheduler thread
+ */
+@Component
+@ConditionalOnProperty(name = "widgets.snapshot.path")
+public class WidgetSnapshotScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetSnapshotScheduler.class);
+
+    // Absent when the off-heap store is used
+    private final ObjectProvider<WidgetServiceImpl> widgetService;
+
+    private long savedVersion = -1;
+
+    public WidgetSnapshotScheduler(ObjectProvider<WidgetServiceImpl> widgetService) {
+        this.widgetService = widgetService;
+    }
+
+    @Scheduled(initialDelayString = "${widgets.snapshot.interval-ms:300000}", fixedDelayString = "${widgets.snapshot.interval-ms:300000}")
+    public void writeSnapshot() {
+        var service = widgetService.getIfAvailable();
+        if(service == null || service.getVersion() == savedVersion)
+            return;
+
+        try {
+            var version = service.getVersion();
+            service.writeSnapshot();
+            savedVersion = version;
+        }
+        catch (IOException | RuntimeException e){
+            LOGGER.error("Widget snapshot can't be saved", e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.miro.config;
+
+import com.miro.controllers.VirtualThreadHandlerAdapter;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcRegistrations;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(VirtualThreadsConfigTest.class)
+@Suite.SuiteClasses({ VirtualThreadsConfigTest.newVirtualThreadPerTaskExecutor.class,
+        VirtualThreadsConfigTest.virtualThreadsProperty.class})
+public class VirtualThreadsConfigTest extends Suite
+{
+    public VirtualThreadsConfigTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    private static boolean hasVirtualThreads() {
+        return Arrays.stream(Executors.class.getMethods()).anyMatch(method -> method.getName().equals("newVirtualThreadPerTaskExecutor"));
+    }
+
+    private static final class TestAsyncSupportConfigurer extends AsyncSupportConfigurer {
+        private AsyncTaskExecutor taskExecutor() {
+            return getTaskExecutor();
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(VirtualThreadsConfigTest.class)
+    public static class newVirtualThreadPerTaskExecutor{
+
+        @Test
+        public void should_fall_back_to_tomcat_threads_only_when_java_has_no_virtual_threads() throws Exception {
+
+            //Arrange
+            var sut = new VirtualThreadsConfig();
+            var configurer = new TestAsyncSupportConfigurer();
+
+            //Act
+            var executor = VirtualThreadsConfig.newVirtualThreadPerTaskExecutor();
+            var adapter = sut.virtualThreadRegistrations().getRequestMappingHandlerAdapter();
+            sut.configureAsyncSupport(configurer);
+            var isVirtual = executor != null && (boolean) executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get();
+            sut.close();
+            if(executor != null)
+                executor.shutdown();
+
+            //Assert
+            if(hasVirtualThreads()){
+                assertTrue("Error", isVirtual);
+                assertTrue("Error", adapter instanceof VirtualThreadHandlerAdapter);
+                assertTrue("Error", configurer.taskExecutor() != null);
+            }
+            else{
+                assertTrue("Error", executor == null);
+                assertTrue("Error", adapter == null);
+                assertTrue("Error", configurer.taskExecutor() == null);
+            }
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(VirtualThreadsConfigTest.class)
+    public static class virtualThreadsProperty{
+
+        private final WebApplicationContextRunner contextRunner = new WebApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(WebMvcAutoConfiguration.class, HttpMessageConvertersAutoConfiguration.class))
+                .withUserConfiguration(VirtualThreadsConfig.class);
+
+        @Test
+        public void should_use_virtual_thread_adapter_only_when_property_is_true_and_java_has_virtual_threads() {
+
+            //Arrange
+            var enabled = new boolean[3];
+            var virtualThreadAdapter = new boolean[3];
+
+            //Act
+            contextRunner.run(context -> {
+                enabled[0] = !context.getBeansOfType(WebMvcRegistrations.class).isEmpty();
+                virtualThreadAdapter[0] = context.getBean(RequestMappingHandlerAdapter.class) instanceof VirtualThreadHandlerAdapter;
+            });
+            contextRunner.withPropertyValues("widgets.execution.virtual-threads=false").run(context -> {
+                enabled[1] = !context.getBeansOfType(WebMvcRegistrations.class).isEmpty();
+                virtualThreadAdapter[1] = context.getBean(RequestMappingHandlerAdapter.class) instanceof VirtualThreadHandlerAdapter;
+            });
+            contextRunner.withPropertyValues("widgets.execution.virtual-threads=true").run(context -> {
+                enabled[2] = !context.getBeansOfType(WebMvcRegistrations.class).isEmpty();
+                virtualThreadAdapter[2] = context.getBean(RequestMappingHandlerAdapter.class) instanceof VirtualThreadHandlerAdapter;
+            });
+
+            //Assert
+            assertTrue("Error", !enabled[0] && !virtualThreadAdapter[0]);
+            assertTrue("Error", !enabled[1] && !virtualThreadAdapter[1]);
+            assertTrue("Error", enabled[2] && virtualThreadAdapter[2] == hasVirtualThreads());
+        }
+    }
+}
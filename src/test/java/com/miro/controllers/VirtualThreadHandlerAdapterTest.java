@@ -0,0 +1,188 @@
+package com.miro.controllers;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.method.HandlerMethod;
+
+import javax.servlet.DispatcherType;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(VirtualThreadHandlerAdapterTest.class)
+@Suite.SuiteClasses({ VirtualThreadHandlerAdapterTest.handle.class})
+public class VirtualThreadHandlerAdapterTest extends Suite
+{
+    private static final String HANDLER_THREAD = "handler-thread";
+
+    public VirtualThreadHandlerAdapterTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    public static class Handlers {
+        public ResponseEntity<String> getThreadName() {
+            return ResponseEntity.ok(Thread.currentThread().getName());
+        }
+
+        public ResponseEntity<String> failToGetWidget() {
+            throw new IllegalStateException("Widget store is closed");
+        }
+
+        public Callable<ResponseEntity<String>> getThreadNameLater() {
+            return () -> ResponseEntity.ok("later");
+        }
+    }
+
+    /**
+     * Adapter running the handlers on a new thread the caller waits for, so the async result is ready when handle returns
+     */
+    private static VirtualThreadHandlerAdapter createAdapter() {
+        Executor executor = task -> {
+            var thread = new Thread(task, HANDLER_THREAD);
+            thread.start();
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        var context = new StaticApplicationContext();
+        context.refresh();
+        var adapter = new VirtualThreadHandlerAdapter();
+        adapter.setApplicationContext(context);
+        adapter.setTaskExecutor(new ConcurrentTaskExecutor(executor));
+        adapter.afterPropertiesSet();
+        return adapter;
+    }
+
+    private static HandlerMethod handlerMethod(String name) throws NoSuchMethodException {
+        return new HandlerMethod(new Handlers(), name);
+    }
+
+    /**
+     * Start the request as the DispatcherServlet does, with the request attributes bound to the Tomcat thread
+     */
+    private static MockHttpServletRequest createRequest(boolean asyncSupported, MockHttpServletResponse response) {
+        var request = new MockHttpServletRequest("GET", "/api/v1/widgets");
+        request.setAsyncSupported(asyncSupported);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        return request;
+    }
+
+    /**
+     * Dispatch the request again to write the async result, as the container does after AsyncContext.dispatch
+     */
+    private static void dispatchAsync(MockHttpServletRequest request) {
+        request.setAsyncStarted(false);
+        request.setDispatcherType(DispatcherType.ASYNC);
+    }
+
+    @RunWith(Theories.class)
+    @Category(VirtualThreadHandlerAdapterTest.class)
+    public static class handle{
+
+        @After
+        public void resetRequestAttributes() {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        @Test
+        public void should_run_handler_on_executor_and_write_result_on_async_dispatch() throws Exception {
+
+            //Arrange
+            var sut = createAdapter();
+            var response = new MockHttpServletResponse();
+            var request = createRequest(true, response);
+            var handler = handlerMethod("getThreadName");
+
+            //Act
+            sut.handle(request, response, handler);
+            var asyncStarted = request.isAsyncStarted();
+            var bodyBeforeDispatch = response.getContentAsString();
+            dispatchAsync(request);
+            sut.handle(request, response, handler);
+
+            //Assert
+            assertTrue("Error", asyncStarted);
+            assertTrue("Error", bodyBeforeDispatch.isEmpty());
+            assertTrue("Error", response.getStatus() == 200);
+            assertTrue("Error", response.getContentAsString().equals(HANDLER_THREAD));
+        }
+
+        @Test
+        public void should_rethrow_handler_exception_on_async_dispatch() throws Exception {
+
+            //Arrange
+            var sut = createAdapter();
+            var response = new MockHttpServletResponse();
+            var request = createRequest(true, response);
+            var handler = handlerMethod("failToGetWidget");
+
+            //Act
+            sut.handle(request, response, handler);
+            var asyncStarted = request.isAsyncStarted();
+            dispatchAsync(request);
+
+            //Assert
+            assertTrue("Error", asyncStarted);
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(() -> sut.handle(request, response, handler))
+                    .withMessage("Widget store is closed");
+        }
+
+        @Test
+        public void should_run_handler_on_request_thread_when_request_is_not_async() throws Exception {
+
+            //Arrange
+            var sut = createAdapter();
+            var response = new MockHttpServletResponse();
+            var request = createRequest(false, response);
+
+            //Act
+            sut.handle(request, response, handlerMethod("getThreadName"));
+
+            //Assert
+            assertTrue("Error", !request.isAsyncStarted());
+            assertTrue("Error", response.getContentAsString().equals(Thread.currentThread().getName()));
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(() -> sut.handle(request, new MockHttpServletResponse(), handlerMethod("failToGetWidget")))
+                    .withMessage("Widget store is closed");
+        }
+
+        @Test
+        public void should_not_wrap_handler_when_it_returns_async_result() throws Exception {
+
+            //Arrange
+            var sut = createAdapter();
+            var response = new MockHttpServletResponse();
+            var request = createRequest(true, response);
+            var handler = handlerMethod("getThreadNameLater");
+
+            //Act
+            sut.handle(request, response, handler);
+            var asyncStarted = request.isAsyncStarted();
+            dispatchAsync(request);
+            sut.handle(request, response, handler);
+
+            //Assert
+            assertTrue("Error", asyncStarted);
+            assertTrue("Error", response.getContentAsString().equals("later"));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.miro.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.miro.core.dto.WidgetDto;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.assertj.core.api.Java6Assertions.assertThatCode;
+import static org.assertj.core.api.Java6Assertions.assertThatExceptionOfType;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(WidgetColumnarHttpMessageConverterTest.class)
+@Suite.SuiteClasses({ WidgetColumnarHttpMessageConverterTest.write.class})
+public class WidgetColumnarHttpMessageConverterTest extends Suite
+{
+    private static final int WIDGETS = 1000;
+
+    public WidgetColumnarHttpMessageConverterTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetColumnarHttpMessageConverterTest.class)
+    public static class write{
+
+        @Test
+        public void should_read_same_widgets_and_be_smaller_than_json_when_widgets_are_written() {
+
+            assertThatCode(() -> {
+                //Arrange
+                var sut = new WidgetColumnarHttpMessageConverter();
+                var updatedAtUtc = LocalDateTime.of(2019, 5, 1, 12, 30, 15, 123456789);
+                var widgets = new WidgetDto[WIDGETS];
+                for (int i = 0; i < WIDGETS; i++) {
+                    widgets[i] = new WidgetDto();
+                    widgets[i].setX(i * 1.5d);
+                    widgets[i].setY(-i);
+                    widgets[i].setWidth(10);
+                    widgets[i].setHeight(20.25d);
+                    widgets[i].setzIndex(i * 3 - 1000);
+                    widgets[i].setUpdatedAtUtc(i % 2 == 0 ? updatedAtUtc : updatedAtUtc.plusSeconds(i));
+                    widgets[i].setGuid(UUID.randomUUID());
+                }
+                var json = new ObjectMapper().registerModule(new JavaTimeModule())
+                        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                        .writeValueAsBytes(widgets);
+
+                //Act
+                var output = new MockHttpOutputMessage();
+                sut.write(widgets, WidgetColumnarHttpMessageConverter.MEDIA_TYPE, output);
+                var result = sut.read(WidgetDto[].class, new MockHttpInputMessage(output.getBodyAsBytes()));
+
+                //Assert
+                assertTrue("Error", output.getHeaders().getContentType().equals(WidgetColumnarHttpMessageConverter.MEDIA_TYPE));
+                assertTrue("Error, binary " + output.getBodyAsBytes().length + " json " + json.length,
+                        output.getBodyAsBytes().length * 2 < json.length);
+                assertTrue("Error", result.length == WIDGETS);
+                for (int i = 0; i < WIDGETS; i++) {
+                    assertTrue("Error", result[i].getX().equals(widgets[i].getX())
+                            && result[i].getY().equals(widgets[i].getY())
+                            && result[i].getWidth().equals(widgets[i].getWidth())
+                            && result[i].getHeight().equals(widgets[i].getHeight())
+                            && result[i].getzIndex().equals(widgets[i].getzIndex())
+                            && result[i].getUpdatedAtUtc().equals(widgets[i].getUpdatedAtUtc())
+                            && result[i].getGuid().equals(widgets[i].getGuid()));
+                }
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_read_missing_values_as_nulls_when_widget_has_only_guid() {
+
+            assertThatCode(() -> {
+                //Arrange
+                var sut = new WidgetColumnarHttpMessageConverter();
+                var widget = new WidgetDto();
+                widget.setGuid(UUID.randomUUID());
+
+                //Act
+                var output = new MockHttpOutputMessage();
+                sut.write(new WidgetDto[]{widget, new WidgetDto()}, WidgetColumnarHttpMessageConverter.MEDIA_TYPE, output);
+                var result = sut.read(WidgetDto[].class, new MockHttpInputMessage(output.getBodyAsBytes()));
+
+                //Assert
+                assertTrue("Error", result.length == 2);
+                assertTrue("Error", result[0].getGuid().equals(widget.getGuid()) && result[1].getGuid() == null);
+                assertTrue("Error", Arrays.stream(result).allMatch(w -> w.getX() == null
+                        && w.getY() == null
+                        && w.getWidth() == null
+                        && w.getHeight() == null
+                        && w.getUpdatedAtUtc() == null
+                        && Objects.equals(w.getzIndex(), 0)));
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_throw_not_readable_exception_when_widgets_are_truncated() {
+
+            //Arrange
+            var sut = new WidgetColumnarHttpMessageConverter();
+            var widget = new WidgetDto();
+            widget.setGuid(UUID.randomUUID());
+            var output = new MockHttpOutputMessage();
+            assertThatCode(() -> sut.write(new WidgetDto[]{widget}, WidgetColumnarHttpMessageConverter.MEDIA_TYPE, output))
+                    .doesNotThrowAnyException();
+            var truncated = Arrays.copyOf(output.getBodyAsBytes(), output.getBodyAsBytes().length - 1);
+
+            //Act
+            //Assert
+            assertThatExceptionOfType(HttpMessageNotReadableException.class)
+                    .isThrownBy(() -> sut.read(WidgetDto[].class, new MockHttpInputMessage(truncated)));
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.miro.controllers;
 
 import com.miro.core.data.internal.WidgetLayoutInfo;
 import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetSyncDto;
 import com.miro.core.exceptions.WidgetNotFoundException;
 import com.miro.services.widgetManager.WidgetServiceImpl;
 import org.junit.Test;
@@ -15,10 +16,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import java.time.LocalDateTime;
 import java.util.UUID;
 import static org.assertj.core.api.Java6Assertions.assertThatCode;
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -32,7 +37,9 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
         WidgetControllerTest.GetWidget.class,
         WidgetControllerTest.Pagination.class,
         WidgetControllerTest.Filtration.class,
-        WidgetControllerTest.DeleteWidget.class})
+        WidgetControllerTest.Batch.class,
+        WidgetControllerTest.DeleteWidget.class,
+        WidgetControllerTest.GetChangedWidgets.class})
 public class WidgetControllerTest extends Suite {
 
     public WidgetControllerTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
@@ -112,6 +119,32 @@ public class WidgetControllerTest extends Suite {
                         .andExpect(status().isBadRequest());
             }).doesNotThrowAnyException();
         }
+
+        @Test
+        public void should_return_201_code_and_board_location_when_create_widget_on_board() {
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(post("/api/v1/boards/board-1/widgets/add")
+                        .param("x", "1")
+                        .param("y", "1")
+                        .param("width","1")
+                        .param("height", "1"))
+                        .andDo(print())
+                        .andExpect(status().isCreated())
+                        .andExpect(header().string("Location", containsString("api/v1/boards/board-1/widgets/")))
+                        .andExpect(jsonPath("$.guid").exists());
+                mockMvc.perform(post("/api/v1/boards/board.1/widgets/add")
+                        .param("x", "1")
+                        .param("y", "1")
+                        .param("width","1")
+                        .param("height", "1"))
+                        .andDo(print())
+                        .andExpect(status().isBadRequest());
+            }).doesNotThrowAnyException();
+            verifyNoMoreInteractions(widgetService);
+        }
     }
 
     @RunWith(SpringRunner.class)
@@ -178,6 +211,41 @@ public class WidgetControllerTest extends Suite {
                         .andExpect(status().isBadRequest());
             }).doesNotThrowAnyException();
         }
+
+        @Test
+        public void should_return_304_code_when_pass_etag_of_unchanged_widget() throws WidgetNotFoundException {
+
+            //Arrange
+            var widgetDtoStub = new WidgetDto();
+            var guid = UUID.randomUUID();
+            widgetDtoStub.setGuid(guid);
+            widgetDtoStub.setUpdatedAtUtc(LocalDateTime.of(2019, 5, 1, 12, 30, 0, 120000000));
+            widgetDtoStub.setVersion(7L);
+            when(widgetService.getInstanceId()).thenReturn("board");
+            when(widgetService.getWidget(Mockito.any(UUID.class)))
+                    .thenReturn(widgetDtoStub);
+
+            assertThatCode(() -> {
+                //Act
+                var eTag = mockMvc.perform(get("/api/v1/widgets/" + guid.toString()))
+                        .andExpect(status().isOk())
+                        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+                //Assert
+                mockMvc.perform(get("/api/v1/widgets/" + guid.toString())
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                        .andDo(print())
+                        .andExpect(status().isNotModified())
+                        .andExpect(header().string(HttpHeaders.ETAG, "\"board-7\""))
+                        .andExpect(content().string(""));
+                widgetDtoStub.setVersion(8L);
+                mockMvc.perform(get("/api/v1/widgets/" + guid.toString())
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                        .andDo(print())
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.guid").value(guid.toString()));
+            }).doesNotThrowAnyException();
+        }
     }
 
     @RunWith(SpringRunner.class)
@@ -321,6 +389,78 @@ public class WidgetControllerTest extends Suite {
                         .andExpect(status().isBadRequest());
             }).doesNotThrowAnyException();
         }
+
+        @Test
+        public void should_return_200_code_when_call_get_request_with_cursor(){
+
+            //Arrange
+            var widgetDtoStub = new WidgetDto();
+            widgetDtoStub.setGuid(UUID.randomUUID());
+            when(widgetService.getWidgetsAfter(Mockito.eq(20),Mockito.eq(7)))
+                    .thenReturn(new WidgetDto[]{widgetDtoStub});
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(get("/api/v1/widgets/limit")
+                        .param("limit", "20")
+                        .param("after", "7"))
+                        .andDo(print())
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$[0].guid").value(widgetDtoStub.getGuid().toString()));
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_return_400_code_when_call_with_cursor_and_offset(){
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(get("/api/v1/widgets/limit")
+                        .param("offset", "10")
+                        .param("after", "7"))
+                        .andDo(print())
+                        .andExpect(status().isBadRequest());
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_return_304_code_without_reading_widgets_when_pass_etag_of_current_version_and_media_type(){
+
+            //Arrange
+            when(widgetService.getVersion()).thenReturn(42L);
+            when(widgetService.getInstanceId()).thenReturn("board");
+            when(widgetService.getWidgets(Mockito.anyInt(), Mockito.anyInt()))
+                    .thenReturn(new WidgetDto[0]);
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(get("/api/v1/widgets/limit")
+                        .param("limit", "20")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"board-42-json\""))
+                        .andDo(print())
+                        .andExpect(status().isNotModified())
+                        .andExpect(header().string(HttpHeaders.ETAG, "\"board-42-json\""));
+                mockMvc.perform(get("/api/v1/widgets/limit")
+                        .param("limit", "20")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"board-41-json\""))
+                        .andDo(print())
+                        .andExpect(status().isNoContent())
+                        .andExpect(header().string(HttpHeaders.ETAG, "\"board-42-json\""))
+                        .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+                mockMvc.perform(get("/api/v1/widgets/limit")
+                        .param("limit", "20")
+                        .accept(WidgetColumnarHttpMessageConverter.MEDIA_TYPE)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"board-42-json\""))
+                        .andDo(print())
+                        .andExpect(status().isNoContent())
+                        .andExpect(header().string(HttpHeaders.ETAG, "\"board-42-x-widgets-columnar\""))
+                        .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+            }).doesNotThrowAnyException();
+            verify(widgetService, times(2)).getWidgets(Mockito.anyInt(), Mockito.anyInt());
+        }
     }
 
     @RunWith(SpringRunner.class)
@@ -374,6 +514,73 @@ public class WidgetControllerTest extends Suite {
         }
     }
 
+    @RunWith(SpringRunner.class)
+    @SpringBootTest
+    @AutoConfigureMockMvc
+    @Category(WidgetControllerTest.class)
+    public static class Batch{
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @MockBean
+        private WidgetServiceImpl widgetService;
+
+        @Test
+        public void should_return_200_code_when_pass_valid_operations() throws WidgetNotFoundException {
+
+            //Arrange
+            var widgetDtoStub = new WidgetDto();
+            widgetDtoStub.setGuid(UUID.randomUUID());
+            when(widgetService.applyWidgetOperations(Mockito.anyList()))
+                    .thenReturn(new WidgetDto[]{widgetDtoStub, null});
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(post("/api/v1/widgets/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"type\":\"create\",\"x\":1,\"y\":1,\"width\":1,\"height\":1}," +
+                                "{\"type\":\"delete\",\"guid\":\"" + UUID.randomUUID() + "\"}]"))
+                        .andDo(print())
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$[0].guid").value(widgetDtoStub.getGuid().toString()));
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_return_404_code_when_pass_guid_and_widget_not_exist() throws WidgetNotFoundException {
+
+            //Arrange
+            when(widgetService.applyWidgetOperations(Mockito.anyList()))
+                    .thenThrow(new WidgetNotFoundException());
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(post("/api/v1/widgets/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"type\":\"update\",\"guid\":\"" + UUID.randomUUID() + "\",\"zIndex\":1}]"))
+                        .andDo(print())
+                        .andExpect(status().isNotFound());
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_return_400_code_when_pass_invalid_operations(){
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(post("/api/v1/widgets/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"type\":\"update\",\"guid\":\"asdff\"}]"))
+                        .andDo(print())
+                        .andExpect(status().isBadRequest());
+            }).doesNotThrowAnyException();
+        }
+    }
+
     @RunWith(SpringRunner.class)
     @SpringBootTest
     @AutoConfigureMockMvc
@@ -429,4 +636,62 @@ public class WidgetControllerTest extends Suite {
         }
     }
 
+    @RunWith(SpringRunner.class)
+    @SpringBootTest
+    @AutoConfigureMockMvc
+    @Category(WidgetControllerTest.class)
+    public static class GetChangedWidgets{
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @MockBean
+        private WidgetServiceImpl widgetService;
+
+        @Test
+        public void should_return_200_code_when_call_with_version(){
+
+            //Arrange
+            var changes = new WidgetSyncDto();
+            changes.setVersion(9);
+            changes.setWidgets(new WidgetDto[0]);
+            changes.setRemovedGuids(new UUID[0]);
+            when(widgetService.getChangesSince(Mockito.eq(7L)))
+                    .thenReturn(changes);
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(get("/api/v1/widgets/changed")
+                        .param("after", "7"))
+                        .andDo(print())
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.version").value(9));
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_return_400_code_when_call_with_invalid_version(){
+
+            assertThatCode(() -> {
+                //Act
+                //Assert
+                mockMvc.perform(get("/api/v1/widgets/changed"))
+                        .andDo(print())
+                        .andExpect(status().isBadRequest())
+                        .andExpect(content().string(containsString("The 'after' parameter must not be null or empty")));
+                mockMvc.perform(get("/api/v1/widgets/changed")
+                        .param("after", "asdff"))
+                        .andDo(print())
+                        .andExpect(status().isBadRequest())
+                        .andExpect(content().string(containsString("The 'after' parameter has wrong format")));
+                mockMvc.perform(get("/api/v1/widgets/changed")
+                        .param("after", "-1"))
+                        .andDo(print())
+                        .andExpect(status().isBadRequest())
+                        .andExpect(content().string(containsString("The 'after' can't be negative")));
+            }).doesNotThrowAnyException();
+            verify(widgetService, never()).getChangesSince(Mockito.anyLong());
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.miro.services.boardManager;
+
+import com.miro.core.exceptions.WidgetNotFoundException;
+import com.miro.services.widgetManager.WidgetService;
+import com.miro.services.widgetManager.WidgetServiceImpl;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(BoardRegistryTest.class)
+@Suite.SuiteClasses({ BoardRegistryTest.withBoard.class,
+        BoardRegistryTest.evictIdleBoards.class,
+        BoardRegistryTest.writeSnapshots.class})
+public class BoardRegistryTest extends Suite
+{
+    public BoardRegistryTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    @RunWith(Theories.class)
+    @Category(BoardRegistryTest.class)
+    public static class withBoard{
+
+        @Test
+        public void should_keep_widgets_and_zIndex_of_every_board_apart_when_create_widgets_on_boards() throws WidgetNotFoundException {
+
+            //Arrange
+            var defaultBoard = new WidgetServiceImpl();
+            var sut = new BoardRegistry(defaultBoard, "heap", 100, "", 60000);
+
+            //Act
+            var widget1 = sut.withBoard("board-1", widgetService -> widgetService.createWidget(1,1,1,1, null));
+            var widget2 = sut.withBoard("board-2", widgetService -> widgetService.createWidget(1,1,1,1, null));
+            var defaultWidget = sut.withBoard(null, widgetService -> widgetService.createWidget(1,1,1,1, null));
+            var board1Widgets = sut.withBoard("board-1", WidgetService::getAllWidgets);
+
+            //Assert
+            assertTrue("Error", widget1.getzIndex() == 0 && widget2.getzIndex() == 0 && defaultWidget.getzIndex() == 0);
+            assertTrue("Error", board1Widgets.length == 1 && board1Widgets[0].getGuid().equals(widget1.getGuid()));
+            assertTrue("Error", defaultBoard.getAllWidgets().length == 1);
+            assertTrue("Error", sut.size() == 2);
+            assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> sut.withBoard("../board", WidgetService::getAllWidgets));
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(BoardRegistryTest.class)
+    public static class evictIdleBoards{
+
+        @Test
+        public void should_evict_only_empty_boards_when_boards_are_kept_in_memory() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new BoardRegistry(new WidgetServiceImpl(), "heap", 100, "", 0);
+            sut.withBoard("empty", WidgetService::getAllWidgets);
+            sut.withBoard("filled", widgetService -> widgetService.createWidget(1,1,1,1, null));
+
+            //Act
+            sut.evictIdleBoards();
+
+            //Assert
+            assertTrue("Error", sut.size() == 1);
+            assertTrue("Error", sut.withBoard("filled", WidgetService::getAllWidgets).length == 1);
+        }
+
+        @Test
+        public void should_restore_widgets_of_evicted_board_when_board_is_opened_again() throws IOException, WidgetNotFoundException {
+
+            //Arrange
+            var directory = Files.createTempDirectory("boards");
+            var sut = new BoardRegistry(new WidgetServiceImpl(), "heap", 100, directory.toString(), 0);
+            var widget = sut.withBoard("board-1", widgetService -> widgetService.createWidget(1,1,1,1, 3));
+
+            //Act
+            sut.evictIdleBoards();
+            var sizeAfterEviction = sut.size();
+            var widgets = sut.withBoard("board-1", WidgetService::getAllWidgets);
+            sut.close();
+
+            //Assert
+            assertTrue("Error", sizeAfterEviction == 0);
+            assertTrue("Error", Files.exists(directory.resolve("board-1.snapshot")));
+            assertTrue("Error", widgets.length == 1);
+            assertTrue("Error", widgets[0].getGuid().equals(widget.getGuid()) && widgets[0].getzIndex() == 3);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(BoardRegistryTest.class)
+    public static class writeSnapshots{
+
+        @Test
+        public void should_save_snapshot_and_compact_journal_of_open_board_when_board_is_changed() throws IOException, WidgetNotFoundException {
+
+            //Arrange
+            var directory = Files.createTempDirectory("boards");
+            var sut = new BoardRegistry(new WidgetServiceImpl(), "heap", 100, directory.toString(), 60000);
+            for (int i = 0; i < 100; i++) {
+                sut.withBoard("board-1", widgetService -> widgetService.createWidget(1,1,1,1, null));
+            }
+            var journalSize = Files.size(directory.resolve("board-1.journal"));
+
+            //Act
+            sut.writeSnapshots();
+            var compactedJournalSize = Files.size(directory.resolve("board-1.journal"));
+            var widget = sut.withBoard("board-1", widgetService -> widgetService.createWidget(1,1,1,1, null));
+            sut.close();
+            var widgets = new BoardRegistry(new WidgetServiceImpl(), "heap", 100, directory.toString(), 60000)
+                    .withBoard("board-1", WidgetService::getAllWidgets);
+
+            //Assert
+            assertTrue("Error", sut.size() == 0);
+            assertTrue("Error", compactedJournalSize < journalSize);
+            assertTrue("Error", widgets.length == 101 && widgets[100].getGuid().equals(widget.getGuid()));
+        }
+    }
+}
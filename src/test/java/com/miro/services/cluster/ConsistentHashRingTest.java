@@ -0,0 +1,79 @@
+package com.miro.services.cluster;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(ConsistentHashRingTest.class)
+@Suite.SuiteClasses({ ConsistentHashRingTest.ownerOf.class})
+public class ConsistentHashRingTest extends Suite
+{
+    private static final int KEYS = 10000;
+
+    public ConsistentHashRingTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    @RunWith(Theories.class)
+    @Category(ConsistentHashRingTest.class)
+    public static class ownerOf{
+
+        @Test
+        public void should_spread_keys_evenly_and_same_for_any_node_order_when_ring_has_several_nodes() {
+
+            //Arrange
+            var sut = new ConsistentHashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+            var reordered = new ConsistentHashRing(List.of("http://c:8080", "http://a:8080", "http://b:8080"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+
+            //Act
+            var keysPerNode = new HashMap<String, Integer>();
+            var sameOwners = true;
+            for (int i = 0; i < KEYS; i++) {
+                var owner = sut.ownerOf("board-" + i);
+                keysPerNode.merge(owner, 1, Integer::sum);
+                sameOwners &= owner.equals(reordered.ownerOf("board-" + i));
+            }
+
+            //Assert
+            assertTrue("Error", sameOwners);
+            assertTrue("Error", keysPerNode.size() == 3);
+            for (var keys : keysPerNode.values()) {
+                assertTrue("Error, uneven keys " + keysPerNode, keys > KEYS / 4 && keys < KEYS / 2);
+            }
+        }
+
+        @Test
+        public void should_move_keys_only_to_joined_node_when_node_joins() {
+
+            //Arrange
+            var sut = new ConsistentHashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+            var joined = new ConsistentHashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080", "http://d:8080"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+
+            //Act
+            var movedKeys = 0;
+            var movedBetweenOldNodes = 0;
+            for (int i = 0; i < KEYS; i++) {
+                var owner = sut.ownerOf("board-" + i);
+                var newOwner = joined.ownerOf("board-" + i);
+                if(!owner.equals(newOwner)){
+                    movedKeys++;
+                    if(!newOwner.equals("http://d:8080"))
+                        movedBetweenOldNodes++;
+                }
+            }
+
+            //Assert
+            assertTrue("Error", movedBetweenOldNodes == 0);
+            assertTrue("Error, moved keys " + movedKeys, movedKeys > KEYS / 8 && movedKeys < KEYS * 3 / 8);
+        }
+    }
+}
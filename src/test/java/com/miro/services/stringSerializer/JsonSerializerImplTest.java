@@ -0,0 +1,147 @@
+package com.miro.services.stringSerializer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.miro.core.data.internal.WidgetInternal;
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.snapshot.WidgetSnapshot;
+import com.miro.core.dto.WidgetDto;
+import com.miro.core.dto.WidgetOperationDto;
+import com.miro.core.mapping.WidgetMapper;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Java6Assertions.assertThatCode;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(JsonSerializerImplTest.class)
+@Suite.SuiteClasses({ JsonSerializerImplTest.serialize.class})
+public class JsonSerializerImplTest extends Suite
+{
+    public JsonSerializerImplTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    @RunWith(Theories.class)
+    @Category(JsonSerializerImplTest.class)
+    public static class serialize{
+
+        @Test
+        public void should_write_same_json_as_object_mapper_and_read_it_back_when_widgets_are_serialized() {
+
+            assertThatCode(() -> {
+                //Arrange
+                var objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+                        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+                var sut = new JsonSerializerImpl(objectMapper);
+                var widget = new WidgetDto();
+                widget.setX(1.5d);
+                widget.setY(-2);
+                widget.setWidth(10);
+                widget.setHeight(20.25d);
+                widget.setzIndex(-7);
+                widget.setUpdatedAtUtc(LocalDateTime.of(2019, 5, 1, 12, 30, 0, 120000000));
+                widget.setGuid(UUID.randomUUID());
+                var widgets = new WidgetDto[]{widget, new WidgetDto()};
+
+                //Act
+                var widgetsJson = sut.serialize(widgets);
+                var stream = new ByteArrayOutputStream();
+                sut.serialize(widget, stream);
+                var result = sut.deserialize(widgetsJson, WidgetDto[].class);
+                var streamResult = sut.deserialize(new ByteArrayInputStream(stream.toByteArray()), WidgetDto.class);
+
+                //Assert
+                assertTrue("Error, " + widgetsJson, widgetsJson.equals(objectMapper.writeValueAsString(widgets)));
+                assertTrue("Error", stream.toString("UTF-8").equals(objectMapper.writeValueAsString(widget)));
+                assertTrue("Error", result.length == 2);
+                for (var resultWidget : new WidgetDto[]{result[0], streamResult}) {
+                    assertTrue("Error", resultWidget.getX().equals(widget.getX())
+                            && resultWidget.getY().equals(widget.getY())
+                            && resultWidget.getWidth().equals(widget.getWidth())
+                            && resultWidget.getHeight().equals(widget.getHeight())
+                            && resultWidget.getzIndex().equals(widget.getzIndex())
+                            && resultWidget.getUpdatedAtUtc().equals(widget.getUpdatedAtUtc())
+                            && resultWidget.getGuid().equals(widget.getGuid()));
+                }
+                assertTrue("Error", result[1].getGuid() == null && result[1].getX() == null && result[1].getzIndex() == null);
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_write_cached_encoding_only_while_widget_version_is_unchanged() {
+
+            assertThatCode(() -> {
+                //Arrange
+                var objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+                        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+                var sut = new JsonSerializerImpl(objectMapper);
+                var cache = new EncodedWidgetCache(16);
+                var widgetLayoutInfo = new WidgetLayoutInfo();
+                widgetLayoutInfo.setX(1);
+                widgetLayoutInfo.setY(2);
+                widgetLayoutInfo.setWidth(3);
+                widgetLayoutInfo.setHeight(4);
+                widgetLayoutInfo.setzIndex(5);
+                var widgetInternal = new WidgetInternal(UUID.randomUUID());
+                widgetInternal.createWidgetLayout(widgetLayoutInfo, LocalDateTime.of(2019, 5, 1, 12, 30));
+                var layout = widgetInternal.getLayout();
+                var insertedWidget = new WidgetInternal(UUID.randomUUID());
+                insertedWidget.createWidgetLayout(widgetLayoutInfo, LocalDateTime.of(2019, 5, 1, 12, 30));
+                var widget = WidgetMapper.INSTANCE.map(widgetInternal);
+                var otherWidget = WidgetMapper.INSTANCE.map(widgetInternal);
+                var encoded = new byte[]{ '{', '}' };
+
+                //Act
+                var widgetsJson = sut.serialize(new WidgetDto[]{widget, null});
+                var cachedJson = sut.serialize(otherWidget);
+                otherWidget.setX(10);
+                var changedJson = sut.serialize(otherWidget);
+                widgetInternal.shiftZIndex(1, insertedWidget.getLayout());
+                var shiftedWidget = WidgetMapper.INSTANCE.map(widgetInternal);
+                var shiftedJson = sut.serialize(shiftedWidget);
+                cache.put(widget, encoded);
+                var cachedEncoding = cache.get(WidgetMapper.INSTANCE.map(widget.getGuid(), layout));
+                var snapshotEncoding = cache.get(WidgetMapper.INSTANCE.map(new WidgetSnapshot.Builder(1, 1).add(widget.getGuid(), layout).build(), 0));
+                var changedEncoding = cache.get(otherWidget);
+
+                //Assert
+                assertTrue("Error, " + widgetsJson, widgetsJson.equals(objectMapper.writeValueAsString(new WidgetDto[]{widget, null})));
+                assertTrue("Error", cachedJson.equals(objectMapper.writeValueAsString(widget)));
+                assertTrue("Error", changedJson.equals(objectMapper.writeValueAsString(otherWidget)) && !changedJson.equals(cachedJson));
+                assertTrue("Error", shiftedJson.equals(objectMapper.writeValueAsString(shiftedWidget)) && !shiftedJson.equals(cachedJson));
+                assertTrue("Error", cachedEncoding == encoded && snapshotEncoding == encoded);
+                assertTrue("Error", otherWidget.getVersion() == null && changedEncoding == null);
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_read_requested_type_when_object_is_not_widget() {
+
+            assertThatCode(() -> {
+                //Arrange
+                var sut = new JsonSerializerImpl(new ObjectMapper());
+                var operation = new WidgetOperationDto();
+                operation.setType("delete");
+                operation.setGuid(UUID.randomUUID().toString());
+
+                //Act
+                var result = sut.deserialize(sut.serialize(operation), WidgetOperationDto.class);
+
+                //Assert
+                assertTrue("Error", result.getType().equals("delete") && result.getGuid().equals(operation.getGuid()));
+            }).doesNotThrowAnyException();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.miro.services.widgetManager;
+
+import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
+import com.miro.core.exceptions.WidgetNotFoundException;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.experimental.theories.Theories;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.assertj.core.api.Java6Assertions.assertThatCode;
+import static org.springframework.test.util.AssertionErrors.assertTrue;
+
+@RunWith(OffHeapWidgetServiceImplTest.class)
+@Suite.SuiteClasses({ OffHeapWidgetServiceImplTest.createWidget.class,
+        OffHeapWidgetServiceImplTest.updateWidget.class,
+        OffHeapWidgetServiceImplTest.getWidgetsLikePagination.class,
+        OffHeapWidgetServiceImplTest.filterAndGetWidgets.class,
+        OffHeapWidgetServiceImplTest.applyWidgetOperations.class,
+        OffHeapWidgetServiceImplTest.forEachWidget.class})
+public class OffHeapWidgetServiceImplTest extends Suite
+{
+    private static final double CELL_SIZE = 10d;
+
+    public OffHeapWidgetServiceImplTest(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+    }
+
+    @RunWith(Theories.class)
+    @Category(OffHeapWidgetServiceImplTest.class)
+    public static class createWidget{
+
+        @Test
+        public void should_shift_z_index_in_collection_when_pass_existing_zIndex_parameter() throws InterruptedException {
+
+            //Arrange
+            var sut = new OffHeapWidgetServiceImpl(CELL_SIZE);
+            var widget1 = sut.createWidget(1,1,1,1, 5);
+            var widget2 = sut.createWidget(1,1,1,1, 7);
+            var updatedAt2 = widget2.getUpdatedAtUtc();
+            var widget3 = sut.createWidget(1,1,1,1, 555);
+
+            //Act
+            Thread.sleep(5); //for datetime comparision
+            var widgetDto = sut.createWidget(1,1,1,1, 7);
+
+            //Assert
+            assertThatCode(() -> {
+                assertTrue("Error, zIndex wrong ", sut.getWidget(widget1.getGuid()).getzIndex() == 5);
+                assertTrue("Error, zIndex wrong ", sut.getWidget(widgetDto.getGuid()).getzIndex() == 7);
+
+                var widget2Dto = sut.getWidget(widget2.getGuid());
+                assertTrue("Error, zIndex wrong ", widget2Dto.getzIndex() == 8);
+                assertTrue("Error", widget2Dto.getUpdatedAtUtc().isAfter(updatedAt2));
+
+                assertTrue("Error, zIndex wrong ", sut.getWidget(widget3.getGuid()).getzIndex() == 556);
+            }).doesNotThrowAnyException();
+            assertTrue("Error, zIndex wrong ", sut.createWidget(1,1,1,1, null).getzIndex() == 557);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(OffHeapWidgetServiceImplTest.class)
+    public static class updateWidget{
+
+        @Test
+        public void should_keep_guid_and_not_passed_parameters_when_update_widget_zIndex() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new OffHeapWidgetServiceImpl(CELL_SIZE);
+            var widget1 = sut.createWidget(1,1,1,1, 1);
+            var widget2 = sut.createWidget(20,30,40,50, 2);
+
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(25d);
+            widgetLayoutInfo.setzIndex(1);
+
+            //Act
+            sut.updateWidget(widget2.getGuid(), widgetLayoutInfo);
+
+            //Assert
+            var widget2Dto = sut.getWidget(widget2.getGuid());
+            assertTrue("Error", widget2Dto.getzIndex() == 1);
+            assertTrue("Error", widget2Dto.getX() == 25d && widget2Dto.getY() == 30d);
+            assertTrue("Error", widget2Dto.getWidth() == 40d && widget2Dto.getHeight() == 50d);
+            assertTrue("Error", sut.getWidget(widget1.getGuid()).getzIndex() == 2);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(OffHeapWidgetServiceImplTest.class)
+    public static class getWidgetsLikePagination{
+
+        @Test
+        public void should_return_widgets_sorted_by_zIndex_from_offset_and_after_cursor_when_call_method() {
+
+            //Arrange
+            var sut = new OffHeapWidgetServiceImpl(CELL_SIZE);
+            for (int i = 0; i < 10; i++) {
+                sut.createWidget(1,1,1,1, 9 - i);
+            }
+
+            //Act
+            var page = sut.getWidgets(3, 4);
+            var pageAfter = sut.getWidgetsAfter(3, 7);
+
+            //Assert
+            assertTrue("Error", page.length == 3);
+            assertTrue("Error", page[0].getzIndex() == 4 && page[1].getzIndex() == 5 && page[2].getzIndex() == 6);
+            assertTrue("Error", pageAfter.length == 2);
+            assertTrue("Error", pageAfter[0].getzIndex() == 8 && pageAfter[1].getzIndex() == 9);
+            assertTrue("Error", sut.getAllWidgets().length == 10);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(OffHeapWidgetServiceImplTest.class)
+    public static class filterAndGetWidgets{
+
+        @Test
+        public void should_successful_return_filtered_widgets_when_pass_intersect_area() {
+
+            //Arrange
+            var sut = new OffHeapWidgetServiceImpl(CELL_SIZE);
+
+            var widget1 = sut.createWidget(50,50,100,100, 1);
+            var widget2 = sut.createWidget(50,100,100,100, 2);
+            sut.createWidget(100,100,100,100, 3);
+
+            //Act
+            var filteredWidgets = sut.filterAndGetWidgets(0,0,100,150);
+
+            //Assert
+            assertTrue("Error", filteredWidgets.length == 2);
+            assertTrue("Error", filteredWidgets[0].getGuid().compareTo(widget1.getGuid()) == 0);
+            assertTrue("Error", filteredWidgets[1].getGuid().compareTo(widget2.getGuid()) == 0);
+        }
+
+        @Test
+        public void should_return_filtered_widgets_of_any_size_sorted_by_zIndex_when_widgets_moved_or_removed() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new OffHeapWidgetServiceImpl(CELL_SIZE);
+
+            var small = sut.createWidget(5,5,1,1, 3);
+            var large = sut.createWidget(0,0,1000,1000, 2);
+            var huge = sut.createWidget(0,0,2e12,2e12, 1);
+            var moved = sut.createWidget(500,500,1,1, 4);
+            var removed = sut.createWidget(6,6,1,1, 5);
+
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(4d);
+            widgetLayoutInfo.setY(4d);
+
+            //Act
+            sut.updateWidget(moved.getGuid(), widgetLayoutInfo);
+            sut.removeWidget(removed.getGuid());
+            var filteredWidgets = sut.filterAndGetWidgets(3,3,5,5);
+
+            //Assert
+            assertTrue("Error", filteredWidgets.length == 4);
+            assertTrue("Error", filteredWidgets[0].getGuid().equals(huge.getGuid()));
+            assertTrue("Error", filteredWidgets[1].getGuid().equals(large.getGuid()));
+            assertTrue("Error", filteredWidgets[2].getGuid().equals(small.getGuid()));
+            assertTrue("Error", filteredWidgets[3].getGuid().equals(moved.getGuid()));
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(OffHeapWidgetServiceImplTest.class)
+    public static class applyWidgetOperations{
+
+        @Test
+        public void should_leave_widgets_untouched_when_any_operation_is_invalid() {
+
+            //Arrange
+            var sut = new OffHeapWidgetServiceImpl(CELL_SIZE);
+
+            var widget = sut.createWidget(1,1,1,1, 1);
+            var versionBefore = sut.getVersion();
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(5d);
+            widgetLayoutInfo.setY(5d);
+            widgetLayoutInfo.setWidth(1d);
+            widgetLayoutInfo.setHeight(1d);
+            widgetLayoutInfo.setzIndex(1);
+
+            //Act
+            //Assert
+            assertThatExceptionOfType(WidgetNotFoundException.class).isThrownBy(() -> sut.applyWidgetOperations(List.of(
+                    WidgetOperation.create(widgetLayoutInfo),
+                    WidgetOperation.remove(widget.getGuid()),
+                    WidgetOperation.remove(widget.getGuid()))));
+
+            var widgets = sut.getAllWidgets();
+            assertTrue("Error", sut.getVersion() == versionBefore);
+            assertTrue("Error", widgets.length == 1);
+            assertTrue("Error", widgets[0].getGuid().equals(widget.getGuid()) && widgets[0].getzIndex() == 1);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(OffHeapWidgetServiceImplTest.class)
+    public static class forEachWidget{
+
+        @Test
+        public void should_walk_all_widgets_sorted_by_zIndex_when_widgets_take_several_pages() {
+
+            //Arrange
+            var sut = new OffHeapWidgetServiceImpl(CELL_SIZE);
+            var count = WidgetService.WIDGETS_PAGE_SIZE * 2 + 7;
+            for (int i = 0; i < count; i++) {
+                sut.createWidget(i,i,1,1, count - i);
+            }
+
+            //Act
+            var walked = new ArrayList<Integer>();
+            sut.forEachWidget(widget -> walked.add(widget.getzIndex()));
+
+            //Assert
+            assertTrue("Error", walked.size() == count);
+            for (int i = 0; i < count; i++) {
+                assertTrue("Error", walked.get(i) == i + 1);
+            }
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package com.miro.services.widgetManager;
 
+import com.miro.core.data.internal.WidgetInternal;
 import com.miro.core.data.internal.WidgetLayoutInfo;
+import com.miro.core.data.internal.WidgetOperation;
 import com.miro.core.dto.WidgetDto;
 import com.miro.core.exceptions.WidgetNotFoundException;
+import com.miro.core.mapping.WidgetMapper;
+import com.miro.services.changeFeed.WidgetChange;
+import com.miro.services.queryCache.WidgetQueryCache;
+import com.miro.services.replication.WidgetMutationLog;
+import com.miro.services.widgetJournal.WidgetJournal;
+import com.miro.services.widgetJournal.WidgetJournalRecord;
+import com.miro.services.widgetJournal.WidgetSnapshotFile;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.experimental.theories.*;
@@ -11,9 +20,23 @@ import org.junit.runners.Suite;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.RunnerBuilder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
@@ -31,7 +54,15 @@ import static org.springframework.test.util.AssertionErrors.assertTrue;
         WidgetServiceImplTest.getAllWidgets.class,
         WidgetServiceImplTest.removeWidget.class,
         WidgetServiceImplTest.getWidgetsLikePagination.class,
-        WidgetServiceImplTest.filterAndGetWidgets.class})
+        WidgetServiceImplTest.filterAndGetWidgets.class,
+        WidgetServiceImplTest.applyWidgetOperations.class,
+        WidgetServiceImplTest.replayJournal.class,
+        WidgetServiceImplTest.applyReplicatedRecord.class,
+        WidgetServiceImplTest.publishChanges.class,
+        WidgetServiceImplTest.getChangesSince.class,
+        WidgetServiceImplTest.forEachWidget.class,
+        WidgetServiceImplTest.queryCache.class,
+        WidgetServiceImplTest.optimisticRead.class})
 public class WidgetServiceImplTest  extends Suite
 {
     public static class TheoryParametersFixture{
@@ -214,6 +245,36 @@ public class WidgetServiceImplTest  extends Suite
                 assertTrue("Error", widget6Dto.getUpdatedAtUtc().isAfter(updatedAt6));
             }).doesNotThrowAnyException();
         }
+
+        @Test
+        public void should_keep_insertion_order_reversed_when_repeatedly_pass_bottom_zIndex_parameter() {
+
+            //Arrange
+            var validX = 1d;
+            var validY = 1d;
+            var validWidth = 1d;
+            var validHeight = 1d;
+            var count = 1000;
+            var sut = new WidgetServiceImpl();
+            var createdWidgets = new WidgetDto[count];
+
+            //Act
+            for (int i = 0; i < count; i++) {
+                createdWidgets[i] = sut.createWidget(validX,validY,validWidth,validHeight, 0);
+            }
+
+            //Assert
+            assertThatCode(() -> {
+                for (int i = 0; i < count; i++) {
+                    var widgetDto = sut.getWidget(createdWidgets[i].getGuid());
+                    assertTrue("Error, zIndex wrong ", widgetDto.getzIndex() == count - 1 - i);
+                }
+                var allWidgets = sut.getAllWidgets();
+                for (int i = 0; i < count; i++) {
+                    assertTrue("Error", allWidgets[i].getGuid().compareTo(createdWidgets[count - 1 - i].getGuid()) == 0);
+                }
+            }).doesNotThrowAnyException();
+        }
     }
 
     @RunWith(Theories.class)
@@ -245,6 +306,38 @@ public class WidgetServiceImplTest  extends Suite
             }).doesNotThrowAnyException();
         }
         @Test
+        public void should_return_new_version_when_widget_is_shifted_or_updated_at_the_same_time() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+            var shiftedWidget = sut.createWidget(1, 1, 1, 1, 1);
+            var belowWidget = sut.createWidget(1, 1, 1, 1, 0);
+            var updatedAtUtc = LocalDateTime.of(2019, 5, 1, 12, 30);
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(1);
+            widgetLayoutInfo.setY(1);
+            widgetLayoutInfo.setWidth(1);
+            widgetLayoutInfo.setHeight(1);
+            widgetLayoutInfo.setzIndex(1);
+            var widgetInternal = new WidgetInternal(UUID.randomUUID());
+            widgetInternal.createWidgetLayout(widgetLayoutInfo, updatedAtUtc);
+            var createdVersion = widgetInternal.getLayout().getVersion();
+
+            //Act
+            var shiftedVersion = sut.getWidget(shiftedWidget.getGuid()).getVersion();
+            var belowVersion = sut.getWidget(belowWidget.getGuid()).getVersion();
+            sut.createWidget(1, 1, 1, 1, 1);
+            widgetInternal.updateWidgetLayout(widgetLayoutInfo, updatedAtUtc);
+            var sameTimeVersion = widgetInternal.getLayout().getVersion();
+            widgetInternal.updateWidgetLayout(widgetLayoutInfo, updatedAtUtc.minusSeconds(1));
+            var earlierTimeVersion = widgetInternal.getLayout().getVersion();
+
+            //Assert
+            assertTrue("Error", sut.getWidget(shiftedWidget.getGuid()).getVersion() > shiftedVersion);
+            assertTrue("Error", sut.getWidget(belowWidget.getGuid()).getVersion().equals(belowVersion));
+            assertTrue("Error", createdVersion < sameTimeVersion && sameTimeVersion < earlierTimeVersion);
+        }
+        @Test
         public void should_throw_widget_not_found_exception_when_try_get_widget_with_no_exist_guid() {
 
             //Arrange
@@ -663,6 +756,32 @@ public class WidgetServiceImplTest  extends Suite
                 lastZIndex = widget.getzIndex();
             }
         }
+
+        @Test
+        public void should_return_widgets_of_new_version_when_widgets_changed_after_previous_call() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+
+            var first = sut.createWidget(1d, 1d, 1d, 1d, 1);
+            var second = sut.createWidget(1d, 1d, 1d, 1d, 2);
+            var previousWidgets = sut.getAllWidgets();
+            var previousVersion = sut.getVersion();
+
+            //Act
+            sut.removeWidget(first.getGuid());
+            var third = sut.createWidget(1d, 1d, 1d, 1d, 2);
+            var widgets = sut.getAllWidgets();
+
+            //Assert
+            assertTrue("Error", previousWidgets.length == 2);
+            assertTrue("Error", sut.getVersion() > previousVersion);
+            assertTrue("Error", widgets.length == 2);
+            assertTrue("Error", widgets[0].getGuid().equals(third.getGuid()) && widgets[0].getzIndex() == 2);
+            assertTrue("Error", widgets[1].getGuid().equals(second.getGuid()) && widgets[1].getzIndex() == 3);
+            assertTrue("Error", sut.getWidgets(1, 1)[0].getGuid().equals(second.getGuid()));
+            assertTrue("Error", sut.filterAndGetWidgets(0, 0, 5, 5).length == 2);
+        }
     }
 
     @RunWith(Theories.class)
@@ -708,6 +827,34 @@ public class WidgetServiceImplTest  extends Suite
                 assertThatExceptionOfType(WidgetNotFoundException.class).isThrownBy(() -> { sut.getWidget(guid);});
             }).doesNotThrowAnyException();
         }
+
+        @Test
+        public void should_keep_other_widgets_available_by_guid_when_remove_widget() {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+
+            var validX = 1d;
+            var validY = 1d;
+            var validWidth = 1d;
+            var validHeight = 1d;
+            var widget1 = sut.createWidget(validX,validY,validWidth,validHeight, 1);
+            var widget2 = sut.createWidget(validX,validY,validWidth,validHeight, 1);
+            var widget3 = sut.createWidget(validX,validY,validWidth,validHeight, 5);
+
+            //Act
+            //Assert
+            assertThatCode(() -> {
+                sut.removeWidget(widget2.getGuid());
+                assertThatExceptionOfType(WidgetNotFoundException.class).isThrownBy(() -> { sut.removeWidget(widget2.getGuid());});
+
+                var widget1Dto = sut.getWidget(widget1.getGuid());
+                assertTrue("Error, zIndex wrong ", widget1Dto.getzIndex() == 2);
+                var widget3Dto = sut.getWidget(widget3.getGuid());
+                assertTrue("Error, zIndex wrong ", widget3Dto.getzIndex() == 5);
+                assertTrue("Error", sut.getAllWidgets().length == 2);
+            }).doesNotThrowAnyException();
+        }
     }
 
     @RunWith(Theories.class)
@@ -756,6 +903,38 @@ public class WidgetServiceImplTest  extends Suite
             assertTrue("Error", widgets1[4].getGuid().compareTo(widget5.getGuid()) == 0);
             assertTrue("Error", widgets1[5].getGuid().compareTo(widget6.getGuid()) == 0);
         }
+
+        @Test
+        public void should_return_widgets_sorted_by_zIndex_after_cursor_and_limited_by_limit_parameters_when_call_method() {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+
+            var validX = 1d;
+            var validY = 1d;
+            var validWidth = 1d;
+            var validHeight = 1d;
+            sut.createWidget(validX,validY,validWidth,validHeight, 1);
+            sut.createWidget(validX,validY,validWidth,validHeight, 4);
+            var widget3 = sut.createWidget(validX,validY,validWidth,validHeight, 10);
+            var widget4 = sut.createWidget(validX,validY,validWidth,validHeight, 11);
+            var widget5 = sut.createWidget(validX,validY,validWidth,validHeight, 30);
+
+            //Act
+            var widgets = sut.getWidgetsAfter(2, 4);
+            var widgets1 = sut.getWidgetsAfter(10, 11);
+            var widgets2 = sut.getWidgetsAfter(10, 30);
+
+            //Assert
+            assertTrue("Error", widgets.length == 2);
+            assertTrue("Error", widgets[0].getGuid().compareTo(widget3.getGuid()) == 0);
+            assertTrue("Error", widgets[1].getGuid().compareTo(widget4.getGuid()) == 0);
+
+            assertTrue("Error", widgets1.length == 1);
+            assertTrue("Error", widgets1[0].getGuid().compareTo(widget5.getGuid()) == 0);
+
+            assertTrue("Error", widgets2.length == 0);
+        }
     }
 
     @RunWith(Theories.class)
@@ -814,5 +993,860 @@ public class WidgetServiceImplTest  extends Suite
             assertTrue("Error", filteredWidgets[0].getGuid().compareTo(widget1.getGuid()) == 0);
             assertTrue("Error", filteredWidgets[1].getGuid().compareTo(widget2.getGuid()) == 0);
         }
+
+        @Test
+        public void should_return_filtered_widgets_sorted_by_zIndex_when_widgets_moved_or_removed() {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+
+            var widget1 = sut.createWidget(50,50,100,100, 5);
+            var widget2 = sut.createWidget(50,100,100,100, 2);
+            var widget3 = sut.createWidget(10,10,10,10, 3);
+            var widget4 = sut.createWidget(500,500,10,10, 1);
+
+            //Act
+            //Assert
+            assertThatCode(() -> {
+                var movedLayout = new WidgetLayoutInfo();
+                movedLayout.setX(400);
+                movedLayout.setY(400);
+                sut.updateWidget(widget1.getGuid(), movedLayout);
+
+                var returnedLayout = new WidgetLayoutInfo();
+                returnedLayout.setX(20);
+                returnedLayout.setY(20);
+                returnedLayout.setzIndex(0);
+                sut.updateWidget(widget4.getGuid(), returnedLayout);
+
+                sut.removeWidget(widget3.getGuid());
+
+                var filteredWidgets = sut.filterAndGetWidgets(0,0,100,150);
+                assertTrue("Error", filteredWidgets.length == 2);
+                assertTrue("Error", filteredWidgets[0].getGuid().compareTo(widget4.getGuid()) == 0);
+                assertTrue("Error", filteredWidgets[1].getGuid().compareTo(widget2.getGuid()) == 0);
+            }).doesNotThrowAnyException();
+        }
+
+        @Test
+        public void should_return_the_same_filtered_widgets_when_all_widgets_were_read_before() {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+
+            var widget1 = sut.createWidget(50,50,100,100, 5);
+            var widget2 = sut.createWidget(50,100,100,100, 2);
+            sut.createWidget(500,500,10,10, 1);
+            var liveWidgets = sut.filterAndGetWidgets(0,0,100,150);
+
+            //Act
+            sut.getAllWidgets();
+            var filteredWidgets = sut.filterAndGetWidgets(0,0,100,150);
+
+            //Assert
+            assertTrue("Error", liveWidgets.length == 2);
+            assertTrue("Error", filteredWidgets.length == 2);
+            assertTrue("Error", filteredWidgets[0].getGuid().equals(widget2.getGuid()) && filteredWidgets[0].getGuid().equals(liveWidgets[0].getGuid()));
+            assertTrue("Error", filteredWidgets[1].getGuid().equals(widget1.getGuid()) && filteredWidgets[1].getGuid().equals(liveWidgets[1].getGuid()));
+            assertTrue("Error", filteredWidgets[1].getUpdatedAtUtc().equals(liveWidgets[1].getUpdatedAtUtc()));
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetServiceImplTest.class)
+    public static class applyWidgetOperations{
+
+        private static WidgetLayoutInfo layout(double x, double y, Integer zIndex) {
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(x);
+            widgetLayoutInfo.setY(y);
+            widgetLayoutInfo.setWidth(1);
+            widgetLayoutInfo.setHeight(1);
+            if(zIndex != null)
+                widgetLayoutInfo.setzIndex(zIndex);
+            return widgetLayoutInfo;
+        }
+
+        @Test
+        public void should_apply_operations_in_order_when_pass_create_update_and_remove_operations() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+
+            var widget1 = sut.createWidget(1,1,1,1, 1);
+            var widget2 = sut.createWidget(1,1,1,1, 2);
+            var versionBefore = sut.getVersion();
+
+            var movedLayout = new WidgetLayoutInfo();
+            movedLayout.setX(10);
+            movedLayout.setzIndex(1);
+
+            //Act
+            var result = sut.applyWidgetOperations(List.of(
+                    WidgetOperation.create(layout(5, 5, 1)),
+                    WidgetOperation.update(widget2.getGuid(), movedLayout),
+                    WidgetOperation.remove(widget1.getGuid()),
+                    WidgetOperation.create(layout(7, 7, null))));
+
+            //Assert
+            var widgets = sut.getAllWidgets();
+            assertTrue("Error", sut.getVersion() == versionBefore + 1);
+            assertTrue("Error", result.length == 4);
+            assertTrue("Error", result[2] == null);
+            assertTrue("Error", widgets.length == 3);
+            assertTrue("Error", widgets[0].getGuid().equals(widget2.getGuid()) && widgets[0].getzIndex() == 1 && widgets[0].getX() == 10);
+            assertTrue("Error", widgets[1].getGuid().equals(result[0].getGuid()) && widgets[1].getzIndex() == 2);
+            assertTrue("Error", widgets[2].getGuid().equals(result[3].getGuid()) && widgets[2].getzIndex() == 3);
+            assertTrue("Error", result[1].getzIndex() == 1 && result[0].getzIndex() == 2);
+        }
+
+        @Test
+        public void should_leave_widgets_untouched_when_any_operation_is_invalid() {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+
+            var widget = sut.createWidget(1,1,1,1, 1);
+            var versionBefore = sut.getVersion();
+
+            //Act
+            //Assert
+            assertThatExceptionOfType(WidgetNotFoundException.class).isThrownBy(() -> sut.applyWidgetOperations(List.of(
+                    WidgetOperation.create(layout(5, 5, 1)),
+                    WidgetOperation.remove(widget.getGuid()),
+                    WidgetOperation.remove(widget.getGuid()))));
+            assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> sut.applyWidgetOperations(List.of(
+                    WidgetOperation.create(layout(5, 5, 1)),
+                    WidgetOperation.create(layout(-5, 5, 1)))));
+
+            var widgets = sut.getAllWidgets();
+            assertTrue("Error", sut.getVersion() == versionBefore);
+            assertTrue("Error", widgets.length == 1);
+            assertTrue("Error", widgets[0].getGuid().equals(widget.getGuid()) && widgets[0].getzIndex() == 1);
+        }
+
+        @Test
+        public void should_keep_guid_of_created_widget_and_reject_existing_guid_when_create_operation_has_guid() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+            var guid = UUID.randomUUID();
+
+            //Act
+            var result = sut.applyWidgetOperations(List.of(WidgetOperation.create(guid, layout(5, 5, 1))));
+
+            //Assert
+            assertTrue("Error", result[0].getGuid().equals(guid));
+            assertTrue("Error", sut.getWidget(guid).getzIndex() == 1);
+            assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> sut.applyWidgetOperations(List.of(
+                    WidgetOperation.create(guid, layout(1, 1, 2)))));
+            assertTrue("Error", sut.getAllWidgets().length == 1);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetServiceImplTest.class)
+    public static class replayJournal{
+
+        @Test
+        public void should_restore_the_same_widgets_when_replay_journal_after_restart() throws IOException, WidgetNotFoundException {
+
+            //Arrange
+            var journalPath = Files.createTempFile("widgets", ".journal");
+            Files.delete(journalPath);
+
+            var journal = new WidgetJournal(journalPath);
+            var sut = new WidgetServiceImpl(journal);
+            var widget1 = sut.createWidget(1,1,1,1, 1);
+            var widget2 = sut.createWidget(2,2,2,2, null);
+            sut.createWidget(3,3,3,3, 1);
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(10d);
+            widgetLayoutInfo.setzIndex(0);
+            sut.updateWidget(widget2.getGuid(), widgetLayoutInfo);
+            sut.removeWidget(widget1.getGuid());
+            var widgetsBeforeRestart = sut.getAllWidgets();
+            journal.close();
+
+            //Act
+            var restartedJournal = new WidgetJournal(journalPath);
+            var widgetsAfterRestart = new WidgetServiceImpl(restartedJournal).getAllWidgets();
+            restartedJournal.close();
+            Files.delete(journalPath);
+
+            //Assert
+            assertTrue("Error", widgetsAfterRestart.length == widgetsBeforeRestart.length);
+            for (int i = 0; i < widgetsBeforeRestart.length; i++) {
+                assertTrue("Error", widgetsAfterRestart[i].getGuid().equals(widgetsBeforeRestart[i].getGuid()));
+                assertTrue("Error", widgetsAfterRestart[i].getzIndex().equals(widgetsBeforeRestart[i].getzIndex()));
+                assertTrue("Error", widgetsAfterRestart[i].getX().equals(widgetsBeforeRestart[i].getX()));
+                assertTrue("Error", widgetsAfterRestart[i].getUpdatedAtUtc().isEqual(widgetsBeforeRestart[i].getUpdatedAtUtc()));
+            }
+        }
+
+        @Test
+        public void should_skip_torn_tail_when_replay_journal_after_crash() throws IOException {
+
+            //Arrange
+            var journalPath = Files.createTempFile("widgets", ".journal");
+            Files.delete(journalPath);
+
+            var journal = new WidgetJournal(journalPath);
+            var widget = new WidgetServiceImpl(journal).createWidget(1,1,1,1, 1);
+            journal.close();
+            Files.write(journalPath, new byte[] {0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+            //Act
+            var restartedJournal = new WidgetJournal(journalPath);
+            var sut = new WidgetServiceImpl(restartedJournal);
+            var createdAfterRestart = sut.createWidget(2,2,2,2, null);
+            var widgets = sut.getAllWidgets();
+            restartedJournal.close();
+            Files.delete(journalPath);
+
+            //Assert
+            assertTrue("Error", widgets.length == 2);
+            assertTrue("Error", widgets[0].getGuid().equals(widget.getGuid()));
+            assertTrue("Error", widgets[1].getGuid().equals(createdAfterRestart.getGuid()) && widgets[1].getzIndex() == 2);
+        }
+
+        @Test
+        public void should_restore_the_same_widgets_from_snapshot_and_journal_tail_when_restart() throws IOException, WidgetNotFoundException {
+
+            //Arrange
+            var directory = Files.createTempDirectory("widgets");
+            var journalPath = directory.resolve("widgets.journal");
+            var snapshotPath = directory.resolve("widgets.snapshot");
+
+            var journal = new WidgetJournal(journalPath);
+            var sut = new WidgetServiceImpl(journal, new WidgetSnapshotFile(snapshotPath));
+            var widget1 = sut.createWidget(1,1,1,1, 1);
+            var widget2 = sut.createWidget(2,2,2,2, 2);
+            var journalSizeBeforeSnapshot = Files.size(journalPath);
+            sut.writeSnapshot();
+            var journalSizeAfterSnapshot = Files.size(journalPath);
+            sut.createWidget(3,3,3,3, 1);
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setY(20d);
+            sut.updateWidget(widget2.getGuid(), widgetLayoutInfo);
+            sut.removeWidget(widget1.getGuid());
+            var widgetsBeforeRestart = sut.getAllWidgets();
+            journal.close();
+
+            //Act
+            var restartedJournal = new WidgetJournal(journalPath);
+            var restarted = new WidgetServiceImpl(restartedJournal, new WidgetSnapshotFile(snapshotPath));
+            var widgetsAfterRestart = restarted.getAllWidgets();
+            var filteredWidgets = restarted.filterAndGetWidgets(0,0,10,10);
+            restartedJournal.close();
+            Files.delete(journalPath);
+            Files.delete(snapshotPath);
+            Files.delete(directory);
+
+            //Assert
+            assertTrue("Error", journalSizeAfterSnapshot < journalSizeBeforeSnapshot);
+            assertTrue("Error", restarted.getVersion() == sut.getVersion());
+            assertTrue("Error", widgetsAfterRestart.length == widgetsBeforeRestart.length);
+            for (int i = 0; i < widgetsBeforeRestart.length; i++) {
+                assertTrue("Error", widgetsAfterRestart[i].getGuid().equals(widgetsBeforeRestart[i].getGuid()));
+                assertTrue("Error", widgetsAfterRestart[i].getzIndex().equals(widgetsBeforeRestart[i].getzIndex()));
+                assertTrue("Error", widgetsAfterRestart[i].getY().equals(widgetsBeforeRestart[i].getY()));
+                assertTrue("Error", widgetsAfterRestart[i].getUpdatedAtUtc().isEqual(widgetsBeforeRestart[i].getUpdatedAtUtc()));
+            }
+            assertTrue("Error", filteredWidgets.length == 1);
+        }
+
+        @Test
+        public void should_leave_widgets_and_changes_untouched_when_journal_rejects_the_change() throws IOException, WidgetNotFoundException, InterruptedException {
+
+            //Arrange
+            var journalPath = Files.createTempFile("widgets", ".journal");
+            Files.delete(journalPath);
+
+            var journal = new WidgetJournal(journalPath);
+            var changeLog = new WidgetMutationLog<WidgetChange>(100);
+            var sut = new WidgetServiceImpl(journal, null, null, changeLog);
+            var widget = sut.createWidget(1,1,1,1, 1);
+            var versionBeforeClose = sut.getVersion();
+            journal.close();
+            Files.delete(journalPath);
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(10d);
+            widgetLayoutInfo.setY(10d);
+            widgetLayoutInfo.setWidth(10d);
+            widgetLayoutInfo.setHeight(10d);
+
+            //Act
+            assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> { sut.createWidget(2,2,2,2, 0);});
+            assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> { sut.updateWidget(widget.getGuid(), widgetLayoutInfo);});
+            assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> { sut.removeWidget(widget.getGuid());});
+            assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> {
+                sut.applyWidgetOperations(List.of(WidgetOperation.create(widgetLayoutInfo), WidgetOperation.remove(widget.getGuid())));});
+            var widgets = sut.getAllWidgets();
+            var changes = changeLog.read(0, 100, 0);
+
+            //Assert
+            assertTrue("Error", sut.getVersion() == versionBeforeClose);
+            assertTrue("Error", widgets.length == 1);
+            assertTrue("Error", widgets[0].getGuid().equals(widget.getGuid()) && widgets[0].getzIndex() == 1 && widgets[0].getX() == 1d);
+            assertTrue("Error", changes.size() == 1 && changes.get(0).getDto().getDeltas().length == 1);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetServiceImplTest.class)
+    public static class applyReplicatedRecord{
+
+        @Test
+        public void should_have_the_same_widgets_on_replica_when_apply_primary_changes_in_order() throws WidgetNotFoundException, InterruptedException {
+
+            //Arrange
+            var widgetMapper = WidgetMapper.INSTANCE;
+            var mutationLog = new WidgetMutationLog<WidgetJournalRecord>(100);
+            var primary = new WidgetServiceImpl(null, null, mutationLog);
+            var replica = new WidgetServiceImpl();
+            var widget1 = primary.createWidget(0,0,10,10, 1);
+            var widget2 = primary.createWidget(5,5,10,10, 1);
+            var widget3 = primary.createWidget(20,20,10,10, null);
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(50);
+            primary.updateWidget(widget1.getGuid(), widgetLayoutInfo);
+            primary.removeWidget(widget3.getGuid());
+
+            //Act
+            var records = mutationLog.read(replica.getVersion(), 100, 0);
+            for (int i = 0; i < records.size(); i++) {
+                var mutation = widgetMapper.map(replica.getVersion() + 1, records.get(i));
+                replica.applyReplicatedRecord(mutation.getVersion(), widgetMapper.map(mutation));
+            }
+            var primaryWidgets = primary.getAllWidgets();
+            var replicaWidgets = replica.getAllWidgets();
+
+            //Assert
+            assertTrue("Error", replica.getVersion() == primary.getVersion());
+            assertTrue("Error", replicaWidgets.length == 2);
+            for (int i = 0; i < primaryWidgets.length; i++) {
+                assertTrue("Error", replicaWidgets[i].getGuid().equals(primaryWidgets[i].getGuid()));
+                assertTrue("Error", replicaWidgets[i].getX().equals(primaryWidgets[i].getX()));
+                assertTrue("Error", replicaWidgets[i].getzIndex().equals(primaryWidgets[i].getzIndex()));
+                assertTrue("Error", replicaWidgets[i].getUpdatedAtUtc().isEqual(primaryWidgets[i].getUpdatedAtUtc()));
+            }
+            assertTrue("Error", replica.filterAndGetWidgets(40,0,70,20).length == 1);
+            assertTrue("Error", replicaWidgets[0].getGuid().equals(widget2.getGuid()));
+        }
+
+        @Test
+        public void should_reject_gap_and_continue_after_restore_snapshot_when_replica_is_behind() throws IOException, WidgetNotFoundException, InterruptedException {
+
+            //Arrange
+            var widgetMapper = WidgetMapper.INSTANCE;
+            var mutationLog = new WidgetMutationLog<WidgetJournalRecord>(2);
+            var primary = new WidgetServiceImpl(null, null, mutationLog);
+            var replica = new WidgetServiceImpl();
+            primary.createWidget(0,0,10,10, 1);
+            primary.createWidget(5,5,10,10, 2);
+            var widget3 = primary.createWidget(20,20,10,10, 3);
+            var lastRecord = mutationLog.read(primary.getVersion() - 1, 1, 0).get(0);
+
+            //Act
+            var droppedRecords = mutationLog.read(replica.getVersion(), 100, 0);
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(() -> replica.applyReplicatedRecord(primary.getVersion(), lastRecord));
+            var stream = new ByteArrayOutputStream();
+            WidgetSnapshotFile.write(primary.getSnapshot(), Channels.newChannel(stream));
+            var replicaInstanceId = replica.getInstanceId();
+            replica.restoreSnapshot(WidgetSnapshotFile.read(Channels.newChannel(new ByteArrayInputStream(stream.toByteArray()))));
+            primary.removeWidget(widget3.getGuid());
+            var records = mutationLog.read(replica.getVersion(), 100, 0);
+            replica.applyReplicatedRecord(replica.getVersion() + 1, records.get(0));
+
+            //Assert
+            assertTrue("Error", droppedRecords == null);
+            assertTrue("Error", replica.getVersion() == primary.getVersion());
+            assertTrue("Error", !replica.getInstanceId().equals(replicaInstanceId) && !replica.getInstanceId().equals(primary.getInstanceId()));
+            assertTrue("Error", replica.getAllWidgets().length == 2);
+            assertThatExceptionOfType(WidgetNotFoundException.class).isThrownBy(() -> replica.getWidget(widget3.getGuid()));
+            assertTrue("Error", widgetMapper.map(replica.getVersion(), records.get(0)).getOperations()[0].getType().equals("delete"));
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetServiceImplTest.class)
+    public static class publishChanges{
+
+        @Test
+        public void should_rebuild_the_same_widgets_from_deltas_when_apply_changes_in_order() throws WidgetNotFoundException, InterruptedException {
+
+            //Arrange
+            var changeLog = new WidgetMutationLog<WidgetChange>(100);
+            var sut = new WidgetServiceImpl(null, null, null, changeLog);
+            var widget1 = sut.createWidget(0,0,10,10, 1);
+            var widget2 = sut.createWidget(5,5,10,10, 2);
+            sut.createWidget(20,20,10,10, 1);
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(50);
+            widgetLayoutInfo.setzIndex(2);
+            sut.updateWidget(widget2.getGuid(), widgetLayoutInfo);
+            sut.removeWidget(widget1.getGuid());
+
+            //Act
+            var client = new ArrayList<WidgetDto>();
+            var changes = changeLog.read(0, 100, 0);
+            for (var change : changes) {
+                for (var delta : change.getDto().getDeltas()) {
+                    switch (delta.getType()) {
+                        case "shift":
+                            for (var widget : client) {
+                                if(widget.getzIndex() >= delta.getzIndex())
+                                    widget.setzIndex(widget.getzIndex() + 1);
+                            }
+                            break;
+                        case "delete":
+                            client.removeIf(widget -> widget.getGuid().equals(delta.getGuid()));
+                            break;
+                        default:
+                            client.removeIf(widget -> widget.getGuid().equals(delta.getGuid()));
+                            client.add(delta.getWidget());
+                    }
+                }
+            }
+            client.sort((left, right) -> left.getzIndex().compareTo(right.getzIndex()));
+            var widgets = sut.getAllWidgets();
+
+            //Assert
+            assertTrue("Error", changes.size() == 5);
+            assertTrue("Error", changes.get(2).getDto().getDeltas()[0].getType().equals("shift"));
+            assertTrue("Error", changes.get(4).getVersion() == sut.getVersion());
+            assertTrue("Error", client.size() == widgets.length);
+            for (int i = 0; i < widgets.length; i++) {
+                assertTrue("Error", client.get(i).getGuid().equals(widgets[i].getGuid()));
+                assertTrue("Error", client.get(i).getX().equals(widgets[i].getX()));
+                assertTrue("Error", client.get(i).getzIndex().equals(widgets[i].getzIndex()));
+            }
+        }
+
+        @Test
+        public void should_select_only_deltas_touching_viewport_when_widget_moves_out_of_it() throws WidgetNotFoundException, InterruptedException {
+
+            //Arrange
+            var changeLog = new WidgetMutationLog<WidgetChange>(100);
+            var sut = new WidgetServiceImpl(null, null, null, changeLog);
+            var inside = sut.createWidget(0,0,10,10, 1);
+            sut.createWidget(500,500,10,10, 2);
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(500);
+            sut.updateWidget(inside.getGuid(), widgetLayoutInfo);
+            sut.createWidget(600,600,10,10, 1);
+
+            //Act
+            var changes = changeLog.read(0, 100, 0);
+            var selected = new ArrayList<String>();
+            for (var change : changes) {
+                var dto = change.select(0, 0, 100, 100);
+                if(dto != null)
+                    selected.add(dto.getDeltas()[0].getType());
+            }
+
+            //Assert
+            assertTrue("Error", selected.equals(List.of("create", "update", "shift")));
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetServiceImplTest.class)
+    public static class getChangesSince{
+
+        @Test
+        public void should_return_changed_and_shifted_widgets_and_removed_guids_when_pass_version() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new WidgetServiceImpl(null, null, null, new WidgetMutationLog<WidgetChange>(100));
+            var bottom = sut.createWidget(0,0,10,10, 1);
+            var middle = sut.createWidget(0,0,10,10, 5);
+            var top = sut.createWidget(0,0,10,10, 6);
+            var removed = sut.createWidget(0,0,10,10, 10);
+            var syncedVersion = sut.getVersion();
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(50);
+            sut.updateWidget(bottom.getGuid(), widgetLayoutInfo);
+            var inserted = sut.createWidget(0,0,10,10, 6);
+            sut.removeWidget(removed.getGuid());
+
+            //Act
+            var result = sut.getChangesSince(syncedVersion);
+            var unchanged = sut.getChangesSince(sut.getVersion());
+
+            //Assert
+            assertTrue("Error", result.getVersion() == sut.getVersion());
+            assertTrue("Error", result.getWidgets().length == 3);
+            assertTrue("Error", result.getWidgets()[0].getGuid().equals(bottom.getGuid()));
+            assertTrue("Error", result.getWidgets()[1].getGuid().equals(inserted.getGuid()));
+            assertTrue("Error", result.getWidgets()[2].getGuid().equals(top.getGuid()));
+            assertTrue("Error", result.getWidgets()[2].getzIndex().equals(7));
+            assertTrue("Error", Arrays.asList(result.getRemovedGuids()).equals(List.of(removed.getGuid())));
+            assertTrue("Error", Arrays.stream(result.getWidgets()).noneMatch(widget -> widget.getGuid().equals(middle.getGuid())));
+            assertTrue("Error", unchanged.getWidgets().length == 0 && unchanged.getRemovedGuids().length == 0);
+        }
+
+        @Test
+        public void should_return_null_when_changes_after_version_are_not_kept() {
+
+            //Arrange
+            var sut = new WidgetServiceImpl(null, null, null, new WidgetMutationLog<WidgetChange>(2));
+            for (int i = 0; i < 3; i++) {
+                sut.createWidget(0,0,10,10, null);
+            }
+
+            //Act
+            var result = sut.getChangesSince(0);
+
+            //Assert
+            assertTrue("Error", result == null);
+            assertTrue("Error", sut.getChangesSince(1) != null);
+            assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> new WidgetServiceImpl().getChangesSince(0));
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetServiceImplTest.class)
+    public static class forEachWidget{
+
+        @Test
+        public void should_walk_the_version_read_at_start_when_widgets_change_during_walk() throws WidgetNotFoundException {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+            var widget1 = sut.createWidget(0,0,10,10, 1);
+            var widget2 = sut.createWidget(0,0,10,10, 2);
+            var allWidgets = sut.getAllWidgets();
+
+            //Act
+            var walked = new ArrayList<WidgetDto>();
+            sut.forEachWidget(widget -> {
+                if(walked.isEmpty()){
+                    try {
+                        sut.removeWidget(widget2.getGuid());
+                    }
+                    catch (WidgetNotFoundException e){
+                        throw new IllegalStateException(e);
+                    }
+                }
+                walked.add(widget);
+            });
+
+            //Assert
+            assertTrue("Error", walked.size() == allWidgets.length);
+            assertTrue("Error", walked.get(0).getGuid().equals(widget1.getGuid()));
+            assertTrue("Error", walked.get(1).getGuid().equals(widget2.getGuid()));
+            assertTrue("Error", sut.getAllWidgets().length == 1);
+        }
+    }
+
+    public static class queryCache{
+
+        private static WidgetLayoutInfo layout(double x, double y, Integer zIndex) {
+            var widgetLayoutInfo = new WidgetLayoutInfo();
+            widgetLayoutInfo.setX(x);
+            widgetLayoutInfo.setY(y);
+            widgetLayoutInfo.setWidth(10);
+            widgetLayoutInfo.setHeight(10);
+            if(zIndex != null)
+                widgetLayoutInfo.setzIndex(zIndex);
+            return widgetLayoutInfo;
+        }
+
+        private static boolean isSame(WidgetDto[] widgets, WidgetDto[] expected) {
+            if(widgets.length != expected.length)
+                return false;
+            for (int i = 0; i < widgets.length; i++) {
+                if(!widgets[i].getGuid().equals(expected[i].getGuid())
+                        || !widgets[i].getzIndex().equals(expected[i].getzIndex())
+                        || !widgets[i].getX().equals(expected[i].getX())
+                        || !widgets[i].getY().equals(expected[i].getY()))
+                    return false;
+            }
+            return true;
+        }
+
+        @Test
+        public void should_return_the_same_widgets_as_uncached_service_when_widgets_change_between_queries() throws WidgetNotFoundException {
+
+            //Arrange
+            var cache = new WidgetQueryCache(1000);
+            var sut = new WidgetServiceImpl(null, null, null, null, cache);
+            var expected = new WidgetServiceImpl();
+            var random = new Random(7);
+            var guids = new ArrayList<UUID>();
+
+            for (int step = 0; step < 500; step++) {
+                //Act
+                var operation = random.nextInt(4);
+                WidgetOperation widgetOperation;
+                if(guids.isEmpty() || operation == 0){
+                    var guid = UUID.randomUUID();
+                    guids.add(guid);
+                    widgetOperation = WidgetOperation.create(guid, layout(random.nextInt(100), random.nextInt(100), random.nextInt(3) == 0 ? null : random.nextInt(40)));
+                }
+                else if(operation == 3 && guids.size() > 10){
+                    widgetOperation = WidgetOperation.remove(guids.remove(random.nextInt(guids.size())));
+                }
+                else {
+                    var guid = guids.get(random.nextInt(guids.size()));
+                    widgetOperation = WidgetOperation.update(guid, random.nextBoolean()
+                            ? layout(random.nextInt(100), random.nextInt(100), null)
+                            : layout(random.nextInt(100), random.nextInt(100), random.nextInt(40)));
+                }
+                sut.applyWidgetOperations(List.of(widgetOperation));
+                expected.applyWidgetOperations(List.of(widgetOperation));
+
+                //Assert
+                for (int query = 0; query < 4; query++) {
+                    var x = 10 * query;
+                    assertTrue("Error", isSame(sut.filterAndGetWidgets(x, x, 30, 30), expected.filterAndGetWidgets(x, x, 30, 30)));
+                    assertTrue("Error", isSame(sut.getWidgets(5, 5 * query), expected.getWidgets(5, 5 * query)));
+                    assertTrue("Error", isSame(sut.getWidgetsAfter(5, 10 * query), expected.getWidgetsAfter(5, 10 * query)));
+                }
+            }
+            var stats = cache.getStats();
+            assertTrue("Error", stats.getHits() > 0 && stats.getInvalidations() > 0);
+        }
+
+        @Test
+        public void should_keep_cached_filter_result_when_widgets_outside_of_area_change() throws WidgetNotFoundException {
+
+            //Arrange
+            var cache = new WidgetQueryCache(1000);
+            var sut = new WidgetServiceImpl(null, null, null, null, cache);
+            var inside = sut.createWidget(0, 0, 10, 10, 1);
+            var outside = sut.createWidget(100, 100, 10, 10, 2);
+            sut.filterAndGetWidgets(0, 0, 20, 20);
+
+            //Act
+            var updateInfo = new WidgetLayoutInfo();
+            updateInfo.setX(200d);
+            sut.updateWidget(outside.getGuid(), updateInfo);
+            var keptResult = sut.filterAndGetWidgets(0, 0, 20, 20);
+            var keptStats = cache.getStats();
+            sut.removeWidget(inside.getGuid());
+            var changedResult = sut.filterAndGetWidgets(0, 0, 20, 20);
+            var changedStats = cache.getStats();
+
+            //Assert
+            assertTrue("Error", keptResult.length == 1 && keptResult[0].getGuid().equals(inside.getGuid()));
+            assertTrue("Error", keptStats.getHits() == 1 && keptStats.getMisses() == 1 && keptStats.getInvalidations() == 0);
+            assertTrue("Error", changedResult.length == 0);
+            assertTrue("Error", changedStats.getMisses() == 2 && changedStats.getInvalidations() == 1);
+        }
+
+        @Test
+        public void should_return_the_same_widgets_as_uncached_service_when_results_span_grid_cells_and_get_evicted() throws WidgetNotFoundException {
+
+            //Arrange
+            var cache = new WidgetQueryCache(60);
+            var sut = new WidgetServiceImpl(null, null, null, null, cache);
+            var expected = new WidgetServiceImpl();
+            var random = new Random(13);
+            var guids = new ArrayList<UUID>();
+            double[] areaSizes = {50, 700, 20000};
+
+            for (int step = 0; step < 400; step++) {
+                //Act
+                WidgetOperation widgetOperation;
+                if(guids.size() < 20 || random.nextInt(3) == 0){
+                    var guid = UUID.randomUUID();
+                    guids.add(guid);
+                    widgetOperation = WidgetOperation.create(guid, layout(random.nextInt(3000), random.nextInt(3000), random.nextBoolean() ? null : random.nextInt(60)));
+                }
+                else if(random.nextInt(4) == 0){
+                    widgetOperation = WidgetOperation.remove(guids.remove(random.nextInt(guids.size())));
+                }
+                else {
+                    widgetOperation = WidgetOperation.update(guids.get(random.nextInt(guids.size())),
+                            layout(random.nextInt(3000), random.nextInt(3000), random.nextInt(3) == 0 ? random.nextInt(60) : null));
+                }
+                sut.applyWidgetOperations(List.of(widgetOperation));
+                expected.applyWidgetOperations(List.of(widgetOperation));
+
+                //Assert
+                for (int query = 0; query < 6; query++) {
+                    var x = 500 * query;
+                    var size = areaSizes[query % areaSizes.length];
+                    assertTrue("Error", isSame(sut.filterAndGetWidgets(x, x, size, size), expected.filterAndGetWidgets(x, x, size, size)));
+                    assertTrue("Error", isSame(sut.getWidgets(4, 4 * query), expected.getWidgets(4, 4 * query)));
+                    assertTrue("Error", isSame(sut.getWidgetsAfter(4, 12 * query), expected.getWidgetsAfter(4, 12 * query)));
+                }
+            }
+            var stats = cache.getStats();
+            assertTrue("Error", stats.getHits() > 0 && stats.getInvalidations() > 0 && stats.getEvictions() > 0);
+            assertTrue("Error", stats.getWidgets() + stats.getEntries() <= 60);
+        }
+
+        @Test
+        public void should_evict_not_recently_used_result_when_cache_is_full() {
+
+            //Arrange
+            var sut = new WidgetQueryCache(3);
+            var first = WidgetQueryCache.Query.page(10, 0);
+            var second = WidgetQueryCache.Query.page(10, 10);
+            var third = WidgetQueryCache.Query.page(10, 20);
+            var fourth = WidgetQueryCache.Query.page(10, 30);
+            sut.put(first, 0, new WidgetDto[0]);
+            sut.put(second, 0, new WidgetDto[0]);
+            sut.put(third, 0, new WidgetDto[0]);
+
+            //Act
+            sut.get(first);
+            sut.put(fourth, 0, new WidgetDto[0]);
+
+            //Assert
+            assertTrue("Error", sut.get(first) != null);
+            assertTrue("Error", sut.get(second) == null);
+            assertTrue("Error", sut.get(third) != null && sut.get(fourth) != null);
+            assertTrue("Error", sut.getStats().getEvictions() == 1);
+        }
+    }
+
+    @RunWith(Theories.class)
+    @Category(WidgetServiceImplTest.class)
+    public static class optimisticRead{
+
+        private static boolean isSortedByZIndex(WidgetDto[] widgets) {
+            for (int i = 1; i < widgets.length; i++) {
+                if(widgets[i - 1].getzIndex() >= widgets[i].getzIndex())
+                    return false;
+            }
+            return true;
+        }
+
+        @Test(timeout = 120000)
+        public void should_return_consistent_widgets_without_exceptions_when_reads_race_writes() throws Exception {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+            var pinned = sut.createWidget(50,50,10,10, 0);
+            for (int i = 0; i < 200; i++) {
+                sut.createWidget(i % 100, i % 70, 5, 5, null);
+            }
+            var writing = new AtomicBoolean(true);
+            var executor = Executors.newFixedThreadPool(5);
+
+            //Act
+            try {
+                var writer = executor.submit(() -> {
+                    var random = new Random(11);
+                    var created = new ArrayList<UUID>();
+                    try {
+                        for (int i = 0; i < 3000; i++) {
+                            // A widget at the bottom shifts all the widgets above it
+                            created.add(sut.createWidget(random.nextInt(100), random.nextInt(100), 5, 5, 0).getGuid());
+                            var widgetLayoutInfo = new WidgetLayoutInfo();
+                            widgetLayoutInfo.setX((double) random.nextInt(100));
+                            widgetLayoutInfo.setzIndex(random.nextInt(created.size()));
+                            sut.updateWidget(created.get(random.nextInt(created.size())), widgetLayoutInfo);
+                            if(i % 3 == 0)
+                                sut.removeWidget(created.remove(random.nextInt(created.size())));
+                        }
+                    }
+                    finally {
+                        writing.set(false);
+                    }
+                    return null;
+                });
+                var readers = new ArrayList<Future<Integer>>();
+                for (int r = 0; r < 4; r++) {
+                    readers.add(executor.submit(() -> {
+                        var reads = 0;
+                        var random = new Random();
+                        while (writing.get() || reads == 0) {
+                            var page = sut.getWidgets(20, random.nextInt(300));
+                            assertTrue("Error", page.length <= 20 && isSortedByZIndex(page));
+
+                            var cursor = random.nextInt(300);
+                            var pageAfter = sut.getWidgetsAfter(20, cursor);
+                            assertTrue("Error", pageAfter.length <= 20 && isSortedByZIndex(pageAfter));
+                            assertTrue("Error", pageAfter.length == 0 || pageAfter[0].getzIndex() > cursor);
+
+                            var filtered = sut.filterAndGetWidgets(40, 40, 30, 30);
+                            assertTrue("Error", isSortedByZIndex(filtered));
+                            for (WidgetDto widget : filtered) {
+                                assertTrue("Error", widget.getX() < 70 && widget.getX() + widget.getWidth() > 40
+                                        && widget.getY() < 70 && widget.getY() + widget.getHeight() > 40);
+                            }
+
+                            var widget = sut.getWidget(pinned.getGuid());
+                            assertTrue("Error", widget.getX() == 50d && widget.getWidth() == 10d);
+                            reads++;
+                        }
+                        return reads;
+                    }));
+                }
+                writer.get();
+                for (var reader : readers) {
+                    reader.get();
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+
+            //Assert
+            var allWidgets = sut.getAllWidgets();
+            var lockedPage = sut.getWidgets(allWidgets.length, 0);
+            assertTrue("Error", allWidgets.length == 201 + 2000);
+            assertTrue("Error", isSortedByZIndex(allWidgets));
+            assertTrue("Error", lockedPage.length == allWidgets.length);
+            for (int i = 0; i < allWidgets.length; i++) {
+                assertTrue("Error", lockedPage[i].getGuid().equals(allWidgets[i].getGuid()));
+                assertTrue("Error", lockedPage[i].getzIndex().equals(allWidgets[i].getzIndex()));
+            }
+        }
+
+        @Test
+        public void should_rerun_reader_under_read_lock_when_optimistic_read_throws() throws Exception {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+            var runs = new AtomicInteger();
+            Supplier<String> tornOnce = () -> {
+                if(runs.incrementAndGet() == 1)
+                    throw new IllegalStateException("Index was modified during the traversal");
+                return "widgets";
+            };
+            Supplier<String> tornAlways = () -> { throw new IllegalStateException("Index was modified during the traversal"); };
+
+            //Act
+            var result = sut.read(tornOnce);
+
+            //Assert
+            assertTrue("Error", "widgets".equals(result) && runs.get() == 2);
+            assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> sut.read(tornAlways));
+        }
+
+        @Test
+        public void should_rerun_reader_under_read_lock_when_writer_intervenes() throws Exception {
+
+            //Arrange
+            var sut = new WidgetServiceImpl();
+            var runs = new AtomicInteger();
+            Supplier<Integer> reader = () -> {
+                if(runs.incrementAndGet() == 1){
+                    var writer = new Thread(() -> sut.createWidget(1,1,1,1, null));
+                    writer.start();
+                    try {
+                        writer.join();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return runs.get();
+            };
+
+            //Act
+            var result = sut.read(reader);
+
+            //Assert
+            assertTrue("Error", result.equals(2) && runs.get() == 2);
+        }
     }
-}
\ No newline at end of file
+}